@@ -0,0 +1,66 @@
+package io.github.leetsong.seh;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public abstract class AbstractSearchProvider implements SearchProvider {
+
+    // question (or answer) links, absolute or relative to stackoverflow.com
+    private static final Pattern QUESTION_LINK_PATTERN =
+            Pattern.compile("^(?:https?://stackoverflow\\.com)?/questions/(\\d+)/([^/?#]+)");
+
+    /**
+     * toQuestionLink converts href to the canonical link of its question,
+     * dropping its query, fragment and answer
+     * @param href href of a result, or a redirect like /url?q=<link>
+     * @return the link like https://stackoverflow.com/questions/<id>/<title>,
+     *         or null if href is not of a question
+     */
+    protected static String toQuestionLink(String href) {
+        if (href.startsWith("/url?")) {
+            href = queryParameterOf(href, "q");
+            if (href == null) {
+                return null;
+            }
+        }
+        Matcher matcher = QUESTION_LINK_PATTERN.matcher(href);
+        if (!matcher.find()) {
+            return null;
+        }
+        return String.format("https://stackoverflow.com/questions/%s/%s", matcher.group(1), matcher.group(2));
+    }
+
+    /**
+     * encode url-encodes query in UTF-8
+     * @param query the query
+     * @return the encoded query
+     */
+    protected static String encode(String query) {
+        try {
+            return URLEncoder.encode(query, StandardCharsets.UTF_8.toString());
+        } catch (UnsupportedEncodingException e) {
+            // ignore, never reach here
+            e.printStackTrace();
+            return query;
+        }
+    }
+
+    private static String queryParameterOf(String href, String name) {
+        int question = href.indexOf('?');
+        for (String parameter : href.substring(question + 1).split("&")) {
+            if (parameter.startsWith(name + "=")) {
+                try {
+                    return URLDecoder.decode(parameter.substring(name.length() + 1),
+                            StandardCharsets.UTF_8.toString());
+                } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+}
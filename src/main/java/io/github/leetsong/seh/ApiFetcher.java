@@ -1,17 +1,24 @@
 package io.github.leetsong.seh;
 
+import io.github.leetsong.seh.ShardDispenser.PageTask;
 import io.github.leetsong.seh.data.stackexchange.ItemContainer;
 import io.github.leetsong.seh.data.stackexchange.SearchItem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import retrofit2.Call;
+import retrofit2.Callback;
 import retrofit2.Response;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ApiFetcher extends Fetcher {
 
@@ -23,24 +30,29 @@ public class ApiFetcher extends Fetcher {
 
     private Logger logger = LoggerFactory.getLogger(ApiFetcher.class);
 
-    private Thread mMonitor;
-    private final Object mMonitorLock = new Object();
-
     private int mNrWorker;
     private ExecutorService mWorkers;
-    private int mNrDiedWorker = 0;
-    private Lock mNrDiedWorkerLock = new ReentrantLock();
-    private int mNrCompletedWorker = 0;
-    private Lock mNrCompletedWorkerLock = new ReentrantLock();
+    // the last exiting worker finishes the fetch
+    private final AtomicInteger mNrRunningWorker = new AtomicInteger(0);
+    private final AtomicInteger mNrDiedWorker = new AtomicInteger(0);
+    private FetchHandle mHandle;
+    private FetchHandle mParentHandle;
 
+    private final String mSite;
     private String[] mTags;
     private String[] mSynonyms;
+    private ShardDispenser mShardDispenser;
+    private PageJournal mJournal;
+    private String mSearchFilter;
+    private QuestionIdSet mQuestionIds;
     private final FetcherConfig mFetcherConfig;
     private final FetcherResult mFetcherResult;
 
     public class Worker implements Runnable {
 
         private int mWorkerId;
+        // set once the items of a page fail to be flushed, possibly by the writer of an AsyncAppender
+        private volatile boolean mIsFlushFailed = false;
 
         public Worker(int workerId) {
             this.mWorkerId = workerId;
@@ -48,139 +60,547 @@ public class ApiFetcher extends Fetcher {
 
         @Override
         public void run() {
-            StackOverflowClient client = StackOverflowClient.getClient();
-            StackOverflowService service = client.getStackOverflowService();
-            Appender appender = AppenderFactory.getAppender(
-                    mFetcherConfig.getApiFetcherWorkerAppenderType(mWorkerId),
-                    mFetcherConfig.getApiFetcherWorkerAppenderPath(mWorkerId));
-
-            int page = mFetcherConfig.getApiFetcherWorkerPage(mWorkerId);
-            int step = mFetcherConfig.getApiFetcherWorkerStep(mWorkerId);
-            String[] tags = new String[mTags.length + mSynonyms.length];
-            System.arraycopy(mTags, 0, tags, 0, mTags.length);
-            System.arraycopy(mSynonyms, 0, tags, mTags.length, mSynonyms.length);
-
-            while (true) {
-                try {
-                    Response<ItemContainer<SearchItem>> response = service.search(page, tags).execute();
-                    if (response.isSuccessful()) {
-                        ItemContainer<SearchItem> result = response.body();
-                        if (result == null) { continue;}
-                        logger.info(String.format("Worker %d, page: %d, item: %d",
-                                mWorkerId, page, result.getItems().size()));
-
-                        // handle result & update mFetchResult
-                        appender.append(result.getItems());
-                        synchronized (mFetcherResult) {
-                            mFetcherResult.nrPage += 1;
-                            mFetcherResult.nrItem += result.getItems().size();
+            Appender<SearchItem> appender = null;
+            PageTask task = null;
+            try {
+                StackOverflowClient client = StackOverflowClient.getClient();
+                StackOverflowService service = newSearchService(client);
+                QuotaRateLimiter rateLimiter = client.getRateLimiter(mSite);
+                // items are written by a writer thread, so that a slow disk does not delay the next request
+                appender = AppenderFactory.getAppender(
+                        mFetcherConfig.getApiFetcherWorkerAppenderType(mWorkerId),
+                        mFetcherConfig.getApiFetcherWorkerAppenderPath(mWorkerId), mQuestionIds,
+                        mFetcherConfig.getAppenderAsync(), mFetcherConfig.getAppenderAsyncCapacity());
+                // synced by the journal once per group of pages
+                mJournal.register(appender);
+
+                String[] tags = allTags();
+
+                while (true) {
+                    try {
+                        if (mHandle.isCancelled()) {
+                            logger.warn(String.format("Worker %d is cancelled", mWorkerId));
+                            die(task, null);
+
+                            // exit
+                            break;
+                        }
+                        if (mIsFlushFailed) {
+                            logger.error(String.format("Worker %d cannot write its output", mWorkerId));
+                            die(task, null);
+
+                            // exit
+                            break;
+                        }
+
+                        // pull the next page, unless we are retrying the current one
+                        if (task == null) {
+                            task = mShardDispenser.acquire(mWorkerId);
+                            if (task == null) {
+                                logger.info(String.format(
+                                        "Worker %d has completed work", mWorkerId));
+
+                                // exit
+                                break;
+                            }
                         }
 
-                        if (!result.isHasMore()) {
-                            logger.info(String.format(
-                                    "Worker %d has completed work", mWorkerId));
-
-                            // save results, next time from page+step
-                            mFetcherConfig.setApiFetcherWorkerId(mWorkerId);
-                            mFetcherConfig.setApiFetcherWorkerPage(mWorkerId, page + step);
-                            mFetcherConfig.setApiFetcherWorkerStep(mWorkerId, step);
-
-                            mNrCompletedWorkerLock.lock();
-                            mNrCompletedWorker += 1;
-                            mNrCompletedWorkerLock.unlock();
-                            // notify mMonitor
-                            synchronized (mMonitorLock) {
-                                mMonitorLock.notify();
+                        // wait until the quota and backoff allow us to send
+                        rateLimiter.acquire(StackOverflowService.METHOD_SEARCH);
+
+                        mHandle.onRequest();
+                        Response<ItemContainer<SearchItem>> response = service.search(task.getPage(),
+                                task.getShard().getFromDate(), task.getShard().getToDate(), tags).execute();
+                        if (response.isSuccessful()) {
+                            ItemContainer<SearchItem> result = response.body();
+                            if (result == null) { continue;}
+                            // a cached response carries a stale quota
+                            if (!HttpCachePolicy.isFromCache(response.raw())) {
+                                rateLimiter.update(StackOverflowService.METHOD_SEARCH, result);
+                            }
+                            logger.info(String.format("Worker %d, %s, item: %d, quota: %d/%d",
+                                    mWorkerId, task, result.getItems().size(),
+                                    result.getQuotaRemaining(), result.getQuotaMax()));
+
+                            // handle result & update mFetchResult, unless another
+                            // worker has completed this page
+                            if (mShardDispenser.complete(task, result.isHasMore())) {
+                                appender.append(result.getItems());
+                                appender.flush(journalOnFlushed(mWorkerId, task, result,
+                                        () -> mIsFlushFailed = true));
+                                synchronized (mFetcherResult) {
+                                    mFetcherResult.nrPage += 1;
+                                    mFetcherResult.nrItem += result.getItems().size();
+                                }
+                                mHandle.onProgress(1, result.getItems().size());
+                            }
+                            task = null;
+                        } else {
+                            mHandle.onError();
+                            ItemContainer<?> error = StackOverflowService.parseError(response);
+                            if (QuotaRateLimiter.isThrottled(response.code(), error)) {
+                                // throttled, pause the workers of this IP and retry this page later
+                                logger.warn(String.format(
+                                        "Worker %d is throttled at %s, retry after the pause",
+                                        mWorkerId, task));
+                                client.onThrottled(rateLimiter, StackOverflowService.METHOD_SEARCH, response, error);
+                                continue;
                             }
 
-                            // close appender
-                            appender.close();
+                            logger.error(String.format(
+                                    "Worker %d has encountered error%s", mWorkerId,
+                                    error != null ? ": " + error.getErrorMessage() : ""));
+                            die(task, response);
 
                             // exit
                             break;
-                        } else {
-                            page += step;
                         }
-                    } else {
+                    } catch (IOException e) {
+                        // network error, try again after a backoff
+                        mHandle.onError();
+                        e.printStackTrace();
+                        rateLimiter.onFailure(StackOverflowService.METHOD_SEARCH);
+                    } catch (InterruptedException e) {
                         logger.error(String.format(
-                                "Worker %d has encountered error", mWorkerId));
-
-                        // save results, next time from page
-                        mFetcherConfig.setApiFetcherWorkerId(mWorkerId);
-                        mFetcherConfig.setApiFetcherWorkerPage(mWorkerId, page);
-                        mFetcherConfig.setApiFetcherWorkerStep(mWorkerId, step);
-
-                        mNrDiedWorkerLock.lock();
-                        mNrDiedWorker++;
-                        mNrDiedWorkerLock.unlock();
-                        synchronized (mFetcherResult) {
-                            mFetcherResult.errorResponses.put(mWorkerId, response);
-                        }
-                        // notify mMonitor
-                        synchronized (mMonitorLock) {
-                            mMonitorLock.notify();
-                        }
+                                "Worker %d is interrupted while waiting for a page or the rate limiter",
+                                mWorkerId));
+                        die(task, null);
 
-                        // close appender
+                        // exit
+                        break;
+                    }
+                }
+            } catch (RuntimeException e) {
+                // a bug rather than an error of the api, the worker cannot go on
+                logger.error(String.format("Worker %d has crashed due to:", mWorkerId));
+                e.printStackTrace();
+                die(task, null);
+            } finally {
+                // close appender
+                if (appender != null) {
+                    mJournal.unregister(appender);
+                    try {
                         appender.close();
+                    } catch (RuntimeException e) {
+                        logger.error(String.format("Worker %d failed to close its appender due to:", mWorkerId));
+                        e.printStackTrace();
+                    }
+                }
 
-                        // exit
+                // counted however it exits, the last one finishes the fetch
+                onWorkerExited();
+            }
+        }
+
+        private void die(PageTask task, Response response) {
+            // hand the page to other workers
+            if (task != null) {
+                mShardDispenser.release(task);
+            }
+
+            mNrDiedWorker.incrementAndGet();
+            if (response != null) {
+                synchronized (mFetcherResult) {
+                    mFetcherResult.errorResponses.put(mWorkerId, response);
+                }
+            }
+        }
+    }
+
+    /**
+     * AsyncWorker is the asynchronous counterpart of Worker, it keeps up to
+     * api_fetcher.async.window requests in flight on a single dispatching
+     * thread via Call.enqueue(). Responses are decoded on OkHttp's threads,
+     * and appended by lanes, one single-threaded lane per worker appender,
+     * so that neither of them waits for the network
+     */
+    public class AsyncWorker implements Runnable {
+
+        // AsyncWorker leases pages from mShardDispenser under this id
+        private static final int ASYNC_WORKER_ID = 0;
+
+        private final Semaphore mWindow;
+        private final int mWindowSize;
+        private final List<Appender<SearchItem>> mAppenders = new ArrayList<>();
+        private final List<Integer> mAppenderWorkerIds = new ArrayList<>();
+        private final List<ExecutorService> mLanes = new ArrayList<>();
+        private volatile Response mErrorResponse = null;
+        // a bug on any of the threads, the worker stops dispatching
+        private volatile RuntimeException mCrash = null;
+        // set once the items of a page fail to be flushed, the worker stops dispatching
+        private volatile boolean mIsFlushFailed = false;
+
+        private QuotaRateLimiter mRateLimiter;
+
+        public AsyncWorker(int windowSize) {
+            this.mWindowSize = windowSize;
+            this.mWindow = new Semaphore(windowSize);
+        }
+
+        @Override
+        public void run() {
+            PageTask task = null;
+            boolean holdsSlot = false;
+            try {
+                StackOverflowClient client = StackOverflowClient.getClient();
+                StackOverflowService service = newSearchService(client);
+                mRateLimiter = client.getRateLimiter(mSite);
+
+                for (int i = mFetcherConfig.apiFetcherWorkerBegin();
+                     i < mFetcherConfig.apiFetcherWorkerEnd();
+                     i += mFetcherConfig.apiFetcherWorkerStep()) {
+                    int workerId = mFetcherConfig.getApiFetcherWorkerId(i);
+                    mAppenders.add(AppenderFactory.getAppender(
+                            mFetcherConfig.getApiFetcherWorkerAppenderType(workerId),
+                            mFetcherConfig.getApiFetcherWorkerAppenderPath(workerId), mQuestionIds));
+                    mAppenderWorkerIds.add(workerId);
+                    mLanes.add(Executors.newSingleThreadExecutor());
+                    mJournal.register(mAppenders.get(mAppenders.size() - 1));
+                }
+
+                String[] tags = allTags();
+
+                while (mErrorResponse == null && mCrash == null && !mIsFlushFailed && !mHandle.isCancelled()) {
+                    // wait until there is room in the window
+                    mWindow.acquire();
+                    holdsSlot = true;
+
+                    task = mShardDispenser.acquire(ASYNC_WORKER_ID);
+                    if (task == null || mErrorResponse != null || mCrash != null || mIsFlushFailed) {
                         break;
                     }
-                } catch (IOException e) {
-                    // network error, try again
+
+                    // wait until the quota and backoff allow us to send
+                    mRateLimiter.acquire(StackOverflowService.METHOD_SEARCH);
+                    mHandle.onRequest();
+                    service.search(task.getPage(), task.getShard().getFromDate(),
+                            task.getShard().getToDate(), tags).enqueue(new PageCallback(task));
+                    task = null;
+                    holdsSlot = false;
+                }
+            } catch (InterruptedException e) {
+                logger.warn("AsyncWorker is interrupted while dispatching");
+            } catch (RuntimeException e) {
+                logger.error("AsyncWorker has crashed while dispatching due to:");
+                e.printStackTrace();
+                mCrash = e;
+            } finally {
+                try {
+                    // give back what is not dispatched
+                    if (task != null) {
+                        mShardDispenser.release(task);
+                    }
+                    if (holdsSlot) {
+                        mWindow.release();
+                    }
+
+                    // wait until all in-flight requests and appends complete
+                    mWindow.acquireUninterruptibly(mWindowSize);
+                } finally {
+                    closeLanes();
+                    finishDispatching();
+                }
+            }
+        }
+
+        private void closeLanes() {
+            for (ExecutorService lane : mLanes) {
+                lane.shutdown();
+            }
+            try {
+                for (ExecutorService lane : mLanes) {
+                    lane.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            for (Appender<SearchItem> appender : mAppenders) {
+                mJournal.unregister(appender);
+                try {
+                    appender.close();
+                } catch (RuntimeException e) {
+                    logger.error("AsyncWorker failed to close an appender due to:");
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private void finishDispatching() {
+            if (mErrorResponse == null && mCrash == null && !mIsFlushFailed && mShardDispenser != null &&
+                    mShardDispenser.isExhausted()) {
+                logger.info("AsyncWorker has completed work");
+            } else {
+                logger.error(mHandle.isCancelled() ? "AsyncWorker is cancelled" :
+                        mIsFlushFailed ? "AsyncWorker cannot write its outputs" : "AsyncWorker has encountered error");
+                mNrDiedWorker.incrementAndGet();
+                if (mErrorResponse != null) {
+                    synchronized (mFetcherResult) {
+                        mFetcherResult.errorResponses.put(ASYNC_WORKER_ID, mErrorResponse);
+                    }
+                }
+            }
+            onWorkerExited();
+        }
+
+        private class PageCallback implements Callback<ItemContainer<SearchItem>> {
+
+            private final PageTask mTask;
+
+            PageCallback(PageTask task) {
+                this.mTask = task;
+            }
+
+            @Override
+            public void onResponse(Call<ItemContainer<SearchItem>> call,
+                                   Response<ItemContainer<SearchItem>> response) {
+                // the window slot is given back exactly once, or handed to a lane
+                boolean holdsSlot = true;
+                try {
+                    if (response.isSuccessful() && response.body() != null) {
+                        ItemContainer<SearchItem> result = response.body();
+                        if (!HttpCachePolicy.isFromCache(response.raw())) {
+                            mRateLimiter.update(StackOverflowService.METHOD_SEARCH, result);
+                        }
+                        logger.info(String.format("AsyncWorker, %s, item: %d, quota: %d/%d",
+                                mTask, result.getItems().size(),
+                                result.getQuotaRemaining(), result.getQuotaMax()));
+
+                        if (!mShardDispenser.complete(mTask, result.isHasMore())) {
+                            return;
+                        }
+
+                        // the window slot is held until the items are appended,
+                        // so that a slow disk bounds the pages held in memory
+                        int lane = mTask.getPage() % mLanes.size();
+                        mLanes.get(lane).execute(() -> append(lane, result));
+                        holdsSlot = false;
+                        return;
+                    }
+
+                    // the page will be dispensed and sent again
+                    mShardDispenser.release(mTask);
+                    mHandle.onError();
+                    ItemContainer<?> error = StackOverflowService.parseError(response);
+                    if (QuotaRateLimiter.isThrottled(response.code(), error)) {
+                        logger.warn(String.format(
+                                "AsyncWorker is throttled at %s, retry after the pause", mTask));
+                        StackOverflowClient.getClient().onThrottled(
+                                mRateLimiter, StackOverflowService.METHOD_SEARCH, response, error);
+                    } else if (!response.isSuccessful()) {
+                        logger.error(String.format("AsyncWorker has encountered error at %s%s", mTask,
+                                error != null ? ": " + error.getErrorMessage() : ""));
+                        mErrorResponse = response;
+                    }
+                } catch (RuntimeException e) {
+                    logger.error(String.format("AsyncWorker has crashed at %s due to:", mTask));
+                    e.printStackTrace();
+                    mShardDispenser.release(mTask);
+                    mCrash = e;
+                } finally {
+                    if (holdsSlot) {
+                        mWindow.release();
+                    }
+                }
+            }
+
+            private void append(int lane, ItemContainer<SearchItem> result) {
+                try {
+                    mAppenders.get(lane).append(result.getItems());
+                    mAppenders.get(lane).flush(journalOnFlushed(
+                            mAppenderWorkerIds.get(lane), mTask, result, () -> mIsFlushFailed = true));
+                    synchronized (mFetcherResult) {
+                        mFetcherResult.nrPage += 1;
+                        mFetcherResult.nrItem += result.getItems().size();
+                    }
+                    mHandle.onProgress(1, result.getItems().size());
+                } catch (RuntimeException e) {
+                    logger.error(String.format("AsyncWorker has crashed appending %s due to:", mTask));
                     e.printStackTrace();
+                    mCrash = e;
+                } finally {
+                    mWindow.release();
+                }
+            }
+
+            @Override
+            public void onFailure(Call<ItemContainer<SearchItem>> call, Throwable t) {
+                // network error, the page will be dispensed and sent again after a backoff
+                logger.error(String.format("AsyncWorker failed to fetch %s, try again", mTask));
+                t.printStackTrace();
+                try {
+                    mHandle.onError();
+                    mRateLimiter.onFailure(StackOverflowService.METHOD_SEARCH);
+                    mShardDispenser.release(mTask);
+                } finally {
+                    mWindow.release();
                 }
             }
         }
     }
 
     public ApiFetcher(String[] tags) {
+        this(StackOverflowService.SITE, tags);
+    }
+
+    public ApiFetcher(String site, String[] tags) {
+        this.mSite = site;
         this.mTags = tags;
         this.mSynonyms = new String[0];
-        this.mFetcherConfig = new FetcherConfig(FetcherConfig.convert2ConfigFileName(tags));
+        this.mFetcherConfig = new FetcherConfig(FetcherConfig.convert2ConfigFileName(site, tags), site);
         this.mFetcherResult = new FetcherResult();
     }
 
-    @Override
-    public void fetch() {
-        // try restart
-        if (tryRestart()) {
-            logger.info("ApiFetcher restarted from last state");
-        } else {
-            logger.info("ApiFetcher started from scratch");
-        }
-
-        // start monitor to monitor workers
-        startMonitor();
+    public String getSite() {
+        return mSite;
+    }
 
-        // fill synonyms
-        mSynonyms = fillSynonyms();
+    /**
+     * getCsvOutputs gets the paths of the csv outputs of workers, it is valid
+     * once the fetch is started
+     * @return paths of the csv outputs
+     */
+    public List<String> getCsvOutputs() {
+        return getOutputs(false);
+    }
 
-        // create worker pool
-        mWorkers = Executors.newFixedThreadPool(mNrWorker);
+    /**
+     * getOutputs gets the paths of the outputs of workers which are files,
+     * i.e., the csv outputs and the columnar ones, it is valid once the
+     * fetch is started
+     * @return paths of the outputs
+     */
+    public List<String> getOutputs() {
+        return getOutputs(true);
+    }
 
-        // workers should be iterated by apiFetcherWorkerBegin, apiFetcherWorkerStep and apiFetcherWorkerEnd
+    private List<String> getOutputs(boolean withColumnar) {
+        List<String> outputs = new ArrayList<>();
         for (int i = mFetcherConfig.apiFetcherWorkerBegin();
              i < mFetcherConfig.apiFetcherWorkerEnd();
              i += mFetcherConfig.apiFetcherWorkerStep()) {
-            mWorkers.submit(new Worker(mFetcherConfig.getApiFetcherWorkerId(i)));
+            int workerId = mFetcherConfig.getApiFetcherWorkerId(i);
+            Class<? extends Appender> appenderType =
+                    AppenderFactory.getAppenderType(mFetcherConfig.getApiFetcherWorkerAppenderType(workerId));
+            String path = mFetcherConfig.getApiFetcherWorkerAppenderPath(workerId);
+            boolean isOutput = appenderType == CsvAppender.class || appenderType == SharedCsvAppender.class ||
+                    (withColumnar && appenderType == ColumnarAppender.class);
+            // workers may share an output
+            if (isOutput && !outputs.contains(path)) {
+                outputs.add(path);
+            }
         }
+        return outputs;
+    }
 
+    /**
+     * setParentHandle makes the handle of the fetch count to parent as well
+     * @param parent the aggregating handle
+     */
+    void setParentHandle(FetchHandle parent) {
+        this.mParentHandle = parent;
+    }
+
+    @Override
+    public FetchHandle fetchAsync() {
+        StackOverflowClient client = StackOverflowClient.getClient();
+        mHandle = new FetchHandle(() -> client.getNrByteReceived(mSite), mParentHandle);
+        new Thread(this::start, "ApiFetcher-starter").start();
+        return mHandle;
+    }
+
+    private void start() {
         try {
-            // wait until monitor stops
-            mMonitor.join();
-        } catch (InterruptedException e) {
+            // try restart
+            if (tryRestart()) {
+                logger.info("ApiFetcher restarted from last state");
+            } else {
+                logger.info("ApiFetcher started from scratch");
+            }
+            initOutputOffsets();
+            checkSharedOutput();
+
+            // open connections before the crawl starts
+            StackOverflowClient.getClient().warmUp();
+
+            // fill synonyms
+            mSynonyms = fillSiteSynonyms(mSite);
+
+            // only ask for the fields we write out
+            mSearchFilter = StackOverflowClient.getClient().getFilterRegistry()
+                    .getFilter(mFetcherConfig.getApiFetcherFilter());
+
+            // split the query into shards if asked to
+            try {
+                shardIfNecessary();
+            } catch (IOException | InterruptedException e) {
+                logger.error("Failed to shard the query");
+                mHandle.complete(e);
+                return;
+            }
+
+            // recover pages journaled since the last snapshot
+            try {
+                recover();
+            } catch (IOException e) {
+                logger.error("Failed to recover from the journal");
+                mHandle.complete(e);
+                return;
+            }
+            mShardDispenser = createShardDispenser();
+
+            if (FetcherConfig.API_FETCHER_MODE_ASYNC.equals(mFetcherConfig.getApiFetcherMode())) {
+                // a single AsyncWorker dispatches all requests
+                mNrRunningWorker.set(1);
+                mWorkers = Executors.newSingleThreadExecutor();
+                mWorkers.submit(new AsyncWorker(mFetcherConfig.getApiFetcherAsyncWindow()));
+            } else {
+                // create worker pool
+                List<Worker> workers = new ArrayList<>();
+                mWorkers = WorkerExecutors.newExecutor(mFetcherConfig.getExecutor(), mNrWorker);
+
+                // workers should be iterated by apiFetcherWorkerBegin, apiFetcherWorkerStep and apiFetcherWorkerEnd
+                for (int i = mFetcherConfig.apiFetcherWorkerBegin();
+                     i < mFetcherConfig.apiFetcherWorkerEnd();
+                     i += mFetcherConfig.apiFetcherWorkerStep()) {
+                    workers.add(new Worker(mFetcherConfig.getApiFetcherWorkerId(i)));
+                }
+                mNrRunningWorker.set(workers.size());
+                for (Worker worker : workers) {
+                    mWorkers.submit(worker);
+                }
+            }
+
+            // workers check the cancellation by themselves, wake up the blocked ones
+            mHandle.setOnCancel(() -> mWorkers.shutdownNow());
+        } catch (RuntimeException e) {
+            // otherwise no worker is started, and nothing completes the handle
+            logger.error("ApiFetcher failed to start due to:");
             e.printStackTrace();
+            if (mWorkers != null) {
+                mWorkers.shutdownNow();
+            }
+            if (mJournal != null) {
+                try {
+                    mJournal.close();
+                } catch (IOException ioe) {
+                    ioe.printStackTrace();
+                }
+            }
+            mHandle.complete(e);
         }
     }
 
+    private StackOverflowService newSearchService(StackOverflowClient client) {
+        StackOverflowService service = client.getStackOverflowService(mSite);
+        service.setPageSize(mFetcherConfig.getApiFetcherPageSize());
+        service.setFilter(mSearchFilter);
+        return service;
+    }
+
     private boolean tryRestart() {
         try {
             // start according to the configuration files
             mFetcherConfig.load();
-            mFetcherResult.nrPage = mFetcherConfig.getApiFetcherResultNrPage();
-            mFetcherResult.nrItem = mFetcherConfig.getApiFetcherResultNrItem();
             return true;
         } catch (FileNotFoundException e) {
             // do not need to restart, start from scratch
@@ -196,55 +616,333 @@ public class ApiFetcher extends Fetcher {
         }
     }
 
-    private void startMonitor() {
-        mMonitor = new Thread(() -> {
+    /**
+     * checkSharedOutput rejects a shared output which cannot be recovered,
+     * i.e., a compressed one, since SharedCsvAppender writes plain csv, or
+     * one without dedup, since it is truncated to the last page journaled
+     * by any worker, which leaves the pages of the others written but not
+     * journaled, and they are fetched and appended again unless skipped
+     * @throws IllegalArgumentException if it cannot be recovered
+     */
+    private void checkSharedOutput() {
+        String sharedPath = mFetcherConfig.getApiFetcherAppenderSharedPath();
+        if (sharedPath.isEmpty()) {
+            return;
+        }
+        if (CompressedFiles.isCompressed(sharedPath)) {
+            throw new IllegalArgumentException(String.format(
+                    "Shared output %s cannot be compressed, remove its %s suffix",
+                    sharedPath, CompressedFiles.GZIP_SUFFIX));
+        }
+        if (!mFetcherConfig.getDedupEnabled()) {
+            throw new IllegalArgumentException(String.format(
+                    "Shared output %s requires global.dedup.enabled, otherwise pages are duplicated on recovery",
+                    sharedPath));
+        }
+    }
+
+    /**
+     * initOutputOffsets sets the offset of each output which has none, i.e.,
+     * of a fetch started from scratch, or restarted from a configuration
+     * stored before offsets, to its current length, so that what is already
+     * there, e.g., written by a run of another configuration, is kept, while
+     * what this run writes but does not journal is truncated on recovery
+     */
+    private void initOutputOffsets() {
+        for (int i = mFetcherConfig.apiFetcherWorkerBegin();
+             i < mFetcherConfig.apiFetcherWorkerEnd();
+             i += mFetcherConfig.apiFetcherWorkerStep()) {
+            int workerId = mFetcherConfig.getApiFetcherWorkerId(i);
+            if (mFetcherConfig.getApiFetcherWorkerAppenderOffset(workerId) >= 0) {
+                continue;
+            }
+            File output = new File(mFetcherConfig.getApiFetcherWorkerAppenderPath(workerId));
+            mFetcherConfig.setApiFetcherWorkerAppenderOffset(workerId, output.exists() ? output.length() : 0);
+        }
+    }
+
+    /**
+     * recover replays the journal into the snapshot, truncates the partial
+     * records of the outputs, and opens a new journal. Since the snapshot
+     * is the initial one if it has never been stored, a crash of the very
+     * first run is recovered as well
+     */
+    private void recover() throws IOException {
+        List<PageJournal.Record> records = PageJournal.replay(mFetcherConfig.getJournalFileName());
+        applyJournalRecords(records);
+
+        // outputs after the last journaled page are partial or not journaled, an
+        // output shared by workers is truncated to the last page of any of them
+        Map<String, Long> offsets = new LinkedHashMap<>();
+        for (int i = mFetcherConfig.apiFetcherWorkerBegin();
+             i < mFetcherConfig.apiFetcherWorkerEnd();
+             i += mFetcherConfig.apiFetcherWorkerStep()) {
+            int workerId = mFetcherConfig.getApiFetcherWorkerId(i);
+            offsets.merge(mFetcherConfig.getApiFetcherWorkerAppenderPath(workerId),
+                    mFetcherConfig.getApiFetcherWorkerAppenderOffset(workerId), Math::max);
+        }
+        for (Map.Entry<String, Long> offset : offsets.entrySet()) {
+            PageJournal.truncate(offset.getKey(), offset.getValue());
+        }
+
+        // outputs written by earlier versions are migrated to iso dates before
+        // any row is appended, and their offsets are moved to the migrated ends
+        for (int i = mFetcherConfig.apiFetcherWorkerBegin();
+             i < mFetcherConfig.apiFetcherWorkerEnd();
+             i += mFetcherConfig.apiFetcherWorkerStep()) {
+            int workerId = mFetcherConfig.getApiFetcherWorkerId(i);
+            String path = mFetcherConfig.getApiFetcherWorkerAppenderPath(workerId);
+            if (AppenderFactory.getAppenderType(mFetcherConfig.getApiFetcherWorkerAppenderType(workerId))
+                    == CsvAppender.class && CsvAppender.migrate(path)) {
+                mFetcherConfig.setApiFetcherWorkerAppenderOffset(workerId, new File(path).length());
+            }
+        }
+
+        // questions in the (truncated) outputs are not appended again
+        mQuestionIds = loadQuestionIds(mFetcherConfig, getOutputs());
+
+        mFetcherConfig.store();
+        mFetcherResult.nrPage = mFetcherConfig.getApiFetcherResultNrPage();
+        mFetcherResult.nrItem = mFetcherConfig.getApiFetcherResultNrItem();
+
+        mJournal = new PageJournal(mFetcherConfig.getJournalFileName(), compacted -> {
+            applyJournalRecords(compacted);
+            mFetcherConfig.store();
+        });
+    }
+
+    /**
+     * applyJournalRecords merges records into the snapshot. It is idempotent,
+     * records of pages which are completed in the snapshot are skipped, since
+     * they are merged by a snapshot stored before the journal was emptied,
+     * e.g., it crashed in between
+     * @param records records of the journal
+     */
+    private void applyJournalRecords(List<PageJournal.Record> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+
+        Map<Integer, PageDispenser> snapshots = new HashMap<>();
+        Map<Integer, Set<Integer>> pages = new HashMap<>();
+        Map<Integer, Integer> endPages = new HashMap<>();
+        // the last page known to have more, which extends an estimated end page
+        Map<Integer, Integer> morePages = new HashMap<>();
+        int nrPage = 0;
+        int nrItem = 0;
+        for (PageJournal.Record record : records) {
+            PageDispenser snapshot = snapshots.computeIfAbsent(record.shard, this::loadPageDispenser);
+            if (snapshot.isCompleted(record.page) ||
+                    !pages.computeIfAbsent(record.shard, k -> new HashSet<>()).add(record.page)) {
+                continue;
+            }
+            if (!record.hasMore) {
+                endPages.merge(record.shard, record.page + 1, Math::min);
+            } else {
+                morePages.merge(record.shard, record.page, Math::max);
+            }
+            mFetcherConfig.setApiFetcherWorkerAppenderOffset(record.workerId, Math.max(record.offset,
+                    mFetcherConfig.getApiFetcherWorkerAppenderOffset(record.workerId)));
+            nrPage += 1;
+            nrItem += record.nrItem;
+        }
+
+        for (Map.Entry<Integer, Set<Integer>> entry : pages.entrySet()) {
+            int shard = entry.getKey();
+            PageDispenser snapshot = snapshots.get(shard);
+            List<Integer> completed = snapshot.getCompleted();
+            completed.addAll(entry.getValue());
+            int endPage = snapshot.getEndPage();
+            if (endPage != Integer.MAX_VALUE && morePages.containsKey(shard)) {
+                endPage = Math.max(endPage, morePages.get(shard) + 2);
+            }
+            savePageDispenser(shard, new PageDispenser(snapshot.getWatermark(), completed,
+                    Math.min(endPage, endPages.getOrDefault(shard, Integer.MAX_VALUE))));
+        }
+        mFetcherConfig.setApiFetcherResultNrPage(mFetcherConfig.getApiFetcherResultNrPage() + nrPage);
+        mFetcherConfig.setApiFetcherResultNrItem(mFetcherConfig.getApiFetcherResultNrItem() + nrItem);
+    }
+
+    /**
+     * journalOnFlushed journals the page of task once its items are flushed.
+     * If they fail to be flushed, the page is not journaled, but reopened,
+     * so that it is fetched again, and onFailed is called to stop the worker
+     * @param workerId id of the worker whose output the items are flushed to
+     * @param task     the page
+     * @param result   the items of the page
+     * @param onFailed called if the items fail to be flushed
+     * @return the listener
+     */
+    private Appender.OnFlushedListener journalOnFlushed(int workerId, PageTask task, ItemContainer<?> result,
+                                                        Runnable onFailed) {
+        return offset -> {
+            if (offset < 0) {
+                logger.error(String.format("Worker %d failed to flush %s, it will be fetched again",
+                        workerId, task));
+                mShardDispenser.reopen(task);
+                synchronized (mFetcherResult) {
+                    mFetcherResult.nrPage -= 1;
+                    mFetcherResult.nrItem -= result.getItems().size();
+                }
+                onFailed.run();
+                return;
+            }
+            mJournal.record(new PageJournal.Record(task.getShardIndex(), task.getPage(),
+                    workerId, result.getItems().size(), result.isHasMore(), offset));
+        };
+    }
+
+    private PageDispenser loadPageDispenser(int shard) {
+        // not sharded, a single shard without date bounds
+        if (!mFetcherConfig.getApiFetcherShardEnabled()) {
+            return new PageDispenser(
+                    mFetcherConfig.getApiFetcherDispenserWatermark(),
+                    mFetcherConfig.getApiFetcherDispenserCompleted(),
+                    mFetcherConfig.getApiFetcherDispenserEndPage());
+        }
+        return new PageDispenser(
+                mFetcherConfig.getApiFetcherShardWatermark(shard),
+                mFetcherConfig.getApiFetcherShardCompleted(shard),
+                mFetcherConfig.getApiFetcherShardEndPage(shard));
+    }
+
+    private void savePageDispenser(int shard, PageDispenser dispenser) {
+        if (!mFetcherConfig.getApiFetcherShardEnabled()) {
+            mFetcherConfig.setApiFetcherDispenserWatermark(dispenser.getWatermark());
+            mFetcherConfig.setApiFetcherDispenserCompleted(dispenser.getCompleted());
+            mFetcherConfig.setApiFetcherDispenserEndPage(dispenser.getEndPage());
+        } else {
+            mFetcherConfig.setApiFetcherShardWatermark(shard, dispenser.getWatermark());
+            mFetcherConfig.setApiFetcherShardCompleted(shard, dispenser.getCompleted());
+            mFetcherConfig.setApiFetcherShardEndPage(shard, dispenser.getEndPage());
+        }
+    }
+
+    private void shardIfNecessary() throws IOException, InterruptedException {
+        // shards are computed only once, restarts reuse them
+        if (mFetcherConfig.getApiFetcherShardEnabled() && mFetcherConfig.getApiFetcherShardNrShard() == 0) {
+            StackOverflowClient client = StackOverflowClient.getClient();
+            ExecutorService probers = WorkerExecutors.newExecutor(mFetcherConfig.getExecutor(), mNrWorker);
             try {
-                long startTime = System.currentTimeMillis();
-                do {
-                    // wait until others notify
-                    synchronized (mMonitorLock) {
-                        mMonitorLock.wait();
-                    }
+                DateSharder sharder = new DateSharder(newSearchService(client), client.getRateLimiter(mSite),
+                        client.getFilterRegistry().getFilter(FilterRegistry.FILTER_COUNT), allTags(),
+                        mFetcherConfig.getApiFetcherShardMaxItems(), probers);
+                List<DateSharder.Window> windows = sharder.shard(
+                        mFetcherConfig.getApiFetcherShardFromDate(), System.currentTimeMillis() / 1000);
+                int pageSize = mFetcherConfig.getApiFetcherPageSize();
+                for (int i = 0; i < windows.size(); i ++) {
+                    DateSharder.Window window = windows.get(i);
+                    mFetcherConfig.setApiFetcherShardDates(i, window.fromDate, window.toDate);
+                    // pages are 1-based, and the first one is always fetched, in case the count is stale
+                    int nrPage = Math.max(1, (window.count + pageSize - 1) / pageSize);
+                    mFetcherConfig.setApiFetcherShardEndPage(i, nrPage + 1);
+                }
+                mFetcherConfig.setApiFetcherShardNrShard(windows.size());
+                mFetcherConfig.store();
+                logger.info(String.format("The query is split into %d shards", windows.size()));
+            } finally {
+                probers.shutdownNow();
+            }
+        }
+    }
 
-                    if (mNrCompletedWorker + mNrDiedWorker == mFetcherConfig.getNrWorker()) {
-                        long endTime = System.currentTimeMillis();
+    private ShardDispenser createShardDispenser() {
+        List<ShardDispenser.Shard> shards = new ArrayList<>();
 
-                        // shutdown all workers
-                        mWorkers.shutdownNow();
+        // not sharded, a single shard without date bounds
+        if (!mFetcherConfig.getApiFetcherShardEnabled()) {
+            shards.add(new ShardDispenser.Shard(null, null, loadPageDispenser(0)));
+            return new ShardDispenser(shards);
+        }
 
-                        // save to configurations
-                        mFetcherConfig.setApiFetcherResultNrPage(mFetcherResult.nrPage);
-                        mFetcherConfig.setApiFetcherResultNrItem(mFetcherResult.nrItem);
-                        mFetcherConfig.store();
+        for (int i = 0; i < mFetcherConfig.getApiFetcherShardNrShard(); i ++) {
+            shards.add(new ShardDispenser.Shard(
+                    mFetcherConfig.getApiFetcherShardFromDate(i),
+                    mFetcherConfig.getApiFetcherShardToDate(i),
+                    loadPageDispenser(i)));
+        }
+        return new ShardDispenser(shards);
+    }
 
-                        // output result
-                        if (mNrDiedWorker == 0) {
-                            logger.info("Succeeded, the results:");
-                            logger.info("  - used time: " + Utility.timeInterval(startTime, endTime));
-                            logger.info("  - total pages: " + mFetcherResult.nrPage);
-                            logger.info("  - total items: " + mFetcherResult.nrItem);
-                        } else {
-                            logger.error("Failed, the results:");
-                            logger.error("  - used time: " + Utility.timeInterval(startTime, endTime));
-                            logger.error("  - total pages: " + mFetcherResult.nrPage);
-                            logger.error("  - total items: " + mFetcherResult.nrItem);
-                            for (Map.Entry<Integer, Response> entry : mFetcherResult.errorResponses.entrySet()) {
-                                logger.error("  - worker: " + entry.getKey());
-                                logger.error("    - code: " + entry.getValue().code());
-                                logger.error("    - message: " + entry.getValue().message());
-                                logger.error("    - toString: " + entry.getValue().toString());
-                            }
-                        }
+    private void saveShardDispenser() {
+        List<ShardDispenser.Shard> shards = mShardDispenser.getShards();
+        for (int i = 0; i < shards.size(); i ++) {
+            savePageDispenser(i, shards.get(i).getPageDispenser());
+        }
+    }
 
-                        // exit
-                        break;
-                    }
-                } while (true);
-            } catch (Exception e) {
-                e.printStackTrace();
+    private String[] allTags() {
+        String[] tags = new String[mTags.length + mSynonyms.length];
+        System.arraycopy(mTags, 0, tags, 0, mTags.length);
+        System.arraycopy(mSynonyms, 0, tags, mTags.length, mSynonyms.length);
+        return tags;
+    }
+
+    private void onWorkerExited() {
+        if (mNrRunningWorker.decrementAndGet() == 0) {
+            // the exiting worker may have been interrupted by cancellation,
+            // clear it, so that the state can be saved on this thread
+            Thread.interrupted();
+            finish();
+        }
+    }
+
+    private void finish() {
+        long endTime = System.currentTimeMillis();
+
+        // all workers have exited
+        mWorkers.shutdown();
+
+        // merge the journal, and save to configurations
+        try {
+            mJournal.close();
+        } catch (IOException e) {
+            logger.error("Failed to compact the journal, it will be replayed next time");
+            e.printStackTrace();
+        }
+        saveShardDispenser();
+        mFetcherConfig.setApiFetcherResultNrPage(mFetcherResult.nrPage);
+        mFetcherConfig.setApiFetcherResultNrItem(mFetcherResult.nrItem);
+        try {
+            mFetcherConfig.store();
+        } catch (IOException e) {
+            logger.error("Failed to store the properties due to:");
+            e.printStackTrace();
+        }
+        saveQuestionIds(mFetcherConfig, mQuestionIds);
+
+        // output result
+        if (mNrDiedWorker.get() == 0) {
+            logger.info(String.format("Succeeded on %s, the results:", mSite));
+            logger.info("  - used time: " + Utility.timeInterval(mHandle.getStartTime(), endTime));
+            logger.info("  - total pages: " + mFetcherResult.nrPage);
+            logger.info("  - total items: " + mFetcherResult.nrItem);
+            if (mQuestionIds != null) {
+                logger.info("  - duplicate items: " + mQuestionIds.getNrDuplicate());
             }
-        });
-        mMonitor.start();
+            logger.info("  - this time: " + mHandle);
+            mHandle.complete(null);
+        } else if (mHandle.isCancelled()) {
+            logger.warn(String.format("Cancelled on %s, the results:", mSite));
+            logger.warn("  - used time: " + Utility.timeInterval(mHandle.getStartTime(), endTime));
+            logger.warn("  - total pages: " + mFetcherResult.nrPage);
+            logger.warn("  - total items: " + mFetcherResult.nrItem);
+            logger.warn("  - this time: " + mHandle);
+            mHandle.complete(null);
+        } else {
+            logger.error(String.format("Failed on %s, the results:", mSite));
+            logger.error("  - used time: " + Utility.timeInterval(mHandle.getStartTime(), endTime));
+            logger.error("  - total pages: " + mFetcherResult.nrPage);
+            logger.error("  - total items: " + mFetcherResult.nrItem);
+            logger.error("  - this time: " + mHandle);
+            for (Map.Entry<Integer, Response> entry : mFetcherResult.errorResponses.entrySet()) {
+                logger.error("  - worker: " + entry.getKey());
+                logger.error("    - code: " + entry.getValue().code());
+                logger.error("    - message: " + entry.getValue().message());
+                logger.error("    - toString: " + entry.getValue().toString());
+            }
+            mHandle.complete(new IOException(String.format("%d workers died", mNrDiedWorker.get())));
+        }
     }
 
     public static void main(String[] args) {
@@ -11,17 +11,45 @@ import java.util.List;
  *  2. have a public static method typed `Appender newInstance(String)' as a constructor
  *  3. have a field called path to indicate the path of this appender
  *  4. implement the interface methods, i.e., `append' to handle the List<\? extends AppendableItem>
+ *  5. optionally override `flush' and `sync', if it writes to a file, so that
+ *     its output can be checkpointed and truncated to the last flushed offset
  */
 public interface Appender<T extends AppendableItem> {
 
     String NEW_INSTANCE_METHOD_NAME = "newInstance";
 
+    interface OnFlushedListener {
+        /**
+         * onFlushed is called once the appended items are flushed
+         * @param offset size of the output after the flushed items, 0 if it
+         *               is not a file, or -1 if they failed to be flushed
+         */
+        void onFlushed(long offset);
+    }
+
     /**
      * append handles the List<\? extends AppendableItem>
      * @param items
      */
     void append(List<T> items);
 
+    /**
+     * flush flushes the appended items out of the process, and tells l the
+     * size of the output after them. An appender which syncs its output may
+     * defer both to the next sync
+     * @param l listener to be called once flushed
+     */
+    default void flush(OnFlushedListener l) {
+        l.onFlushed(0);
+    }
+
+    /**
+     * sync makes the flushed items durable, and calls the listeners whose
+     * flushes are deferred until then, with the size of the output after
+     * all of them, so that a group of flushes is synced at once
+     */
+    default void sync() {}
+
     /**
      * close closes this appender
      */
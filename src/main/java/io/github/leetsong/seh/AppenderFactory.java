@@ -1,11 +1,17 @@
 package io.github.leetsong.seh;
 
+import io.github.leetsong.seh.data.stackexchange.AppendableItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.lang.reflect.InvocationTargetException;
 import java.util.HashMap;
 import java.util.Map;
 
 public class AppenderFactory {
 
+    private static Logger logger = LoggerFactory.getLogger(AppenderFactory.class);
+
     // appender map
     private static final
     Map<String, Class<? extends Appender>> mAppenderMap = new HashMap<>();
@@ -26,22 +32,48 @@ public class AppenderFactory {
         if (!isInitialized) {
             registerAppender(StdAppender.APPENDER_TYPE, StdAppender.class);
             registerAppender(CsvAppender.APPENDER_TYPE, CsvAppender.class);
+            registerAppender(ColumnarAppender.APPENDER_TYPE, ColumnarAppender.class);
+            registerAppender(SharedCsvAppender.APPENDER_TYPE, SharedCsvAppender.class);
             isInitialized = true;
         }
     }
 
+    /**
+     * getAppenderType gets the appender class of type, a type may end with
+     * CompressedFiles.GZIP_SUFFIX, e.g., csv.gz, which is the same appender
+     * writing a compressed file, see getAppenderPath
+     */
     public static Class<? extends Appender> getAppenderType(String type) {
+        if (type != null && CompressedFiles.isCompressed(type)) {
+            type = type.substring(0, type.length() - CompressedFiles.GZIP_SUFFIX.length());
+        }
         Class<? extends Appender> appenderType = mAppenderMap.get(type);
         return (appenderType == null) ? StdAppender.class : appenderType;
     }
 
-    public static Appender
+    /**
+     * getAppenderPath gets the path an appender of type writes to, i.e.,
+     * appenderPath, with CompressedFiles.GZIP_SUFFIX appended if type is a
+     * compressed type, so that the output is compressed either if its type
+     * or its path ends with the suffix
+     */
+    public static String getAppenderPath(String type, String appenderPath) {
+        if (type != null && appenderPath != null &&
+                CompressedFiles.isCompressed(type) && !CompressedFiles.isCompressed(appenderPath)) {
+            return appenderPath + CompressedFiles.GZIP_SUFFIX;
+        }
+        return appenderPath;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T extends AppendableItem> Appender<T>
     getAppender(String type, String appenderPath) {
         Class<? extends Appender> appenderType = getAppenderType(type);
-        Appender appender;
+        appenderPath = getAppenderPath(type, appenderPath);
+        Appender<T> appender;
 
         try {
-            appender = (Appender) appenderType.getMethod(Appender.NEW_INSTANCE_METHOD_NAME, String.class)
+            appender = (Appender<T>) appenderType.getMethod(Appender.NEW_INSTANCE_METHOD_NAME, String.class)
                     .invoke(appenderType, appenderPath);
         } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
             e.printStackTrace();
@@ -50,4 +82,39 @@ public class AppenderFactory {
 
         return appender;
     }
+
+    /**
+     * getAppender gets an appender of type, which drops the items already in
+     * questionIds, if questionIds is not null
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends AppendableItem> Appender<T>
+    getAppender(String type, String appenderPath, QuestionIdSet questionIds) {
+        Appender appender = getAppender(type, appenderPath);
+        if (appender == null || questionIds == null) {
+            return appender;
+        }
+        return (Appender<T>) new DedupAppender(appenderPath, appender, questionIds);
+    }
+
+    /**
+     * getAppender gets an appender as the one above, whose appends and
+     * flushes are run by a writer thread of its own, unless asyncPolicy is
+     * AsyncAppender.POLICY_NONE
+     * @param asyncPolicy   AsyncAppender.POLICY_NONE or POLICY_BLOCK
+     * @param asyncCapacity max batches queued
+     */
+    public static <T extends AppendableItem> Appender<T>
+    getAppender(String type, String appenderPath, QuestionIdSet questionIds,
+                String asyncPolicy, int asyncCapacity) {
+        Appender<T> appender = getAppender(type, appenderPath, questionIds);
+        if (appender == null || asyncPolicy == null || AsyncAppender.POLICY_NONE.equals(asyncPolicy)) {
+            return appender;
+        }
+        if (!AsyncAppender.POLICY_BLOCK.equals(asyncPolicy)) {
+            logger.warn(String.format("Async policy %s is not supported, %s is used",
+                    asyncPolicy, AsyncAppender.POLICY_BLOCK));
+        }
+        return new AsyncAppender<>(appenderPath, appender, asyncCapacity);
+    }
 }
@@ -0,0 +1,210 @@
+package io.github.leetsong.seh;
+
+import io.github.leetsong.seh.data.stackexchange.AppendableItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AsyncAppender is put in front of another appender, and moves its appends
+ * and flushes to a dedicated writer thread, so that the thread appending,
+ * e.g., a network worker, never waits for the disk. Appends and flushes are
+ * run in the order they are made, and at most capacity appended batches
+ * are queued. Once the queue is full, an append blocks until the writer
+ * takes a batch, i.e., backpressure. Batches are never dropped, since what
+ * they are of, e.g., a page, is already completed by the caller, and would
+ * never be fetched again. A batch which fails to be appended fails the
+ * next flush, i.e., of the same page, which reports -1. close() waits
+ * until all queued batches are appended and flushed, and closes the appender. Like DedupAppender, it is not registered in
+ * AppenderFactory by its type, but wrapped around the appender by
+ * AppenderFactory.getAppender
+ */
+public class AsyncAppender<T extends AppendableItem> extends AbstractAppender<T> {
+
+    private static Logger logger = LoggerFactory.getLogger(AsyncAppender.class);
+
+    public static final String POLICY_NONE = "none";
+    public static final String POLICY_BLOCK = "block";
+
+    // an append of items, or a flush with l, or a sync, or a close if none of them
+    private class Op {
+        final List<T> items;
+        final OnFlushedListener l;
+        final boolean sync;
+
+        Op(List<T> items, OnFlushedListener l) {
+            this(items, l, false);
+        }
+
+        Op(List<T> items, OnFlushedListener l, boolean sync) {
+            this.items = items;
+            this.l = l;
+            this.sync = sync;
+        }
+    }
+
+    private final Appender<T> mAppender;
+    // ops are unbounded, while appended batches are bounded by permits
+    private final BlockingQueue<Op> mOps = new LinkedBlockingQueue<>();
+    private final Semaphore mPermits;
+    private final Thread mWriter;
+
+    private final AtomicInteger mQueueDepth = new AtomicInteger(0);
+    private final AtomicInteger mMaxQueueDepth = new AtomicInteger(0);
+    private final AtomicLong mNrBlocked = new AtomicLong(0);
+    private volatile boolean mIsClosed = false;
+    // set once a batch fails to be appended, until the next flush, only touched by the writer
+    private boolean mIsAppendFailed = false;
+
+    /**
+     * AsyncAppender wraps appender
+     * @param path     path of appender
+     * @param appender the appender
+     * @param capacity max batches queued
+     */
+    public AsyncAppender(String path, Appender<T> appender, int capacity) {
+        super(path);
+        this.mAppender = appender;
+        this.mPermits = new Semaphore(Math.max(1, capacity));
+        this.mWriter = new Thread(this::write, "AsyncAppender-" + path);
+        this.mWriter.setDaemon(true);
+        this.mWriter.start();
+    }
+
+    @Override
+    public void append(List<T> items) {
+        if (mIsClosed) {
+            throw new IllegalStateException("AsyncAppender of " + mPath + " is closed");
+        }
+        synchronized (this) {
+            if (!mPermits.tryAcquire()) {
+                // the disk is slower than the network, wait for the writer
+                mNrBlocked.incrementAndGet();
+                mPermits.acquireUninterruptibly();
+            }
+            int depth = mQueueDepth.incrementAndGet();
+            mMaxQueueDepth.accumulateAndGet(depth, Math::max);
+            // the caller may reuse items once this returns
+            mOps.add(new Op(new ArrayList<>(items), null));
+        }
+    }
+
+    @Override
+    public void flush(OnFlushedListener l) {
+        synchronized (this) {
+            mOps.add(new Op(null, l));
+        }
+    }
+
+    // synced on the writer as well, after the flushes queued before it
+    @Override
+    public void sync() {
+        synchronized (this) {
+            mOps.add(new Op(null, null, true));
+        }
+    }
+
+    @Override
+    public void close() {
+        if (mIsClosed) {
+            return;
+        }
+        mIsClosed = true;
+        mOps.add(new Op(null, null));
+        boolean interrupted = false;
+        while (mWriter.isAlive()) {
+            try {
+                mWriter.join();
+            } catch (InterruptedException e) {
+                // queued items have to be written anyway
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info(String.format("AsyncAppender of %s is closed, max queue depth: %d, blocked: %d",
+                mPath, getMaxQueueDepth(), getNrBlocked()));
+    }
+
+    /**
+     * getQueueDepth gets the batches queued but not appended yet, write
+     * stalls show up here rather than in the threads appending
+     * @return number of batches
+     */
+    public int getQueueDepth() {
+        return mQueueDepth.get();
+    }
+
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth.get();
+    }
+
+    public long getNrBlocked() {
+        return mNrBlocked.get();
+    }
+
+    private void appendOnWriter(List<T> items) {
+        try {
+            mAppender.append(items);
+        } catch (RuntimeException e) {
+            logger.error(String.format("AsyncAppender failed to append %d items to %s due to:",
+                    items.size(), mPath));
+            e.printStackTrace();
+            mIsAppendFailed = true;
+        }
+    }
+
+    // the items appended since the last flush are not all written if it failed
+    private void flushOnWriter(OnFlushedListener l) {
+        if (mIsAppendFailed) {
+            mIsAppendFailed = false;
+            l.onFlushed(-1);
+            return;
+        }
+        try {
+            mAppender.flush(l);
+        } catch (RuntimeException e) {
+            logger.error(String.format("AsyncAppender failed to flush %s due to:", mPath));
+            e.printStackTrace();
+            l.onFlushed(-1);
+        }
+    }
+
+    private void write() {
+        while (true) {
+            Op op;
+            try {
+                op = mOps.take();
+            } catch (InterruptedException e) {
+                // only close() stops the writer
+                continue;
+            }
+
+            try {
+                if (op.items != null) {
+                    mQueueDepth.decrementAndGet();
+                    mPermits.release();
+                    appendOnWriter(op.items);
+                } else if (op.l != null) {
+                    flushOnWriter(op.l);
+                } else if (op.sync) {
+                    mAppender.sync();
+                } else {
+                    mAppender.close();
+                    return;
+                }
+            } catch (RuntimeException e) {
+                logger.error(String.format("AsyncAppender failed to write %s due to:", mPath));
+                e.printStackTrace();
+            }
+        }
+    }
+}
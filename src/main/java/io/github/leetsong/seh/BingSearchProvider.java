@@ -0,0 +1,47 @@
+package io.github.leetsong.seh;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+import java.util.List;
+
+public class BingSearchProvider extends AbstractSearchProvider {
+
+    public static final String PROVIDER_NAME = "bing";
+
+    // bing returns at most 50 results per page
+    private static final int MAX_PAGE_SIZE = 50;
+
+    @Override
+    public String getName() {
+        return PROVIDER_NAME;
+    }
+
+    @Override
+    public int getPageSize(int pageSize) {
+        return Math.max(1, Math.min(MAX_PAGE_SIZE, pageSize));
+    }
+
+    @Override
+    public String searchUrl(String[] queries, int start, int pageSize) {
+        // results of bing start from 1
+        return String.format("https://%s/search?q=site:stackoverflow.com/questions+%s&first=%d&count=%d",
+                StackOverflowClient.BING_HOST, encode(String.join(" OR ", queries)), start + 1, pageSize);
+    }
+
+    @Override
+    public int parseResults(Document doc, List<String> links) {
+        // each result is wrapped in a li.b_algo
+        List<Element> algoElements = doc.select("li.b_algo");
+        for (Element algoElement : algoElements) {
+            Element linkElement = algoElement.selectFirst("h2 a[href]");
+            if (linkElement != null) {
+                String link = toQuestionLink(linkElement.attr("href"));
+                if (link != null) {
+                    links.add(link);
+                }
+            }
+        }
+        return algoElements.size();
+    }
+}
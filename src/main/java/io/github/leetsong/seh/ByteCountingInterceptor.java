@@ -0,0 +1,64 @@
+package io.github.leetsong.seh;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ByteCountingInterceptor counts the bytes of response bodies as they are
+ * read, in total and by the `site' query parameter of the request, since
+ * all sites share the same api host. Installed as a network interceptor,
+ * it counts the bytes on the wire, i.e., before gzip is decoded
+ */
+public class ByteCountingInterceptor implements Interceptor {
+
+    private final LongAdder mNrByte = new LongAdder();
+    private final Map<String, LongAdder> mNrByteOfSites = new ConcurrentHashMap<>();
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Response response = chain.proceed(chain.request());
+        ResponseBody body = response.body();
+        if (body == null) {
+            return response;
+        }
+
+        String site = chain.request().url().queryParameter("site");
+        LongAdder nrByteOfSite = site == null ? null : mNrByteOfSites.computeIfAbsent(site, k -> new LongAdder());
+
+        BufferedSource source = Okio.buffer(new ForwardingSource(body.source()) {
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                long n = super.read(sink, byteCount);
+                if (n > 0) {
+                    mNrByte.add(n);
+                    if (nrByteOfSite != null) {
+                        nrByteOfSite.add(n);
+                    }
+                }
+                return n;
+            }
+        });
+        return response.newBuilder()
+                .body(ResponseBody.create(body.contentType(), body.contentLength(), source))
+                .build();
+    }
+
+    public long getNrByte() {
+        return mNrByte.sum();
+    }
+
+    public long getNrByte(String site) {
+        LongAdder nrByte = mNrByteOfSites.get(site);
+        return nrByte == null ? 0 : nrByte.sum();
+    }
+}
@@ -0,0 +1,365 @@
+package io.github.leetsong.seh;
+
+import io.github.leetsong.seh.data.stackexchange.CsvItemable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * ColumnarAppender writes items as column-oriented segments, which are much
+ * smaller than csv, and much faster to read back by ColumnarReader. The file
+ * is a header of
+ *   [magic: int][version: int]
+ * followed by segments, each of the items appended since the last sync
+ * (or DEFAULT_SEGMENT_SIZE of them), so that a sync always ends at the end
+ * of a segment, and its offset can be truncated to. Flushes are deferred
+ * to the next sync, e.g., by PageJournal, so that segments are of the
+ * pages of a sync interval rather than of a single page. A segment is
+ *   [magic: int][rows: int][deflated length: int][length: int][crc32: int]
+ *   [min/max of id, score, view count, creation date in ms: 8 longs]
+ *   [deflated columns]
+ * where the stats let readers skip the segment without inflating it, and
+ * the columns, one after another, are
+ *  1. ids, zigzag varints, each the delta to the previous id
+ *  2. scores, zigzag varints
+ *  3. view counts, zigzag varints
+ *  4. creation dates in seconds, zigzag varints, each the delta to the previous
+ *  5. tags, a dictionary of the distinct tags of the segment, followed by
+ *     the number of tags and their indexes in the dictionary of each row
+ *  6. titles, each its length + 1 (0 if null) and its UTF-8 bytes
+ *  7. links, each the slug only if it is the link of its question, like
+ *     https://stackoverflow.com/questions/<id>/<slug>, or the whole link
+ */
+public class ColumnarAppender extends AbstractAppender<CsvItemable> {
+
+    private static Logger logger = LoggerFactory.getLogger(ColumnarAppender.class);
+
+    // type of this appender
+    public static final String APPENDER_TYPE = "columnar";
+
+    static final int FILE_MAGIC = 0x53454843; // "SEHC"
+    static final int FILE_VERSION = 1;
+    static final int SEGMENT_MAGIC = 0x5345474D; // "SEGM"
+    // magic, rows, deflated length, length, crc32, and 8 stats
+    static final int SEGMENT_HEADER_SIZE = 5 * 4 + 8 * 8;
+
+    // kinds of links
+    static final int LINK_NULL = 0;
+    static final int LINK_SLUG = 1;
+    static final int LINK_RAW = 2;
+    static final String QUESTION_LINK_PREFIX = "https://stackoverflow.com/questions/";
+
+    private static final int DEFAULT_SEGMENT_SIZE = 4096;
+
+    private final List<CsvItemable> mItems = new ArrayList<>();
+    private final Deflater mDeflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private byte[] mDeflated = new byte[1 << 16];
+    // the file, and the output to it, which is compressed if the path ends
+    // with CompressedFiles.GZIP_SUFFIX
+    private FileOutputStream mFileStream;
+    private OutputStream mOutputStream;
+    // set once a write to the compressed output fails, which cannot be
+    // resumed, so no offset is reported after it
+    private boolean mIsBroken = false;
+    // listeners of the flushes since the last sync, see sync
+    private final List<OnFlushedListener> mFlushedListeners = new ArrayList<>();
+
+    public static ColumnarAppender newInstance(String path) {
+        return new ColumnarAppender(path);
+    }
+
+    @Override
+    public synchronized void append(List<CsvItemable> items) {
+        mItems.addAll(items);
+        if (mItems.size() >= DEFAULT_SEGMENT_SIZE) {
+            writeSegment();
+        }
+    }
+
+    /**
+     * flush defers the flush to the next sync, so that the items of the
+     * flushes in between are written as a segment, and synced once
+     * @param l listener to be called once synced
+     */
+    @Override
+    public synchronized void flush(OnFlushedListener l) {
+        mFlushedListeners.add(l);
+    }
+
+    /**
+     * sync writes the items appended as a segment, flushes and syncs the
+     * output, and tells the listeners of the flushes since the last sync
+     * the size after them
+     */
+    @Override
+    public synchronized void sync() {
+        if (mFlushedListeners.isEmpty()) {
+            return;
+        }
+        long offset = -1;
+        if (writeSegment() && flushOutput()) {
+            offset = new File(mPath).length();
+        }
+        for (OnFlushedListener l : mFlushedListeners) {
+            l.onFlushed(offset);
+        }
+        mFlushedListeners.clear();
+    }
+
+    @Override
+    public synchronized void close() {
+        sync();
+        writeSegment();
+        mDeflater.end();
+        try {
+            if (mOutputStream != null) {
+                mOutputStream.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // writes the items appended as a segment, returns false if it cannot be
+    // written, in which case they are kept and written by the next write
+    private boolean writeSegment() {
+        if (mOutputStream == null || mIsBroken) {
+            mItems.clear();
+            return false;
+        }
+        if (mItems.isEmpty()) {
+            return true;
+        }
+
+        long end = new File(mPath).length();
+        try {
+            byte[] columns = encodeColumns(mItems);
+            mDeflater.reset();
+            mDeflater.setInput(columns);
+            mDeflater.finish();
+            int deflatedLength = 0;
+            while (!mDeflater.finished()) {
+                if (deflatedLength == mDeflated.length) {
+                    mDeflated = Arrays.copyOf(mDeflated, 2 * mDeflated.length);
+                }
+                deflatedLength += mDeflater.deflate(mDeflated, deflatedLength, mDeflated.length - deflatedLength);
+            }
+            CRC32 crc32 = new CRC32();
+            crc32.update(mDeflated, 0, deflatedLength);
+
+            ByteArrayOutputStream segment = new ByteArrayOutputStream(SEGMENT_HEADER_SIZE + deflatedLength);
+            DataOutputStream out = new DataOutputStream(segment);
+            out.writeInt(SEGMENT_MAGIC);
+            out.writeInt(mItems.size());
+            out.writeInt(deflatedLength);
+            out.writeInt(columns.length);
+            out.writeInt((int) crc32.getValue());
+            writeStats(out, mItems);
+            out.write(mDeflated, 0, deflatedLength);
+            // a single write of the whole segment
+            segment.writeTo(mOutputStream);
+            mItems.clear();
+            return true;
+        } catch (IOException e) {
+            logger.error(String.format("Failed to write %d items to %s", mItems.size(), mPath));
+            e.printStackTrace();
+            rollBack(end);
+            return false;
+        }
+    }
+
+    // truncates what a failed write has written partly, so that no torn
+    // segment is left, or gives up the output if it is compressed
+    private void rollBack(long end) {
+        if (!CompressedFiles.isCompressed(mPath)) {
+            try {
+                mFileStream.getChannel().truncate(end);
+                return;
+            } catch (IOException e) {
+                logger.error(String.format("Failed to truncate %s to %d bytes", mPath, end));
+            }
+        }
+        logger.error(String.format("Give up writing %s, what is not journaled is truncated on recovery", mPath));
+        mIsBroken = true;
+        mItems.clear();
+    }
+
+    // writes what the output buffers, e.g., the gzip member being compressed,
+    // and syncs the file, so that the offset journaled is durable
+    private boolean flushOutput() {
+        try {
+            mOutputStream.flush();
+            mFileStream.getFD().sync();
+            return true;
+        } catch (IOException e) {
+            logger.error(String.format("Failed to flush %s", mPath));
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private static void writeStats(DataOutputStream out, List<CsvItemable> items) throws IOException {
+        long minId = Long.MAX_VALUE, maxId = Long.MIN_VALUE;
+        long minScore = Long.MAX_VALUE, maxScore = Long.MIN_VALUE;
+        long minViewCount = Long.MAX_VALUE, maxViewCount = Long.MIN_VALUE;
+        long minCreationDate = Long.MAX_VALUE, maxCreationDate = Long.MIN_VALUE;
+        for (CsvItemable item : items) {
+            minId = Math.min(minId, item.getQuestionId());
+            maxId = Math.max(maxId, item.getQuestionId());
+            minScore = Math.min(minScore, item.getScore());
+            maxScore = Math.max(maxScore, item.getScore());
+            minViewCount = Math.min(minViewCount, item.getViewCount());
+            maxViewCount = Math.max(maxViewCount, item.getViewCount());
+            minCreationDate = Math.min(minCreationDate, item.getCreationDateMs());
+            maxCreationDate = Math.max(maxCreationDate, item.getCreationDateMs());
+        }
+        out.writeLong(minId);
+        out.writeLong(maxId);
+        out.writeLong(minScore);
+        out.writeLong(maxScore);
+        out.writeLong(minViewCount);
+        out.writeLong(maxViewCount);
+        out.writeLong(minCreationDate);
+        out.writeLong(maxCreationDate);
+    }
+
+    private static byte[] encodeColumns(List<CsvItemable> items) {
+        VarOutput out = new VarOutput(items.size() * 64);
+
+        long previous = 0;
+        for (CsvItemable item : items) {
+            out.writeSigned(item.getQuestionId() - previous);
+            previous = item.getQuestionId();
+        }
+        for (CsvItemable item : items) {
+            out.writeSigned(item.getScore());
+        }
+        for (CsvItemable item : items) {
+            out.writeSigned(item.getViewCount());
+        }
+        previous = 0;
+        for (CsvItemable item : items) {
+            long creationDate = Math.floorDiv(item.getCreationDateMs(), 1000L);
+            out.writeSigned(creationDate - previous);
+            previous = creationDate;
+        }
+
+        // tag -> its index in the dictionary
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        for (CsvItemable item : items) {
+            if (item.getTags() != null) {
+                for (String tag : item.getTags()) {
+                    dictionary.putIfAbsent(tag, dictionary.size());
+                }
+            }
+        }
+        out.writeUnsigned(dictionary.size());
+        for (String tag : dictionary.keySet()) {
+            out.writeString(tag);
+        }
+        for (CsvItemable item : items) {
+            List<String> tags = item.getTags() != null ? item.getTags() : Collections.emptyList();
+            out.writeUnsigned(tags.size());
+            for (String tag : tags) {
+                out.writeUnsigned(dictionary.get(tag));
+            }
+        }
+
+        for (CsvItemable item : items) {
+            out.writeString(item.getTitle());
+        }
+        for (CsvItemable item : items) {
+            String link = item.getLink();
+            String questionPrefix = QUESTION_LINK_PREFIX + item.getQuestionId() + "/";
+            if (link == null) {
+                out.writeUnsigned(LINK_NULL);
+            } else if (link.startsWith(questionPrefix)) {
+                out.writeUnsigned(LINK_SLUG);
+                out.writeString(link.substring(questionPrefix.length()));
+            } else {
+                out.writeUnsigned(LINK_RAW);
+                out.writeString(link);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * VarOutput writes varints and strings into a growable buffer
+     */
+    static class VarOutput {
+
+        private byte[] mBuffer;
+        private int mSize = 0;
+
+        VarOutput(int capacity) {
+            this.mBuffer = new byte[Math.max(64, capacity)];
+        }
+
+        void writeUnsigned(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                mBuffer[mSize++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            mBuffer[mSize++] = (byte) v;
+        }
+
+        // zigzag, so that small negative numbers are small as well
+        void writeSigned(long v) {
+            writeUnsigned((v << 1) ^ (v >> 63));
+        }
+
+        // its length + 1, 0 if null, and its UTF-8 bytes
+        void writeString(String s) {
+            if (s == null) {
+                writeUnsigned(0);
+                return;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeUnsigned(bytes.length + 1);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, mBuffer, mSize, bytes.length);
+            mSize += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(mBuffer, mSize);
+        }
+
+        private void ensure(int n) {
+            if (mSize + n > mBuffer.length) {
+                mBuffer = Arrays.copyOf(mBuffer, Math.max(2 * mBuffer.length, mSize + n));
+            }
+        }
+    }
+
+    private ColumnarAppender(String path) {
+        super(path);
+
+        File f = new File(path);
+        boolean fileExists = f.exists() && f.length() > 0;
+
+        try {
+            mFileStream = new FileOutputStream(path, true);
+            mOutputStream = CompressedFiles.wrapOutput(path, mFileStream);
+            if (!fileExists) {
+                // file is newly created, write the header
+                DataOutputStream out = new DataOutputStream(mOutputStream);
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(FILE_VERSION);
+                out.flush();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            logger.error("File exists but is a directory, " +
+                    "or does not exist but cannot be created, " +
+                    "or cannot be opened for any other reasons");
+        }
+    }
+}
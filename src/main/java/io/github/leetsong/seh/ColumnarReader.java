@@ -0,0 +1,277 @@
+package io.github.leetsong.seh;
+
+import io.github.leetsong.seh.data.stackexchange.CsvItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * ColumnarReader reads the segments written by ColumnarAppender. A scan
+ * tests the stats of each segment first, and skips the segment without
+ * inflating it if they cannot match, e.g., all its questions are created
+ * before the dates of interest. A torn segment at the end, i.e., written
+ * by a crashed run, ends the scan.
+ */
+public class ColumnarReader implements Closeable {
+
+    private static Logger logger = LoggerFactory.getLogger(ColumnarReader.class);
+
+    /**
+     * SegmentStats is the min/max of the columns of a segment
+     */
+    public static class SegmentStats {
+        public final int nrRow;
+        public final long minId;
+        public final long maxId;
+        public final long minScore;
+        public final long maxScore;
+        public final long minViewCount;
+        public final long maxViewCount;
+        public final long minCreationDateMs;
+        public final long maxCreationDateMs;
+
+        SegmentStats(int nrRow, long[] stats) {
+            this.nrRow = nrRow;
+            this.minId = stats[0];
+            this.maxId = stats[1];
+            this.minScore = stats[2];
+            this.maxScore = stats[3];
+            this.minViewCount = stats[4];
+            this.maxViewCount = stats[5];
+            this.minCreationDateMs = stats[6];
+            this.maxCreationDateMs = stats[7];
+        }
+    }
+
+    private final String mPath;
+    private final DataInputStream mInput;
+    private final Inflater mInflater = new Inflater();
+    private byte[] mDeflated = new byte[1 << 16];
+    private byte[] mColumns = new byte[1 << 16];
+
+    private int mNrSegmentRead = 0;
+    private int mNrSegmentSkipped = 0;
+
+    public ColumnarReader(String path) throws IOException {
+        this.mPath = path;
+        this.mInput = new DataInputStream(new BufferedInputStream(CompressedFiles.openInput(path), 1 << 16));
+        try {
+            if (mInput.readInt() != ColumnarAppender.FILE_MAGIC ||
+                    mInput.readInt() != ColumnarAppender.FILE_VERSION) {
+                throw new IOException(path + " is not written by ColumnarAppender");
+            }
+        } catch (IOException e) {
+            close();
+            throw e instanceof EOFException ? new IOException(path + " is empty", e) : e;
+        }
+    }
+
+    /**
+     * isColumnar tells whether path is written by ColumnarAppender
+     * @param path the path
+     * @return true if it is
+     */
+    public static boolean isColumnar(String path) {
+        try (DataInputStream in = new DataInputStream(CompressedFiles.openInput(path))) {
+            return in.readInt() == ColumnarAppender.FILE_MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * scan reads the items of the segments whose stats match filter
+     * @param filter   tests the stats of each segment, which is skipped if false
+     * @param consumer consumes each item of the segments read
+     * @return number of items read
+     * @throws IOException if the file cannot be read
+     */
+    public long scan(Predicate<SegmentStats> filter, Consumer<CsvItem> consumer) throws IOException {
+        long nrItem = 0;
+        long[] stats = new long[8];
+        while (true) {
+            int nrRow, deflatedLength, length, crc32;
+            try {
+                if (mInput.readInt() != ColumnarAppender.SEGMENT_MAGIC) {
+                    logger.warn(String.format("%s has a broken segment, the rest is ignored", mPath));
+                    break;
+                }
+                nrRow = mInput.readInt();
+                deflatedLength = mInput.readInt();
+                length = mInput.readInt();
+                crc32 = mInput.readInt();
+                for (int i = 0; i < stats.length; i ++) {
+                    stats[i] = mInput.readLong();
+                }
+            } catch (EOFException e) {
+                break;
+            }
+
+            SegmentStats segmentStats = new SegmentStats(nrRow, stats);
+            if (!filter.test(segmentStats)) {
+                if (mInput.skipBytes(deflatedLength) < deflatedLength) {
+                    break;
+                }
+                mNrSegmentSkipped += 1;
+                continue;
+            }
+
+            if (mDeflated.length < deflatedLength) {
+                mDeflated = new byte[Math.max(deflatedLength, 2 * mDeflated.length)];
+            }
+            try {
+                mInput.readFully(mDeflated, 0, deflatedLength);
+            } catch (EOFException e) {
+                logger.warn(String.format("%s has a torn segment at the end, it is ignored", mPath));
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(mDeflated, 0, deflatedLength);
+            if ((int) crc.getValue() != crc32) {
+                logger.warn(String.format("%s has a corrupted segment, the rest is ignored", mPath));
+                break;
+            }
+            inflate(deflatedLength, length);
+            decode(nrRow, consumer);
+            mNrSegmentRead += 1;
+            nrItem += nrRow;
+        }
+        return nrItem;
+    }
+
+    public long scan(Consumer<CsvItem> consumer) throws IOException {
+        return scan(stats -> true, consumer);
+    }
+
+    public int getNrSegmentRead() {
+        return mNrSegmentRead;
+    }
+
+    public int getNrSegmentSkipped() {
+        return mNrSegmentSkipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInflater.end();
+        mInput.close();
+    }
+
+    private void inflate(int deflatedLength, int length) throws IOException {
+        if (mColumns.length < length) {
+            mColumns = new byte[Math.max(length, 2 * mColumns.length)];
+        }
+        mInflater.reset();
+        mInflater.setInput(mDeflated, 0, deflatedLength);
+        try {
+            int n = 0;
+            while (n < length && !mInflater.finished()) {
+                n += mInflater.inflate(mColumns, n, length - n);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(mPath + " has a corrupted segment", e);
+        }
+    }
+
+    private void decode(int nrRow, Consumer<CsvItem> consumer) {
+        VarInput in = new VarInput(mColumns);
+        CsvItem.Builder[] builders = new CsvItem.Builder[nrRow];
+        long[] ids = new long[nrRow];
+
+        long previous = 0;
+        for (int i = 0; i < nrRow; i ++) {
+            previous += in.readSigned();
+            ids[i] = previous;
+            builders[i] = new CsvItem.Builder().withQuestionId(previous);
+        }
+        for (int i = 0; i < nrRow; i ++) {
+            builders[i].withScore((int) in.readSigned());
+        }
+        for (int i = 0; i < nrRow; i ++) {
+            builders[i].withViewCount((int) in.readSigned());
+        }
+        previous = 0;
+        for (int i = 0; i < nrRow; i ++) {
+            previous += in.readSigned();
+            builders[i].withCreationDate(previous * 1000);
+        }
+
+        String[] dictionary = new String[(int) in.readUnsigned()];
+        for (int i = 0; i < dictionary.length; i ++) {
+            dictionary[i] = in.readString();
+        }
+        for (int i = 0; i < nrRow; i ++) {
+            int nrTag = (int) in.readUnsigned();
+            List<String> tags = new ArrayList<>(nrTag);
+            for (int j = 0; j < nrTag; j ++) {
+                tags.add(dictionary[(int) in.readUnsigned()]);
+            }
+            builders[i].withTags(tags);
+        }
+
+        for (int i = 0; i < nrRow; i ++) {
+            builders[i].withTitle(in.readString());
+        }
+        for (int i = 0; i < nrRow; i ++) {
+            int kind = (int) in.readUnsigned();
+            if (kind == ColumnarAppender.LINK_SLUG) {
+                builders[i].withLink(ColumnarAppender.QUESTION_LINK_PREFIX + ids[i] + "/" + in.readString());
+            } else if (kind == ColumnarAppender.LINK_RAW) {
+                builders[i].withLink(in.readString());
+            }
+        }
+
+        for (CsvItem.Builder builder : builders) {
+            consumer.accept(builder.build());
+        }
+    }
+
+    /**
+     * VarInput reads what ColumnarAppender.VarOutput writes
+     */
+    private static class VarInput {
+
+        private final byte[] mBuffer;
+        private int mPosition = 0;
+
+        VarInput(byte[] buffer) {
+            this.mBuffer = buffer;
+        }
+
+        long readUnsigned() {
+            long v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = mBuffer[mPosition++];
+                v |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return v;
+        }
+
+        long readSigned() {
+            long v = readUnsigned();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        String readString() {
+            int length = (int) readUnsigned() - 1;
+            if (length < 0) {
+                return null;
+            }
+            String s = new String(mBuffer, mPosition, length, StandardCharsets.UTF_8);
+            mPosition += length;
+            return s;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package io.github.leetsong.seh;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * CompressedFiles opens outputs and inputs, which are compressed by gzip
+ * if their paths end with GZIP_SUFFIX, so that appenders and readers, e.g.,
+ * CsvCombiner, handle both the same
+ */
+public class CompressedFiles {
+
+    public static final String GZIP_SUFFIX = ".gz";
+
+    /**
+     * isCompressed tells whether path is compressed
+     * @param path the path
+     * @return true if it ends with GZIP_SUFFIX
+     */
+    public static boolean isCompressed(String path) {
+        return path.endsWith(GZIP_SUFFIX);
+    }
+
+    /**
+     * wrapOutput wraps out, the file at path opened to append to, by a
+     * compressing one if path is compressed, whose flush() ends at a point
+     * the file can be truncated to, see ParallelGzipOutputStream
+     * @param path the path
+     * @param out  the file at path
+     * @return the output
+     */
+    public static OutputStream wrapOutput(String path, FileOutputStream out) {
+        return isCompressed(path) ? new ParallelGzipOutputStream(out) : out;
+    }
+
+    /**
+     * openInput opens path to read, decompressed if it is compressed
+     * @param path the path
+     * @return the input
+     * @throws IOException if path cannot be opened
+     */
+    public static InputStream openInput(String path) throws IOException {
+        InputStream in = new FileInputStream(path);
+        if (!isCompressed(path)) {
+            return in;
+        }
+        try {
+            return new GZIPInputStream(in, 1 << 16);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * newReader opens path to read as UTF-8 text, decompressed if it is compressed
+     * @param path the path
+     * @return the reader
+     * @throws IOException if path cannot be opened
+     */
+    public static Reader newReader(String path) throws IOException {
+        return new InputStreamReader(openInput(path), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * newWriter opens path to write as UTF-8 text, compressed if path ends
+     * with GZIP_SUFFIX
+     * @param path the path
+     * @return the writer
+     * @throws IOException if path cannot be opened
+     */
+    public static Writer newWriter(String path) throws IOException {
+        OutputStream out = new FileOutputStream(path);
+        if (isCompressed(path)) {
+            out = new ParallelGzipOutputStream(out);
+        }
+        return new OutputStreamWriter(out, StandardCharsets.UTF_8);
+    }
+}
@@ -92,6 +92,34 @@ public class ConfigCmd extends CLI.Cmd
         mCli.stdout("<key>");
         mCli.stdout("  " + property$Socks5_Url() + "\turl of socks5 proxy");
         mCli.stdout("  " + property$Socks5_Port() + "\tport of socks5 port");
+        mCli.stdout("  " + property$Socks5_Pool() + "\tproxies requests are sent through, as [socks5://|http://]host:port,...");
+        mCli.stdout("  " + property$Socks5_Pool_Strategy() + "\tselection of proxies, least_loaded or round_robin");
+        mCli.stdout("  " + property$Socks5_Pool_RequestsPerSecond() + "\tmax requests per second of each proxy, 0 for unlimited");
+        mCli.stdout("  " + property$Socks5_Pool_MaxFailures() + "\tfailures in a row to eject a proxy");
+        mCli.stdout("  " + property$Socks5_Pool_EjectS() + "\tseconds a proxy is ejected, doubled each time");
+        mCli.stdout("  " + property$Okhttp_Pool_MaxIdleConnections() + "\tmax idle connections kept in pool");
+        mCli.stdout("  " + property$Okhttp_Pool_KeepAliveS() + "\tseconds an idle connection is kept");
+        mCli.stdout("  " + property$Okhttp_Dispatcher_MaxRequests() + "\tmax concurrent requests");
+        mCli.stdout("  " + property$Okhttp_Dispatcher_MaxRequestsPerHost() + "\tmax concurrent requests per host");
+        mCli.stdout("  " + property$Okhttp_Timeout_ConnectMs() + "\tconnect timeout in ms");
+        mCli.stdout("  " + property$Okhttp_Timeout_ReadMs() + "\tread timeout in ms");
+        mCli.stdout("  " + property$Okhttp_Timeout_CallMs() + "\twhole call timeout in ms");
+        mCli.stdout("  " + property$Okhttp_Http2() + "\tnegotiate http/2, true or false");
+        mCli.stdout("  " + property$Okhttp_WarmUpConnections() + "\tconnections opened before fetching");
+        mCli.stdout("  " + property$Cache_Dir() + "\tdirectory of the http cache");
+        mCli.stdout("  " + property$Cache_MaxSizeMb() + "\tmax size of the http cache in MB, 0 to disable it");
+        mCli.stdout("  " + property$Cache_Offline() + "\tonly serve responses from the http cache, true or false");
+        mCli.stdout("  " + property$Cache_Ttl_SearchS() + "\tseconds an api search response is fresh");
+        mCli.stdout("  " + property$Cache_Ttl_QuestionsS() + "\tseconds an api questions response is fresh");
+        mCli.stdout("  " + property$Cache_Ttl_SynonymsS() + "\tseconds an api synonyms response is fresh");
+        mCli.stdout("  " + property$Cache_Ttl_GoogleS() + "\tseconds a result page of google, bing or the site search is fresh");
+        mCli.stdout("  " + property$Cache_Ttl_PageS() + "\tseconds a question page is fresh");
+        mCli.stdout("  " + property$Politeness_Google_RequestsPerMinute() + "\tgoogle requests per minute");
+        mCli.stdout("  " + property$Politeness_Stackoverflow_RequestsPerMinute() + "\tquestion page requests per minute");
+        mCli.stdout("  " + property$Politeness_Bing_RequestsPerMinute() + "\tbing requests per minute");
+        mCli.stdout("  " + property$Politeness_Burst() + "\tmax page requests sent to a host at once");
+        mCli.stdout("  " + property$Politeness_CoolDownS() + "\tseconds to wait once a host blocks us, doubled each time");
+        mCli.stdout("  " + property$Politeness_MaxCoolDownS() + "\tmax seconds to wait once a host blocks us");
         mCli.stdout("<value>");
         mCli.stdout("  value to be set for this key");
     }
@@ -112,7 +140,8 @@ public class ConfigCmd extends CLI.Cmd
             if (file.exists()) {
                 mProperties.load(new FileReader(file));
 
-                // system settings
+                // system settings, a single proxy of the whole jvm, which
+                // the pool of socks5.pool, if any, takes precedence over
                 String socks5Url = mProperties.getProperty(property$Socks5_Url());
                 String socks5Port = mProperties.getProperty(property$Socks5_Port());
                 if (socks5Url != null) {
@@ -121,6 +150,9 @@ public class ConfigCmd extends CLI.Cmd
                 if (socks5Port != null) {
                     System.setProperty("socksProxyPort", socks5Port);
                 }
+
+                // http client settings
+                StackOverflowClient.configure(loadClientSettings());
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -139,6 +171,82 @@ public class ConfigCmd extends CLI.Cmd
         }
     }
 
+    private StackOverflowClient.Settings loadClientSettings() {
+        StackOverflowClient.Settings settings = new StackOverflowClient.Settings();
+        settings.maxIdleConnections = getIntProperty(
+                property$Okhttp_Pool_MaxIdleConnections(), settings.maxIdleConnections);
+        settings.keepAliveS = getIntProperty(
+                property$Okhttp_Pool_KeepAliveS(), settings.keepAliveS);
+        settings.maxRequests = getIntProperty(
+                property$Okhttp_Dispatcher_MaxRequests(), settings.maxRequests);
+        settings.maxRequestsPerHost = getIntProperty(
+                property$Okhttp_Dispatcher_MaxRequestsPerHost(), settings.maxRequestsPerHost);
+        settings.connectTimeoutMs = getIntProperty(
+                property$Okhttp_Timeout_ConnectMs(), settings.connectTimeoutMs);
+        settings.readTimeoutMs = getIntProperty(
+                property$Okhttp_Timeout_ReadMs(), settings.readTimeoutMs);
+        settings.callTimeoutMs = getIntProperty(
+                property$Okhttp_Timeout_CallMs(), settings.callTimeoutMs);
+        settings.http2 = Boolean.parseBoolean(mProperties.getProperty(
+                property$Okhttp_Http2(), Boolean.toString(settings.http2)));
+        settings.warmUpConnections = getIntProperty(
+                property$Okhttp_WarmUpConnections(), settings.warmUpConnections);
+        settings.cacheDir = mProperties.getProperty(property$Cache_Dir(), settings.cacheDir);
+        settings.cacheMaxSizeMb = getIntProperty(
+                property$Cache_MaxSizeMb(), (int) settings.cacheMaxSizeMb);
+        settings.cacheOffline = Boolean.parseBoolean(mProperties.getProperty(
+                property$Cache_Offline(), Boolean.toString(settings.cacheOffline)));
+        loadCacheTtl(settings, HttpCachePolicy.ENDPOINT_SEARCH, property$Cache_Ttl_SearchS());
+        loadCacheTtl(settings, HttpCachePolicy.ENDPOINT_QUESTIONS, property$Cache_Ttl_QuestionsS());
+        loadCacheTtl(settings, HttpCachePolicy.ENDPOINT_SYNONYMS, property$Cache_Ttl_SynonymsS());
+        loadCacheTtl(settings, HttpCachePolicy.ENDPOINT_GOOGLE, property$Cache_Ttl_GoogleS());
+        loadCacheTtl(settings, HttpCachePolicy.ENDPOINT_PAGE, property$Cache_Ttl_PageS());
+        settings.pageRequestsPerMinute.put(StackOverflowClient.GOOGLE_HOST, getIntProperty(
+                property$Politeness_Google_RequestsPerMinute(),
+                settings.pageRequestsPerMinute.get(StackOverflowClient.GOOGLE_HOST)));
+        settings.pageRequestsPerMinute.put(StackOverflowClient.STACKOVERFLOW_HOST, getIntProperty(
+                property$Politeness_Stackoverflow_RequestsPerMinute(),
+                settings.pageRequestsPerMinute.get(StackOverflowClient.STACKOVERFLOW_HOST)));
+        settings.pageRequestsPerMinute.put(StackOverflowClient.BING_HOST, getIntProperty(
+                property$Politeness_Bing_RequestsPerMinute(),
+                settings.pageRequestsPerMinute.get(StackOverflowClient.BING_HOST)));
+        settings.pageBurst = getIntProperty(property$Politeness_Burst(), settings.pageBurst);
+        settings.pageCoolDownS = getIntProperty(property$Politeness_CoolDownS(), (int) settings.pageCoolDownS);
+        settings.pageMaxCoolDownS = getIntProperty(
+                property$Politeness_MaxCoolDownS(), (int) settings.pageMaxCoolDownS);
+        String proxies = mProperties.getProperty(property$Socks5_Pool(), "");
+        for (String proxy : proxies.split(",")) {
+            if (!proxy.trim().isEmpty()) {
+                settings.proxies.add(proxy.trim());
+            }
+        }
+        settings.proxyStrategy = mProperties.getProperty(property$Socks5_Pool_Strategy(), settings.proxyStrategy);
+        settings.proxyRequestsPerSecond = getIntProperty(
+                property$Socks5_Pool_RequestsPerSecond(), (int) settings.proxyRequestsPerSecond);
+        settings.proxyMaxFailures = getIntProperty(property$Socks5_Pool_MaxFailures(), settings.proxyMaxFailures);
+        settings.proxyEjectS = getIntProperty(property$Socks5_Pool_EjectS(), (int) settings.proxyEjectS);
+        return settings;
+    }
+
+    private void loadCacheTtl(StackOverflowClient.Settings settings, String endpoint, String property) {
+        long defaultTtlS = settings.cacheTtlS.getOrDefault(endpoint, 0L);
+        settings.cacheTtlS.put(endpoint, (long) getIntProperty(property, (int) defaultTtlS));
+    }
+
+    private int getIntProperty(String property, int defaultValue) {
+        String value = mProperties.getProperty(property);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            mCli.stdwarn(String.format("Property %s=%s is not an integer, %d is used",
+                    property, value, defaultValue));
+            return defaultValue;
+        }
+    }
+
     public static boolean hasProperty(String property) {
         return ALL_PROPERTIES.contains(property);
     }
@@ -215,4 +323,116 @@ public class ConfigCmd extends CLI.Cmd
     private String property$Socks5_Port() {
         return "socks5.port";
     }
+
+    private String property$Socks5_Pool() {
+        return "socks5.pool";
+    }
+
+    private String property$Socks5_Pool_Strategy() {
+        return "socks5.pool.strategy";
+    }
+
+    private String property$Socks5_Pool_RequestsPerSecond() {
+        return "socks5.pool.requests_per_second";
+    }
+
+    private String property$Socks5_Pool_MaxFailures() {
+        return "socks5.pool.max_failures";
+    }
+
+    private String property$Socks5_Pool_EjectS() {
+        return "socks5.pool.eject_s";
+    }
+
+    private String property$Okhttp_Pool_MaxIdleConnections() {
+        return "okhttp.pool.max_idle_connections";
+    }
+
+    private String property$Okhttp_Pool_KeepAliveS() {
+        return "okhttp.pool.keep_alive_s";
+    }
+
+    private String property$Okhttp_Dispatcher_MaxRequests() {
+        return "okhttp.dispatcher.max_requests";
+    }
+
+    private String property$Okhttp_Dispatcher_MaxRequestsPerHost() {
+        return "okhttp.dispatcher.max_requests_per_host";
+    }
+
+    private String property$Okhttp_Timeout_ConnectMs() {
+        return "okhttp.timeout.connect_ms";
+    }
+
+    private String property$Okhttp_Timeout_ReadMs() {
+        return "okhttp.timeout.read_ms";
+    }
+
+    private String property$Okhttp_Timeout_CallMs() {
+        return "okhttp.timeout.call_ms";
+    }
+
+    private String property$Okhttp_Http2() {
+        return "okhttp.http2";
+    }
+
+    private String property$Okhttp_WarmUpConnections() {
+        return "okhttp.warm_up_connections";
+    }
+
+    private String property$Cache_Dir() {
+        return "cache.dir";
+    }
+
+    private String property$Cache_MaxSizeMb() {
+        return "cache.max_size_mb";
+    }
+
+    private String property$Cache_Offline() {
+        return "cache.offline";
+    }
+
+    private String property$Cache_Ttl_SearchS() {
+        return "cache.ttl.search_s";
+    }
+
+    private String property$Cache_Ttl_QuestionsS() {
+        return "cache.ttl.questions_s";
+    }
+
+    private String property$Cache_Ttl_SynonymsS() {
+        return "cache.ttl.synonyms_s";
+    }
+
+    private String property$Cache_Ttl_GoogleS() {
+        return "cache.ttl.google_s";
+    }
+
+    private String property$Cache_Ttl_PageS() {
+        return "cache.ttl.page_s";
+    }
+
+    private String property$Politeness_Google_RequestsPerMinute() {
+        return "politeness.google.requests_per_minute";
+    }
+
+    private String property$Politeness_Stackoverflow_RequestsPerMinute() {
+        return "politeness.stackoverflow.requests_per_minute";
+    }
+
+    private String property$Politeness_Bing_RequestsPerMinute() {
+        return "politeness.bing.requests_per_minute";
+    }
+
+    private String property$Politeness_Burst() {
+        return "politeness.burst";
+    }
+
+    private String property$Politeness_CoolDownS() {
+        return "politeness.cool_down_s";
+    }
+
+    private String property$Politeness_MaxCoolDownS() {
+        return "politeness.max_cool_down_s";
+    }
 }
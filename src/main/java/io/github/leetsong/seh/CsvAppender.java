@@ -1,61 +1,251 @@
 package io.github.leetsong.seh;
 
+import com.opencsv.CSVReader;
 import com.opencsv.CSVWriter;
 import io.github.leetsong.seh.data.stackexchange.CsvItemable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 import static io.github.leetsong.seh.data.stackexchange.CsvItem.CSV_ITEM_HEADER;
 
 public class CsvAppender extends AbstractAppender<CsvItemable> {
 
-    private Logger logger = LoggerFactory.getLogger(CsvAppender.class);
+    private static Logger logger = LoggerFactory.getLogger(CsvAppender.class);
 
     // type of this appender
     public static final String APPENDER_TYPE = "csv";
 
-    private CSVWriter csvWriter;
+    // rows are written once this many bytes of them are encoded, or flushed
+    private static final int DEFAULT_WRITE_SIZE = 1 << 20;
+
+    // creation dates were written by Date.toString() before they are iso
+    private static final String LEGACY_DATE_PATTERN = "EEE MMM dd HH:mm:ss zzz yyyy";
+    // column of the creation date, see CSV_ITEM_HEADER
+    private static final int CREATION_DATE_COLUMN = 5;
+
+    // rows are encoded in here, and written by a single large write
+    private CsvEncoder csvEncoder;
+    // the file, and the output to it, which is compressed if the path ends
+    // with CompressedFiles.GZIP_SUFFIX
+    private FileOutputStream fileStream;
+    private OutputStream fileOutputStream;
+    // set once a write to the compressed output fails, which cannot be
+    // resumed, so no offset is reported after it
+    private boolean broken = false;
+    // listeners of the flushes since the last sync, see sync
+    private final List<OnFlushedListener> flushedListeners = new ArrayList<>();
 
     public static CsvAppender newInstance(String path) {
         return new CsvAppender(path);
     }
 
     @Override
-    public void append(List<CsvItemable> items) {
-        items.forEach(item -> csvWriter.writeNext(item.toCsvItem().toStringArray()));
+    public synchronized void append(List<CsvItemable> items) {
+        csvEncoder.encode(items);
+        if (csvEncoder.size() >= DEFAULT_WRITE_SIZE) {
+            write();
+        }
     }
 
+    /**
+     * flush defers the flush to the next sync, so that rows are written
+     * once DEFAULT_WRITE_SIZE bytes of them are encoded, and the output is
+     * synced once for all flushes in between, e.g., by PageJournal
+     * @param l listener to be called once synced
+     */
     @Override
-    public void close() {
+    public synchronized void flush(OnFlushedListener l) {
+        flushedListeners.add(l);
+    }
+
+    /**
+     * sync writes the encoded rows, flushes and syncs the output, and tells
+     * the listeners of the flushes since the last sync the size after them
+     */
+    @Override
+    public synchronized void sync() {
+        if (flushedListeners.isEmpty()) {
+            return;
+        }
+        long offset = -1;
+        if (write() && flushOutput()) {
+            // not the position of the channel, which is closed if this
+            // thread is interrupted, e.g., by cancellation
+            offset = new File(mPath).length();
+        }
+        for (OnFlushedListener l : flushedListeners) {
+            l.onFlushed(offset);
+        }
+        flushedListeners.clear();
+    }
+
+    @Override
+    public synchronized void close() {
+        sync();
+        write();
+        try {
+            if (fileOutputStream != null) {
+                fileOutputStream.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // writes the encoded rows, returns false if they cannot be written, in
+    // which case they are kept and written again by the next write
+    private boolean write() {
+        if (fileOutputStream == null || broken) {
+            csvEncoder.reset();
+            return false;
+        }
+        if (csvEncoder.size() == 0) {
+            return true;
+        }
+        long end = new File(mPath).length();
         try {
-            csvWriter.close();
+            csvEncoder.writeTo(fileOutputStream);
+            return true;
         } catch (IOException e) {
+            logger.error("Failed to write " + mPath);
             e.printStackTrace();
+            rollBack(end);
+            return false;
+        }
+    }
+
+    // truncates what a failed write has written partly, so that the rows
+    // can be written again, or gives up the output if it is compressed
+    private void rollBack(long end) {
+        if (!CompressedFiles.isCompressed(mPath)) {
+            try {
+                fileStream.getChannel().truncate(end);
+                return;
+            } catch (IOException e) {
+                logger.error(String.format("Failed to truncate %s to %d bytes", mPath, end));
+            }
+        }
+        logger.error(String.format("Give up writing %s, what is not journaled is truncated on recovery", mPath));
+        broken = true;
+        csvEncoder.reset();
+    }
+
+    // writes what the output buffers, e.g., the gzip member being compressed,
+    // and syncs the file, so that the offset journaled is durable
+    private boolean flushOutput() {
+        try {
+            fileOutputStream.flush();
+            fileStream.getFD().sync();
+            return true;
+        } catch (IOException e) {
+            logger.error("Failed to flush " + mPath);
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * migrate rewrites the creation dates of the csv at path to iso, if
+     * they are written by Date.toString(), as earlier versions did, so that
+     * the rows appended to it are of the same format. It is rewritten to a
+     * temporary file, which then replaces it
+     * @param path the path
+     * @return true if it is migrated, i.e., its size changes
+     * @throws IOException if it cannot be read or rewritten
+     */
+    public static boolean migrate(String path) throws IOException {
+        File file = new File(path).getAbsoluteFile();
+        if (!file.exists() || file.length() == 0 || !isLegacy(path)) {
+            return false;
+        }
+
+        // in the same directory, with the same suffix, so that it is compressed the same
+        File migrating = new File(file.getParentFile(), ".migrating-" + file.getName());
+        SimpleDateFormat legacyFormat = new SimpleDateFormat(LEGACY_DATE_PATTERN, Locale.US);
+        long nrRow = 0;
+        try (CSVReader reader = new CSVReader(CompressedFiles.newReader(path));
+             CSVWriter writer = new CSVWriter(CompressedFiles.newWriter(migrating.getPath()),
+                     ',', '"', '\\', "\n")) {
+            writer.writeNext(reader.readNext());
+            String[] row;
+            while ((row = reader.readNext()) != null) {
+                if (row.length > CREATION_DATE_COLUMN) {
+                    row[CREATION_DATE_COLUMN] = toIsoDate(legacyFormat, row[CREATION_DATE_COLUMN]);
+                }
+                writer.writeNext(row);
+                nrRow += 1;
+            }
+        }
+        try (FileChannel channel = FileChannel.open(migrating.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(migrating.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info(String.format("Creation dates of %d rows of %s are migrated to iso", nrRow, path));
+        return true;
+    }
+
+    // whether the first row is written by Date.toString(), iso and epoch ones start by a digit
+    private static boolean isLegacy(String path) throws IOException {
+        try (CSVReader reader = new CSVReader(CompressedFiles.newReader(path))) {
+            reader.skip(1);
+            String[] row = reader.readNext();
+            return row != null && row.length > CREATION_DATE_COLUMN &&
+                    !row[CREATION_DATE_COLUMN].isEmpty() &&
+                    !Character.isDigit(row[CREATION_DATE_COLUMN].charAt(0));
+        }
+    }
+
+    private static String toIsoDate(SimpleDateFormat legacyFormat, String date) {
+        if (date.isEmpty() || Character.isDigit(date.charAt(0))) {
+            return date;
+        }
+        try {
+            // written in seconds, so no fraction is printed, as CsvEncoder does
+            return Instant.ofEpochSecond(legacyFormat.parse(date).getTime() / 1000).toString();
+        } catch (ParseException e) {
+            return date;
         }
     }
 
     private CsvAppender(String path) {
         super(path);
 
+        try {
+            // ApiFetcher migrates its outputs on recovery, others are migrated here
+            migrate(path);
+        } catch (IOException e) {
+            logger.warn(String.format("Failed to migrate %s, rows are appended with iso dates", path));
+            e.printStackTrace();
+        }
+
         File f = new File(path);
-        boolean fileExists = f.exists();
+        boolean fileExists = f.exists() && f.length() > 0;
 
+        // rows are quoted by '"', and '"' and '\\' are escaped by '\\',
+        // because CSVReader uses '\\' as default escape, see CsvEncoder
+        csvEncoder = new CsvEncoder(2 * DEFAULT_WRITE_SIZE, CsvEncoder.DATE_FORMAT_ISO);
         try {
-            FileWriter fileWriter = new FileWriter(path, true);
-            // use ',' as separator, '"' as quote, and '\\' as escape
-            // because CSVReader uses '\\' as default escape,
-            // However, CSVWriter uses '"' as default escape
-            // Wired!!!
-            csvWriter = new CSVWriter(fileWriter,
-                    ',', '"', '\\', "\n");
+            fileStream = new FileOutputStream(path, true);
+            fileOutputStream = CompressedFiles.wrapOutput(path, fileStream);
             if (!fileExists) {
                 // file is newly created, write the header
-                csvWriter.writeNext(CSV_ITEM_HEADER);
+                csvEncoder.encodeHeader(CSV_ITEM_HEADER);
             }
         } catch (IOException e) {
             e.printStackTrace();
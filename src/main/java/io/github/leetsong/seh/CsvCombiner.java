@@ -5,9 +5,8 @@ import com.opencsv.CSVWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -18,22 +17,50 @@ public class CsvCombiner implements Combiner {
 
     private static Logger logger = LoggerFactory.getLogger(CsvCombiner.class);
 
+    // header of the column telling which site a row is fetched from
+    public static final String SITE_HEADER = "Site";
+
     private List<String> mCombiningFiles;
+    private List<String> mSites;
     private String mCombinedFile;
 
     public CsvCombiner(List<String> combiningFiles, String combinedFile) {
+        this(combiningFiles, null, combinedFile);
+    }
+
+    /**
+     * CsvCombiner combines files fetched from different sites, whose ids
+     * are unique only per site, so a SITE_HEADER column is appended to each
+     * row, telling the site of the file it is read from
+     * @param combiningFiles the files to combine, csv or columnar ones
+     * @param sites          the site of each file, or null to append no column
+     * @param combinedFile   the file to combine into
+     */
+    public CsvCombiner(List<String> combiningFiles, List<String> sites, String combinedFile) {
+        if (sites != null && sites.size() != combiningFiles.size()) {
+            throw new IllegalArgumentException("Each combining file should have its site");
+        }
         this.mCombiningFiles = combiningFiles;
+        this.mSites = sites;
         this.mCombinedFile = combinedFile;
     }
 
     @Override
     public void combine() {
         List<String[]> combinedResults = new ArrayList<>();
-        for (String csvWorkerFile : mCombiningFiles) {
-            try (CSVReader reader = new CSVReader(new FileReader(csvWorkerFile))) {
-                // skip header
-                reader.skip(1);
-                combinedResults.addAll(reader.readAll());
+        for (int i = 0; i < mCombiningFiles.size(); i ++) {
+            String csvWorkerFile = mCombiningFiles.get(i);
+            try {
+                List<String[]> results = ColumnarReader.isColumnar(csvWorkerFile) ?
+                        readColumnar(csvWorkerFile) : readCsv(csvWorkerFile);
+                if (mSites != null) {
+                    for (int j = 0; j < results.size(); j ++) {
+                        String[] result = Arrays.copyOf(results.get(j), results.get(j).length + 1);
+                        result[result.length - 1] = mSites.get(i);
+                        results.set(j, result);
+                    }
+                }
+                combinedResults.addAll(results);
             } catch (IOException e) {
                 logger.error("Error while reading " + csvWorkerFile);
                 e.printStackTrace();
@@ -44,9 +71,15 @@ public class CsvCombiner implements Combiner {
         combinedResults.sort((a, b) -> Integer.parseInt(b[3]) - Integer.parseInt(a[3]));
 
         // write to the combined file
-        try (CSVWriter csvWriter = new CSVWriter(new FileWriter(mCombinedFile),
+        try (CSVWriter csvWriter = new CSVWriter(CompressedFiles.newWriter(mCombinedFile),
                 ',', '"', '\\', "\n")) {
-            csvWriter.writeNext(CSV_ITEM_HEADER);
+            if (mSites == null) {
+                csvWriter.writeNext(CSV_ITEM_HEADER);
+            } else {
+                String[] header = Arrays.copyOf(CSV_ITEM_HEADER, CSV_ITEM_HEADER.length + 1);
+                header[header.length - 1] = SITE_HEADER;
+                csvWriter.writeNext(header);
+            }
             csvWriter.writeAll(combinedResults);
         } catch (IOException e) {
             logger.error("Error while writing to " + mCombinedFile);
@@ -54,6 +87,31 @@ public class CsvCombiner implements Combiner {
         }
     }
 
+    private static List<String[]> readCsv(String path) throws IOException {
+        try (CSVReader reader = new CSVReader(CompressedFiles.newReader(path))) {
+            // skip header
+            reader.skip(1);
+            return reader.readAll();
+        }
+    }
+
+    // rows of a columnar file, as CsvEncoder writes them with iso dates
+    private static List<String[]> readColumnar(String path) throws IOException {
+        List<String[]> results = new ArrayList<>();
+        try (ColumnarReader reader = new ColumnarReader(path)) {
+            reader.scan(item -> results.add(new String[] {
+                    Long.toString(item.getQuestionId()),
+                    item.getTitle(),
+                    String.join(";", item.getTags()),
+                    Integer.toString(item.getViewCount()),
+                    Integer.toString(item.getScore()),
+                    Instant.ofEpochSecond(Math.floorDiv(item.getCreationDate(), 1000L)).toString(),
+                    item.getLink()
+            }));
+        }
+        return results;
+    }
+
     public static void main(String[] args) {
         Combiner combiner = new CsvCombiner(Arrays.asList(
                 "worker[1]_appender.csv",
@@ -0,0 +1,278 @@
+package io.github.leetsong.seh;
+
+import com.opencsv.CSVWriter;
+import io.github.leetsong.seh.data.stackexchange.CsvItemable;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * CsvEncoder encodes CsvItemables as rows of csv, in UTF-8, straight into a
+ * reusable byte buffer, without any CsvItem, String[] or Date in between,
+ * so that the rows of a batch are written by a single large write. Rows are
+ * quoted and escaped the way CsvAppender used to write them with CSVWriter,
+ * i.e., ',' as separator, each field in '"', and '"' and '\\' escaped by
+ * '\\', so that CSVReaders with the default escape read them back. Creation
+ * dates are written as
+ *  1. iso, ISO-8601 in UTC, like 2019-03-01T12:00:00Z
+ *  2. epoch, seconds since the epoch
+ */
+public class CsvEncoder {
+
+    public static final String DATE_FORMAT_ISO = "iso";
+    public static final String DATE_FORMAT_EPOCH = "epoch";
+
+    private static final int DEFAULT_CAPACITY = 1 << 20;
+
+    private static final byte SEPARATOR = ',';
+    private static final byte QUOTE = '"';
+    private static final byte ESCAPE = '\\';
+    private static final byte LINE_END = '\n';
+    private static final byte TAG_SEPARATOR = ';';
+
+    private final boolean mIsIsoDate;
+    private byte[] mBuffer;
+    private int mSize = 0;
+
+    public CsvEncoder() {
+        this(DEFAULT_CAPACITY, DATE_FORMAT_ISO);
+    }
+
+    /**
+     * CsvEncoder creates an encoder
+     * @param capacity   initial capacity of the buffer, it grows if a row does not fit
+     * @param dateFormat DATE_FORMAT_ISO or DATE_FORMAT_EPOCH
+     */
+    public CsvEncoder(int capacity, String dateFormat) {
+        this.mBuffer = new byte[Math.max(64, capacity)];
+        this.mIsIsoDate = !DATE_FORMAT_EPOCH.equals(dateFormat);
+    }
+
+    /**
+     * encodeHeader encodes header as a row
+     * @param header the header
+     */
+    public void encodeHeader(String[] header) {
+        for (int i = 0; i < header.length; i ++) {
+            if (i != 0) {
+                putByte(SEPARATOR);
+            }
+            putString(header[i]);
+        }
+        putByte(LINE_END);
+    }
+
+    /**
+     * encode encodes item as a row of CSV_ITEM_HEADER
+     * @param item the item
+     */
+    public void encode(CsvItemable item) {
+        putLong(item.getQuestionId());
+        putByte(SEPARATOR);
+        putString(item.getTitle());
+        putByte(SEPARATOR);
+        putTags(item.getTags());
+        putByte(SEPARATOR);
+        putLong(item.getViewCount());
+        putByte(SEPARATOR);
+        putLong(item.getScore());
+        putByte(SEPARATOR);
+        putDate(item.getCreationDateMs());
+        putByte(SEPARATOR);
+        putString(item.getLink());
+        putByte(LINE_END);
+    }
+
+    public void encode(List<? extends CsvItemable> items) {
+        for (int i = 0; i < items.size(); i ++) {
+            encode(items.get(i));
+        }
+    }
+
+    /**
+     * size gets the number of bytes encoded
+     * @return number of bytes
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * array gets the buffer, whose first size() bytes are the encoded rows
+     * @return the buffer
+     */
+    public byte[] array() {
+        return mBuffer;
+    }
+
+    /**
+     * writeTo writes the encoded rows to out by a single write, and resets
+     * @param out the output
+     * @throws IOException if it cannot be written
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        if (mSize > 0) {
+            out.write(mBuffer, 0, mSize);
+        }
+        reset();
+    }
+
+    public void reset() {
+        mSize = 0;
+    }
+
+    private void ensure(int n) {
+        if (mSize + n > mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, Math.max(2 * mBuffer.length, mSize + n));
+        }
+    }
+
+    private void putByte(byte b) {
+        ensure(1);
+        mBuffer[mSize++] = b;
+    }
+
+    // numbers are quoted as every other field
+    private void putLong(long v) {
+        ensure(22);
+        byte[] buffer = mBuffer;
+        int p = mSize;
+        buffer[p++] = QUOTE;
+        if (v < 0) {
+            buffer[p++] = '-';
+        }
+        if (v == Long.MIN_VALUE) {
+            // cannot be negated, never a field of ours anyway
+            for (char c : "9223372036854775808".toCharArray()) {
+                buffer[p++] = (byte) c;
+            }
+        } else {
+            long u = Math.abs(v);
+            int start = p;
+            do {
+                buffer[p++] = (byte) ('0' + u % 10);
+                u /= 10;
+            } while (u != 0);
+            reverse(buffer, start, p - 1);
+        }
+        buffer[p++] = QUOTE;
+        mSize = p;
+    }
+
+    // a null field is left empty, without quotes
+    private void putString(String s) {
+        if (s == null) {
+            return;
+        }
+        putByte(QUOTE);
+        putChars(s);
+        putByte(QUOTE);
+    }
+
+    private void putTags(List<String> tags) {
+        if (tags == null) {
+            return;
+        }
+        putByte(QUOTE);
+        for (int i = 0; i < tags.size(); i ++) {
+            if (i != 0) {
+                putByte(TAG_SEPARATOR);
+            }
+            putChars(tags.get(i));
+        }
+        putByte(QUOTE);
+    }
+
+    // escapes and encodes s in UTF-8
+    private void putChars(String s) {
+        int n = s.length();
+        // at most 3 bytes per char, or 2 per escaped char
+        ensure(3 * n);
+        byte[] buffer = mBuffer;
+        int p = mSize;
+        for (int i = 0; i < n; i ++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c == QUOTE || c == ESCAPE) {
+                    buffer[p++] = ESCAPE;
+                }
+                buffer[p++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[p++] = (byte) (0xC0 | (c >> 6));
+                buffer[p++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buffer[p++] = (byte) (0xF0 | (cp >> 18));
+                buffer[p++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buffer[p++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buffer[p++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // a lone surrogate, as String.getBytes does
+                buffer[p++] = '?';
+            } else {
+                buffer[p++] = (byte) (0xE0 | (c >> 12));
+                buffer[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[p++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        mSize = p;
+    }
+
+    private void putDate(long epochMs) {
+        long epochS = Math.floorDiv(epochMs, 1000L);
+        if (!mIsIsoDate) {
+            putLong(epochS);
+            return;
+        }
+
+        // civil from days, see http://howardhinnant.github.io/date_algorithms.html
+        long days = Math.floorDiv(epochS, 86400L);
+        int secondOfDay = (int) Math.floorMod(epochS, 86400L);
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097L);
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        ensure(22);
+        byte[] buffer = mBuffer;
+        int p = mSize;
+        buffer[p++] = QUOTE;
+        p = putDigits(buffer, p, (int) year, 4);
+        buffer[p++] = '-';
+        p = putDigits(buffer, p, month, 2);
+        buffer[p++] = '-';
+        p = putDigits(buffer, p, day, 2);
+        buffer[p++] = 'T';
+        p = putDigits(buffer, p, secondOfDay / 3600, 2);
+        buffer[p++] = ':';
+        p = putDigits(buffer, p, secondOfDay / 60 % 60, 2);
+        buffer[p++] = ':';
+        p = putDigits(buffer, p, secondOfDay % 60, 2);
+        buffer[p++] = 'Z';
+        buffer[p++] = QUOTE;
+        mSize = p;
+    }
+
+    // puts the last width digits of v, which is in [0, 10^width)
+    private static int putDigits(byte[] buffer, int p, int v, int width) {
+        for (int i = width - 1; i >= 0; i --) {
+            buffer[p + i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        return p + width;
+    }
+
+    private static void reverse(byte[] buffer, int from, int to) {
+        while (from < to) {
+            byte b = buffer[from];
+            buffer[from++] = buffer[to];
+            buffer[to--] = b;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package io.github.leetsong.seh;
+
+import io.github.leetsong.seh.data.stackexchange.ItemContainer;
+import io.github.leetsong.seh.data.stackexchange.SearchItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import retrofit2.Response;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * DateSharder splits a query into creation date windows, each of which
+ * holds no more than maxItems questions, so that each window can be
+ * paginated without hitting deep-paging limits. Windows are sized from
+ * count probes: a window is split into as many equal-width windows as its
+ * count asks for, and the ones still too large are split again, until
+ * every window fits or is as narrow as one second.
+ */
+public class DateSharder {
+
+    private Logger logger = LoggerFactory.getLogger(DateSharder.class);
+
+    // aim at windows half full, as questions are not spread evenly over time
+    private static final double DEFAULT_FILL_FACTOR = 0.5;
+
+    public static class Window {
+
+        // creation date window in seconds, both inclusive
+        public final long fromDate;
+        public final long toDate;
+        public final int count;
+
+        public Window(long fromDate, long toDate, int count) {
+            this.fromDate = fromDate;
+            this.toDate = toDate;
+            this.count = count;
+        }
+    }
+
+    private final StackOverflowService mService;
+    private final QuotaRateLimiter mRateLimiter;
+    private final String mCountFilter;
+    private final String[] mTags;
+    private final int mMaxItems;
+    private final ExecutorService mProbers;
+
+    public DateSharder(StackOverflowService service, QuotaRateLimiter rateLimiter, String countFilter,
+                       String[] tags, int maxItems, ExecutorService probers) {
+        this.mService = service;
+        this.mRateLimiter = rateLimiter;
+        this.mCountFilter = countFilter;
+        this.mTags = tags;
+        this.mMaxItems = maxItems;
+        this.mProbers = probers;
+    }
+
+    /**
+     * shard splits [fromDate, toDate] into windows
+     * @param fromDate the earliest creation date in seconds, inclusive
+     * @param toDate   the latest creation date in seconds, inclusive
+     * @return non-empty windows sorted by date
+     * @throws IOException if there is no count filter, or a probe fails
+     * @throws InterruptedException if interrupted while probing
+     */
+    public List<Window> shard(long fromDate, long toDate) throws IOException, InterruptedException {
+        // otherwise the default filter is used, whose responses have no total
+        if (mCountFilter == null) {
+            throw new IOException("The count filter is not created, the query cannot be sharded");
+        }
+
+        List<Window> shards = new ArrayList<>();
+        List<Window> pending = new ArrayList<>();
+        pending.add(probe(fromDate, toDate));
+
+        int round = 0;
+        while (!pending.isEmpty()) {
+            // split the oversized windows by their counts
+            List<long[]> ranges = new ArrayList<>();
+            for (Window w : pending) {
+                if (w.count == 0) {
+                    continue;
+                }
+                if (w.count <= mMaxItems || w.fromDate == w.toDate) {
+                    if (w.count > mMaxItems) {
+                        logger.warn(String.format("Window [%d, %d] has %d items, but cannot be split",
+                                w.fromDate, w.toDate, w.count));
+                    }
+                    shards.add(w);
+                    continue;
+                }
+
+                long width = w.toDate - w.fromDate + 1;
+                long n = Math.min(width, (long) Math.ceil(w.count / (mMaxItems * DEFAULT_FILL_FACTOR)));
+                for (long i = 0; i < n; i ++) {
+                    long from = w.fromDate + width * i / n;
+                    long to = w.fromDate + width * (i + 1) / n - 1;
+                    ranges.add(new long[] { from, to });
+                }
+            }
+
+            // probe the split windows in parallel
+            List<Future<Window>> probes = new ArrayList<>(ranges.size());
+            for (long[] range : ranges) {
+                probes.add(mProbers.submit(() -> probe(range[0], range[1])));
+            }
+            pending = new ArrayList<>(probes.size());
+            for (Future<Window> probe : probes) {
+                try {
+                    pending.add(probe.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    throw new IOException(cause);
+                }
+            }
+
+            round += 1;
+            logger.info(String.format("Sharding round %d: %d windows fit, %d windows probed",
+                    round, shards.size(), pending.size()));
+        }
+
+        shards.sort(Comparator.comparingLong(w -> w.fromDate));
+        return shards;
+    }
+
+    private Window probe(long fromDate, long toDate) throws IOException, InterruptedException {
+        while (true) {
+            mRateLimiter.acquire(StackOverflowService.METHOD_SEARCH);
+            Response<ItemContainer<SearchItem>> response =
+                    mService.count(mCountFilter, fromDate, toDate, mTags).execute();
+            ItemContainer<SearchItem> result = response.body();
+            if (response.isSuccessful() && result != null) {
+                if (!HttpCachePolicy.isFromCache(response.raw())) {
+                    mRateLimiter.update(StackOverflowService.METHOD_SEARCH, result);
+                }
+                // a window without total would be taken as empty, and dropped
+                if (result.getTotal() == null) {
+                    throw new IOException(String.format("Failed to probe [%d, %d]: no total in the response",
+                            fromDate, toDate));
+                }
+                return new Window(fromDate, toDate, result.getTotal());
+            }
+
+            ItemContainer<?> error = StackOverflowService.parseError(response);
+            if (QuotaRateLimiter.isThrottled(response.code(), error)) {
+                StackOverflowClient.getClient().onThrottled(
+                        mRateLimiter, StackOverflowService.METHOD_SEARCH, response, error);
+                continue;
+            }
+            throw new IOException(String.format("Failed to probe [%d, %d] due to: %s",
+                    fromDate, toDate, error != null ? error.getErrorMessage() : response.toString()));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package io.github.leetsong.seh;
+
+import io.github.leetsong.seh.data.stackexchange.CsvItemable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * DedupAppender is put in front of another appender, and drops the items
+ * whose question ids are already in a QuestionIdSet, which is shared by
+ * all appenders of a fetch. It is not registered in AppenderFactory by its
+ * type, but wrapped around the appender by AppenderFactory.getAppender
+ */
+public class DedupAppender extends AbstractAppender<CsvItemable> {
+
+    private final Appender<CsvItemable> mAppender;
+    private final QuestionIdSet mQuestionIds;
+
+    public DedupAppender(String path, Appender<CsvItemable> appender, QuestionIdSet questionIds) {
+        super(path);
+        this.mAppender = appender;
+        this.mQuestionIds = questionIds;
+    }
+
+    @Override
+    public void append(List<CsvItemable> items) {
+        List<CsvItemable> unique = new ArrayList<>(items.size());
+        for (CsvItemable item : items) {
+            if (mQuestionIds.add(item.getQuestionId())) {
+                unique.add(item);
+            }
+        }
+        if (!unique.isEmpty()) {
+            mAppender.append(unique);
+        }
+    }
+
+    @Override
+    public void flush(OnFlushedListener l) {
+        mAppender.flush(l);
+    }
+
+    @Override
+    public void sync() {
+        mAppender.sync();
+    }
+
+    @Override
+    public void close() {
+        mAppender.close();
+    }
+}
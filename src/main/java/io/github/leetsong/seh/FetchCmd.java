@@ -9,6 +9,16 @@ public class FetchCmd extends CLI.Cmd {
         static final String  OPT_TAGS_LONG = "tags";
         static final boolean OPT_TAGS_HAS_ARGS = true;
         static final String  OPT_TAGS_DESCRIPTION = "tags to search";
+
+        static final String  OPT_SITES_SHORT = "s";
+        static final String  OPT_SITES_LONG = "sites";
+        static final boolean OPT_SITES_HAS_ARGS = true;
+        static final String  OPT_SITES_DESCRIPTION = "sites to search";
+
+        static final String  OPT_MERGE_SHORT = "m";
+        static final String  OPT_MERGE_LONG = "merge";
+        static final boolean OPT_MERGE_HAS_ARGS = true;
+        static final String  OPT_MERGE_DESCRIPTION = "file to merge outputs of all sites into";
     }
 
     public static final String COMMAND = "fetch";
@@ -25,7 +35,13 @@ public class FetchCmd extends CLI.Cmd {
 
             if (cli.hasOption(CLI_OPTIONS.OPT_TAGS_SHORT)) {
                 String tags = cli.getOptionValue(CLI_OPTIONS.OPT_TAGS_SHORT);
-                new ApiFetcher(tags.split(";")).fetch();
+                if (cli.hasOption(CLI_OPTIONS.OPT_SITES_SHORT)) {
+                    String sites = cli.getOptionValue(CLI_OPTIONS.OPT_SITES_SHORT);
+                    new MultiSiteFetcher(sites.split(";"), tags.split(";"),
+                            cli.getOptionValue(CLI_OPTIONS.OPT_MERGE_SHORT)).fetch();
+                } else {
+                    new ApiFetcher(tags.split(";")).fetch();
+                }
             } else {
                 mCli.stderr("Missing required argument");
                 help();
@@ -41,9 +57,12 @@ public class FetchCmd extends CLI.Cmd {
     @Override
     public void help() {
         // TODO
-        mCli.stdout("seh fetch --tag|-t <tags>");
-        mCli.stdout("<tags> tags you want to search, separated by ';'");
-        mCli.stdout("       e.g., android;android-webview;webview");
+        mCli.stdout("seh fetch --tag|-t <tags> [--sites|-s <sites> [--merge|-m <file>]]");
+        mCli.stdout("<tags>  tags you want to search, separated by ';'");
+        mCli.stdout("        e.g., android;android-webview;webview");
+        mCli.stdout("<sites> sites you want to search in parallel, separated by ';'");
+        mCli.stdout("        e.g., stackoverflow;superuser;android, stackoverflow by default");
+        mCli.stdout("<file>  csv file to merge outputs of all sites into, with a site column, kept per site by default");
     }
 
     private Options setUpOptions() {
@@ -53,6 +72,16 @@ public class FetchCmd extends CLI.Cmd {
                 CLI_OPTIONS.OPT_TAGS_LONG,
                 CLI_OPTIONS.OPT_TAGS_HAS_ARGS,
                 CLI_OPTIONS.OPT_TAGS_DESCRIPTION);
+        options.addOption(
+                CLI_OPTIONS.OPT_SITES_SHORT,
+                CLI_OPTIONS.OPT_SITES_LONG,
+                CLI_OPTIONS.OPT_SITES_HAS_ARGS,
+                CLI_OPTIONS.OPT_SITES_DESCRIPTION);
+        options.addOption(
+                CLI_OPTIONS.OPT_MERGE_SHORT,
+                CLI_OPTIONS.OPT_MERGE_LONG,
+                CLI_OPTIONS.OPT_MERGE_HAS_ARGS,
+                CLI_OPTIONS.OPT_MERGE_DESCRIPTION);
         return options;
     }
 }
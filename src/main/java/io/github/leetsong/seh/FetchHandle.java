@@ -0,0 +1,235 @@
+package io.github.leetsong.seh;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * FetchHandle is returned by Fetcher.fetchAsync(), it gives
+ *  1. the completion of the fetch as a future, which completes after the
+ *     state of the fetch is saved, exceptionally with a
+ *     CancellationException if it is cancelled
+ *  2. live counters of pages, items, bytes, errors and requests
+ *  3. cancellation, which stops the fetch as soon as possible, the pages
+ *     completed so far are saved, and the fetch can be restarted later
+ *  4. progress listeners, which are called on the fetcher's threads
+ */
+public class FetchHandle {
+
+    private Logger logger = LoggerFactory.getLogger(FetchHandle.class);
+
+    public interface ProgressListener {
+        /**
+         * onProgress is called once pages or items are completed
+         * @param handle the handle of the fetch
+         */
+        void onProgress(FetchHandle handle);
+
+        /**
+         * onCompleted is called once the fetch completes
+         * @param handle the handle of the fetch
+         * @param error  null if succeeded, or why it failed or was cancelled
+         */
+        default void onCompleted(FetchHandle handle, Throwable error) {}
+    }
+
+    private final CompletableFuture<FetchHandle> mCompletion = new CompletableFuture<>();
+    private final List<ProgressListener> mProgressListeners = new CopyOnWriteArrayList<>();
+    private final long mStartTime = System.currentTimeMillis();
+
+    private final LongAdder mNrPage = new LongAdder();
+    private final LongAdder mNrItem = new LongAdder();
+    private final LongAdder mNrByte = new LongAdder();
+    private final LongAdder mNrError = new LongAdder();
+    private final LongAdder mNrRequest = new LongAdder();
+
+    // bytes counted by a shared counter, e.g., the http client, since the start
+    private final LongSupplier mByteCounter;
+    private final long mByteCounterBase;
+
+    // the handle which aggregates this one and its siblings, e.g., of all sites
+    private final FetchHandle mParent;
+
+    private volatile boolean mIsCancelled = false;
+    private volatile Runnable mOnCancel = null;
+
+    public FetchHandle() {
+        this(null);
+    }
+
+    /**
+     * FetchHandle counts bytes by byteCounter in addition to onBytes
+     * @param byteCounter a counter of bytes, null if bytes are only counted by onBytes
+     */
+    public FetchHandle(LongSupplier byteCounter) {
+        this(byteCounter, null);
+    }
+
+    /**
+     * FetchHandle counts everything but bytes by byteCounter to parent as
+     * well, so that parent can be a single view of several fetches, in
+     * which case parent usually counts bytes by a counter covering them all
+     * @param byteCounter a counter of bytes, null if bytes are only counted by onBytes
+     * @param parent      the aggregating handle, or null
+     */
+    public FetchHandle(LongSupplier byteCounter, FetchHandle parent) {
+        this.mByteCounter = byteCounter;
+        this.mByteCounterBase = byteCounter == null ? 0 : byteCounter.getAsLong();
+        this.mParent = parent;
+    }
+
+    public CompletableFuture<FetchHandle> getCompletion() {
+        return mCompletion;
+    }
+
+    public void addProgressListener(ProgressListener l) {
+        mProgressListeners.add(l);
+    }
+
+    public void removeProgressListener(ProgressListener l) {
+        mProgressListeners.remove(l);
+    }
+
+    /**
+     * cancel asks the fetch to stop, it returns immediately, use getCompletion()
+     * to wait until the fetch stops
+     * @return false if the fetch has already completed or been cancelled
+     */
+    public boolean cancel() {
+        if (mIsCancelled || mCompletion.isDone()) {
+            return false;
+        }
+        mIsCancelled = true;
+        Runnable onCancel = mOnCancel;
+        if (onCancel != null) {
+            onCancel.run();
+        }
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return mIsCancelled;
+    }
+
+    public boolean isDone() {
+        return mCompletion.isDone();
+    }
+
+    public long getNrPage() {
+        return mNrPage.sum();
+    }
+
+    public long getNrItem() {
+        return mNrItem.sum();
+    }
+
+    public long getNrByte() {
+        return mNrByte.sum() + (mByteCounter == null ? 0 : mByteCounter.getAsLong() - mByteCounterBase);
+    }
+
+    public long getNrError() {
+        return mNrError.sum();
+    }
+
+    public long getNrRequest() {
+        return mNrRequest.sum();
+    }
+
+    /**
+     * getRequestsPerSecond gets the average requests per second since the start
+     * @return requests per second
+     */
+    public double getRequestsPerSecond() {
+        long elapsedMs = Math.max(1, System.currentTimeMillis() - mStartTime);
+        return getNrRequest() * 1000.0 / elapsedMs;
+    }
+
+    public long getStartTime() {
+        return mStartTime;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("pages: %d, items: %d, bytes: %d, errors: %d, requests: %d (%.2f/s)",
+                getNrPage(), getNrItem(), getNrByte(), getNrError(), getNrRequest(), getRequestsPerSecond());
+    }
+
+    // below are called by fetchers
+
+    /**
+     * setOnCancel sets what the fetcher does on cancel(), it is run at once
+     * if the fetch is already cancelled
+     */
+    void setOnCancel(Runnable onCancel) {
+        this.mOnCancel = onCancel;
+        if (mIsCancelled) {
+            onCancel.run();
+        }
+    }
+
+    void onRequest() {
+        mNrRequest.increment();
+        if (mParent != null) {
+            mParent.onRequest();
+        }
+    }
+
+    void onBytes(long nrByte) {
+        mNrByte.add(nrByte);
+        if (mParent != null) {
+            mParent.onBytes(nrByte);
+        }
+    }
+
+    void onError() {
+        mNrError.increment();
+        if (mParent != null) {
+            mParent.onError();
+        }
+    }
+
+    void onProgress(int nrPage, int nrItem) {
+        if (mParent != null) {
+            mParent.onProgress(nrPage, nrItem);
+        }
+        mNrPage.add(nrPage);
+        mNrItem.add(nrItem);
+        for (ProgressListener l : mProgressListeners) {
+            try {
+                l.onProgress(this);
+            } catch (RuntimeException e) {
+                logger.error("ProgressListener failed due to:");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * complete completes the fetch, with error if it failed, or with a
+     * CancellationException if it was cancelled
+     */
+    void complete(Throwable error) {
+        if (error == null && mIsCancelled) {
+            error = new CancellationException("The fetch is cancelled");
+        }
+        for (ProgressListener l : mProgressListeners) {
+            try {
+                l.onCompleted(this, error);
+            } catch (RuntimeException e) {
+                logger.error("ProgressListener failed due to:");
+                e.printStackTrace();
+            }
+        }
+        if (error == null) {
+            mCompletion.complete(this);
+        } else {
+            mCompletion.completeExceptionally(error);
+        }
+    }
+}
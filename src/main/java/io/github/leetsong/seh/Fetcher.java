@@ -1,13 +1,17 @@
 package io.github.leetsong.seh;
 
+import com.opencsv.CSVReader;
 import io.github.leetsong.seh.data.stackexchange.ItemContainer;
 import io.github.leetsong.seh.data.stackexchange.SynonymItem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import retrofit2.Response;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
 
 public abstract class Fetcher {
 
@@ -19,21 +23,45 @@ public abstract class Fetcher {
     private Logger logger = LoggerFactory.getLogger(Fetcher.class);
 
     /**
-     * fetch fetches the interested queries
+     * fetchAsync starts to fetch the interested queries, and returns at once
+     * @return the handle of the fetch
      */
-    public abstract void fetch();
+    public abstract FetchHandle fetchAsync();
+
+    /**
+     * fetch fetches the interested queries, it blocks until completed
+     */
+    public void fetch() {
+        try {
+            fetchAsync().getCompletion().join();
+        } catch (CancellationException e) {
+            logger.warn("The fetch is cancelled");
+        } catch (CompletionException e) {
+            logger.error("The fetch failed due to:");
+            e.getCause().printStackTrace();
+        }
+    }
 
     protected String[] fillSynonyms(String... words) {
+        return fillSiteSynonyms(StackOverflowService.SITE, words);
+    }
+
+    protected String[] fillSiteSynonyms(String site, String... words) {
         StackOverflowClient client = StackOverflowClient.getClient();
-        StackOverflowService service = client.getStackOverflowService();
+        StackOverflowService service = client.getStackOverflowService(site);
+        QuotaRateLimiter rateLimiter = client.getRateLimiter(site);
         String[] synonyms = new String[0];
 
         // only fetch 1 page, it is enough
         try {
+            rateLimiter.acquire(StackOverflowService.METHOD_SYNONYMS);
             Response<ItemContainer<SynonymItem>> response = service.synonyms(1, words).execute();
             if (response.isSuccessful()) {
                 ItemContainer<SynonymItem> result = response.body();
                 if (result != null) {
+                    if (!HttpCachePolicy.isFromCache(response.raw())) {
+                        rateLimiter.update(StackOverflowService.METHOD_SYNONYMS, result);
+                    }
                     List<SynonymItem> items = result.getItems();
                     if (items != null && items.size() != 0) {
                         synonyms = items.stream().map(SynonymItem::getFromTag).toArray(String[]::new);
@@ -44,11 +72,89 @@ public abstract class Fetcher {
             } else {
                 logger.error("Failed to get synonyms due to: " + response.toString());
             }
-        } catch (IOException e) {
+        } catch (IOException | InterruptedException e) {
             logger.error("Failed to get synonyms due to:");
             e.printStackTrace();
         }
 
         return synonyms;
     }
+
+    /**
+     * loadQuestionIds loads the question ids saved by earlier runs, and the
+     * ones in outputs, which may be appended after the last save
+     * @param config  configurations of the fetcher
+     * @param outputs paths of the outputs, either csv or columnar ones
+     * @return the question ids, or null if dedup is disabled
+     */
+    protected QuestionIdSet loadQuestionIds(FetcherConfig config, List<String> outputs) {
+        if (!config.getDedupEnabled()) {
+            return null;
+        }
+
+        QuestionIdSet questionIds = new QuestionIdSet();
+        String path = config.getDedupPath();
+        if (!path.isEmpty()) {
+            try {
+                questionIds = QuestionIdSet.load(path);
+            } catch (IOException e) {
+                logger.error(String.format("Failed to load question ids from %s, ignore them", path));
+                e.printStackTrace();
+            }
+        }
+
+        for (String output : outputs) {
+            if (!new File(output).exists()) {
+                continue;
+            }
+            try {
+                addQuestionIds(questionIds, output);
+            } catch (IOException e) {
+                logger.error(String.format("Failed to read question ids from %s, ignore them", output));
+                e.printStackTrace();
+            }
+        }
+
+        logger.info(String.format("%d questions are already fetched, and will be skipped", questionIds.size()));
+        return questionIds;
+    }
+
+    private static void addQuestionIds(QuestionIdSet questionIds, String output) throws IOException {
+        if (ColumnarReader.isColumnar(output)) {
+            try (ColumnarReader reader = new ColumnarReader(output)) {
+                reader.scan(item -> questionIds.add(item.getQuestionId()));
+            }
+            return;
+        }
+
+        try (CSVReader reader = new CSVReader(CompressedFiles.newReader(output))) {
+            // skip header
+            reader.skip(1);
+            String[] record;
+            while ((record = reader.readNext()) != null) {
+                try {
+                    questionIds.add(Long.parseLong(record[0]));
+                } catch (NumberFormatException e) {
+                    // not a question, ignore it
+                }
+            }
+        }
+    }
+
+    /**
+     * saveQuestionIds saves questionIds for later runs, if a path is configured
+     * @param config      configurations of the fetcher
+     * @param questionIds the question ids, null if dedup is disabled
+     */
+    protected void saveQuestionIds(FetcherConfig config, QuestionIdSet questionIds) {
+        if (questionIds == null || config.getDedupPath().isEmpty()) {
+            return;
+        }
+        try {
+            questionIds.save(config.getDedupPath());
+        } catch (IOException e) {
+            logger.error("Failed to save question ids due to:");
+            e.printStackTrace();
+        }
+    }
 }
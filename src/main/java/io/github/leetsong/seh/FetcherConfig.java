@@ -3,18 +3,57 @@ package io.github.leetsong.seh;
 import java.io.*;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
 
 public class FetcherConfig {
 
     private static final int DEFAULT_NR_WORKER = 16;
     private static final int DEFAULT_PAGE_SIZE = 30;
+    private static final int UNKNOWN_END_PAGE = -1;
+    private static final int DEFAULT_ASYNC_WINDOW = 256;
+    private static final int DEFAULT_API_PAGE_SIZE = StackOverflowService.MAX_PAGESIZE;
+    private static final int DEFAULT_SHARD_MAX_ITEMS = 10_000;
+    // 2008-07-31, when stackoverflow.com, the earliest site, was opened
+    private static final long DEFAULT_SHARD_FROM_DATE = 1217462400L;
+    private static final int DEFAULT_PRODUCER_PARALLELISM = 4;
+    private static final long DEFAULT_PRODUCER_DELAY_MS = 1_000;
+    private static final String DEFAULT_PRODUCER_PROVIDERS = GoogleSearchProvider.PROVIDER_NAME;
+    private static final int DEFAULT_ENRICH_BATCH_SIZE = StackOverflowService.MAX_PAGESIZE;
+    private static final long DEFAULT_ENRICH_BATCH_DELAY_MS = 2_000;
+    // ids are not saved unless a path is set, e.g., seh_question_ids.bin, since
+    // the file outlives the outputs, which are rescanned for ids anyway
+    private static final String DEFAULT_DEDUP_PATH = "";
+    private static final String DEFAULT_APPENDER_ASYNC = AsyncAppender.POLICY_BLOCK;
+    private static final int DEFAULT_APPENDER_ASYNC_CAPACITY = 16;
+    // page size of configurations stored before it could be configured
+    private static final int LEGACY_API_PAGE_SIZE = StackOverflowService.PAGESIZE;
+
+    // modes of ApiFetcher
+    public static final String API_FETCHER_MODE_SYNC = "sync";
+    public static final String API_FETCHER_MODE_ASYNC = "async";
+
+    // modes of GooFetcher enrichment, i.e., how links are turned into items
+    public static final String GOO_FETCHER_ENRICH_MODE_API = "api";
+    public static final String GOO_FETCHER_ENRICH_MODE_HTML = "html";
 
     private final Properties mProperties = new Properties();
     private String mFileName;
+    // outputs of other sites than stackoverflow are prefixed by their site
+    private final String mOutputPrefix;
 
     public FetcherConfig(String fileName) {
+        this(fileName, StackOverflowService.SITE);
+    }
+
+    public FetcherConfig(String fileName, String site) {
         this.mFileName = fileName;
+        this.mOutputPrefix = StackOverflowService.SITE.equals(site) ? "" : site + "_";
         reset();
     }
 
@@ -32,16 +71,42 @@ public class FetcherConfig {
         }
     }
 
+    public static String convert2ConfigFileName(String site, String[] x) {
+        if (StackOverflowService.SITE.equals(site)) {
+            return convert2ConfigFileName(x);
+        }
+        String[] siteAndX = new String[x.length + 1];
+        siteAndX[0] = site + "@";
+        System.arraycopy(x, 0, siteAndX, 1, x.length);
+        return convert2ConfigFileName(siteAndX);
+    }
+
     synchronized public void load()
             throws FileNotFoundException, IOException {
-        InputStream inputStream = new FileInputStream(mFileName);
-        mProperties.load(inputStream);
+        Properties properties = new Properties();
+        try (InputStream inputStream = new FileInputStream(mFileName)) {
+            properties.load(inputStream);
+        }
+        migrateLegacyWorkerPages(properties);
+        mProperties.putAll(properties);
     }
 
+    /**
+     * store stores the properties to a temporary file, syncs it, and then
+     * moves it to the configuration file, so that a crash leaves either the
+     * previous configuration or this one, but never a partial one
+     * @throws IOException if it cannot be stored
+     */
     synchronized public void store()
             throws FileNotFoundException, IOException {
-        OutputStream outputStream = new FileOutputStream(mFileName);
-        mProperties.store(outputStream, "StackExchange-Helper configurations");
+        File file = new File(mFileName).getAbsoluteFile();
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileOutputStream outputStream = new FileOutputStream(tmp)) {
+            mProperties.store(outputStream, "StackExchange-Helper configurations");
+            outputStream.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
     }
     
     public void reset() {
@@ -49,15 +114,35 @@ public class FetcherConfig {
             mProperties.clear();
             // set global
             mProperties.setProperty(property$Global_NrWorker(), Integer.toString(DEFAULT_NR_WORKER));
-            // set ApiFetcher worker
+            mProperties.setProperty(property$Global_Executor(), WorkerExecutors.EXECUTOR_FIXED);
+            mProperties.setProperty(property$Global_Dedup_Enabled(), Boolean.toString(true));
+            mProperties.setProperty(property$Global_Dedup_Path(), DEFAULT_DEDUP_PATH);
+            mProperties.setProperty(property$Global_Appender_Async(), DEFAULT_APPENDER_ASYNC);
+            mProperties.setProperty(property$Global_Appender_AsyncCapacity(),
+                    Integer.toString(DEFAULT_APPENDER_ASYNC_CAPACITY));
+            // set ApiFetcher mode
+            mProperties.setProperty(property$ApiFetcher_Mode(), API_FETCHER_MODE_SYNC);
+            mProperties.setProperty(property$ApiFetcher_Async_Window(), Integer.toString(DEFAULT_ASYNC_WINDOW));
+            // set ApiFetcher request
+            mProperties.setProperty(property$ApiFetcher_PageSize(), Integer.toString(DEFAULT_API_PAGE_SIZE));
+            mProperties.setProperty(property$ApiFetcher_Filter(), FilterRegistry.FILTER_CSV_ITEM);
+            // set ApiFetcher worker, workers write their own outputs unless a shared one is set
+            mProperties.setProperty(property$ApiFetcher_Appender_SharedPath(), "");
             for (int i = apiFetcherWorkerBegin(); i < apiFetcherWorkerEnd(); i += apiFetcherWorkerStep()) {
                 mProperties.setProperty(property$ApiFetcher_Worker_Id(i), Integer.toString(i));
-                mProperties.setProperty(property$ApiFetcher_Worker_Page(i), Integer.toString(i));
-                mProperties.setProperty(property$ApiFetcher_Worker_Step(i), Integer.toString(DEFAULT_NR_WORKER));
                 mProperties.setProperty(property$ApiFetcher_Worker_Appender_Type(i), CsvAppender.APPENDER_TYPE);
                 mProperties.setProperty(property$ApiFetcher_Worker_Appender_Path(i),
-                        String.format("apifetcher_worker[%d]_appender.csv", i));
+                        String.format("%sapifetcher_worker[%d]_appender.csv", mOutputPrefix, i));
             }
+            // set ApiFetcher dispenser
+            mProperties.setProperty(property$ApiFetcher_Dispenser_Watermark(), Integer.toString(1));
+            mProperties.setProperty(property$ApiFetcher_Dispenser_Completed(), "");
+            mProperties.setProperty(property$ApiFetcher_Dispenser_EndPage(), Integer.toString(UNKNOWN_END_PAGE));
+            // set ApiFetcher sharding, shards are computed on the first fetch
+            mProperties.setProperty(property$ApiFetcher_Shard_Enabled(), Boolean.toString(false));
+            mProperties.setProperty(property$ApiFetcher_Shard_MaxItems(), Integer.toString(DEFAULT_SHARD_MAX_ITEMS));
+            mProperties.setProperty(property$ApiFetcher_Shard_FromDate(), Long.toString(DEFAULT_SHARD_FROM_DATE));
+            mProperties.setProperty(property$ApiFetcher_Shard_NrShard(), Integer.toString(0));
             // set ApiFetcher result
             mProperties.setProperty(property$ApiFetcher_Result_NrPage(), Integer.toString(0));
             mProperties.setProperty(property$ApiFetcher_Result_NrItem(), Integer.toString(0));
@@ -65,8 +150,22 @@ public class FetcherConfig {
             mProperties.setProperty(property$GooFetcher_AppenderWorker_Appender_Type(), CsvAppender.APPENDER_TYPE);
             mProperties.setProperty(property$GooFetcher_AppenderWorker_Appender_Path(),
                     "goofetcher_worker_appender.csv");
+            // set GooFetcher producer
+            mProperties.setProperty(property$GooFetcher_Producer_Parallelism(),
+                    Integer.toString(DEFAULT_PRODUCER_PARALLELISM));
+            mProperties.setProperty(property$GooFetcher_Producer_DelayMs(), Long.toString(DEFAULT_PRODUCER_DELAY_MS));
+            mProperties.setProperty(property$GooFetcher_Producer_Providers(), DEFAULT_PRODUCER_PROVIDERS);
+            // set GooFetcher frontier
+            mProperties.setProperty(property$GooFetcher_Frontier_Path(), "goofetcher_frontier.bin");
+            mProperties.setProperty(property$GooFetcher_Frontier_VisitedPath(), "goofetcher_visited.bin");
+            // set GooFetcher enrichment
+            mProperties.setProperty(property$GooFetcher_Enrich_Mode(), GOO_FETCHER_ENRICH_MODE_API);
+            mProperties.setProperty(property$GooFetcher_Enrich_BatchSize(), Integer.toString(DEFAULT_ENRICH_BATCH_SIZE));
+            mProperties.setProperty(property$GooFetcher_Enrich_BatchDelayMs(),
+                    Long.toString(DEFAULT_ENRICH_BATCH_DELAY_MS));
             // set GooFetcher result
-            mProperties.setProperty(property$GooFetcher_Result_Start(), Integer.toString(0));
+            mProperties.setProperty(property$GooFetcher_Result_Start(GoogleSearchProvider.PROVIDER_NAME),
+                    Integer.toString(0));
             mProperties.setProperty(property$GooFetcher_Result_PageSize(), Integer.toString(DEFAULT_PAGE_SIZE));
         }
     }
@@ -83,26 +182,140 @@ public class FetcherConfig {
         return Integer.parseInt(mProperties.getProperty(property$Global_NrWorker()));
     }
 
-    public int getApiFetcherWorkerId(int i) {
-        return Integer.parseInt(mProperties.getProperty(property$ApiFetcher_Worker_Id(i)));
+    public String getExecutor() {
+        return mProperties.getProperty(property$Global_Executor(), WorkerExecutors.EXECUTOR_FIXED);
+    }
+
+    public boolean getDedupEnabled() {
+        return Boolean.parseBoolean(mProperties.getProperty(
+                property$Global_Dedup_Enabled(), Boolean.toString(true)));
+    }
+
+    // returns an empty path if the ids should not be saved
+    public String getDedupPath() {
+        return mProperties.getProperty(property$Global_Dedup_Path(), DEFAULT_DEDUP_PATH);
+    }
+
+    /**
+     * getAppenderAsync gets how workers append asynchronously, see AsyncAppender
+     * @return AsyncAppender.POLICY_NONE or POLICY_BLOCK
+     */
+    public String getAppenderAsync() {
+        return mProperties.getProperty(property$Global_Appender_Async(), DEFAULT_APPENDER_ASYNC);
+    }
+
+    public int getAppenderAsyncCapacity() {
+        return Integer.parseInt(mProperties.getProperty(
+                property$Global_Appender_AsyncCapacity(), Integer.toString(DEFAULT_APPENDER_ASYNC_CAPACITY)));
+    }
+
+    public String getApiFetcherMode() {
+        return mProperties.getProperty(property$ApiFetcher_Mode(), API_FETCHER_MODE_SYNC);
+    }
+
+    public int getApiFetcherAsyncWindow() {
+        return Integer.parseInt(mProperties.getProperty(
+                property$ApiFetcher_Async_Window(), Integer.toString(DEFAULT_ASYNC_WINDOW)));
+    }
+
+    public int getApiFetcherPageSize() {
+        return Integer.parseInt(mProperties.getProperty(
+                property$ApiFetcher_PageSize(), Integer.toString(LEGACY_API_PAGE_SIZE)));
     }
 
-    public int getApiFetcherWorkerPage(int id) {
-        return Integer.parseInt(mProperties.getProperty(property$ApiFetcher_Worker_Page(id)));
+    // returns null to use the default filter
+    public String getApiFetcherFilter() {
+        return mProperties.getProperty(property$ApiFetcher_Filter());
+    }
+
+    public int getApiFetcherWorkerId(int i) {
+        return Integer.parseInt(mProperties.getProperty(property$ApiFetcher_Worker_Id(i)));
     }
 
-    public int getApiFetcherWorkerStep(int id) {
-        return Integer.parseInt(mProperties.getProperty(property$ApiFetcher_Worker_Step(id)));
+    /**
+     * getApiFetcherAppenderSharedPath gets the output shared by all workers,
+     * which overrides the appenders of workers, see SharedCsvAppender. It
+     * cannot be compressed, and requires dedup to be enabled
+     * @return the path, or empty if each worker writes its own output
+     */
+    public String getApiFetcherAppenderSharedPath() {
+        return mProperties.getProperty(property$ApiFetcher_Appender_SharedPath(), "");
     }
 
+    // ends with CompressedFiles.GZIP_SUFFIX if the type is compressed, see AppenderFactory.getAppenderPath
     public String getApiFetcherWorkerAppenderPath(int id) {
-        return mProperties.getProperty(property$ApiFetcher_Worker_Appender_Path(id));
+        String sharedPath = getApiFetcherAppenderSharedPath();
+        if (!sharedPath.isEmpty()) {
+            return sharedPath;
+        }
+        return AppenderFactory.getAppenderPath(getApiFetcherWorkerAppenderType(id),
+                mProperties.getProperty(property$ApiFetcher_Worker_Appender_Path(id)));
     }
 
     public String getApiFetcherWorkerAppenderType(int id) {
+        if (!getApiFetcherAppenderSharedPath().isEmpty()) {
+            return SharedCsvAppender.APPENDER_TYPE;
+        }
         return mProperties.getProperty(property$ApiFetcher_Worker_Appender_Type(id));
     }
 
+    // returns -1 if it is unknown, i.e., it has never been set
+    public long getApiFetcherWorkerAppenderOffset(int id) {
+        return Long.parseLong(mProperties.getProperty(property$ApiFetcher_Worker_Appender_Offset(id), "-1"));
+    }
+
+    public int getApiFetcherDispenserWatermark() {
+        return Integer.parseInt(mProperties.getProperty(property$ApiFetcher_Dispenser_Watermark(), "1"));
+    }
+
+    public List<Integer> getApiFetcherDispenserCompleted() {
+        return parsePages(mProperties.getProperty(property$ApiFetcher_Dispenser_Completed(), ""));
+    }
+
+    // returns Integer.MAX_VALUE if the end page is unknown
+    public int getApiFetcherDispenserEndPage() {
+        return parseEndPage(mProperties.getProperty(property$ApiFetcher_Dispenser_EndPage()));
+    }
+
+    public boolean getApiFetcherShardEnabled() {
+        return Boolean.parseBoolean(mProperties.getProperty(property$ApiFetcher_Shard_Enabled(), "false"));
+    }
+
+    public int getApiFetcherShardMaxItems() {
+        return Integer.parseInt(mProperties.getProperty(
+                property$ApiFetcher_Shard_MaxItems(), Integer.toString(DEFAULT_SHARD_MAX_ITEMS)));
+    }
+
+    public long getApiFetcherShardFromDate() {
+        return Long.parseLong(mProperties.getProperty(
+                property$ApiFetcher_Shard_FromDate(), Long.toString(DEFAULT_SHARD_FROM_DATE)));
+    }
+
+    public int getApiFetcherShardNrShard() {
+        return Integer.parseInt(mProperties.getProperty(property$ApiFetcher_Shard_NrShard(), "0"));
+    }
+
+    public long getApiFetcherShardFromDate(int i) {
+        return Long.parseLong(mProperties.getProperty(property$ApiFetcher_Shard_FromDate(i)));
+    }
+
+    public long getApiFetcherShardToDate(int i) {
+        return Long.parseLong(mProperties.getProperty(property$ApiFetcher_Shard_ToDate(i)));
+    }
+
+    public int getApiFetcherShardWatermark(int i) {
+        return Integer.parseInt(mProperties.getProperty(property$ApiFetcher_Shard_Watermark(i), "1"));
+    }
+
+    public List<Integer> getApiFetcherShardCompleted(int i) {
+        return parsePages(mProperties.getProperty(property$ApiFetcher_Shard_Completed(i), ""));
+    }
+
+    // returns Integer.MAX_VALUE if the end page is unknown
+    public int getApiFetcherShardEndPage(int i) {
+        return parseEndPage(mProperties.getProperty(property$ApiFetcher_Shard_EndPage(i)));
+    }
+
     public int getApiFetcherResultNrPage() {
         return Integer.parseInt(mProperties.getProperty(property$ApiFetcher_Result_NrPage()));
     }
@@ -112,15 +325,65 @@ public class FetcherConfig {
     }
 
     public String getGooFetcherAppenderWorkerAppenderPath() {
-        return mProperties.getProperty(property$GooFetcher_AppenderWorker_Appender_Path());
+        return AppenderFactory.getAppenderPath(getGooFetcherAppenderWorkerAppenderType(),
+                mProperties.getProperty(property$GooFetcher_AppenderWorker_Appender_Path()));
     }
 
     public String getGooFetcherAppenderWorkerAppenderType() {
         return mProperties.getProperty(property$GooFetcher_AppenderWorker_Appender_Type());
     }
 
-    public int getGooFetcherResultStart() {
-        return Integer.parseInt(mProperties.getProperty(property$GooFetcher_Result_Start()));
+    public int getGooFetcherProducerParallelism() {
+        return Integer.parseInt(mProperties.getProperty(
+                property$GooFetcher_Producer_Parallelism(), Integer.toString(DEFAULT_PRODUCER_PARALLELISM)));
+    }
+
+    public long getGooFetcherProducerDelayMs() {
+        return Long.parseLong(mProperties.getProperty(
+                property$GooFetcher_Producer_DelayMs(), Long.toString(DEFAULT_PRODUCER_DELAY_MS)));
+    }
+
+    public String getGooFetcherFrontierPath() {
+        return mProperties.getProperty(property$GooFetcher_Frontier_Path(), "goofetcher_frontier.bin");
+    }
+
+    public String getGooFetcherFrontierVisitedPath() {
+        return mProperties.getProperty(property$GooFetcher_Frontier_VisitedPath(), "goofetcher_visited.bin");
+    }
+
+    public String getGooFetcherEnrichMode() {
+        return mProperties.getProperty(property$GooFetcher_Enrich_Mode(), GOO_FETCHER_ENRICH_MODE_API);
+    }
+
+    public int getGooFetcherEnrichBatchSize() {
+        return Integer.parseInt(mProperties.getProperty(
+                property$GooFetcher_Enrich_BatchSize(), Integer.toString(DEFAULT_ENRICH_BATCH_SIZE)));
+    }
+
+    public long getGooFetcherEnrichBatchDelayMs() {
+        return Long.parseLong(mProperties.getProperty(
+                property$GooFetcher_Enrich_BatchDelayMs(), Long.toString(DEFAULT_ENRICH_BATCH_DELAY_MS)));
+    }
+
+    /**
+     * getGooFetcherProducerProviders gets the names of the search providers
+     * GooFetcher fans out to, see SearchProviderFactory
+     * @return names of the providers
+     */
+    public List<String> getGooFetcherProducerProviders() {
+        List<String> providers = new ArrayList<>();
+        for (String provider : mProperties.getProperty(
+                property$GooFetcher_Producer_Providers(), DEFAULT_PRODUCER_PROVIDERS).split(",")) {
+            if (!provider.trim().isEmpty()) {
+                providers.add(provider.trim());
+            }
+        }
+        return providers;
+    }
+
+    // each provider has its own offset, 0 if it has not been searched yet
+    public int getGooFetcherResultStart(String provider) {
+        return Integer.parseInt(mProperties.getProperty(property$GooFetcher_Result_Start(provider), "0"));
     }
 
     public int getGooFetcherResultPageSize() {
@@ -131,6 +394,10 @@ public class FetcherConfig {
         return mFileName;
     }
 
+    public String getJournalFileName() {
+        return mFileName + ".journal";
+    }
+
     // property setters
     public void setNrWorker(int nrWorker) {
         synchronized (mProperties) {
@@ -138,21 +405,69 @@ public class FetcherConfig {
         }
     }
 
-    public void setApiFetcherWorkerId(int id) {
+    public void setExecutor(String executor) {
         synchronized (mProperties) {
-            mProperties.setProperty(property$ApiFetcher_Worker_Id(id), Integer.toString(id));
+            mProperties.setProperty(property$Global_Executor(), executor);
+        }
+    }
+
+    public void setDedupEnabled(boolean enabled) {
+        synchronized (mProperties) {
+            mProperties.setProperty(property$Global_Dedup_Enabled(), Boolean.toString(enabled));
+        }
+    }
+
+    public void setDedupPath(String path) {
+        synchronized (mProperties) {
+            mProperties.setProperty(property$Global_Dedup_Path(), path);
+        }
+    }
+
+    public void setAppenderAsync(String policy) {
+        synchronized (mProperties) {
+            mProperties.setProperty(property$Global_Appender_Async(), policy);
         }
     }
 
-    public void setApiFetcherWorkerPage(int id, int page) {
+    public void setAppenderAsyncCapacity(int capacity) {
         synchronized (mProperties) {
-            mProperties.setProperty(property$ApiFetcher_Worker_Page(id), Integer.toString(page));
+            mProperties.setProperty(property$Global_Appender_AsyncCapacity(), Integer.toString(capacity));
         }
     }
 
-    public void setApiFetcherWorkerStep(int id, int step) {
+    public void setApiFetcherMode(String mode) {
         synchronized (mProperties) {
-            mProperties.setProperty(property$ApiFetcher_Worker_Step(id), Integer.toString(step));
+            mProperties.setProperty(property$ApiFetcher_Mode(), mode);
+        }
+    }
+
+    public void setApiFetcherAsyncWindow(int window) {
+        synchronized (mProperties) {
+            mProperties.setProperty(property$ApiFetcher_Async_Window(), Integer.toString(window));
+        }
+    }
+
+    public void setApiFetcherPageSize(int pageSize) {
+        synchronized (mProperties) {
+            mProperties.setProperty(property$ApiFetcher_PageSize(), Integer.toString(pageSize));
+        }
+    }
+
+    public void setApiFetcherFilter(String filter) {
+        synchronized (mProperties) {
+            mProperties.setProperty(property$ApiFetcher_Filter(), filter);
+        }
+    }
+
+    public void setApiFetcherWorkerId(int id) {
+        synchronized (mProperties) {
+            mProperties.setProperty(property$ApiFetcher_Worker_Id(id), Integer.toString(id));
+        }
+    }
+
+    public void setApiFetcherAppenderSharedPath(String path) {
+        synchronized (mProperties) {
+            mProperties.setProperty(property$ApiFetcher_Appender_SharedPath(), path);
         }
     }
 
@@ -168,6 +483,79 @@ public class FetcherConfig {
         }
     }
 
+    public void setApiFetcherWorkerAppenderOffset(int id, long offset) {
+        synchronized (mProperties) {
+            mProperties.setProperty(property$ApiFetcher_Worker_Appender_Offset(id), Long.toString(offset));
+        }
+    }
+
+    public void setApiFetcherDispenserWatermark(int watermark) {
+        synchronized (mProperties) {
+            mProperties.setProperty(property$ApiFetcher_Dispenser_Watermark(), Integer.toString(watermark));
+        }
+    }
+
+    public void setApiFetcherDispenserCompleted(List<Integer> completed) {
+        synchronized (mProperties) {
+            mProperties.setProperty(property$ApiFetcher_Dispenser_Completed(), joinPages(completed));
+        }
+    }
+
+    public void setApiFetcherDispenserEndPage(int endPage) {
+        synchronized (mProperties) {
+            mProperties.setProperty(property$ApiFetcher_Dispenser_EndPage(), joinEndPage(endPage));
+        }
+    }
+
+    public void setApiFetcherShardEnabled(boolean enabled) {
+        synchronized (mProperties) {
+            mProperties.setProperty(property$ApiFetcher_Shard_Enabled(), Boolean.toString(enabled));
+        }
+    }
+
+    public void setApiFetcherShardMaxItems(int maxItems) {
+        synchronized (mProperties) {
+            mProperties.setProperty(property$ApiFetcher_Shard_MaxItems(), Integer.toString(maxItems));
+        }
+    }
+
+    public void setApiFetcherShardFromDate(long fromDate) {
+        synchronized (mProperties) {
+            mProperties.setProperty(property$ApiFetcher_Shard_FromDate(), Long.toString(fromDate));
+        }
+    }
+
+    public void setApiFetcherShardNrShard(int nrShard) {
+        synchronized (mProperties) {
+            mProperties.setProperty(property$ApiFetcher_Shard_NrShard(), Integer.toString(nrShard));
+        }
+    }
+
+    public void setApiFetcherShardDates(int i, long fromDate, long toDate) {
+        synchronized (mProperties) {
+            mProperties.setProperty(property$ApiFetcher_Shard_FromDate(i), Long.toString(fromDate));
+            mProperties.setProperty(property$ApiFetcher_Shard_ToDate(i), Long.toString(toDate));
+        }
+    }
+
+    public void setApiFetcherShardWatermark(int i, int watermark) {
+        synchronized (mProperties) {
+            mProperties.setProperty(property$ApiFetcher_Shard_Watermark(i), Integer.toString(watermark));
+        }
+    }
+
+    public void setApiFetcherShardCompleted(int i, List<Integer> completed) {
+        synchronized (mProperties) {
+            mProperties.setProperty(property$ApiFetcher_Shard_Completed(i), joinPages(completed));
+        }
+    }
+
+    public void setApiFetcherShardEndPage(int i, int endPage) {
+        synchronized (mProperties) {
+            mProperties.setProperty(property$ApiFetcher_Shard_EndPage(i), joinEndPage(endPage));
+        }
+    }
+
     public void setApiFetcherResultNrPage(int nrPage) {
         synchronized (mProperties) {
             mProperties.setProperty(property$ApiFetcher_Result_NrPage(), Integer.toString(nrPage));
@@ -192,9 +580,57 @@ public class FetcherConfig {
         }
     }
 
-    public void setGooFetcherResultStart(int start) {
+    public void setGooFetcherProducerParallelism(int parallelism) {
+        synchronized (mProperties) {
+            mProperties.setProperty(property$GooFetcher_Producer_Parallelism(), Integer.toString(parallelism));
+        }
+    }
+
+    public void setGooFetcherProducerDelayMs(long delayMs) {
+        synchronized (mProperties) {
+            mProperties.setProperty(property$GooFetcher_Producer_DelayMs(), Long.toString(delayMs));
+        }
+    }
+
+    public void setGooFetcherFrontierPath(String path) {
+        synchronized (mProperties) {
+            mProperties.setProperty(property$GooFetcher_Frontier_Path(), path);
+        }
+    }
+
+    public void setGooFetcherFrontierVisitedPath(String path) {
         synchronized (mProperties) {
-            mProperties.setProperty(property$GooFetcher_Result_Start(), Integer.toString(start));
+            mProperties.setProperty(property$GooFetcher_Frontier_VisitedPath(), path);
+        }
+    }
+
+    public void setGooFetcherEnrichMode(String mode) {
+        synchronized (mProperties) {
+            mProperties.setProperty(property$GooFetcher_Enrich_Mode(), mode);
+        }
+    }
+
+    public void setGooFetcherEnrichBatchSize(int batchSize) {
+        synchronized (mProperties) {
+            mProperties.setProperty(property$GooFetcher_Enrich_BatchSize(), Integer.toString(batchSize));
+        }
+    }
+
+    public void setGooFetcherEnrichBatchDelayMs(long delayMs) {
+        synchronized (mProperties) {
+            mProperties.setProperty(property$GooFetcher_Enrich_BatchDelayMs(), Long.toString(delayMs));
+        }
+    }
+
+    public void setGooFetcherProducerProviders(List<String> providers) {
+        synchronized (mProperties) {
+            mProperties.setProperty(property$GooFetcher_Producer_Providers(), String.join(",", providers));
+        }
+    }
+
+    public void setGooFetcherResultStart(String provider, int start) {
+        synchronized (mProperties) {
+            mProperties.setProperty(property$GooFetcher_Result_Start(provider), Integer.toString(start));
         }
     }
 
@@ -207,16 +643,137 @@ public class FetcherConfig {
     public void setFileName(String fileName) {
         this.mFileName = fileName;
     }
+
+    /**
+     * migrateLegacyWorkerPages converts the pages of configurations stored
+     * before the dispenser, where worker i fetched pages i, i + step, ...,
+     * and stored the next page it was to fetch, into the watermark and the
+     * completed pages of the dispenser, i.e., all pages before the least
+     * next page are completed, and so are the pages after it which precede
+     * the next page of their worker. The end page is left unknown, since a
+     * worker stored the same next page whether it reached the end or died
+     * @param properties the loaded properties, migrated in place
+     */
+    private void migrateLegacyWorkerPages(Properties properties) {
+        if (properties.containsKey(property$ApiFetcher_Dispenser_Watermark())) {
+            return;
+        }
+
+        List<int[]> pageSteps = new ArrayList<>();
+        for (int i = apiFetcherWorkerBegin(); i < apiFetcherWorkerEnd(); i += apiFetcherWorkerStep()) {
+            String page = (String) properties.remove(property$ApiFetcher_Worker_Page(i));
+            String step = (String) properties.remove(property$ApiFetcher_Worker_Step(i));
+            if (page != null && step != null && Integer.parseInt(step) > 0) {
+                pageSteps.add(new int[]{ Integer.parseInt(page), Integer.parseInt(step) });
+            }
+        }
+        if (pageSteps.isEmpty()) {
+            return;
+        }
+
+        int watermark = Integer.MAX_VALUE;
+        for (int[] pageStep : pageSteps) {
+            watermark = Math.min(watermark, pageStep[0]);
+        }
+        TreeSet<Integer> completed = new TreeSet<>();
+        for (int[] pageStep : pageSteps) {
+            for (int page = pageStep[0] - pageStep[1]; page >= watermark; page -= pageStep[1]) {
+                completed.add(page);
+            }
+        }
+
+        properties.setProperty(property$ApiFetcher_Dispenser_Watermark(), Integer.toString(watermark));
+        properties.setProperty(property$ApiFetcher_Dispenser_Completed(), joinPages(new ArrayList<>(completed)));
+        properties.setProperty(property$ApiFetcher_Dispenser_EndPage(), joinEndPage(Integer.MAX_VALUE));
+    }
     
+    // page lists are stored as "1,2,3"
+    private static List<Integer> parsePages(String value) {
+        List<Integer> pages = new ArrayList<>();
+        for (String page : value.split(",")) {
+            if (!page.isEmpty()) {
+                pages.add(Integer.parseInt(page));
+            }
+        }
+        return pages;
+    }
+
+    private static String joinPages(List<Integer> pages) {
+        return pages.stream().map(Object::toString).collect(Collectors.joining(","));
+    }
+
+    // unknown end pages are stored as UNKNOWN_END_PAGE
+    private static int parseEndPage(String value) {
+        int endPage = value == null ? UNKNOWN_END_PAGE : Integer.parseInt(value);
+        return endPage == UNKNOWN_END_PAGE ? Integer.MAX_VALUE : endPage;
+    }
+
+    private static String joinEndPage(int endPage) {
+        return Integer.toString(endPage == Integer.MAX_VALUE ? UNKNOWN_END_PAGE : endPage);
+    }
+
     // property names
     private String property$Global_NrWorker() {
         return "global.nr_worker";
     }
 
+    private String property$Global_Executor() {
+        return "global.executor";
+    }
+
+    private String property$Global_Dedup_Enabled() {
+        return "global.dedup.enabled";
+    }
+
+    private String property$Global_Dedup_Path() {
+        return "global.dedup.path";
+    }
+
+    private String property$Global_Appender_Async() {
+        return "global.appender.async";
+    }
+
+    private String property$Global_Appender_AsyncCapacity() {
+        return "global.appender.async_capacity";
+    }
+
+    private String property$ApiFetcher_Mode() {
+        return "api_fetcher.mode";
+    }
+
+    private String property$ApiFetcher_Async_Window() {
+        return "api_fetcher.async.window";
+    }
+
+    private String property$ApiFetcher_PageSize() {
+        return "api_fetcher.page_size";
+    }
+
+    private String property$ApiFetcher_Filter() {
+        return "api_fetcher.filter";
+    }
+
+    private String property$ApiFetcher_Appender_SharedPath() {
+        return "api_fetcher.appender.shared_path";
+    }
+
     private String property$ApiFetcher_Worker_Id(int id) {
         return String.format("api_fetcher.worker[%d].id", id);
     }
 
+    private String property$ApiFetcher_Worker_Appender_Type(int id) {
+        return String.format("api_fetcher.worker[%d].appender.type", id);
+    }
+
+    private String property$ApiFetcher_Worker_Appender_Path(int id) {
+        return String.format("api_fetcher.worker[%d].appender.path", id);
+    }
+
+    private String property$ApiFetcher_Worker_Appender_Offset(int id) {
+        return String.format("api_fetcher.worker[%d].appender.offset", id);
+    }
+
+    // pages of workers stored before the dispenser, see migrateLegacyWorkerPages
     private String property$ApiFetcher_Worker_Page(int id) {
         return String.format("api_fetcher.worker[%d].page", id);
     }
@@ -225,12 +782,52 @@ public class FetcherConfig {
         return String.format("api_fetcher.worker[%d].step", id);
     }
 
-    private String property$ApiFetcher_Worker_Appender_Type(int id) {
-        return String.format("api_fetcher.worker[%d].appender.type", id);
+    private String property$ApiFetcher_Dispenser_Watermark() {
+        return "api_fetcher.dispenser.watermark";
     }
 
-    private String property$ApiFetcher_Worker_Appender_Path(int id) {
-        return String.format("api_fetcher.worker[%d].appender.path", id);
+    private String property$ApiFetcher_Dispenser_Completed() {
+        return "api_fetcher.dispenser.completed";
+    }
+
+    private String property$ApiFetcher_Dispenser_EndPage() {
+        return "api_fetcher.dispenser.end_page";
+    }
+
+    private String property$ApiFetcher_Shard_Enabled() {
+        return "api_fetcher.shard.enabled";
+    }
+
+    private String property$ApiFetcher_Shard_MaxItems() {
+        return "api_fetcher.shard.max_items";
+    }
+
+    private String property$ApiFetcher_Shard_FromDate() {
+        return "api_fetcher.shard.from_date";
+    }
+
+    private String property$ApiFetcher_Shard_NrShard() {
+        return "api_fetcher.shard.nr_shard";
+    }
+
+    private String property$ApiFetcher_Shard_FromDate(int i) {
+        return String.format("api_fetcher.shard[%d].from_date", i);
+    }
+
+    private String property$ApiFetcher_Shard_ToDate(int i) {
+        return String.format("api_fetcher.shard[%d].to_date", i);
+    }
+
+    private String property$ApiFetcher_Shard_Watermark(int i) {
+        return String.format("api_fetcher.shard[%d].watermark", i);
+    }
+
+    private String property$ApiFetcher_Shard_Completed(int i) {
+        return String.format("api_fetcher.shard[%d].completed", i);
+    }
+
+    private String property$ApiFetcher_Shard_EndPage(int i) {
+        return String.format("api_fetcher.shard[%d].end_page", i);
     }
 
     private String property$ApiFetcher_Result_NrPage() {
@@ -249,8 +846,44 @@ public class FetcherConfig {
         return "goo_fetcher.appender_worker.appender.path";
     }
 
-    private String property$GooFetcher_Result_Start() {
-        return "goo_fetcher.result.start";
+    private String property$GooFetcher_Producer_Parallelism() {
+        return "goo_fetcher.producer.parallelism";
+    }
+
+    private String property$GooFetcher_Producer_DelayMs() {
+        return "goo_fetcher.producer.delay_ms";
+    }
+
+    private String property$GooFetcher_Producer_Providers() {
+        return "goo_fetcher.producer.providers";
+    }
+
+    private String property$GooFetcher_Frontier_Path() {
+        return "goo_fetcher.frontier.path";
+    }
+
+    private String property$GooFetcher_Frontier_VisitedPath() {
+        return "goo_fetcher.frontier.visited_path";
+    }
+
+    private String property$GooFetcher_Enrich_Mode() {
+        return "goo_fetcher.enrich.mode";
+    }
+
+    private String property$GooFetcher_Enrich_BatchSize() {
+        return "goo_fetcher.enrich.batch_size";
+    }
+
+    private String property$GooFetcher_Enrich_BatchDelayMs() {
+        return "goo_fetcher.enrich.batch_delay_ms";
+    }
+
+    private String property$GooFetcher_Result_Start(String provider) {
+        // google keeps the property of the time it was the only provider
+        if (GoogleSearchProvider.PROVIDER_NAME.equals(provider)) {
+            return "goo_fetcher.result.start";
+        }
+        return String.format("goo_fetcher.result[%s].start", provider);
     }
 
     private String property$GooFetcher_Result_PageSize() {
@@ -0,0 +1,99 @@
+package io.github.leetsong.seh;
+
+import io.github.leetsong.seh.data.stackexchange.FilterItem;
+import io.github.leetsong.seh.data.stackexchange.ItemContainer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import retrofit2.Response;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * FilterRegistry maps filter names to StackExchange filter ids. A filter
+ * defined in here is created on its first use, and its id is cached; any
+ * other name is regarded as a filter id (or a built-in filter like
+ * "default") and used as it is.
+ */
+public class FilterRegistry {
+
+    private Logger logger = LoggerFactory.getLogger(FilterRegistry.class);
+
+    // the wrapper fields we rely on
+    private static final String WRAPPER_FIELDS = String.join(";",
+            ".backoff", ".error_id", ".error_message", ".error_name",
+            ".has_more", ".items", ".quota_max", ".quota_remaining");
+
+    // only the fields CsvItem needs
+    public static final String FILTER_CSV_ITEM = "csv_item";
+
+    // only the total number of items, used to probe the size of a query
+    public static final String FILTER_COUNT = "count";
+
+    private static final Map<String, String> FILTER_DEFINITIONS = new HashMap<>();
+
+    static {
+        FILTER_DEFINITIONS.put(FILTER_CSV_ITEM, String.join(";", WRAPPER_FIELDS,
+                "question.question_id", "question.title", "question.tags", "question.view_count",
+                "question.score", "question.creation_date", "question.link"));
+        FILTER_DEFINITIONS.put(FILTER_COUNT, String.join(";", WRAPPER_FIELDS, ".total"));
+    }
+
+    private final StackOverflowClient mClient;
+    private final Map<String, String> mFilterIds = new ConcurrentHashMap<>();
+
+    public FilterRegistry(StackOverflowClient client) {
+        this.mClient = client;
+    }
+
+    /**
+     * getFilter gets the id of filter name, creates it if necessary
+     * @param name the filter name
+     * @return the filter id, or null (the default filter) if it cannot be created
+     */
+    public String getFilter(String name) {
+        if (name == null || !FILTER_DEFINITIONS.containsKey(name)) {
+            return name;
+        }
+        String id = mFilterIds.get(name);
+        if (id == null) {
+            synchronized (this) {
+                id = mFilterIds.get(name);
+                if (id == null) {
+                    id = createFilter(name);
+                    if (id != null) {
+                        mFilterIds.put(name, id);
+                    }
+                }
+            }
+        }
+        return id;
+    }
+
+    private String createFilter(String name) {
+        StackExchangeService service = mClient.getStackExchangeService();
+        try {
+            mClient.getRateLimiter().acquire(StackOverflowService.METHOD_FILTERS_CREATE);
+            Response<ItemContainer<FilterItem>> response = service.createFilter(
+                    FILTER_DEFINITIONS.get(name), null, "none", false).execute();
+            ItemContainer<FilterItem> result = response.body();
+            if (response.isSuccessful() && result != null &&
+                    result.getItems() != null && !result.getItems().isEmpty()) {
+                if (!HttpCachePolicy.isFromCache(response.raw())) {
+                    mClient.getRateLimiter().update(StackOverflowService.METHOD_FILTERS_CREATE, result);
+                }
+                String id = result.getItems().get(0).getFilter();
+                logger.info(String.format("Filter %s is created as %s", name, id));
+                return id;
+            }
+            logger.error(String.format("Failed to create filter %s due to: %s, use the default filter",
+                    name, response.toString()));
+        } catch (IOException | InterruptedException e) {
+            logger.error(String.format("Failed to create filter %s, use the default filter", name));
+            e.printStackTrace();
+        }
+        return null;
+    }
+}
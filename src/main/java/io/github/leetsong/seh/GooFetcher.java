@@ -1,24 +1,29 @@
 package io.github.leetsong.seh;
 
 import io.github.leetsong.seh.data.stackexchange.GooGItem;
-import org.jsoup.Connection;
+import io.github.leetsong.seh.data.stackexchange.ItemContainer;
+import io.github.leetsong.seh.data.stackexchange.SearchItem;
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import retrofit2.Response;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class GooFetcher extends SoupBasedFetcher {
 
@@ -27,147 +32,346 @@ public class GooFetcher extends SoupBasedFetcher {
     private static final int DEFAULT_RETRY_COUNT = 3;
     private static final int DEFAULT_TIMEOUT_S = 1;
     private static final int DEFAULT_QUEUE_CAPACITY = 32;
+    // items are written once DEFAULT_BATCH_SIZE of them are buffered, or
+    // DEFAULT_FLUSH_INTERVAL_MS after the last write
+    private static final int DEFAULT_BUFFER_CAPACITY = 1024;
+    private static final int DEFAULT_BATCH_SIZE = 32;
+    private static final long DEFAULT_FLUSH_INTERVAL_MS = 1_000;
+
+    // extractors reuse their buffers, so each ConsumerWorker thread has its own
+    private static final ThreadLocal<QuestionPageExtractor> EXTRACTORS =
+            ThreadLocal.withInitial(QuestionPageExtractor::new);
 
     private String   mQuery;
     private String[] mSynonyms;
-    private int      mStart;
+    // the search providers fanned out to, the first is the primary one
+    private List<SearchProvider> mProviders;
     private int      mPageSize;
     private int      mTotal;
 
     private final BlockingQueue<String> mLinksQueue;
-    private final BlockingQueue<GooGItem> mGItemsQueue;
+    private final MpscRingBuffer<GooGItem> mGItemsBuffer;
 
     private int mNrConsumerWorker;
     private ProducerWorker mProducerWorker;
     private AppenderWorker mAppenderWorker;
+    // null if links are enriched by their html pages only
+    private EnricherWorker mEnricherWorker;
     private ExecutorService mConsumerWorkers;
-    private final Object mAppenderWorkerLock;
-    private boolean mLooperCompleted;
+    private volatile boolean mLooperCompleted;
 
-    private int mNrLink;
+    private final AtomicInteger mNrLink = new AtomicInteger(0);
     private int mNrItem;
+    private QuestionIdSet mQuestionIds;
+    private LinkFrontier mFrontier;
     private FetcherConfig mFetcherConfig;
-
+    private FetchHandle mHandle;
+
+    /**
+     * ProducerWorker fans out to the search providers of
+     * goo_fetcher.producer.providers in parallel, each searched by
+     * goo_fetcher.producer.parallelism fetchers of its own, which share a
+     * politeness delay between any two requests to the provider. Result pages
+     * of each provider are dispensed by its own PageDispenser (page i is at
+     * offset i * its page size), so that the highest contiguous offset whose
+     * pages are all completed can be checkpointed per provider. A provider
+     * which blocks us or fails only stops its own fetchers, the others keep
+     * producing. Links of all providers are added to the frontier, which drops
+     * the ones whose questions are visited, before put into the links queue,
+     * and the links left in the frontier by the last run are put into the
+     * queue first
+     */
     public class ProducerWorker extends Thread {
 
         private long mWorkerId;
-        private boolean mIsCompleted;
+        private volatile boolean mIsCompleted;
+
+        private final int mParallelism;
+        private final long mDelayMs;
+        private final List<ProviderFeed> mFeeds = new ArrayList<>();
+        private volatile ExecutorService mFetchers = null;
+
+        /**
+         * ProviderFeed is the state of a provider fanned out to
+         */
+        private class ProviderFeed {
+            final SearchProvider mProvider;
+            final int mPageSize;
+            final PageDispenser mPageDispenser;
+            final AtomicLong mNextRequestAt = new AtomicLong(0);
+            volatile boolean mIsFailed = false;
+            // the watermark last checkpointed, guarded by the feed
+            int mCheckpointedWatermark;
+
+            ProviderFeed(SearchProvider provider) {
+                this.mProvider = provider;
+                this.mPageSize = provider.getPageSize(GooFetcher.this.mPageSize);
+                int start = mFetcherConfig.getGooFetcherResultStart(provider.getName());
+                this.mPageDispenser = new PageDispenser(start / mPageSize, new ArrayList<>(), Integer.MAX_VALUE);
+                this.mCheckpointedWatermark = start / mPageSize;
+            }
+        }
 
-        public ProducerWorker() {
+        public ProducerWorker(List<SearchProvider> providers, int parallelism, long delayMs) {
             this.mIsCompleted = false;
+            this.mParallelism = Math.max(1, parallelism);
+            this.mDelayMs = Math.max(0, delayMs);
+            for (SearchProvider provider : providers) {
+                mFeeds.add(new ProviderFeed(provider));
+            }
         }
 
         @Override
         public void run() {
-            // we assume in here that, the page DOM is strictly in consistent with
-            // what we write here, i.e., we will use select(), as well as directly
-            // use select()[x], as we are confirmed that (1) select will return a
-            // none-zero-size array, and (2) x is the correct index. We mean that,
-            // no NullPointerExceptions will be thrown.
-            // we will only retry 3 times for network error
-
             // get id, ProducerWorker is identified by its thread
             this.mWorkerId = Thread.currentThread().getId();
 
-            int retry = 0;
-
-            // ProducerWorker -> get coarse information
-            while (mNrLink < mTotal && retry < DEFAULT_RETRY_COUNT) {
+            // links produced but not consumed by the last run
+            int nrRestored = 0;
+            for (String link : mFrontier.getRestoredLinks()) {
+                if (shouldStop()) {
+                    break;
+                }
                 try {
-                    // get the response
-                    Connection.Response response = Jsoup.connect(searchUrl()).execute();
-                    Document doc = response.parse();
-
-                    // each result is wrapped in a .g
-                    List<Element> gElements = doc.select(".g");
-                    int nrLinkThisTime = 0;
-                    for (Element gElement : gElements) {
-                        Element linkElement = gElement.selectFirst(".r a");
-                        if (linkElement != null) {
-                            String link = linkElement.attr("href");
-                            // only add questions
-                            if (link.substring("https://stackoverflow\\.com/questions/".length())
-                                    .matches("\\d.*?/.+")) {
-                                try {
-                                    mLinksQueue.put(link);
-                                    logger.info(String.format(
-                                            "ProducerWorker %d produces a new link %s",
-                                            mWorkerId, link));
-                                    nrLinkThisTime += 1;
-                                    mNrLink += 1;
-                                    mStart += 1;
-                                } catch (InterruptedException e) {
-                                    logger.error(String.format(
-                                            "ProducerWorker %d is interrupted while putting a new link %s",
-                                            mWorkerId,
-                                            link));
-                                    e.printStackTrace();
-                                }
-                            }
-                        }
-                    }
+                    mLinksQueue.put(link);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                nrRestored += 1;
+                mNrLink.incrementAndGet();
+            }
+            logger.info(String.format("ProducerWorker %d restores %d links of the last run", mWorkerId, nrRestored));
 
-                    // each succeeded, the retry is reset
-                    retry = 0;
+            // the starts checkpointed from now on are counted in results of mPageSize
+            mFetcherConfig.setGooFetcherResultPageSize(mPageSize);
 
-                    logger.info(String.format("ProducerWorker %d produces %d/%d links this time, start from %d",
-                            mWorkerId, nrLinkThisTime, mNrLink, mStart - nrLinkThisTime));
-                } catch (IOException e) {
-                    logger.error(String.format("ProducerWorker %d failed to get the document of %s, retry the %d-th time",
-                            mWorkerId, searchUrl(), retry));
-                    e.printStackTrace();
-                    // start retry
-                    retry += 1;
+            ExecutorService fetchers = WorkerExecutors.newExecutor(
+                    mFetcherConfig.getExecutor(), mParallelism * mFeeds.size());
+            mFetchers = fetchers;
+            for (ProviderFeed feed : mFeeds) {
+                for (int i = 0; i < mParallelism; i ++) {
+                    final int fetcherId = i;
+                    fetchers.execute(() -> fetchPages(feed, fetcherId));
                 }
             }
+            fetchers.shutdown();
+            if (mHandle.isCancelled()) {
+                cancel();
+            }
+            try {
+                fetchers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                fetchers.shutdownNow();
+            }
 
             this.mIsCompleted = true;
             logger.info(String.format("ProducerWorker %d has completed work", mWorkerId));
 
             // save results
-            mFetcherConfig.setGooFetcherResultStart(mStart);
-            mFetcherConfig.setGooFetcherResultPageSize(mPageSize);
+            for (ProviderFeed feed : mFeeds) {
+                checkpoint(feed);
+            }
         }
 
         public boolean isCompleted() {
             return this.mIsCompleted;
         }
+
+        // wakes up the fetchers waiting for pacing or a cool-down, so that they stop
+        public void cancel() {
+            ExecutorService fetchers = mFetchers;
+            if (fetchers != null) {
+                fetchers.shutdownNow();
+            }
+        }
+
+        private boolean shouldStop() {
+            return mNrLink.get() >= mTotal || mHandle.isCancelled();
+        }
+
+        private boolean shouldStop(ProviderFeed feed) {
+            return shouldStop() || feed.mIsFailed;
+        }
+
+        private void fetchPages(ProviderFeed feed, int fetcherId) {
+            // we assume in here that, the page DOM is strictly in consistent with
+            // what the provider parses, see SearchProvider.
+            // we will only retry 3 times for network error, and stop producing
+            // from the provider once a page fails, since we are likely blocked
+            String name = feed.mProvider.getName();
+            while (true) {
+                int page;
+                try {
+                    page = feed.mPageDispenser.acquire(fetcherId);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (page == PageDispenser.NO_PAGE) {
+                    return;
+                }
+                if (shouldStop(feed)) {
+                    feed.mPageDispenser.release(page);
+                    return;
+                }
+
+                int start = page * feed.mPageSize;
+                int retry = 0;
+                while (true) {
+                    try {
+                        pace(feed);
+                        int nrResult = fetchPage(feed, start);
+                        // no results, we have reached the end
+                        feed.mPageDispenser.complete(page, nrResult != 0);
+                        checkpoint(feed);
+                        break;
+                    } catch (HostScheduler.BlockedException e) {
+                        // the next request waits until the cool-down ends,
+                        // other providers are not blocked meanwhile
+                        logger.warn(String.format("ProducerWorker %d is blocked by %s at %s, retry after the cool-down",
+                                mWorkerId, name, searchUrl(feed.mProvider, start)));
+                        mHandle.onError();
+                        if (shouldStop(feed)) {
+                            feed.mPageDispenser.release(page);
+                            return;
+                        }
+                    } catch (InterruptedIOException e) {
+                        feed.mPageDispenser.release(page);
+                        return;
+                    } catch (IOException e) {
+                        logger.error(String.format("ProducerWorker %d failed to get the document of %s, retry the %d-th time",
+                                mWorkerId, searchUrl(feed.mProvider, start), retry));
+                        e.printStackTrace();
+                        mHandle.onError();
+                        retry += 1;
+                        if (retry >= DEFAULT_RETRY_COUNT) {
+                            logger.error(String.format("ProducerWorker %d stops producing from %s", mWorkerId, name));
+                            feed.mIsFailed = true;
+                            feed.mPageDispenser.release(page);
+                            return;
+                        }
+                    } catch (InterruptedException e) {
+                        feed.mPageDispenser.release(page);
+                        return;
+                    }
+                }
+            }
+        }
+
+        private int fetchPage(ProviderFeed feed, int start) throws IOException, InterruptedException {
+            // get the response
+            mHandle.onRequest();
+            String url = searchUrl(feed.mProvider, start);
+            Document doc;
+            try (okhttp3.Response response = StackOverflowClient.getClient().getPage(url)) {
+                if (!response.isSuccessful()) {
+                    throw new IOException(String.format("HTTP %d of %s", response.code(), url));
+                }
+                ResponseBody body = response.body();
+                doc = Jsoup.parse(body.byteStream(), charsetOf(body).name(), url);
+            }
+
+            List<String> links = new ArrayList<>();
+            int nrResult = feed.mProvider.parseResults(doc, links);
+            int nrLinkThisTime = 0;
+            for (String link : links) {
+                // each question only once, whichever provider or slug it is of
+                if (mFrontier.add(parseQuestionId(link), link)) {
+                    mLinksQueue.put(link);
+                    logger.info(String.format(
+                            "ProducerWorker %d produces a new link %s",
+                            mWorkerId, link));
+                    nrLinkThisTime += 1;
+                    mNrLink.incrementAndGet();
+                }
+            }
+
+            mHandle.onProgress(1, 0);
+            logger.info(String.format("ProducerWorker %d produces %d/%d links this time from %s, start from %d",
+                    mWorkerId, nrLinkThisTime, mNrLink.get(), feed.mProvider.getName(), start));
+            return nrResult;
+        }
+
+        // waits until mDelayMs after the previous request of any fetcher of feed
+        private void pace(ProviderFeed feed) throws InterruptedException {
+            long now = System.currentTimeMillis();
+            long at = feed.mNextRequestAt.getAndAccumulate(now, (next, n) -> Math.max(next, n) + mDelayMs);
+            long waitMs = Math.max(at, now) - now;
+            if (waitMs > 0) {
+                Thread.sleep(waitMs);
+            }
+        }
+
+        // all results of feed before the watermark are produced, and their
+        // links are in mFrontier, so the watermark is stored once it advances,
+        // and a crash restarts from it instead of from the start of the run
+        private void checkpoint(ProviderFeed feed) {
+            synchronized (feed) {
+                int watermark = feed.mPageDispenser.getWatermark();
+                if (watermark <= feed.mCheckpointedWatermark) {
+                    return;
+                }
+                feed.mCheckpointedWatermark = watermark;
+                mFetcherConfig.setGooFetcherResultStart(feed.mProvider.getName(), watermark * feed.mPageSize);
+            }
+            try {
+                mFetcherConfig.store();
+            } catch (IOException e) {
+                logger.error(String.format("ProducerWorker %d failed to checkpoint %s due to:",
+                        mWorkerId, feed.mProvider.getName()));
+                e.printStackTrace();
+            }
+        }
     }
 
     public class AppenderWorker extends Thread {
 
         private long mWorkerId;
-        private CsvAppender mAppender;
+        private Appender<GooGItem> mAppender;
+        private String mPath;
 
-        public AppenderWorker(String path) {
-            this.mAppender = CsvAppender.newInstance(path);
+        public AppenderWorker(String type, String path) {
+            this.mAppender = AppenderFactory.getAppender(type, path, mQuestionIds);
+            this.mPath = path;
         }
 
         @Override
         public void run() {
             this.mWorkerId = Thread.currentThread().getId();
-            // wait until looper completed, and all ConsumerWorkers completed
-            while (!(mLooperCompleted && mConsumerWorkers.isTerminated())) {
-                synchronized (mAppenderWorkerLock) {
-                    try {
-                        // wait until others notify it
-                        mAppenderWorkerLock.wait();
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
+            // the batch is reused, items are moved into it without any lock
+            List<GooGItem> batch = new ArrayList<>(DEFAULT_BATCH_SIZE);
+            while (true) {
+                // checked before draining, so that no item put before it is left
+                boolean completed = mLooperCompleted && mConsumerWorkers.isTerminated();
+
+                int n = mGItemsBuffer.drainTo(batch, DEFAULT_BATCH_SIZE);
+                if (n != 0) {
+                    logger.info(String.format("AppenderWorker %d is writing %d items to %s",
+                            mWorkerId, n, mPath));
+                    mAppender.append(batch);
+                    // links are consumed once their items are flushed, the
+                    // others are fetched again on restart
+                    mAppender.flush(offset -> {
+                        if (offset < 0) {
+                            return;
+                        }
+                        for (GooGItem item : batch) {
+                            mFrontier.consume(item.getQuestionId());
+                        }
+                    });
+                    mAppender.sync();
+                    batch.clear();
+                    mNrItem += n;
+                    mHandle.onProgress(0, n);
+                    // more items may be buffered already
+                    if (n == DEFAULT_BATCH_SIZE) {
+                        continue;
                     }
+                } else if (completed) {
+                    break;
                 }
 
-                synchronized (mGItemsQueue) {
-                    logger.info(String.format("AppenderWorker %d is writing to %s",
-                            mWorkerId, mAppender.getPath()));
-                    // append them
-                    mAppender.append(new ArrayList<>(mGItemsQueue));
-                    // clear
-                    mNrItem += mGItemsQueue.size();
-                    mGItemsQueue.clear();
-                    logger.info(String.format("AppenderWorker %d succeeded in writing to %s",
-                            mWorkerId, mAppender.getPath()));
-                }
+                // wait until a batch is buffered, or it is time to flush
+                mGItemsBuffer.await(DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
             }
             logger.info(String.format("AppenderWorker %d has completed work", mWorkerId));
         }
@@ -177,6 +381,171 @@ public class GooFetcher extends SoupBasedFetcher {
         }
     }
 
+    /**
+     * EnricherWorker turns links into items by the questions api instead of
+     * their html pages. Question ids are parsed from links and batched, and
+     * a batch is requested by a single /questions/{ids} request once it has
+     * mBatchSize ids, or mBatchDelayMs after its first id is added. Links
+     * whose questions are not returned, e.g., the question is deleted or the
+     * request keeps failing, fall back to ConsumerWorkers
+     */
+    public class EnricherWorker extends Thread {
+
+        private long mWorkerId;
+        private final int mBatchSize;
+        private final long mBatchDelayMs;
+        private final BlockingQueue<String> mLinks = new LinkedBlockingQueue<>();
+        private volatile boolean mIsClosed = false;
+
+        public EnricherWorker(int batchSize, long batchDelayMs) {
+            this.mBatchSize = Math.max(1, Math.min(StackOverflowService.MAX_PAGESIZE, batchSize));
+            this.mBatchDelayMs = Math.max(0, batchDelayMs);
+        }
+
+        public void enrich(String link) {
+            mLinks.add(link);
+        }
+
+        // no more links will be enriched, the buffered ones are still enriched
+        public void close() {
+            mIsClosed = true;
+        }
+
+        @Override
+        public void run() {
+            this.mWorkerId = Thread.currentThread().getId();
+
+            StackOverflowClient client = StackOverflowClient.getClient();
+            StackOverflowService service = client.getStackOverflowService();
+            service.setFilter(client.getFilterRegistry().getFilter(FilterRegistry.FILTER_CSV_ITEM));
+            QuotaRateLimiter rateLimiter = client.getRateLimiter(service.getSite());
+
+            // question id -> link, in the order they are added
+            Map<Long, String> batch = new LinkedHashMap<>();
+            long deadline = 0;
+            try {
+                while (true) {
+                    // checked before polling, so that no link added before it is left
+                    boolean closed = mIsClosed;
+                    String link;
+                    if (closed) {
+                        link = mLinks.poll();
+                    } else {
+                        long waitMs = batch.isEmpty() ? DEFAULT_TIMEOUT_S * 1000L :
+                                Math.max(0, deadline - System.currentTimeMillis());
+                        link = mLinks.poll(waitMs, TimeUnit.MILLISECONDS);
+                    }
+
+                    if (link != null) {
+                        long questionId = parseQuestionId(link);
+                        if (questionId == -1) {
+                            fallback(link);
+                        } else {
+                            if (batch.isEmpty()) {
+                                deadline = System.currentTimeMillis() + mBatchDelayMs;
+                            }
+                            batch.put(questionId, link);
+                        }
+                    }
+
+                    if (mHandle.isCancelled()) {
+                        batch.clear();
+                        mLinks.clear();
+                    }
+
+                    if (!batch.isEmpty() && (batch.size() >= mBatchSize ||
+                            System.currentTimeMillis() >= deadline || (closed && link == null))) {
+                        enrichBatch(service, rateLimiter, batch);
+                        batch.clear();
+                    } else if (closed && link == null && batch.isEmpty()) {
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                logger.error(String.format("EnricherWorker %d is interrupted, %d links are dropped",
+                        mWorkerId, batch.size() + mLinks.size()));
+            }
+            logger.info(String.format("EnricherWorker %d has completed work", mWorkerId));
+        }
+
+        private void enrichBatch(StackOverflowService service, QuotaRateLimiter rateLimiter,
+                                 Map<Long, String> batch) throws InterruptedException {
+            List<Long> questionIds = new ArrayList<>(batch.keySet());
+            int retry = 0;
+            while (retry < DEFAULT_RETRY_COUNT && !mHandle.isCancelled()) {
+                try {
+                    // wait until the quota and backoff allow us to send
+                    rateLimiter.acquire(StackOverflowService.METHOD_QUESTIONS);
+
+                    mHandle.onRequest();
+                    Response<ItemContainer<SearchItem>> response = service.questions(questionIds).execute();
+                    ItemContainer<SearchItem> result = response.body();
+                    if (response.isSuccessful() && result != null) {
+                        if (!HttpCachePolicy.isFromCache(response.raw())) {
+                            rateLimiter.update(StackOverflowService.METHOD_QUESTIONS, result);
+                        }
+                        int nrEnriched = 0;
+                        for (SearchItem item : result.getItems()) {
+                            String link = batch.remove(item.getQuestionId());
+                            if (link != null) {
+                                mGItemsBuffer.put(toGooGItem(item, link));
+                                nrEnriched += 1;
+                            }
+                        }
+                        logger.info(String.format("EnricherWorker %d enriched %d/%d links, quota: %d/%d",
+                                mWorkerId, nrEnriched, questionIds.size(),
+                                result.getQuotaRemaining(), result.getQuotaMax()));
+                        break;
+                    }
+
+                    mHandle.onError();
+                    ItemContainer<?> error = StackOverflowService.parseError(response);
+                    if (QuotaRateLimiter.isThrottled(response.code(), error)) {
+                        // throttled, retry this batch after the pause
+                        logger.warn(String.format("EnricherWorker %d is throttled, retry after the pause", mWorkerId));
+                        StackOverflowClient.getClient().onThrottled(
+                                rateLimiter, StackOverflowService.METHOD_QUESTIONS, response, error);
+                        continue;
+                    }
+                    logger.error(String.format("EnricherWorker %d has encountered error%s, retry for the %dth time",
+                            mWorkerId, error != null ? ": " + error.getErrorMessage() : "", retry));
+                    retry += 1;
+                } catch (IOException e) {
+                    logger.error(String.format("EnricherWorker %d failed to enrich %d links, retry for the %dth time",
+                            mWorkerId, questionIds.size(), retry));
+                    e.printStackTrace();
+                    mHandle.onError();
+                    retry += 1;
+                }
+            }
+
+            // the api cannot return the rest, parse their html pages
+            for (String link : batch.values()) {
+                fallback(link);
+            }
+        }
+
+        private void fallback(String link) {
+            if (!mHandle.isCancelled()) {
+                logger.info(String.format("EnricherWorker %d falls back to the html page of %s", mWorkerId, link));
+                mConsumerWorkers.execute(new ConsumerWorker(link));
+            }
+        }
+
+        private GooGItem toGooGItem(SearchItem item, String link) {
+            return new GooGItem.Builder()
+                    .withQuestionId(item.getQuestionId())
+                    .withTitle(item.getTitle())
+                    .withTags(item.getTags())
+                    .withViewCount(item.getViewCount())
+                    .withScore(item.getScore())
+                    // the api gives seconds, while html pages give milliseconds
+                    .withCreationDate(item.getCreationDate() * 1000)
+                    .withLink(link)
+                    .build();
+        }
+    }
+
     public class ConsumerWorker implements Runnable {
 
         private long mWorkerId;
@@ -188,112 +557,82 @@ public class GooFetcher extends SoupBasedFetcher {
 
         @Override
         public void run() {
-            // we assume in here that, the page DOM is strictly in consistent with
-            // what we write here, i.e., we will use select(), as well as directly
-            // use select()[x], as we are confirmed that (1) select will return a
-            // none-zero-size array, and (2) x is the correct index. We mean that,
-            // no NullPointerExceptions will be thrown.
+            // the page is extracted by streaming, see QuestionPageExtractor,
+            // and we stop reading it once all fields are extracted.
             // we will only retry 3 times for network error
 
             // get id, each worker is identified via its living thread
             this.mWorkerId = Thread.currentThread().getId();
 
+            long questionId = parseQuestionId(mLink);
+            if (questionId == -1) {
+                logger.error("Failed to parse questionId of: " + mLink);
+            }
+
             // every worker can retry DEFAULT_RETRY_COUNT times
             int retry = 0;
+            boolean extracted = false;
+            boolean blocked;
             do {
+                blocked = false;
                 logger.info(String.format("ConsumerWorker %d is parsing link %s", mWorkerId, mLink));
                 try {
-                    Connection.Response response = Jsoup.connect(mLink).execute();
-                    Document doc = response.parse();
-
-                    // get each prop & element
-                    long questionId = -1;
-                    try {
-                        questionId = Integer.parseInt(mLink.split("/")[4]);
-                    } catch (Exception e) {
-                        logger.error("Failed to parse questionId of: " + mLink);
-                        e.printStackTrace();
-                    }
-
-                    // title is wrapped in header
-                    Element questionHeaderElement = doc.getElementById("question-header");
-                    Element questionTitleElement = questionHeaderElement.selectFirst("h1 a");
-                    String questionTitle = questionTitleElement.html();
-
-                    // tags, score, props are wrapped in question
-                    Element questionElement = doc.getElementById("question");
-
-                    Elements tagsElement = questionElement.select("div.grid.ps-relative a.post-tag");
-                    List<String> tags = new ArrayList<>(tagsElement.size());
-                    for (Element tagElement : tagsElement) {
-                        if (tagElement.childNodeSize() > 1) {
-                            tags.add(tagElement.text());
-                        } else {
-                            tags.add(tagElement.text());
+                    mHandle.onRequest();
+                    StackOverflowClient client = StackOverflowClient.getClient();
+                    GooGItem item;
+                    try (okhttp3.Response response = client.getPage(mLink)) {
+                        if (!response.isSuccessful()) {
+                            throw new IOException(String.format("HTTP %d of %s", response.code(), mLink));
+                        }
+                        ResponseBody body = response.body();
+                        item = EXTRACTORS.get().extract(body.byteStream(), charsetOf(body), questionId, mLink);
+                        // the rest of the page is only read to be cached
+                        if (item != null && client.isCacheEnabled()) {
+                            HttpCachePolicy.drain(body);
                         }
                     }
 
-                    Element scoreElement = questionElement.selectFirst("span.vote-count-post");
-                    int score = Integer.parseInt(scoreElement.html());
-
-                    // viewCount, creationDate are wrapped in sidebar/qinfo/td
-                    Element qinfoElement = doc.getElementById("qinfo");
-                    Elements tdElements = qinfoElement.select("td");
-
-                    Element viewCountElement = tdElements.get(3).selectFirst("b");
-                    int viewCount = Integer.parseInt(
-                            viewCountElement.html().split(" ")[0].replace(",", ""));
-
-                    Element creationDateElement = tdElements.get(1).selectFirst("p");
-                    SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd hh:mm:ss");
-                    String creationDateInString = creationDateElement.attr("title");
-                    long creationDate = 0;
-                    try {
-                        creationDate = simpleDateFormat.parse(creationDateInString).getTime();
-                    } catch (ParseException e) {
-                        logger.error("Failed to parse date: " + creationDateInString);
-                        e.printStackTrace();
+                    // each time the page is got, the retry is reset
+                    retry = 0;
+                    if (item == null) {
+                        // not a page we know, retrying does not help
+                        logger.error(String.format(
+                                "ConsumerWorker %d cannot extract the question from %s", mWorkerId, mLink));
+                        mFrontier.consume(questionId);
+                        break;
                     }
 
                     // insert the GooGItem
                     try {
-                        mGItemsQueue.put(new GooGItem.Builder()
-                                .withQuestionId(questionId)
-                                .withTitle(questionTitle)
-                                .withTags(tags)
-                                .withViewCount(viewCount)
-                                .withScore(score)
-                                .withCreationDate(creationDate)
-                                .withLink(mLink)
-                                .build());
-
-                        // notify AppenderWorker to write when the queue is full
-                        synchronized (mGItemsQueue) {
-                            if (mGItemsQueue.size() == DEFAULT_QUEUE_CAPACITY) {
-                                synchronized (mAppenderWorkerLock) {
-                                    mAppenderWorkerLock.notify();
-                                }
-                            }
-                        }
+                        mGItemsBuffer.put(item);
+                        extracted = true;
                     } catch (InterruptedException e) {
                         logger.error(String.format(
                                 "ConsumerWorker %d is interrupted while parsing link %s", mWorkerId, mLink));
                         e.printStackTrace();
                     }
-
-                    // each time succeeded, the retry is reset
-                    retry = 0;
+                } catch (HostScheduler.BlockedException e) {
+                    // the next request waits until the cool-down ends, it is not counted as a retry
+                    logger.warn(String.format(
+                            "ConsumerWorker %d is blocked at %s, retry after the cool-down", mWorkerId, mLink));
+                    mHandle.onError();
+                    blocked = true;
+                } catch (InterruptedIOException e) {
+                    logger.error(String.format(
+                            "ConsumerWorker %d is interrupted while parsing link %s", mWorkerId, mLink));
+                    break;
                 } catch (IOException e) {
                     logger.error(String.format(
                             "ConsumerWorker %d failed to get the document of %s, retry for the %dth time",
                             mWorkerId, mLink, retry));
                     e.printStackTrace();
+                    mHandle.onError();
                     // retry one time more
                     retry += 1;
                 }
-            } while (retry != 0 && retry < DEFAULT_RETRY_COUNT);
+            } while ((blocked || retry != 0 && retry < DEFAULT_RETRY_COUNT) && !mHandle.isCancelled());
 
-            if (retry != 0) {
+            if (!extracted) {
                 logger.error(String.format("ConsumerWorker %d failed to consume link %s", mWorkerId, mLink));
             } else {
                 logger.info(String.format("ConsumerWorker %d succeeded in consuming link %s", mWorkerId, mLink));
@@ -305,18 +644,30 @@ public class GooFetcher extends SoupBasedFetcher {
         this.mQuery = query;
         this.mTotal = total;
         this.mSynonyms = new String[0];
-        this.mAppenderWorkerLock = new Object();
         this.mLinksQueue = new ArrayBlockingQueue<>(DEFAULT_QUEUE_CAPACITY);
-        this.mGItemsQueue = new ArrayBlockingQueue<>(DEFAULT_QUEUE_CAPACITY);
+        this.mGItemsBuffer = new MpscRingBuffer<>(DEFAULT_BUFFER_CAPACITY);
         this.mLooperCompleted = false;
-        this.mNrLink = 0;
         this.mNrItem = 0;
         this.mFetcherConfig = new FetcherConfig(FetcherConfig.convert2ConfigFileName(
                 new String[] { mQuery}));
     }
 
     @Override
-    public void fetch() {
+    public FetchHandle fetchAsync() {
+        // bytes are counted as they are on the wire, pages served by the cache cost none
+        mHandle = new FetchHandle(StackOverflowClient.getClient()::getNrByteReceived);
+        new Thread(() -> {
+            try {
+                loop();
+                mHandle.complete(null);
+            } catch (RuntimeException e) {
+                mHandle.complete(e);
+            }
+        }, "GooFetcher-looper").start();
+        return mHandle;
+    }
+
+    private void loop() {
         // This is the LooperWorker
 
         // restart
@@ -329,10 +680,38 @@ public class GooFetcher extends SoupBasedFetcher {
         // fill synonyms
         mSynonyms = fillSynonyms();
 
+        // skip the questions we already have
+        List<String> outputs = new ArrayList<>();
+        Class<? extends Appender> appenderType = AppenderFactory.getAppenderType(
+                mFetcherConfig.getGooFetcherAppenderWorkerAppenderType());
+        if (appenderType == CsvAppender.class || appenderType == ColumnarAppender.class) {
+            outputs.add(mFetcherConfig.getGooFetcherAppenderWorkerAppenderPath());
+        }
+        mQuestionIds = loadQuestionIds(mFetcherConfig, outputs);
+
+        // links left by the last run, and questions visited
+        String frontierPath = mFetcherConfig.getGooFetcherFrontierPath();
+        try {
+            mFrontier = LinkFrontier.open(frontierPath, mFetcherConfig.getGooFetcherFrontierVisitedPath());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open the link frontier " + frontierPath, e);
+        }
+
         // create the workers (and the pool)
-        this.mProducerWorker = new ProducerWorker();
-        this.mAppenderWorker = new AppenderWorker(mFetcherConfig.getGooFetcherAppenderWorkerAppenderPath());
-        this.mConsumerWorkers = Executors.newFixedThreadPool(mNrConsumerWorker);
+        this.mProducerWorker = new ProducerWorker(
+                mProviders,
+                mFetcherConfig.getGooFetcherProducerParallelism(),
+                mFetcherConfig.getGooFetcherProducerDelayMs());
+        this.mAppenderWorker = new AppenderWorker(
+                mFetcherConfig.getGooFetcherAppenderWorkerAppenderType(),
+                mFetcherConfig.getGooFetcherAppenderWorkerAppenderPath());
+        // with virtual threads, every link in flight has its own thread
+        this.mConsumerWorkers = WorkerExecutors.newExecutor(mFetcherConfig.getExecutor(), mNrConsumerWorker);
+        if (FetcherConfig.GOO_FETCHER_ENRICH_MODE_API.equals(mFetcherConfig.getGooFetcherEnrichMode())) {
+            this.mEnricherWorker = new EnricherWorker(
+                    mFetcherConfig.getGooFetcherEnrichBatchSize(),
+                    mFetcherConfig.getGooFetcherEnrichBatchDelayMs());
+        }
 
         long startTime = System.currentTimeMillis();
 
@@ -340,15 +719,32 @@ public class GooFetcher extends SoupBasedFetcher {
         this.mProducerWorker.start();
         // start AppenderWorker
         this.mAppenderWorker.start();
+        // start EnricherWorker
+        if (this.mEnricherWorker != null) {
+            this.mEnricherWorker.start();
+        }
+
+        // stop producing, and drop the links not dispatched yet on cancel
+        mHandle.setOnCancel(() -> {
+            mLinksQueue.clear();
+            mProducerWorker.cancel();
+        });
 
         // loop until ProducerWorker completed, and all links were dispatched to ConsumerWorkers
         while (!(this.mProducerWorker.isCompleted() && mLinksQueue.isEmpty())) {
             try {
                 String link = mLinksQueue.poll(DEFAULT_TIMEOUT_S, TimeUnit.SECONDS);
 
-                // consume it
-                if (null != link) {
-                    mConsumerWorkers.execute(new ConsumerWorker(link));
+                // consume it, unless we already have it or are cancelled
+                if (null != link && !mHandle.isCancelled()) {
+                    if (mQuestionIds != null && mQuestionIds.contains(parseQuestionId(link))) {
+                        logger.info("LooperWorker skips fetched link " + link);
+                        mFrontier.consume(parseQuestionId(link));
+                    } else if (mEnricherWorker != null) {
+                        mEnricherWorker.enrich(link);
+                    } else {
+                        mConsumerWorkers.execute(new ConsumerWorker(link));
+                    }
                 }
             } catch (InterruptedException e) {
                 logger.error("LopperWorker is interrupted while looping");
@@ -361,7 +757,13 @@ public class GooFetcher extends SoupBasedFetcher {
 
         try {
             // wait until they complete their work
-            logger.info("Wait until {Producer,Consumer,Appender}Workers complete their work");
+            logger.info("Wait until {Producer,Enricher,Consumer,Appender}Workers complete their work");
+
+            // enrich the rest links, falling back to ConsumerWorkers before they are terminated
+            if (this.mEnricherWorker != null) {
+                this.mEnricherWorker.close();
+                this.mEnricherWorker.join();
+            }
 
             // safely terminate ConsumerWorkers
             this.mConsumerWorkers.shutdown();
@@ -376,22 +778,31 @@ public class GooFetcher extends SoupBasedFetcher {
             // wait ProducerWorker until it completes
             this.mProducerWorker.join();
 
-            // notify AppenderWorker and wait until it completes
-            synchronized (mAppenderWorkerLock) {
-                this.mAppenderWorkerLock.notify();
-            }
+            // wake AppenderWorker up to write the rest, and wait until it completes
+            this.mGItemsBuffer.wakeUp();
             this.mAppenderWorker.join();
         } catch (InterruptedException e) {
             e.printStackTrace();
         } finally {
             this.mAppenderWorker.close();
+            try {
+                mFrontier.close();
+            } catch (IOException e) {
+                logger.error("Failed to close the link frontier due to:");
+                e.printStackTrace();
+            }
         }
 
         long endTime = System.currentTimeMillis();
         logger.info("Succeeded, the results:");
         logger.info("  - used time: " + Utility.timeInterval(startTime, endTime));
-        logger.info("  - total links: " + mNrLink);
+        logger.info("  - total links: " + mNrLink.get());
         logger.info("  - total items: " + mNrItem);
+        logger.info("  - pending links: " + mFrontier.getNrPending());
+        logger.info("  - this time: " + mHandle);
+        if (mQuestionIds != null) {
+            logger.info("  - duplicate items: " + mQuestionIds.getNrDuplicate());
+        }
 
         // save to configurations
         try {
@@ -400,26 +811,51 @@ public class GooFetcher extends SoupBasedFetcher {
             logger.error("Failed to store the properties due to:");
             e.printStackTrace();
         }
+        saveQuestionIds(mFetcherConfig, mQuestionIds);
     }
 
     @Override
     protected String searchUrl() {
+        SearchProvider provider = mProviders.get(0);
+        return searchUrl(provider, mFetcherConfig.getGooFetcherResultStart(provider.getName()));
+    }
+
+    private String searchUrl(SearchProvider provider, int start) {
         String[] queries = new String[mSynonyms.length + 1];
         queries[0] = mQuery;
         System.arraycopy(mSynonyms, 0, queries, 1, mSynonyms.length);
+        return provider.searchUrl(queries, start, provider.getPageSize(mPageSize));
+    }
 
-        String encodedQueries;
-        try {
-            encodedQueries = URLEncoder.encode(
-                    String.join(" OR ", queries), StandardCharsets.UTF_8.toString());
-        } catch (UnsupportedEncodingException e) {
-            // ignore, never reach here
-            e.printStackTrace();
-            encodedQueries = String.join(" OR ", queries);
+    // providers of goo_fetcher.producer.providers, unknown ones are ignored
+    private List<SearchProvider> createProviders() {
+        List<SearchProvider> providers = new ArrayList<>();
+        for (String name : mFetcherConfig.getGooFetcherProducerProviders()) {
+            SearchProvider provider = SearchProviderFactory.getProvider(name);
+            if (provider == null) {
+                logger.warn(String.format("Unknown search provider %s, ignored", name));
+            } else {
+                providers.add(provider);
+            }
+        }
+        if (providers.isEmpty()) {
+            providers.add(SearchProviderFactory.getProvider(GoogleSearchProvider.PROVIDER_NAME));
         }
+        return providers;
+    }
+
+    private static Charset charsetOf(ResponseBody body) {
+        MediaType contentType = body.contentType();
+        return contentType != null ? contentType.charset(StandardCharsets.UTF_8) : StandardCharsets.UTF_8;
+    }
 
-        return String.format("https://www.google.com/search?q=site:stackoverflow.com/questions+%s&start=%d&num=%d",
-                encodedQueries, mStart, mPageSize);
+    // links are like https://stackoverflow.com/questions/<id>/<title>, returns -1 if not
+    private static long parseQuestionId(String link) {
+        try {
+            return Long.parseLong(link.split("/")[4]);
+        } catch (Exception e) {
+            return -1;
+        }
     }
 
     private boolean tryRestart() {
@@ -437,7 +873,7 @@ public class GooFetcher extends SoupBasedFetcher {
             mFetcherConfig.reset();
             return false;
         } finally {
-            mStart = mFetcherConfig.getGooFetcherResultStart();
+            mProviders = createProviders();
             mPageSize = mFetcherConfig.getGooFetcherResultPageSize();
             mNrConsumerWorker = mFetcherConfig.getNrWorker();
         }
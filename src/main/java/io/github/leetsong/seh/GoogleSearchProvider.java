@@ -0,0 +1,46 @@
+package io.github.leetsong.seh;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+import java.util.List;
+
+public class GoogleSearchProvider extends AbstractSearchProvider {
+
+    public static final String PROVIDER_NAME = "google";
+
+    // google returns at most 100 results per page
+    private static final int MAX_PAGE_SIZE = 100;
+
+    @Override
+    public String getName() {
+        return PROVIDER_NAME;
+    }
+
+    @Override
+    public int getPageSize(int pageSize) {
+        return Math.max(1, Math.min(MAX_PAGE_SIZE, pageSize));
+    }
+
+    @Override
+    public String searchUrl(String[] queries, int start, int pageSize) {
+        return String.format("https://%s/search?q=site:stackoverflow.com/questions+%s&start=%d&num=%d",
+                StackOverflowClient.GOOGLE_HOST, encode(String.join(" OR ", queries)), start, pageSize);
+    }
+
+    @Override
+    public int parseResults(Document doc, List<String> links) {
+        // each result is wrapped in a .g
+        List<Element> gElements = doc.select(".g");
+        for (Element gElement : gElements) {
+            Element linkElement = gElement.selectFirst(".r a");
+            if (linkElement != null) {
+                String link = toQuestionLink(linkElement.attr("href"));
+                if (link != null) {
+                    links.add(link);
+                }
+            }
+        }
+        return gElements.size();
+    }
+}
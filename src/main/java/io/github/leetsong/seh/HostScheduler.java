@@ -0,0 +1,226 @@
+package io.github.leetsong.seh;
+
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * HostScheduler paces the page requests to each host, i.e., the ones which
+ * are not of the api and thus not paced by QuotaRateLimiter, e.g., google
+ * and question pages. Each host has
+ *  1. a token bucket of requestsPerMinute, holding at most burst tokens,
+ *     so that requests are spread evenly rather than sent in bursts
+ *  2. a circuit breaker, which is tripped when the host blocks us, i.e.,
+ *     it answers 429, or redirects us to its captcha page (/sorry/). Once
+ *     tripped, no request is sent to the host for a cool-down, which is
+ *     doubled every time the host blocks us again, up to maxCoolDownS.
+ *     After the cool-down, a single request probes the host, and pacing
+ *     resumes once it succeeds
+ * Sustained throughput is what matters, requests sent while blocked only
+ * extend the block.
+ */
+public class HostScheduler {
+
+    private static Logger logger = LoggerFactory.getLogger(HostScheduler.class);
+
+    // how long a waiting thread sleeps at most before it checks again
+    private static final long DEFAULT_MAX_SLEEP_MS = 1_000;
+
+    /**
+     * BlockedException is thrown when the host blocks the request, the
+     * request should be retried, which waits until the cool-down ends
+     */
+    public static class BlockedException extends IOException {
+        public BlockedException(String message) {
+            super(message);
+        }
+    }
+
+    private static class Host {
+        // 0 if the host is not paced, only its circuit breaker works
+        final double permitsPerMs;
+        final double burst;
+        double tokens;
+        long refilledAt;
+
+        // circuit breaker, open until openUntil, then half-open until probed
+        long openUntil = 0;
+        int nrTrip = 0;
+        boolean isProbing = false;
+
+        Host(double requestsPerMinute, double burst) {
+            this.permitsPerMs = requestsPerMinute / 60_000.0;
+            this.burst = Math.max(1, burst);
+            this.tokens = this.burst;
+            this.refilledAt = System.currentTimeMillis();
+        }
+    }
+
+    private final Map<String, Integer> mRequestsPerMinute;
+    private final int mBurst;
+    private final long mCoolDownMs;
+    private final long mMaxCoolDownMs;
+    private final Map<String, Host> mHosts = new ConcurrentHashMap<>();
+
+    /**
+     * HostScheduler creates a scheduler
+     * @param requestsPerMinute requests per minute of each host, hosts not in it are not paced
+     * @param burst             max requests sent to a host at once
+     * @param coolDownS         cool-down after the host blocks us the first time
+     * @param maxCoolDownS      max cool-down
+     */
+    public HostScheduler(Map<String, Integer> requestsPerMinute, int burst, long coolDownS, long maxCoolDownS) {
+        this.mRequestsPerMinute = new HashMap<>(requestsPerMinute);
+        this.mBurst = burst;
+        this.mCoolDownMs = coolDownS * 1000;
+        this.mMaxCoolDownMs = Math.max(mCoolDownMs, maxCoolDownS * 1000);
+    }
+
+    /**
+     * acquire blocks until a request to host is allowed to be sent, the
+     * caller has to report its result by onSuccess, onBlocked or onFailure
+     * @param host the host
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire(String host) throws InterruptedException {
+        Host h = getHost(host);
+        while (true) {
+            long waitMs;
+            synchronized (h) {
+                long now = System.currentTimeMillis();
+                if (now < h.openUntil) {
+                    waitMs = h.openUntil - now;
+                } else if (h.isProbing) {
+                    // wait for the result of the probe
+                    waitMs = DEFAULT_MAX_SLEEP_MS;
+                } else if (h.permitsPerMs <= 0) {
+                    h.isProbing = h.nrTrip > 0;
+                    return;
+                } else {
+                    h.tokens = Math.min(h.burst, h.tokens + (now - h.refilledAt) * h.permitsPerMs);
+                    h.refilledAt = now;
+                    if (h.tokens >= 1) {
+                        h.tokens -= 1;
+                        h.isProbing = h.nrTrip > 0;
+                        return;
+                    }
+                    waitMs = (long) Math.ceil((1 - h.tokens) / h.permitsPerMs);
+                }
+            }
+            // the breaker may be tripped while sleeping, so re-check
+            Thread.sleep(Math.max(1, Math.min(waitMs, DEFAULT_MAX_SLEEP_MS)));
+        }
+    }
+
+    /**
+     * onSuccess closes the circuit breaker of host if it is probing
+     * @param host the host
+     */
+    public void onSuccess(String host) {
+        Host h = getHost(host);
+        synchronized (h) {
+            if (h.isProbing) {
+                logger.info(String.format("Host %s is unblocked, resume pacing", host));
+                h.nrTrip = 0;
+                h.isProbing = false;
+            }
+        }
+    }
+
+    /**
+     * onFailure tells that the request failed for other reasons, e.g., the
+     * network, the probe, if it is, will be sent again
+     * @param host the host
+     */
+    public void onFailure(String host) {
+        Host h = getHost(host);
+        synchronized (h) {
+            h.isProbing = false;
+        }
+    }
+
+    /**
+     * onBlocked trips the circuit breaker of host
+     * @param host        the host
+     * @param retryAfterS seconds the host asks us to wait, or -1 if unknown
+     */
+    public void onBlocked(String host, long retryAfterS) {
+        Host h = getHost(host);
+        synchronized (h) {
+            long now = System.currentTimeMillis();
+            if (now < h.openUntil) {
+                // tripped by another request already
+                return;
+            }
+            h.nrTrip += 1;
+            h.isProbing = false;
+            h.tokens = 0;
+            long coolDownMs = Math.min(mMaxCoolDownMs, mCoolDownMs << Math.min(h.nrTrip - 1, 20));
+            coolDownMs = Math.max(coolDownMs, retryAfterS * 1000);
+            h.openUntil = now + coolDownMs;
+            logger.warn(String.format("Host %s blocks us (%d times in a row), cool down for %s",
+                    host, h.nrTrip, Utility.timeInterval(now, h.openUntil)));
+        }
+    }
+
+    /**
+     * getBlockedUntil gets when requests to host can be sent again as far
+     * as the circuit breaker is concerned, i.e., the end of its cool-down,
+     * or a while later if it is being probed
+     * @param host the host
+     * @return the time in ms, 0 if the breaker is closed
+     */
+    public long getBlockedUntil(String host) {
+        Host h = getHost(host);
+        synchronized (h) {
+            long now = System.currentTimeMillis();
+            if (now < h.openUntil) {
+                return h.openUntil;
+            }
+            return h.isProbing ? now + DEFAULT_MAX_SLEEP_MS : 0;
+        }
+    }
+
+    /**
+     * isBlocked tells whether the host blocks response, i.e., it is a 429,
+     * or a captcha page, which may be redirected to
+     * @param response the response, after redirects are followed
+     * @return true if it is blocked
+     */
+    public static boolean isBlocked(Response response) {
+        if (response.code() == 429) {
+            return true;
+        }
+        if (response.request().url().encodedPath().startsWith("/sorry/")) {
+            return true;
+        }
+        String location = response.header("Location");
+        return response.isRedirect() && location != null && location.contains("/sorry/");
+    }
+
+    /**
+     * retryAfterOf gets the seconds of the Retry-After header of response
+     * @param response the response
+     * @return the seconds, or -1 if there is no such header in seconds
+     */
+    public static long retryAfterOf(Response response) {
+        String retryAfter = response.header("Retry-After");
+        if (retryAfter == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(retryAfter.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private Host getHost(String host) {
+        return mHosts.computeIfAbsent(host, k -> new Host(mRequestsPerMinute.getOrDefault(k, 0), mBurst));
+    }
+}
@@ -0,0 +1,168 @@
+package io.github.leetsong.seh;
+
+import okhttp3.*;
+import okio.Okio;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * HttpCachePolicy decides how the on-disk http cache of StackOverflowClient
+ * is used, by two interceptors
+ *  1. requestInterceptor, an application interceptor, normalizes the url
+ *     of each request (the cache key) by sorting its query parameters, so
+ *     that the same query built in another order hits the same entry, and
+ *     forces responses to be served from the cache in the offline mode
+ *  2. responseInterceptor, a network interceptor, overrides the freshness
+ *     of each successful response by the ttl of its endpoint, while keeping
+ *     its ETag/Last-Modified, so that an expired entry is revalidated by a
+ *     conditional request, and failed responses are never stored
+ */
+public class HttpCachePolicy {
+
+    // endpoints, i.e., kinds of requests, which have their own ttl
+    public static final String ENDPOINT_SEARCH = "search";
+    public static final String ENDPOINT_QUESTIONS = "questions";
+    public static final String ENDPOINT_SYNONYMS = "synonyms";
+    public static final String ENDPOINT_FILTERS = "filters";
+    // result pages of all search engines, see SearchProvider
+    public static final String ENDPOINT_GOOGLE = "google";
+    public static final String ENDPOINT_PAGE = "page";
+
+    // filters are immutable and never expire
+    private static final long FILTERS_TTL_S = 365 * 24 * 3600L;
+
+    private final Map<String, Long> mTtlS;
+    private final boolean mIsOffline;
+
+    /**
+     * HttpCachePolicy creates a policy
+     * @param ttlS      ttl in seconds of each endpoint, responses of endpoints
+     *                  without a positive ttl are cached as their headers say
+     * @param isOffline whether responses are only served from the cache
+     */
+    public HttpCachePolicy(Map<String, Long> ttlS, boolean isOffline) {
+        this.mTtlS = new HashMap<>(ttlS);
+        this.mTtlS.put(ENDPOINT_FILTERS, FILTERS_TTL_S);
+        this.mIsOffline = isOffline;
+    }
+
+    public boolean isOffline() {
+        return mIsOffline;
+    }
+
+    public Interceptor requestInterceptor() {
+        return chain -> {
+            Request request = chain.request();
+            Request.Builder builder = request.newBuilder().url(normalize(request.url()));
+            if (mIsOffline) {
+                // a request not in the cache fails with 504
+                builder.cacheControl(CacheControl.FORCE_CACHE);
+            }
+            return chain.proceed(builder.build());
+        };
+    }
+
+    public Interceptor responseInterceptor() {
+        return chain -> {
+            Request request = chain.request();
+            Response response = chain.proceed(request);
+            Long ttlS = mTtlS.get(endpointOf(request.url()));
+            if (ttlS == null || ttlS <= 0 || !"GET".equals(request.method())) {
+                return response;
+            }
+
+            // a 304 refreshes the cached response with these headers
+            if (!response.isSuccessful() && response.code() != 304) {
+                return response.newBuilder()
+                        .header("Cache-Control", "no-store")
+                        .build();
+            }
+            return response.newBuilder()
+                    .removeHeader("Pragma")
+                    .removeHeader("Expires")
+                    .header("Cache-Control", "max-age=" + ttlS)
+                    .build();
+        };
+    }
+
+    /**
+     * endpointOf tells the endpoint of url
+     * @param url the url
+     * @return the endpoint, or null if it is none of ours
+     */
+    public static String endpointOf(HttpUrl url) {
+        List<String> segments = url.pathSegments();
+        if (url.host().equals(HttpUrl.get(StackOverflowClient.BASE_URL).host())) {
+            // the first segment is the api version
+            String method = segments.size() > 1 ? segments.get(1) : "";
+            switch (method) {
+                case "search":
+                    return ENDPOINT_SEARCH;
+                case "questions":
+                    return ENDPOINT_QUESTIONS;
+                case "tags":
+                    return segments.contains("synonyms") ? ENDPOINT_SYNONYMS : null;
+                case "filters":
+                    return ENDPOINT_FILTERS;
+                default:
+                    return null;
+            }
+        }
+        if (!segments.isEmpty() && "search".equals(segments.get(0)) && (url.host().contains("google.") ||
+                url.host().contains("bing.") || url.host().equals(StackOverflowClient.STACKOVERFLOW_HOST))) {
+            return ENDPOINT_GOOGLE;
+        }
+        if (!segments.isEmpty() && "questions".equals(segments.get(0))) {
+            return ENDPOINT_PAGE;
+        }
+        return null;
+    }
+
+    /**
+     * normalize sorts the query parameters of url by name (and value), and
+     * drops the fragment, the host is already lower-cased by HttpUrl
+     * @param url the url
+     * @return the normalized url
+     */
+    public static HttpUrl normalize(HttpUrl url) {
+        if (url.querySize() <= 1 && url.fragment() == null) {
+            return url;
+        }
+
+        List<String[]> parameters = new ArrayList<>(url.querySize());
+        for (int i = 0; i < url.querySize(); i ++) {
+            parameters.add(new String[] { url.queryParameterName(i), url.queryParameterValue(i) });
+        }
+        parameters.sort(Comparator
+                .comparing((String[] p) -> p[0])
+                .thenComparing(p -> p[1], Comparator.nullsFirst(Comparator.naturalOrder())));
+
+        HttpUrl.Builder builder = url.newBuilder().query(null).fragment(null);
+        for (String[] p : parameters) {
+            builder.addQueryParameter(p[0], p[1]);
+        }
+        return builder.build();
+    }
+
+    /**
+     * isFromCache tells whether response is served by the cache without
+     * touching the network, in which case the quota and backoff it carries
+     * are stale
+     * @param response the response
+     * @return true if it is served by the cache
+     */
+    public static boolean isFromCache(Response response) {
+        return response.networkResponse() == null && response.cacheResponse() != null;
+    }
+
+    /**
+     * drain reads the rest of body, so that a response which is read
+     * partially is still stored in the cache
+     * @param body the body
+     * @throws IOException if it cannot be read
+     */
+    public static void drain(ResponseBody body) throws IOException {
+        body.source().readAll(Okio.blackhole());
+    }
+}
@@ -0,0 +1,237 @@
+package io.github.leetsong.seh;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LinkFrontier is the durable frontier of GooFetcher, i.e., the links which
+ * are produced but not consumed yet, together with the visited set of all
+ * links ever produced, keyed on their question ids, so that a link of a
+ * question already produced, e.g., the same link on another result page,
+ * or the link of another slug, is dropped before it is requested.
+ *
+ * Links are appended to a memory-mapped file as records of
+ *   [state: byte][question id: long][length: short][link: utf-8 bytes]
+ * and a record is marked consumed in place once its item is flushed. Both
+ * are written to the mapping only, so they survive the crash of the process
+ * without a syscall per link. On open, the pending records are restored in
+ * the order they were produced, the ids of all records are added to the
+ * visited set, which is saved, and the file is compacted to the pending
+ * records only.
+ */
+public class LinkFrontier implements Closeable {
+
+    private static Logger logger = LoggerFactory.getLogger(LinkFrontier.class);
+
+    private static final int FILE_MAGIC = 0x5345484C; // "SEHL"
+    private static final int FILE_VERSION = 1;
+    // magic, version, and the tail, i.e., the end of the committed records
+    private static final int HEADER_SIZE = 16;
+    private static final int TAIL_POSITION = 8;
+    private static final int RECORD_HEADER_SIZE = 1 + 8 + 2;
+    private static final int DEFAULT_MAP_SIZE = 1 << 20;
+
+    private static final byte STATE_PENDING = 0;
+    private static final byte STATE_CONSUMED = 1;
+
+    private final String mPath;
+    private final String mVisitedPath;
+    private final QuestionIdSet mVisited;
+    private final List<String> mRestoredLinks;
+    // question id -> position of its pending record
+    private final Map<Long, Integer> mPendingPositions = new ConcurrentHashMap<>();
+
+    private final RandomAccessFile mFile;
+    // replaced when the file grows, guarded by this
+    private volatile MappedByteBuffer mBuffer;
+    private int mTail;
+
+    private LinkFrontier(String path, String visitedPath, QuestionIdSet visited,
+                         List<String> restoredLinks, List<Long> restoredIds) throws IOException {
+        this.mPath = path;
+        this.mVisitedPath = visitedPath;
+        this.mVisited = visited;
+        this.mRestoredLinks = restoredLinks;
+
+        this.mFile = new RandomAccessFile(path, "rw");
+        this.mTail = (int) Math.max(HEADER_SIZE, mFile.length());
+        map(Math.max(DEFAULT_MAP_SIZE, 2 * mTail));
+
+        // the restored records are the compacted file, in order
+        int position = HEADER_SIZE;
+        for (int i = 0; i < restoredLinks.size(); i ++) {
+            mPendingPositions.put(restoredIds.get(i), position);
+            position += RECORD_HEADER_SIZE + restoredLinks.get(i).getBytes(StandardCharsets.UTF_8).length;
+        }
+    }
+
+    /**
+     * open opens the frontier at path, or creates it
+     * @param path        path of the frontier
+     * @param visitedPath path of the visited set
+     * @return the frontier
+     * @throws IOException if it cannot be opened, or is not a frontier
+     */
+    public static LinkFrontier open(String path, String visitedPath) throws IOException {
+        QuestionIdSet visited = QuestionIdSet.load(visitedPath);
+
+        // question id -> link of pending records, in the order they were produced
+        Map<Long, String> pending = new LinkedHashMap<>();
+        File file = new File(path);
+        if (file.exists() && file.length() > 0) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                    throw new IOException(path + " is not a link frontier");
+                }
+                int tail = in.readInt();
+                in.readInt();
+                int position = HEADER_SIZE;
+                while (position < tail) {
+                    byte state = in.readByte();
+                    long questionId = in.readLong();
+                    byte[] link = new byte[in.readUnsignedShort()];
+                    in.readFully(link);
+                    position += RECORD_HEADER_SIZE + link.length;
+
+                    visited.add(questionId);
+                    if (state == STATE_PENDING) {
+                        pending.put(questionId, new String(link, StandardCharsets.UTF_8));
+                    } else {
+                        pending.remove(questionId);
+                    }
+                }
+            }
+        }
+
+        // the visited set has to be saved before the consumed records are compacted away
+        visited.save(visitedPath);
+        compact(path, pending);
+
+        logger.info(String.format("Opened link frontier %s, %d links to restore, %d visited",
+                path, pending.size(), visited.size()));
+        return new LinkFrontier(path, visitedPath, visited,
+                new ArrayList<>(pending.values()), new ArrayList<>(pending.keySet()));
+    }
+
+    /**
+     * add adds link to the frontier, unless its question is visited
+     * @param questionId the question id of link
+     * @param link       the link
+     * @return false if the question is visited, and link is dropped
+     */
+    public synchronized boolean add(long questionId, String link) {
+        if (!mVisited.add(questionId)) {
+            return false;
+        }
+
+        byte[] bytes = link.getBytes(StandardCharsets.UTF_8);
+        int size = RECORD_HEADER_SIZE + bytes.length;
+        if (mTail + size > mBuffer.capacity()) {
+            try {
+                map(Math.max(2L * mBuffer.capacity(), mTail + size));
+            } catch (IOException e) {
+                // the link is still produced, only it is not durable
+                logger.error(String.format("Failed to grow link frontier %s, %s is not saved", mPath, link));
+                e.printStackTrace();
+                return true;
+            }
+        }
+
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(mTail);
+        buffer.put(STATE_PENDING);
+        buffer.putLong(questionId);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+        mPendingPositions.put(questionId, mTail);
+        mTail += size;
+        // commit the record
+        mBuffer.putInt(TAIL_POSITION, mTail);
+        return true;
+    }
+
+    /**
+     * consume marks the link of questionId consumed, i.e., its item is
+     * flushed, or it is dropped for good
+     * @param questionId the question id
+     */
+    public void consume(long questionId) {
+        Integer position = mPendingPositions.remove(questionId);
+        if (position != null) {
+            // a mapping replaced by a larger one still writes to the same file
+            mBuffer.put(position, STATE_CONSUMED);
+        }
+    }
+
+    /**
+     * getRestoredLinks gets the links pending when the frontier was opened,
+     * in the order they were produced
+     * @return the links
+     */
+    public List<String> getRestoredLinks() {
+        return mRestoredLinks;
+    }
+
+    public int getNrPending() {
+        return mPendingPositions.size();
+    }
+
+    public boolean isVisited(long questionId) {
+        return mVisited.contains(questionId);
+    }
+
+    /**
+     * close writes the mapping to the disk, and saves the visited set
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        mBuffer.force();
+        mFile.close();
+        mVisited.save(mVisitedPath);
+        logger.info(String.format("Closed link frontier %s, %d links pending", mPath, getNrPending()));
+    }
+
+    private void map(long size) throws IOException {
+        MappedByteBuffer buffer = mFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (mBuffer == null) {
+            buffer.putInt(0, FILE_MAGIC);
+            buffer.putInt(4, FILE_VERSION);
+            buffer.putInt(TAIL_POSITION, mTail);
+        }
+        mBuffer = buffer;
+    }
+
+    // rewrites the file by the pending records only, atomically
+    private static void compact(String path, Map<Long, String> pending) throws IOException {
+        File tmp = new File(path + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            int tail = HEADER_SIZE;
+            for (String link : pending.values()) {
+                tail += RECORD_HEADER_SIZE + link.getBytes(StandardCharsets.UTF_8).length;
+            }
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(tail);
+            out.writeInt(0);
+            for (Map.Entry<Long, String> entry : pending.entrySet()) {
+                byte[] link = entry.getValue().getBytes(StandardCharsets.UTF_8);
+                out.writeByte(STATE_PENDING);
+                out.writeLong(entry.getKey());
+                out.writeShort(link.length);
+                out.write(link);
+            }
+        }
+        Files.move(tmp.toPath(), new File(path).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
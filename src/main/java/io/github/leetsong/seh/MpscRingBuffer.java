@@ -0,0 +1,176 @@
+package io.github.leetsong.seh;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * MpscRingBuffer is a bounded, lock-free, multi-producer single-consumer
+ * ring buffer. Each slot has a sequence number telling whether it is free
+ * for the producer of a position, or filled for the consumer, so that
+ * producers only contend on a CAS of the tail, and the consumer on
+ * nothing. Producers only block when the buffer is full; the consumer can
+ * wait until a number of elements are buffered or a timeout expires, and
+ * is woken up by the producer which fills the buffer up to that number.
+ *
+ * @param <T> type of the elements
+ */
+public class MpscRingBuffer<T> {
+
+    // how long a producer parks when the buffer is full, before trying again
+    private static final long DEFAULT_FULL_PARK_NS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final int mCapacity;
+    private final int mMask;
+    private final Object[] mElements;
+    private final AtomicLongArray mSequences;
+    private final AtomicLong mTail = new AtomicLong(0);
+    // only written by the consumer
+    private volatile long mHead = 0;
+
+    // the consumer waiting in await, and how many elements it waits for
+    private volatile Thread mWaiter = null;
+    private volatile int mWaitingFor = Integer.MAX_VALUE;
+
+    /**
+     * MpscRingBuffer creates a ring buffer
+     * @param capacity the capacity, rounded up to a power of 2
+     */
+    public MpscRingBuffer(int capacity) {
+        int c = 1;
+        while (c < capacity) {
+            c <<= 1;
+        }
+        this.mCapacity = c;
+        this.mMask = c - 1;
+        this.mElements = new Object[c];
+        this.mSequences = new AtomicLongArray(c);
+        for (int i = 0; i < c; i ++) {
+            mSequences.set(i, i);
+        }
+    }
+
+    /**
+     * offer adds e if the buffer is not full, it never blocks
+     * @param e the element
+     * @return false if the buffer is full
+     */
+    public boolean offer(T e) {
+        long pos = mTail.get();
+        int index;
+        while (true) {
+            index = (int) (pos & mMask);
+            long diff = mSequences.get(index) - pos;
+            if (diff == 0) {
+                // the slot is free for pos, claim it
+                if (mTail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = mTail.get();
+            } else if (diff < 0) {
+                // the slot is still filled a lap ago, full
+                return false;
+            } else {
+                // claimed by another producer
+                pos = mTail.get();
+            }
+        }
+
+        mElements[index] = e;
+        // publish the element, the consumer reads the sequence before it
+        mSequences.lazySet(index, pos + 1);
+
+        Thread waiter = mWaiter;
+        if (waiter != null && pos + 1 - mHead >= mWaitingFor) {
+            LockSupport.unpark(waiter);
+        }
+        return true;
+    }
+
+    /**
+     * put adds e, it blocks while the buffer is full
+     * @param e the element
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void put(T e) throws InterruptedException {
+        while (!offer(e)) {
+            // let the consumer drain
+            wakeUp();
+            LockSupport.parkNanos(this, DEFAULT_FULL_PARK_NS);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * drainTo moves up to maxElements elements to c, it must only be called
+     * by the consumer
+     * @param c           the collection to move to
+     * @param maxElements max number of elements to move
+     * @return number of elements moved
+     */
+    @SuppressWarnings("unchecked")
+    public int drainTo(Collection<? super T> c, int maxElements) {
+        long head = mHead;
+        int n = 0;
+        while (n < maxElements) {
+            int index = (int) (head & mMask);
+            if (mSequences.get(index) != head + 1) {
+                // not filled yet
+                break;
+            }
+            c.add((T) mElements[index]);
+            mElements[index] = null;
+            // free the slot for the producer a lap later
+            mSequences.lazySet(index, head + mCapacity);
+            head += 1;
+            n += 1;
+        }
+        mHead = head;
+        return n;
+    }
+
+    /**
+     * await blocks the consumer until at least nrElements elements are
+     * buffered, timeout expires, or it is woken up
+     * @param nrElements number of elements to wait for
+     * @param timeout    max time to wait
+     * @param unit       unit of timeout
+     */
+    public void await(int nrElements, long timeout, TimeUnit unit) {
+        mWaitingFor = nrElements;
+        mWaiter = Thread.currentThread();
+        // check after publishing the waiter, so that a producer either sees
+        // the waiter, or its element is seen here
+        if (size() < nrElements) {
+            LockSupport.parkNanos(this, unit.toNanos(timeout));
+        }
+        mWaiter = null;
+        mWaitingFor = Integer.MAX_VALUE;
+    }
+
+    /**
+     * wakeUp wakes up the consumer if it is waiting in await
+     */
+    public void wakeUp() {
+        Thread waiter = mWaiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /**
+     * size gets the number of buffered elements, including the ones being published
+     * @return number of elements
+     */
+    public int size() {
+        return (int) Math.max(0, mTail.get() - mHead);
+    }
+
+    public int capacity() {
+        return mCapacity;
+    }
+}
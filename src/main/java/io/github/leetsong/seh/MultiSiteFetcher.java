@@ -0,0 +1,142 @@
+package io.github.leetsong.seh;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MultiSiteFetcher fetches the same tags from several sites of the
+ * StackExchange network in parallel, one ApiFetcher per site, all over the
+ * shared StackOverflowClient. Each site has its own rate limiter (for its
+ * quota and backoffs), configurations and outputs, while the requests of
+ * all sites are paced by the limiter of the client. Its handle is a single
+ * progress view of all sites, and the outputs of all sites can be merged
+ * into one csv file once all of them complete, with a column telling the
+ * site of each row.
+ */
+public class MultiSiteFetcher extends Fetcher {
+
+    private Logger logger = LoggerFactory.getLogger(MultiSiteFetcher.class);
+
+    // how often the progress of all sites is logged
+    private static final long DEFAULT_PROGRESS_INTERVAL_MS = 10_000;
+
+    private final Map<String, ApiFetcher> mFetchers = new LinkedHashMap<>();
+    private final Map<String, FetchHandle> mHandles = new LinkedHashMap<>();
+    private final String mMergedOutput;
+    private final AtomicLong mLastProgressAt = new AtomicLong(0);
+
+    /**
+     * MultiSiteFetcher fetches tags from sites
+     * @param sites        the site names, e.g., "stackoverflow", "superuser"
+     * @param tags         the tags interested
+     * @param mergedOutput the csv file to merge outputs of all sites into,
+     *                     or null to keep outputs per site
+     */
+    public MultiSiteFetcher(String[] sites, String[] tags, String mergedOutput) {
+        for (String site : sites) {
+            mFetchers.put(site, new ApiFetcher(site, tags));
+        }
+        this.mMergedOutput = mergedOutput;
+    }
+
+    @Override
+    public FetchHandle fetchAsync() {
+        StackOverflowClient client = StackOverflowClient.getClient();
+        FetchHandle handle = new FetchHandle(client::getNrByteReceived);
+
+        List<CompletableFuture<FetchHandle>> completions = new ArrayList<>();
+        for (Map.Entry<String, ApiFetcher> entry : mFetchers.entrySet()) {
+            entry.getValue().setParentHandle(handle);
+            FetchHandle siteHandle = entry.getValue().fetchAsync();
+            mHandles.put(entry.getKey(), siteHandle);
+            completions.add(siteHandle.getCompletion());
+        }
+        handle.setOnCancel(() -> mHandles.values().forEach(FetchHandle::cancel));
+        // after mHandles is filled, since it is iterated on the fetchers' threads
+        handle.addProgressListener(h -> logProgress(false));
+
+        // completes once all sites complete, whether they succeed or not
+        CompletableFuture.allOf(completions.stream()
+                .map(c -> c.handle((h, e) -> null))
+                .toArray(CompletableFuture[]::new))
+                .thenRun(() -> onAllCompleted(handle));
+        return handle;
+    }
+
+    // completes handle however merging ends, otherwise the caller waits forever
+    private void onAllCompleted(FetchHandle handle) {
+        Throwable error = null;
+        try {
+            logProgress(true);
+            for (Map.Entry<String, FetchHandle> entry : mHandles.entrySet()) {
+                try {
+                    entry.getValue().getCompletion().join();
+                } catch (RuntimeException e) {
+                    logger.error(String.format("Fetching from %s did not succeed", entry.getKey()));
+                    if (error == null) {
+                        error = e instanceof CompletionException ? e.getCause() : e;
+                    }
+                }
+            }
+            merge();
+        } catch (RuntimeException e) {
+            logger.error(String.format("Failed to merge outputs into %s", mMergedOutput));
+            e.printStackTrace();
+            if (error == null) {
+                error = e;
+            }
+        } finally {
+            handle.complete(error);
+        }
+    }
+
+    private void merge() {
+        if (mMergedOutput == null) {
+            return;
+        }
+        // ids are unique only per site, so each row is merged with its site
+        List<String> csvOutputs = new ArrayList<>();
+        List<String> sites = new ArrayList<>();
+        for (Map.Entry<String, ApiFetcher> entry : mFetchers.entrySet()) {
+            // columnar outputs are converted to csv by CsvCombiner
+            for (String csvOutput : entry.getValue().getOutputs()) {
+                csvOutputs.add(csvOutput);
+                sites.add(entry.getKey());
+            }
+        }
+        new CsvCombiner(csvOutputs, sites, mMergedOutput).combine();
+        logger.info(String.format("Outputs of %d sites are merged into %s", mFetchers.size(), mMergedOutput));
+    }
+
+    private void logProgress(boolean force) {
+        long now = System.currentTimeMillis();
+        long last = mLastProgressAt.get();
+        if (!force && (now - last < DEFAULT_PROGRESS_INTERVAL_MS || !mLastProgressAt.compareAndSet(last, now))) {
+            return;
+        }
+
+        logger.info("Progress of all sites:");
+        long nrPage = 0;
+        long nrItem = 0;
+        for (Map.Entry<String, FetchHandle> entry : mHandles.entrySet()) {
+            FetchHandle h = entry.getValue();
+            nrPage += h.getNrPage();
+            nrItem += h.getNrItem();
+            logger.info(String.format("  - %s%s: %s", entry.getKey(), h.isDone() ? " (done)" : "", h));
+        }
+        logger.info(String.format("  - total pages: %d, total items: %d", nrPage, nrItem));
+    }
+
+    public static void main(String[] args) {
+        new MultiSiteFetcher(new String[] { "stackoverflow", "superuser", "android" },
+                new String[] { "android" }, "android_all_sites.csv").fetch();
+    }
+}
@@ -0,0 +1,239 @@
+package io.github.leetsong.seh;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * PageDispenser hands out pages to workers, instead of letting each worker
+ * stride over pages by itself. It
+ *  1. stops handing out pages once any response reports the end, or at the
+ *     end page it is created with, which is extended a page at a time if
+ *     the response of the last page reports more
+ *  2. hands pages released by dead workers to the others
+ *  3. hands pages leased by slow workers (leased longer than the lease
+ *     timeout) to the others, whoever completes it first wins
+ *  4. tracks the watermark, i.e., all pages before it are completed, and the
+ *     completed pages after it, so that it can be restarted exactly
+ */
+public class PageDispenser {
+
+    private Logger logger = LoggerFactory.getLogger(PageDispenser.class);
+
+    private static final long DEFAULT_LEASE_TIMEOUT_MS = 5 * 60_000;
+
+    // returned by acquire when there are no more pages
+    public static final int NO_PAGE = -1;
+    // returned by tryAcquire when pages are all leased, but not all completed
+    public static final int PAGE_PENDING = -2;
+
+    private static class Lease {
+        int workerId;
+        long leasedAt;
+        boolean stolen;
+
+        Lease(int workerId, long leasedAt) {
+            this.workerId = workerId;
+            this.leasedAt = leasedAt;
+            this.stolen = false;
+        }
+    }
+
+    private final long mLeaseTimeoutMs;
+
+    // all fields below are guarded by this
+    private int mWatermark;
+    private int mNextPage;
+    private int mEndPage;
+    private final TreeSet<Integer> mCompleted = new TreeSet<>();
+    private final TreeSet<Integer> mReclaimed = new TreeSet<>();
+    private final Map<Integer, Lease> mLeases = new HashMap<>();
+
+    public PageDispenser(int watermark, Collection<Integer> completed, int endPage) {
+        this(watermark, completed, endPage, DEFAULT_LEASE_TIMEOUT_MS);
+    }
+
+    public PageDispenser(int watermark, Collection<Integer> completed, int endPage, long leaseTimeoutMs) {
+        this.mWatermark = watermark;
+        this.mEndPage = endPage;
+        this.mLeaseTimeoutMs = leaseTimeoutMs;
+        this.mCompleted.addAll(completed);
+        this.mCompleted.headSet(watermark).clear();
+        advanceWatermark();
+        this.mNextPage = mWatermark;
+    }
+
+    /**
+     * acquire leases a page to worker workerId, it blocks while there are no
+     * pages to hand out but other workers still hold leases, since those
+     * pages may be released or stolen later
+     * @param workerId the worker which leases the page
+     * @return the page, or NO_PAGE if all pages are dispensed and completed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized int acquire(int workerId) throws InterruptedException {
+        while (true) {
+            int page = tryAcquire(workerId);
+            if (page != PAGE_PENDING) {
+                return page;
+            }
+
+            // wait until a lease is completed, released or expired
+            wait(Math.max(1, earliestExpiry() - System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * tryAcquire is the non-blocking version of acquire
+     * @param workerId the worker which leases the page
+     * @return the page, NO_PAGE if all pages are dispensed and completed, or
+     *         PAGE_PENDING if no page can be handed out for the time being
+     */
+    public synchronized int tryAcquire(int workerId) {
+        long now = System.currentTimeMillis();
+        stealExpiredLeases(now);
+
+        // pages of dead or slow workers go first
+        Integer reclaimed;
+        while ((reclaimed = mReclaimed.pollFirst()) != null) {
+            if (reclaimed < mEndPage && !isCompleted(reclaimed)) {
+                mLeases.put(reclaimed, new Lease(workerId, now));
+                return reclaimed;
+            }
+        }
+
+        // then fresh pages
+        while (mNextPage < mEndPage) {
+            int page = mNextPage++;
+            if (!isCompleted(page)) {
+                mLeases.put(page, new Lease(workerId, now));
+                return page;
+            }
+        }
+
+        return mLeases.isEmpty() ? NO_PAGE : PAGE_PENDING;
+    }
+
+    /**
+     * complete marks page as completed
+     * @param page    the completed page
+     * @param hasMore whether the response says there are more pages
+     * @return true if it is the first completion of this page, and its items
+     *         should be handled; false if it is a duplicate or beyond the end
+     */
+    public synchronized boolean complete(int page, boolean hasMore) {
+        mLeases.remove(page);
+        try {
+            if (page >= mEndPage || isCompleted(page)) {
+                return false;
+            }
+
+            mCompleted.add(page);
+            advanceWatermark();
+            if (!hasMore) {
+                mEndPage = page + 1;
+                logger.info(String.format("Page %d is the last page, stop dispensing", page));
+            } else if (page + 1 == mEndPage) {
+                // the end page is an estimate, e.g., by the count of a shard,
+                // which has grown since, keep dispensing page by page
+                mEndPage = page + 2;
+                logger.info(String.format("Page %d is not the last page, extend the end to %d", page, mEndPage));
+            }
+            return true;
+        } finally {
+            notifyAll();
+        }
+    }
+
+    /**
+     * release gives page back, e.g., its worker died, it will be handed to others
+     * @param page the page to be released
+     */
+    public synchronized void release(int page) {
+        mLeases.remove(page);
+        if (page < mEndPage && !isCompleted(page)) {
+            mReclaimed.add(page);
+        }
+        notifyAll();
+    }
+
+    /**
+     * reopen gives a completed page back, e.g., its items failed to be
+     * written, it will be handed to others
+     * @param page the page to be reopened
+     */
+    public synchronized void reopen(int page) {
+        if (page < mWatermark) {
+            // pages after it are still completed
+            for (int p = page + 1; p < mWatermark; p ++) {
+                mCompleted.add(p);
+            }
+            mWatermark = page;
+        } else {
+            mCompleted.remove(page);
+        }
+        if (page < mEndPage) {
+            mReclaimed.add(page);
+        }
+        notifyAll();
+    }
+
+    /**
+     * isCompleted tells whether page is completed
+     * @param page the page
+     * @return true if it is completed
+     */
+    public synchronized boolean isCompleted(int page) {
+        return page < mWatermark || mCompleted.contains(page);
+    }
+
+    /**
+     * isExhausted tells whether all pages are dispensed and completed
+     * @return true if it is exhausted
+     */
+    public synchronized boolean isExhausted() {
+        return mWatermark >= mEndPage;
+    }
+
+    public synchronized int getWatermark() {
+        return mWatermark;
+    }
+
+    public synchronized List<Integer> getCompleted() {
+        return new ArrayList<>(mCompleted);
+    }
+
+    public synchronized int getEndPage() {
+        return mEndPage;
+    }
+
+    private void advanceWatermark() {
+        while (mCompleted.remove(mWatermark)) {
+            mWatermark += 1;
+        }
+    }
+
+    private void stealExpiredLeases(long now) {
+        for (Map.Entry<Integer, Lease> entry : mLeases.entrySet()) {
+            Lease lease = entry.getValue();
+            if (!lease.stolen && now - lease.leasedAt >= mLeaseTimeoutMs) {
+                logger.warn(String.format("Worker %d is too slow on page %d, hand it to others",
+                        lease.workerId, entry.getKey()));
+                lease.stolen = true;
+                mReclaimed.add(entry.getKey());
+            }
+        }
+    }
+
+    private long earliestExpiry() {
+        long earliest = Long.MAX_VALUE;
+        for (Lease lease : mLeases.values()) {
+            if (!lease.stolen) {
+                earliest = Math.min(earliest, lease.leasedAt + mLeaseTimeoutMs);
+            }
+        }
+        // all leases are stolen, wait for them to be completed or released
+        return earliest == Long.MAX_VALUE ? System.currentTimeMillis() + mLeaseTimeoutMs : earliest;
+    }
+}
@@ -0,0 +1,283 @@
+package io.github.leetsong.seh;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * PageJournal is an append-only journal of completed pages. A page is
+ * recorded only after its items are flushed by its appender, together with
+ * the size of the appender output after them, so that a restart can
+ * replay the journal, truncate partially written records of the outputs,
+ * and resume exactly from where it stopped.
+ *
+ * Records are fsync-ed in groups every DEFAULT_SYNC_INTERVAL_MS, and the
+ * journal is compacted into the properties snapshot every
+ * DEFAULT_COMPACTION_RECORDS records. The outputs registered are synced
+ * right before each group, so that an output is synced once per group
+ * rather than once per page, and the pages flushed to it since the last
+ * group are recorded with the size of the output after all of them.
+ *
+ * Each record is a line of "shard page worker nr_item has_more offset".
+ * The journal is written by RandomAccessFile rather than FileChannel,
+ * whose channel is closed if a writing worker is interrupted.
+ */
+public class PageJournal implements Closeable {
+
+    private static Logger logger = LoggerFactory.getLogger(PageJournal.class);
+
+    private static final long DEFAULT_SYNC_INTERVAL_MS = 1_000;
+    private static final int DEFAULT_COMPACTION_RECORDS = 1_000;
+
+    public static class Record {
+        public final int shard;
+        public final int page;
+        public final int workerId;
+        public final int nrItem;
+        public final boolean hasMore;
+        public final long offset;
+
+        public Record(int shard, int page, int workerId, int nrItem, boolean hasMore, long offset) {
+            this.shard = shard;
+            this.page = page;
+            this.workerId = workerId;
+            this.nrItem = nrItem;
+            this.hasMore = hasMore;
+            this.offset = offset;
+        }
+
+        String toLine() {
+            return String.format("%d %d %d %d %d %d\n",
+                    shard, page, workerId, nrItem, hasMore ? 1 : 0, offset);
+        }
+
+        static Record fromLine(String line) {
+            String[] fields = line.trim().split(" ");
+            if (fields.length != 6) {
+                return null;
+            }
+            try {
+                return new Record(
+                        Integer.parseInt(fields[0]),
+                        Integer.parseInt(fields[1]),
+                        Integer.parseInt(fields[2]),
+                        Integer.parseInt(fields[3]),
+                        "1".equals(fields[4]),
+                        Long.parseLong(fields[5]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    public interface OnCompactListener {
+        /**
+         * onCompact merges records into the snapshot and stores it, the
+         * records are dropped from the journal once it returns
+         * @param records records since the last compaction
+         * @throws IOException if the snapshot cannot be stored
+         */
+        void onCompact(List<Record> records) throws IOException;
+    }
+
+    private final String mPath;
+    private final OnCompactListener mOnCompactListener;
+    private final RandomAccessFile mFile;
+    private final Thread mSyncer;
+    private final List<Appender<?>> mOutputs = new CopyOnWriteArrayList<>();
+
+    // all fields below are guarded by this
+    private final List<Record> mRecords = new ArrayList<>();
+    private boolean mIsDirty = false;
+    private boolean mIsClosed = false;
+
+    /**
+     * PageJournal opens an empty journal at path, so the previous one has to
+     * be replayed and compacted beforehand
+     * @param path              path of the journal
+     * @param onCompactListener listener to merge records into the snapshot
+     * @throws IOException if the journal cannot be opened
+     */
+    public PageJournal(String path, OnCompactListener onCompactListener) throws IOException {
+        this.mPath = path;
+        this.mOnCompactListener = onCompactListener;
+        this.mFile = new RandomAccessFile(path, "rw");
+        this.mFile.setLength(0);
+        this.mSyncer = new Thread(this::syncPeriodically, "PageJournal-syncer");
+        this.mSyncer.setDaemon(true);
+        this.mSyncer.start();
+    }
+
+    /**
+     * replay reads all complete records of the journal at path, a partially
+     * written trailing record is ignored
+     * @param path path of the journal
+     * @return the records, or an empty list if there is no journal
+     * @throws IOException if the journal cannot be read
+     */
+    public static List<Record> replay(String path) throws IOException {
+        List<Record> records = new ArrayList<>();
+        File file = new File(path);
+        if (!file.exists()) {
+            return records;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = reader.read()) != -1) {
+                if (c != '\n') {
+                    line.append((char) c);
+                    continue;
+                }
+                Record record = Record.fromLine(line.toString());
+                if (record != null) {
+                    records.add(record);
+                }
+                line.setLength(0);
+            }
+            if (line.length() != 0) {
+                logger.warn(String.format("Ignore the partial record \"%s\" of %s", line, path));
+            }
+        }
+
+        logger.info(String.format("Replayed %d records of %s", records.size(), path));
+        return records;
+    }
+
+    /**
+     * truncate truncates the file at path to size, if it is larger
+     * @param path path of the file
+     * @param size size to truncate to, the file is kept if it is negative, i.e., unknown
+     * @throws IOException if the file cannot be truncated
+     */
+    public static void truncate(String path, long size) throws IOException {
+        File file = new File(path);
+        if (size < 0 || !file.exists() || file.length() <= size) {
+            return;
+        }
+        logger.warn(String.format("Truncate %s from %d to %d bytes", path, file.length(), size));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(size);
+        }
+    }
+
+    /**
+     * register makes output synced by the syncer of the journal, see Appender.sync
+     * @param output the output
+     */
+    public void register(Appender<?> output) {
+        mOutputs.add(output);
+    }
+
+    /**
+     * unregister stops syncing output, it is synced by its close then
+     * @param output the output
+     */
+    public void unregister(Appender<?> output) {
+        mOutputs.remove(output);
+    }
+
+    /**
+     * record appends a record to the journal, it is durable after the next
+     * group sync
+     * @param record the record
+     */
+    public synchronized void record(Record record) {
+        if (mIsClosed) {
+            return;
+        }
+        try {
+            mFile.write(record.toLine().getBytes(StandardCharsets.UTF_8));
+            mIsDirty = true;
+            mRecords.add(record);
+            if (mRecords.size() >= DEFAULT_COMPACTION_RECORDS) {
+                compact();
+            }
+        } catch (IOException e) {
+            logger.error("Failed to write to " + mPath);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * compact merges the records into the snapshot, and empties the journal
+     * @throws IOException if the snapshot cannot be stored
+     */
+    public synchronized void compact() throws IOException {
+        if (mRecords.isEmpty()) {
+            return;
+        }
+        // keep the journal if the snapshot fails, it will be replayed
+        mOnCompactListener.onCompact(new ArrayList<>(mRecords));
+        mRecords.clear();
+        mFile.setLength(0);
+        mFile.seek(0);
+        mFile.getFD().sync();
+        mIsDirty = false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (mIsClosed) {
+                return;
+            }
+            try {
+                compact();
+            } finally {
+                mIsClosed = true;
+                mFile.getFD().sync();
+                mFile.close();
+            }
+        }
+        mSyncer.interrupt();
+    }
+
+    private void syncPeriodically() {
+        while (true) {
+            try {
+                Thread.sleep(DEFAULT_SYNC_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            // outputs first, whose flushes are recorded, and synced below
+            for (Appender<?> output : mOutputs) {
+                try {
+                    output.sync();
+                } catch (RuntimeException e) {
+                    logger.error("Failed to sync an output of " + mPath);
+                    e.printStackTrace();
+                }
+            }
+            boolean isDirty;
+            synchronized (this) {
+                if (mIsClosed) {
+                    return;
+                }
+                isDirty = mIsDirty;
+                mIsDirty = false;
+            }
+            // sync out of the lock, so that records are not blocked by it
+            if (isDirty) {
+                try {
+                    mFile.getFD().sync();
+                } catch (IOException e) {
+                    synchronized (this) {
+                        if (mIsClosed) {
+                            return;
+                        }
+                    }
+                    logger.error("Failed to sync " + mPath);
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package io.github.leetsong.seh;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * ParallelGzipOutputStream compresses what is written to it as a series of
+ * gzip members, which is a valid gzip file as a whole (see RFC 1952), and
+ * is read back by GZIPInputStream or zcat as if it were a single one. The
+ * bytes written are cut into blocks of DEFAULT_BLOCK_SIZE, each compressed
+ * to a member by a shared pool of compressors, so that several blocks are
+ * compressed at the same time, and none by the thread writing, and the
+ * members are written in order. flush() ends the current member, and
+ * waits until all members are written, so that
+ *  1. a file truncated to the length after a flush is still a valid gzip
+ *     file, like the offset of Appender.flush requires
+ *  2. a crash loses at most what is written since the last flush
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+    private static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+    private static final int DEFAULT_LEVEL = Deflater.DEFAULT_COMPRESSION;
+    private static final int NR_COMPRESSOR = Runtime.getRuntime().availableProcessors();
+
+    // shared by all streams, daemon threads, as the writer threads of appenders
+    private static final ExecutorService COMPRESSORS = Executors.newFixedThreadPool(NR_COMPRESSOR,
+            new ThreadFactory() {
+                private final AtomicInteger mNextId = new AtomicInteger(0);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "GzipCompressor-" + mNextId.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private final OutputStream mOut;
+    private final int mBlockSize;
+    private final int mLevel;
+    // at most this many members are compressed but not written yet
+    private final int mMaxPending;
+    private final Deque<Future<byte[]>> mPending = new ArrayDeque<>();
+    private byte[] mBlock;
+    private int mSize = 0;
+
+    public ParallelGzipOutputStream(OutputStream out) {
+        this(out, DEFAULT_BLOCK_SIZE, DEFAULT_LEVEL);
+    }
+
+    /**
+     * ParallelGzipOutputStream compresses to out
+     * @param out       the stream to write members to
+     * @param blockSize max bytes of each member before compressed
+     * @param level     level of compression, see Deflater
+     */
+    public ParallelGzipOutputStream(OutputStream out, int blockSize, int level) {
+        this.mOut = out;
+        this.mBlockSize = blockSize;
+        this.mLevel = level;
+        this.mMaxPending = 2 * NR_COMPRESSOR;
+        this.mBlock = new byte[blockSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        mBlock[mSize++] = (byte) b;
+        if (mSize == mBlockSize) {
+            submit();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, mBlockSize - mSize);
+            System.arraycopy(b, off, mBlock, mSize, n);
+            mSize += n;
+            off += n;
+            len -= n;
+            if (mSize == mBlockSize) {
+                submit();
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (mSize > 0) {
+            submit();
+        }
+        while (!mPending.isEmpty()) {
+            writeHead();
+        }
+        mOut.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            mOut.close();
+        }
+    }
+
+    // hands the block over to the compressors, and writes the members compressed
+    private void submit() throws IOException {
+        final byte[] block = mBlock;
+        final int size = mSize;
+        mPending.addLast(COMPRESSORS.submit(() -> compress(block, size, mLevel)));
+        mBlock = new byte[mBlockSize];
+        mSize = 0;
+
+        while (!mPending.isEmpty() && (mPending.size() > mMaxPending || mPending.peekFirst().isDone())) {
+            writeHead();
+        }
+    }
+
+    private void writeHead() throws IOException {
+        Future<byte[]> head = mPending.removeFirst();
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    mOut.write(head.get());
+                    return;
+                } catch (InterruptedException e) {
+                    // the member has to be written anyway, or the file is broken
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to compress a block", e.getCause());
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static byte[] compress(byte[] block, int size, int level) throws IOException {
+        ByteArrayOutputStream member = new ByteArrayOutputStream(size / 4 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(member, 1 << 16) {
+            {
+                def.setLevel(level);
+            }
+        }) {
+            out.write(block, 0, size);
+        }
+        return member.toByteArray();
+    }
+}
@@ -0,0 +1,373 @@
+package io.github.leetsong.seh;
+
+import io.github.leetsong.seh.data.stackexchange.ItemContainer;
+import okhttp3.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * ProxyPool sends each request through one of several proxies, so that the
+ * rate limits of each proxy (i.e., of its IP) do not cap the whole crawl.
+ * It is the Call.Factory of StackOverflowClient, so that both api and page
+ * requests go through it. Each proxy has its own OkHttpClient derived from
+ * the client, sharing its dispatcher, connection pool (connections are kept
+ * per proxy) and cache. For each request, a proxy is selected by
+ *  1. least_loaded, the proxy with the fewest requests in flight, ties are
+ *     broken round-robin
+ *  2. round_robin, the proxies in turn
+ * among the healthy ones. A proxy
+ *  1. sends at most requestsPerSecond requests (0 for unlimited) to the network
+ *  2. is ejected for ejectS seconds, doubled every time it is ejected again,
+ *     after maxFailures requests in a row failed by i/o errors or 429s, i.e.,
+ *     health is checked passively by the requests themselves. An ejected
+ *     proxy is selected again once its ejection ends, and is healthy again
+ *     once a request through it succeeds
+ *  3. has its own QuotaRateLimiter of the api and HostScheduler of pages,
+ *     since both limits are enforced per IP, so that a throttle violation of
+ *     the api, or a host blocking it (e.g., google's /sorry/), pauses only
+ *     the requests through it, which are sent through the others meanwhile
+ */
+public class ProxyPool implements Call.Factory {
+
+    private static Logger logger = LoggerFactory.getLogger(ProxyPool.class);
+
+    public static final String STRATEGY_LEAST_LOADED = "least_loaded";
+    public static final String STRATEGY_ROUND_ROBIN = "round_robin";
+
+    // the longest ejection, however many times a proxy is ejected
+    private static final long MAX_EJECT_MS = 3600_000L;
+
+    // requests to it are paced by QuotaRateLimiter, others by HostScheduler
+    private static final String API_HOST = HttpUrl.get(StackOverflowClient.BASE_URL).host();
+
+    public class Member {
+
+        private final Proxy mProxy;
+        private final OkHttpClient mClient;
+        private final AtomicInteger mNrInFlight = new AtomicInteger(0);
+        private final LongAdder mNrRequest = new LongAdder();
+        private final LongAdder mNrFailure = new LongAdder();
+        private final QuotaRateLimiter mRateLimiter;
+        private final HostScheduler mHostScheduler;
+
+        // guarded by this
+        private int mNrFailureInRow = 0;
+        private int mNrEjection = 0;
+        private long mEjectedUntil = 0;
+        private long mNextPermitAt = 0;
+
+        Member(Proxy proxy, OkHttpClient base, HostScheduler hostScheduler) {
+            this.mProxy = proxy;
+            // the limits of a single IP
+            this.mRateLimiter = new QuotaRateLimiter();
+            this.mHostScheduler = hostScheduler;
+            this.mClient = base.newBuilder()
+                    .proxy(proxy)
+                    .addInterceptor(this::track)
+                    .addNetworkInterceptor(this::pace)
+                    .build();
+        }
+
+        public Proxy getProxy() {
+            return mProxy;
+        }
+
+        public int getNrInFlight() {
+            return mNrInFlight.get();
+        }
+
+        public long getNrRequest() {
+            return mNrRequest.sum();
+        }
+
+        public long getNrFailure() {
+            return mNrFailure.sum();
+        }
+
+        public QuotaRateLimiter getRateLimiter() {
+            return mRateLimiter;
+        }
+
+        public HostScheduler getHostScheduler() {
+            return mHostScheduler;
+        }
+
+        public synchronized boolean isEjected() {
+            return System.currentTimeMillis() < mEjectedUntil;
+        }
+
+        synchronized long getEjectedUntil() {
+            return mEjectedUntil;
+        }
+
+        // when a request to host can be sent through this proxy without waiting for a pause
+        long getAvailableAt(String host) {
+            long at = getEjectedUntil();
+            if (API_HOST.equals(host)) {
+                return Math.max(at, mRateLimiter.getPausedUntil());
+            }
+            return Math.max(at, mHostScheduler.getBlockedUntil(host));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (in flight: %d, requests: %d, failures: %d%s)", mProxy.address(),
+                    getNrInFlight(), getNrRequest(), getNrFailure(), isEjected() ? ", ejected" : "");
+        }
+
+        // schedules pages, counts requests in flight, and checks the health by their results
+        private Response track(Interceptor.Chain chain) throws IOException {
+            // tagged, so that the response tells the proxy it is sent through, see memberOf
+            Request request = chain.request().newBuilder().tag(Member.class, this).build();
+            String host = request.url().host();
+            // pages only looked up in the cache cost no request
+            boolean isScheduled = !API_HOST.equals(host) && !request.cacheControl().onlyIfCached();
+            if (isScheduled) {
+                try {
+                    mHostScheduler.acquire(host);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Interrupted while waiting for " + host);
+                }
+            }
+
+            mNrInFlight.incrementAndGet();
+            mNrRequest.increment();
+            try {
+                Response response = chain.proceed(request);
+                if (isScheduled && HostScheduler.isBlocked(response)) {
+                    // the host blocks this proxy, not the others
+                    mHostScheduler.onBlocked(host, HostScheduler.retryAfterOf(response));
+                } else if (response.code() == 429) {
+                    onFailure("429");
+                } else {
+                    if (isScheduled) {
+                        mHostScheduler.onSuccess(host);
+                    }
+                    onSuccess();
+                }
+                return response;
+            } catch (InterruptedIOException e) {
+                // cancelled or timed out by us, not a failure of the proxy
+                if (isScheduled) {
+                    mHostScheduler.onFailure(host);
+                }
+                throw e;
+            } catch (IOException e) {
+                if (isScheduled) {
+                    mHostScheduler.onFailure(host);
+                }
+                onFailure(e.toString());
+                throw e;
+            } finally {
+                mNrInFlight.decrementAndGet();
+            }
+        }
+
+        // paces the requests sent to the network, responses served by the cache are free
+        private Response pace(Interceptor.Chain chain) throws IOException {
+            HttpUrl url = chain.request().url();
+            if (API_HOST.equals(url.host())) {
+                try {
+                    mRateLimiter.acquire(url.encodedPath());
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Interrupted while pacing " + mProxy.address());
+                }
+            }
+            if (mMinIntervalMs > 0) {
+                long waitMs;
+                synchronized (this) {
+                    long now = System.currentTimeMillis();
+                    long at = Math.max(now, mNextPermitAt);
+                    mNextPermitAt = at + mMinIntervalMs;
+                    waitMs = at - now;
+                }
+                if (waitMs > 0) {
+                    try {
+                        Thread.sleep(waitMs);
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException("Interrupted while pacing " + mProxy.address());
+                    }
+                }
+            }
+            return chain.proceed(chain.request());
+        }
+
+        private synchronized void onSuccess() {
+            if (mNrEjection > 0 && mNrFailureInRow == 0) {
+                return;
+            }
+            if (mNrEjection > 0) {
+                logger.info(String.format("Proxy %s is healthy again", mProxy.address()));
+            }
+            mNrFailureInRow = 0;
+            mNrEjection = 0;
+        }
+
+        private synchronized void onFailure(String reason) {
+            mNrFailure.increment();
+            mNrFailureInRow += 1;
+            long now = System.currentTimeMillis();
+            if (mNrFailureInRow >= mMaxFailures && now >= mEjectedUntil) {
+                mNrEjection += 1;
+                long ejectMs = Math.min(MAX_EJECT_MS, mEjectMs << Math.min(mNrEjection - 1, 20));
+                mEjectedUntil = now + ejectMs;
+                logger.warn(String.format("Proxy %s is ejected for %s after %d failures in a row, the last: %s",
+                        mProxy.address(), Utility.timeInterval(now, mEjectedUntil), mNrFailureInRow, reason));
+            }
+        }
+    }
+
+    private final List<Member> mMembers;
+    private final String mStrategy;
+    private final long mMinIntervalMs;
+    private final int mMaxFailures;
+    private final long mEjectMs;
+    private final AtomicInteger mNext = new AtomicInteger(0);
+
+    /**
+     * ProxyPool creates a pool
+     * @param base              the client to derive the client of each proxy from
+     * @param proxies           the proxies
+     * @param strategy          STRATEGY_LEAST_LOADED or STRATEGY_ROUND_ROBIN
+     * @param requestsPerSecond max requests per second of each proxy, 0 for unlimited
+     * @param maxFailures       failures in a row to eject a proxy
+     * @param ejectS            seconds a proxy is ejected for the first time
+     * @param newHostScheduler  creates the HostScheduler of each proxy
+     */
+    public ProxyPool(OkHttpClient base, List<Proxy> proxies, String strategy,
+                     double requestsPerSecond, int maxFailures, long ejectS,
+                     Supplier<HostScheduler> newHostScheduler) {
+        if (proxies.isEmpty()) {
+            throw new IllegalArgumentException("No proxies in the pool");
+        }
+        this.mStrategy = strategy;
+        this.mMinIntervalMs = requestsPerSecond > 0 ? (long) Math.ceil(1000 / requestsPerSecond) : 0;
+        this.mMaxFailures = Math.max(1, maxFailures);
+        this.mEjectMs = Math.max(1, ejectS) * 1000;
+        List<Member> members = new ArrayList<>();
+        for (Proxy proxy : proxies) {
+            members.add(new Member(proxy, base, newHostScheduler.get()));
+        }
+        this.mMembers = Collections.unmodifiableList(members);
+        logger.info(String.format("Proxy pool of %d proxies, %s", mMembers.size(), mStrategy));
+    }
+
+    @Override
+    public Call newCall(Request request) {
+        return select(request.url().host()).mClient.newCall(request);
+    }
+
+    /**
+     * memberOf gets the proxy response is sent through
+     * @param response the response of a call of this pool
+     * @return the proxy, or null if it is not sent through any, e.g., served by the cache
+     */
+    public Member memberOf(Response response) {
+        return response.request().tag(Member.class);
+    }
+
+    /**
+     * onThrottled pauses the api requests through the proxy response is
+     * sent through, since throttle violations are per IP
+     * @param method   the api method which is throttled
+     * @param response the response of a call of this pool
+     * @param error    the error body, or null if it cannot be parsed
+     * @return false if response is not sent through any proxy
+     */
+    public boolean onThrottled(String method, Response response, ItemContainer<?> error) {
+        Member member = memberOf(response);
+        if (member == null) {
+            return false;
+        }
+        logger.warn(String.format("Proxy %s is throttled", member.mProxy.address()));
+        member.mRateLimiter.onThrottled(method, error);
+        return true;
+    }
+
+    public List<Member> getMembers() {
+        return mMembers;
+    }
+
+    public int size() {
+        return mMembers.size();
+    }
+
+    /**
+     * select selects the proxy of the next request to host among the healthy
+     * ones, i.e., neither ejected nor paused for host, or the one whose
+     * ejection or pause ends first if none is healthy
+     * @param host the host of the request
+     * @return the proxy
+     */
+    Member select(String host) {
+        long now = System.currentTimeMillis();
+        List<Member> healthy = new ArrayList<>(mMembers.size());
+        for (Member m : mMembers) {
+            if (m.getAvailableAt(host) <= now) {
+                healthy.add(m);
+            }
+        }
+
+        Member selected = null;
+        if (!healthy.isEmpty()) {
+            int n = healthy.size();
+            int start = Math.floorMod(mNext.getAndIncrement(), n);
+            if (!STRATEGY_LEAST_LOADED.equals(mStrategy)) {
+                return healthy.get(start);
+            }
+            for (int i = 0; i < n; i ++) {
+                Member m = healthy.get((start + i) % n);
+                if (selected == null || m.getNrInFlight() < selected.getNrInFlight()) {
+                    selected = m;
+                }
+            }
+            return selected;
+        }
+
+        long selectedAt = Long.MAX_VALUE;
+        for (Member m : mMembers) {
+            long at = m.getAvailableAt(host);
+            if (selected == null || at < selectedAt) {
+                selected = m;
+                selectedAt = at;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * parse parses a proxy like [socks5://|http://]host:port, socks5 if the scheme is omitted
+     * @param spec the proxy
+     * @return the proxy
+     * @throws IllegalArgumentException if it is not a proxy
+     */
+    public static Proxy parse(String spec) {
+        String s = spec.trim();
+        Proxy.Type type = Proxy.Type.SOCKS;
+        if (s.startsWith("socks5://")) {
+            s = s.substring("socks5://".length());
+        } else if (s.startsWith("http://")) {
+            type = Proxy.Type.HTTP;
+            s = s.substring("http://".length());
+        }
+        int colon = s.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Not a proxy: " + spec);
+        }
+        try {
+            int port = Integer.parseInt(s.substring(colon + 1));
+            return new Proxy(type, InetSocketAddress.createUnresolved(s.substring(0, colon), port));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a proxy: " + spec);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package io.github.leetsong.seh;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * QuestionIdSet is a set of question ids, shared by all workers to drop
+ * the questions which are already appended. It is a bitmap split into
+ * chunks of DEFAULT_CHUNK_IDS ids, which are allocated on their first
+ * use and updated by CAS, so it is lock-free and holds no boxed ids.
+ * Question ids are dense and below 2^31, so that 80 million ids take
+ * 10 MB at most, no matter how many of them are in the set.
+ *
+ * It can be saved to and loaded from a file, so that later runs skip the
+ * questions fetched by earlier ones.
+ */
+public class QuestionIdSet {
+
+    private static Logger logger = LoggerFactory.getLogger(QuestionIdSet.class);
+
+    // ids are kept in chunks of 2^16 bits, i.e., 8 KB
+    private static final int CHUNK_BITS = 16;
+    private static final int DEFAULT_CHUNK_IDS = 1 << CHUNK_BITS;
+    private static final int CHUNK_WORDS = DEFAULT_CHUNK_IDS / Long.SIZE;
+    // ids in [0, MAX_ID) are tracked, others are never regarded as duplicates
+    private static final long MAX_ID = 1L << 31;
+    private static final int NR_CHUNK = (int) (MAX_ID >>> CHUNK_BITS);
+
+    private static final int FILE_MAGIC = 0x53454849; // "SEHI"
+    private static final int FILE_VERSION = 1;
+
+    private final AtomicReferenceArray<AtomicLongArray> mChunks = new AtomicReferenceArray<>(NR_CHUNK);
+    private final LongAdder mSize = new LongAdder();
+    private final LongAdder mNrDuplicate = new LongAdder();
+
+    /**
+     * add adds id to the set
+     * @param id the question id
+     * @return true if id is not in the set before, i.e., it is not a duplicate
+     */
+    public boolean add(long id) {
+        if (id < 0 || id >= MAX_ID) {
+            return true;
+        }
+
+        AtomicLongArray chunk = getChunk((int) (id >>> CHUNK_BITS), true);
+        int bit = (int) (id & (DEFAULT_CHUNK_IDS - 1));
+        int word = bit >>> 6;
+        long mask = 1L << (bit & 63);
+        while (true) {
+            long old = chunk.get(word);
+            if ((old & mask) != 0) {
+                mNrDuplicate.increment();
+                return false;
+            }
+            if (chunk.compareAndSet(word, old, old | mask)) {
+                mSize.increment();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * contains tells whether id is in the set
+     * @param id the question id
+     * @return true if it is in the set
+     */
+    public boolean contains(long id) {
+        if (id < 0 || id >= MAX_ID) {
+            return false;
+        }
+
+        AtomicLongArray chunk = getChunk((int) (id >>> CHUNK_BITS), false);
+        if (chunk == null) {
+            return false;
+        }
+        int bit = (int) (id & (DEFAULT_CHUNK_IDS - 1));
+        return (chunk.get(bit >>> 6) & (1L << (bit & 63))) != 0;
+    }
+
+    public long size() {
+        return mSize.sum();
+    }
+
+    /**
+     * getNrDuplicate gets how many times add is called with an id already in the set
+     * @return number of duplicates
+     */
+    public long getNrDuplicate() {
+        return mNrDuplicate.sum();
+    }
+
+    /**
+     * load loads the set saved at path
+     * @param path path of the saved set
+     * @return the set, or an empty set if there is no such file
+     * @throws IOException if the file cannot be read, or is not a saved set
+     */
+    public static QuestionIdSet load(String path) throws IOException {
+        QuestionIdSet set = new QuestionIdSet();
+        File file = new File(path);
+        if (!file.exists()) {
+            return set;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                throw new IOException(path + " is not a saved question id set");
+            }
+            int nrChunk = in.readInt();
+            for (int i = 0; i < nrChunk; i ++) {
+                int index = in.readInt();
+                if (index < 0 || index >= NR_CHUNK) {
+                    throw new IOException(String.format("Chunk %d of %s is out of range", index, path));
+                }
+                AtomicLongArray chunk = set.getChunk(index, true);
+                for (int w = 0; w < CHUNK_WORDS; w ++) {
+                    long bits = in.readLong();
+                    chunk.set(w, bits);
+                    set.mSize.add(Long.bitCount(bits));
+                }
+            }
+        }
+
+        logger.info(String.format("Loaded %d question ids from %s", set.size(), path));
+        return set;
+    }
+
+    /**
+     * save saves the set to path, ids added concurrently may or may not be
+     * saved. The file is replaced atomically, so a crash never leaves a
+     * partially written set behind
+     * @param path path to save the set
+     * @throws IOException if the set cannot be saved
+     */
+    public void save(String path) throws IOException {
+        File file = new File(path);
+        File tmp = new File(path + ".tmp");
+
+        int nrChunk = 0;
+        for (int i = 0; i < NR_CHUNK; i ++) {
+            if (mChunks.get(i) != null) {
+                nrChunk += 1;
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(nrChunk);
+            // write as many chunks as counted above, chunks allocated since then wait for the next save
+            for (int i = 0, written = 0; i < NR_CHUNK && written < nrChunk; i ++) {
+                AtomicLongArray chunk = mChunks.get(i);
+                if (chunk == null) {
+                    continue;
+                }
+                out.writeInt(i);
+                for (int w = 0; w < CHUNK_WORDS; w ++) {
+                    out.writeLong(chunk.get(w));
+                }
+                written += 1;
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        logger.info(String.format("Saved %d question ids to %s", size(), path));
+    }
+
+    private AtomicLongArray getChunk(int index, boolean create) {
+        AtomicLongArray chunk = mChunks.get(index);
+        if (chunk == null && create) {
+            // whoever installs the chunk first wins, the others use it
+            mChunks.compareAndSet(index, null, new AtomicLongArray(CHUNK_WORDS));
+            chunk = mChunks.get(index);
+        }
+        return chunk;
+    }
+}
@@ -0,0 +1,460 @@
+package io.github.leetsong.seh;
+
+import io.github.leetsong.seh.data.stackexchange.GooGItem;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.parser.Parser;
+import org.jsoup.select.Elements;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * QuestionPageExtractor extracts a GooGItem from the html of a question page
+ * without building its DOM. It streams the page through a reused buffer, and
+ * only matches the tokens around the fields we need, in the order they are
+ * in a page, i.e., the title in #question-header, the score and tags in
+ * #question, and the creation date and view count in #qinfo, then it stops
+ * reading, so the rest of the page (the sidebar, footer, ...) is never read.
+ *
+ * An extractor is not thread-safe, since its buffers are reused by every
+ * extract(), use one extractor per thread.
+ */
+public class QuestionPageExtractor {
+
+    private static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+    // texts we read, e.g., the title, are short, longer ones mean the page is not what we expect
+    private static final int MAX_TEXT_LENGTH = 4 * 1024;
+
+    // the creation date is like "2018-07-31 12:00:00Z", the formatter is thread-safe
+    private static final DateTimeFormatter CREATION_DATE_FORMATTER =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss'Z'");
+
+    private static final String TOKEN_QUESTION_HEADER = "id=\"question-header\"";
+    private static final String TOKEN_QUESTION = "id=\"question\"";
+    private static final String TOKEN_ANSWERS = "id=\"answers\"";
+    private static final String TOKEN_QINFO = "id=\"qinfo\"";
+    private static final String TOKEN_SCORE = "vote-count-post";
+    private static final String TOKEN_TAG = "post-tag";
+
+    private final char[] mBuffer = new char[DEFAULT_BUFFER_SIZE];
+    private final StringBuilder mText = new StringBuilder();
+    private Reader mReader;
+    private int mPos;
+    private int mLimit;
+    private long mNrByte;
+
+    /**
+     * extract extracts the item of a question page, it stops reading in
+     * once all fields are extracted, but does not close in
+     * @param in         the page
+     * @param charset    charset of the page
+     * @param questionId id of the question
+     * @param link       link of the page
+     * @return the item, or null if the page is not a question page we know
+     * @throws IOException if the page cannot be read
+     */
+    public GooGItem extract(InputStream in, Charset charset, long questionId, String link) throws IOException {
+        CountingInputStream countingIn = new CountingInputStream(in);
+        this.mReader = new InputStreamReader(countingIn, charset);
+        this.mPos = 0;
+        this.mLimit = 0;
+        try {
+            return extract(questionId, link);
+        } finally {
+            this.mNrByte = countingIn.mNrByte;
+            this.mReader = null;
+        }
+    }
+
+    /**
+     * getNrByte gets number of bytes read by the last extract()
+     * @return number of bytes
+     */
+    public long getNrByte() {
+        return mNrByte;
+    }
+
+    private GooGItem extract(long questionId, String link) throws IOException {
+        // title is the anchor in the header
+        if (skipTo(TOKEN_QUESTION_HEADER) < 0 || skipTo("<a") < 0 || skipTo(">") < 0) {
+            return null;
+        }
+        String title = readUntil("</a>");
+        if (title == null) {
+            return null;
+        }
+        title = title.trim();
+
+        // score comes before tags in the question
+        if (skipTo(TOKEN_QUESTION) < 0 || skipTo(TOKEN_SCORE) < 0 || skipTo(">") < 0) {
+            return null;
+        }
+        Integer score = readInt("<");
+        if (score == null) {
+            return null;
+        }
+
+        // tags are anchors of class post-tag before answers
+        List<String> tags = new ArrayList<>();
+        while (skipTo(TOKEN_TAG, TOKEN_ANSWERS) == 0) {
+            // skip classes like post-taglist
+            int c = peek();
+            if (c != '"' && c != ' ') {
+                continue;
+            }
+            if (skipTo(">") < 0) {
+                return null;
+            }
+            String tag = readUntil("</a>");
+            if (tag == null) {
+                return null;
+            }
+            tags.add(Parser.unescapeEntities(stripTags(tag), false).trim());
+        }
+
+        // creation date is the title of p in the 2nd td of qinfo, view count is the b in the 4th td
+        if (skipTo(TOKEN_QINFO) < 0 || skipTo("<td") < 0 || skipTo("<td") < 0 ||
+                skipTo("<p") < 0 || skipTo("title=\"") < 0) {
+            return null;
+        }
+        String creationDateInString = readUntil("\"");
+        if (creationDateInString == null) {
+            return null;
+        }
+        long creationDate;
+        try {
+            creationDate = LocalDateTime.parse(creationDateInString, CREATION_DATE_FORMATTER)
+                    .toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+
+        if (skipTo("<td") < 0 || skipTo("<td") < 0 || skipTo("<b>") < 0) {
+            return null;
+        }
+        // like "1,234 times"
+        String viewCountInString = readUntil("</b>");
+        if (viewCountInString == null) {
+            return null;
+        }
+        int viewCount = 0;
+        for (int i = 0; i < viewCountInString.length(); i ++) {
+            char c = viewCountInString.charAt(i);
+            if (c >= '0' && c <= '9') {
+                viewCount = viewCount * 10 + (c - '0');
+            } else if (c != ',') {
+                break;
+            }
+        }
+
+        return new GooGItem.Builder()
+                .withQuestionId(questionId)
+                .withTitle(title)
+                .withTags(tags)
+                .withViewCount(viewCount)
+                .withScore(score)
+                .withCreationDate(creationDate)
+                .withLink(link)
+                .build();
+    }
+
+    // skips to the end of the first found token, returns its index, or -1 at the end of the page
+    private int skipTo(String... tokens) throws IOException {
+        int maxLength = 0;
+        for (String token : tokens) {
+            maxLength = Math.max(maxLength, token.length());
+        }
+        while (true) {
+            int found = -1;
+            int foundAt = mLimit;
+            for (int t = 0; t < tokens.length; t ++) {
+                int at = indexOf(tokens[t], mPos, foundAt);
+                if (at >= 0) {
+                    found = t;
+                    foundAt = at;
+                }
+            }
+            if (found >= 0) {
+                mPos = foundAt + tokens[found].length();
+                return found;
+            }
+            // keep the chars which may be the prefix of a token
+            mPos = Math.max(mPos, mLimit - maxLength + 1);
+            if (!fill()) {
+                return -1;
+            }
+        }
+    }
+
+    // reads until token, and skips it, returns null at the end of the page
+    private String readUntil(String token) throws IOException {
+        mText.setLength(0);
+        while (true) {
+            int at = indexOf(token, mPos, mLimit);
+            if (at >= 0) {
+                mText.append(mBuffer, mPos, at - mPos);
+                mPos = at + token.length();
+                return mText.toString();
+            }
+            int safe = mLimit - token.length() + 1;
+            if (safe > mPos) {
+                mText.append(mBuffer, mPos, safe - mPos);
+                mPos = safe;
+            }
+            if (mText.length() > MAX_TEXT_LENGTH || !fill()) {
+                return null;
+            }
+        }
+    }
+
+    private Integer readInt(String token) throws IOException {
+        String s = readUntil(token);
+        if (s == null) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(s.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private int peek() throws IOException {
+        if (mPos == mLimit && !fill()) {
+            return -1;
+        }
+        return mBuffer[mPos];
+    }
+
+    // moves the unread chars to the front, and reads more behind them
+    private boolean fill() throws IOException {
+        if (mPos > 0) {
+            System.arraycopy(mBuffer, mPos, mBuffer, 0, mLimit - mPos);
+            mLimit -= mPos;
+            mPos = 0;
+        }
+        int n = mReader.read(mBuffer, mLimit, mBuffer.length - mLimit);
+        if (n <= 0) {
+            return false;
+        }
+        mLimit += n;
+        return true;
+    }
+
+    private int indexOf(String token, int from, int to) {
+        char first = token.charAt(0);
+        int last = to - token.length();
+        for (int i = from; i <= last; i ++) {
+            if (mBuffer[i] != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < token.length() && mBuffer[i + j] == token.charAt(j)) {
+                j += 1;
+            }
+            if (j == token.length()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String stripTags(String html) {
+        if (html.indexOf('<') < 0) {
+            return html;
+        }
+        StringBuilder sb = new StringBuilder(html.length());
+        boolean inTag = false;
+        for (int i = 0; i < html.length(); i ++) {
+            char c = html.charAt(i);
+            if (c == '<') {
+                inTag = true;
+            } else if (c == '>') {
+                inTag = false;
+            } else if (!inTag) {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long mNrByte = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                mNrByte += 1;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                mNrByte += n;
+            }
+            return n;
+        }
+    }
+
+    // the extraction GooFetcher did before, by the DOM of the page, kept to benchmark against
+    private static GooGItem extractByDom(String html, long questionId, String link) {
+        Document doc = Jsoup.parse(html, link);
+
+        Element questionHeaderElement = doc.getElementById("question-header");
+        String title = questionHeaderElement.selectFirst("h1 a").html();
+
+        Element questionElement = doc.getElementById("question");
+        Elements tagsElement = questionElement.select("div.grid.ps-relative a.post-tag");
+        List<String> tags = new ArrayList<>(tagsElement.size());
+        for (Element tagElement : tagsElement) {
+            tags.add(tagElement.text());
+        }
+        int score = Integer.parseInt(questionElement.selectFirst("span.vote-count-post").html());
+
+        Elements tdElements = doc.getElementById("qinfo").select("td");
+        int viewCount = Integer.parseInt(
+                tdElements.get(3).selectFirst("b").html().split(" ")[0].replace(",", ""));
+        SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd hh:mm:ss");
+        long creationDate = 0;
+        try {
+            creationDate = simpleDateFormat.parse(tdElements.get(1).selectFirst("p").attr("title")).getTime();
+        } catch (ParseException e) {
+            e.printStackTrace();
+        }
+
+        return new GooGItem.Builder()
+                .withQuestionId(questionId)
+                .withTitle(title)
+                .withTags(tags)
+                .withViewCount(viewCount)
+                .withScore(score)
+                .withCreationDate(creationDate)
+                .withLink(link)
+                .build();
+    }
+
+    // a question page in the layout we extract, with a long body and answers
+    private static String samplePage() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<!DOCTYPE html><html><head><title>sample</title></head><body><div class=\"container\">");
+        sb.append("<div id=\"question-header\" class=\"grid\"><h1 itemprop=\"name\" class=\"grid--cell\">")
+                .append("<a href=\"/questions/1/sample\" class=\"question-hyperlink\">How to use a &lt;view&gt;?</a>")
+                .append("</h1></div>");
+        sb.append("<div id=\"mainbar\"><div class=\"question\" id=\"question\"><div class=\"post-layout\">")
+                .append("<div class=\"votecell\"><span itemprop=\"upvoteCount\" class=\"vote-count-post \">42</span></div>")
+                .append("<div class=\"postcell\"><div class=\"post-text\">");
+        for (int i = 0; i < 100; i ++) {
+            sb.append("<p>Some text of the question, with <code>code</code> in it.</p>");
+        }
+        sb.append("</div><div class=\"post-taglist grid gs4 gsy fd-column\"><div class=\"grid ps-relative d-block\">")
+                .append("<a href=\"/questions/tagged/android\" class=\"post-tag\" rel=\"tag\">android</a> ")
+                .append("<a href=\"/questions/tagged/c%2b%2b\" class=\"post-tag\" rel=\"tag\">c++</a> ")
+                .append("<a href=\"/questions/tagged/ios\" class=\"post-tag\" rel=\"tag\">")
+                .append("<img src=\"a.png\" height=\"16\" width=\"18\">ios</a>")
+                .append("</div></div></div></div></div>");
+        sb.append("<div id=\"answers\">");
+        for (int i = 0; i < 5; i ++) {
+            sb.append("<div class=\"answer\"><span class=\"vote-count-post \">1</span><div class=\"post-text\">");
+            for (int j = 0; j < 40; j ++) {
+                sb.append("<p>Some text of an answer.</p>");
+            }
+            sb.append("</div></div>");
+        }
+        sb.append("</div></div>");
+        sb.append("<div id=\"sidebar\"><div class=\"module question-stats\"><table id=\"qinfo\">")
+                .append("<tr><td><p class=\"label-key\">asked</p></td>")
+                .append("<td><p class=\"label-key\" title=\"2018-07-31 12:34:56Z\"><b>3 months ago</b></p></td></tr>")
+                .append("<tr><td><p class=\"label-key\">viewed</p></td>")
+                .append("<td><p class=\"label-key\"><b>12,345 times</b></p></td></tr>")
+                .append("</table></div>");
+        for (int i = 0; i < 50; i ++) {
+            sb.append("<div class=\"related\"><a href=\"/questions/tagged/x\" class=\"post-tag\">x</a></div>");
+        }
+        sb.append("</div></div></body></html>");
+        return sb.toString();
+    }
+
+    /**
+     * main benchmarks the extraction by DOM against the streaming extraction
+     * @param args [directory of recorded question pages (*.html)] [number of rounds],
+     *             a built-in sample page is used if no directory is given
+     */
+    public static void main(String[] args) throws IOException {
+        List<byte[]> pages = new ArrayList<>();
+        if (args.length > 0) {
+            File[] files = new File(args[0]).listFiles((dir, name) -> name.endsWith(".html"));
+            if (files == null || files.length == 0) {
+                System.err.println("No recorded pages in " + args[0]);
+                return;
+            }
+            for (File file : files) {
+                pages.add(Files.readAllBytes(file.toPath()));
+            }
+        } else {
+            pages.add(samplePage().getBytes(StandardCharsets.UTF_8));
+        }
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        String link = "https://stackoverflow.com/questions/1/sample";
+
+        // check that both extract the same, except for the time zone of the creation date
+        QuestionPageExtractor extractor = new QuestionPageExtractor();
+        GooGItem byDom = extractByDom(new String(pages.get(0), StandardCharsets.UTF_8), 1, link);
+        GooGItem byStream = extractor.extract(new ByteArrayInputStream(pages.get(0)), StandardCharsets.UTF_8, 1, link);
+        System.out.println(String.format("dom:    %s|%s|%d|%d", byDom.getTitle(), byDom.getTags(),
+                byDom.getScore(), byDom.getViewCount()));
+        System.out.println(String.format("stream: %s", byStream == null ? "null" : String.format("%s|%s|%d|%d",
+                byStream.getTitle(), byStream.getTags(), byStream.getScore(), byStream.getViewCount())));
+
+        // warm up, then measure
+        for (int pass = 0; pass < 2; pass ++) {
+            long startTime = System.nanoTime();
+            for (int r = 0; r < rounds; r ++) {
+                for (byte[] page : pages) {
+                    extractByDom(new String(page, StandardCharsets.UTF_8), 1, link);
+                }
+            }
+            long domNs = System.nanoTime() - startTime;
+
+            startTime = System.nanoTime();
+            long nrByte = 0;
+            for (int r = 0; r < rounds; r ++) {
+                for (byte[] page : pages) {
+                    extractor.extract(new ByteArrayInputStream(page), StandardCharsets.UTF_8, 1, link);
+                    nrByte += extractor.getNrByte();
+                }
+            }
+            long streamNs = System.nanoTime() - startTime;
+
+            long nrPage = (long) rounds * pages.size();
+            long totalByte = 0;
+            for (byte[] page : pages) {
+                totalByte += page.length;
+            }
+            System.out.println(String.format("%s: dom %.0f pages/s, stream %.0f pages/s (%.1fx), stream read %.0f%% of bytes",
+                    pass == 0 ? "warm-up" : "measure",
+                    nrPage * 1e9 / domNs, nrPage * 1e9 / streamNs, (double) domNs / streamNs,
+                    nrByte * 100.0 / (totalByte * rounds)));
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package io.github.leetsong.seh;
+
+import io.github.leetsong.seh.data.stackexchange.ItemContainer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * QuotaRateLimiter paces the requests sent to the StackExchange API, all
+ * workers sharing a client have to acquire a permit from it before each
+ * request. It
+ *  1. never exceeds DEFAULT_MAX_REQUESTS_PER_SECOND
+ *  2. honours the `backoff' field of each method
+ *  3. spreads quota_remaining evenly until the quota is reset (UTC midnight)
+ *     once we are spending faster than that
+ *  4. pauses its requests when the quota is exhausted or we are throttled,
+ *     and resumes them automatically
+ *  5. backs off exponentially after requests failed by network errors in a
+ *     row, so that an outage is not retried in a tight loop
+ *  6. optionally has a parent, e.g., the limiter of a site has the one of
+ *     the client as its parent, which paces the requests of all sites from
+ *     this IP, and is paused by throttle violations of any of them
+ */
+public class QuotaRateLimiter {
+
+    private Logger logger = LoggerFactory.getLogger(QuotaRateLimiter.class);
+
+    // StackExchange rejects more than 30 requests/s from one IP
+    public static final int DEFAULT_MAX_REQUESTS_PER_SECOND = 25;
+    // pause used when a throttle violation does not tell us how long to wait
+    private static final long DEFAULT_THROTTLE_PAUSE_MS = 60_000;
+    // the quota is reset every day
+    private static final long QUOTA_PERIOD_MS = 24 * 3600_000L;
+    // backoff after the first network failure, doubled for each one in a row
+    private static final long DEFAULT_FAILURE_BACKOFF_MS = 500;
+    private static final long MAX_FAILURE_BACKOFF_MS = 60_000;
+
+    // error id of a throttle violation, see https://api.stackexchange.com/docs/throttle
+    public static final int ERROR_ID_THROTTLE_VIOLATION = 502;
+    // http status code of too many requests
+    public static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private static final Pattern THROTTLE_SECONDS_PATTERN =
+            Pattern.compile("available in (\\d+) seconds");
+
+    private final long mMinIntervalMs;
+    private final QuotaRateLimiter mParent;
+
+    // all fields below are guarded by this
+    private long mNextPermitAt = 0;
+    private long mPausedUntil = 0;
+    private final Map<String, Long> mBackoffUntil = new HashMap<>();
+    private int mQuotaMax = -1;
+    private int mQuotaRemaining = -1;
+    private int mNrFailureInRow = 0;
+
+    public QuotaRateLimiter() {
+        this(DEFAULT_MAX_REQUESTS_PER_SECOND);
+    }
+
+    public QuotaRateLimiter(int maxRequestsPerSecond) {
+        this(maxRequestsPerSecond, null);
+    }
+
+    public QuotaRateLimiter(QuotaRateLimiter parent) {
+        this(DEFAULT_MAX_REQUESTS_PER_SECOND, parent);
+    }
+
+    public QuotaRateLimiter(int maxRequestsPerSecond, QuotaRateLimiter parent) {
+        this.mMinIntervalMs = 1000 / Math.max(1, maxRequestsPerSecond);
+        this.mParent = parent;
+    }
+
+    /**
+     * acquire blocks until a request of method is allowed to be sent
+     * @param method the api method, e.g., StackOverflowService.METHOD_SEARCH
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire(String method) throws InterruptedException {
+        while (true) {
+            long waitMs;
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                long at = Math.max(mNextPermitAt, mPausedUntil);
+                Long backoffUntil = mBackoffUntil.get(method);
+                if (backoffUntil != null) {
+                    at = Math.max(at, backoffUntil);
+                }
+                if (at <= now) {
+                    mNextPermitAt = now + intervalMs(now);
+                    break;
+                }
+                waitMs = at - now;
+            }
+            // pauses and backoffs may be extended while sleeping, so re-check
+            Thread.sleep(waitMs);
+        }
+
+        if (mParent != null) {
+            mParent.acquire(method);
+        }
+    }
+
+    /**
+     * update records the quota and backoff carried by a successful response
+     * @param method the api method the response belongs to
+     * @param result the response body
+     */
+    public synchronized void update(String method, ItemContainer<?> result) {
+        long now = System.currentTimeMillis();
+        mQuotaMax = result.getQuotaMax();
+        mQuotaRemaining = result.getQuotaRemaining();
+        mNrFailureInRow = 0;
+
+        if (result.getBackoff() > 0) {
+            logger.warn(String.format("Method %s is asked to back off %d seconds",
+                    method, result.getBackoff()));
+            mBackoffUntil.put(method, now + result.getBackoff() * 1000L);
+        }
+
+        if (mQuotaMax > 0 && mQuotaRemaining <= 0) {
+            pauseUntil(now + msUntilQuotaReset(now), "quota is exhausted");
+        }
+    }
+
+    /**
+     * onThrottled pauses all requests after a throttle violation
+     * @param method the api method which is throttled
+     * @param error  the error body, or null if it cannot be parsed
+     */
+    public synchronized void onThrottled(String method, ItemContainer<?> error) {
+        long now = System.currentTimeMillis();
+        long pauseMs = DEFAULT_THROTTLE_PAUSE_MS;
+
+        if (error != null) {
+            if (error.getBackoff() > 0) {
+                pauseMs = error.getBackoff() * 1000L;
+            }
+            if (error.getErrorMessage() != null) {
+                Matcher matcher = THROTTLE_SECONDS_PATTERN.matcher(error.getErrorMessage());
+                if (matcher.find()) {
+                    pauseMs = Long.parseLong(matcher.group(1)) * 1000L;
+                }
+            }
+        }
+
+        pauseUntil(now + pauseMs, String.format("method %s is throttled", method));
+
+        // throttle violations are per IP, pause the others as well
+        if (mParent != null) {
+            mParent.onThrottled(method, error);
+        }
+    }
+
+    /**
+     * onFailure backs off method after a request of it failed by a network
+     * error, longer for each failure in a row, until a response succeeds
+     * @param method the api method whose request failed
+     */
+    public synchronized void onFailure(String method) {
+        long now = System.currentTimeMillis();
+        mNrFailureInRow += 1;
+        long backoffMs = Math.min(MAX_FAILURE_BACKOFF_MS,
+                DEFAULT_FAILURE_BACKOFF_MS << Math.min(mNrFailureInRow - 1, 20));
+        Long backoffUntil = mBackoffUntil.get(method);
+        if (backoffUntil == null || backoffUntil < now + backoffMs) {
+            mBackoffUntil.put(method, now + backoffMs);
+        }
+        if (mNrFailureInRow > 1) {
+            logger.warn(String.format("Method %s is backed off %s after %d failures in a row",
+                    method, Utility.timeInterval(now, now + backoffMs), mNrFailureInRow));
+        }
+    }
+
+    /**
+     * isThrottled tells whether an error response is a throttle violation,
+     * which should be retried after a pause rather than failing the worker
+     * @param code  the http status code
+     * @param error the error body, or null if it cannot be parsed
+     * @return true if it is a throttle violation
+     */
+    public static boolean isThrottled(int code, ItemContainer<?> error) {
+        return code == HTTP_TOO_MANY_REQUESTS ||
+                (error != null && error.getErrorId() == ERROR_ID_THROTTLE_VIOLATION);
+    }
+
+    public synchronized int getQuotaMax() {
+        return mQuotaMax;
+    }
+
+    public synchronized int getQuotaRemaining() {
+        return mQuotaRemaining;
+    }
+
+    /**
+     * getPausedUntil gets when the pause of requests ends, e.g., after a
+     * throttle violation, the parent is not taken into account
+     * @return the time in ms, in the past if not paused
+     */
+    public synchronized long getPausedUntil() {
+        return mPausedUntil;
+    }
+
+    private void pauseUntil(long until, String reason) {
+        if (until > mPausedUntil) {
+            mPausedUntil = until;
+            logger.warn(String.format("Requests are paused for %s, since %s",
+                    Utility.timeInterval(System.currentTimeMillis(), until), reason));
+        }
+    }
+
+    private long intervalMs(long now) {
+        if (mQuotaMax <= 0 || mQuotaRemaining < 0) {
+            return mMinIntervalMs;
+        }
+
+        // we are spending no faster than an even spend over the whole
+        // period, run at full speed
+        long untilReset = msUntilQuotaReset(now);
+        if ((double) mQuotaRemaining / mQuotaMax >= (double) untilReset / QUOTA_PERIOD_MS) {
+            return mMinIntervalMs;
+        }
+
+        // otherwise, make the remaining quota last until it is reset
+        return Math.max(mMinIntervalMs, untilReset / Math.max(1, mQuotaRemaining));
+    }
+
+    private static long msUntilQuotaReset(long now) {
+        return QUOTA_PERIOD_MS - now % QUOTA_PERIOD_MS;
+    }
+}
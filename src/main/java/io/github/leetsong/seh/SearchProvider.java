@@ -0,0 +1,50 @@
+package io.github.leetsong.seh;
+
+import org.jsoup.nodes.Document;
+
+import java.util.List;
+
+/**
+ * SearchProvider is a search engine, whose result pages are fetched by
+ * SoupBasedFetchers for links of stackoverflow questions. Each provider has to:
+ *  1. have a public static field called PROVIDER_NAME, which indicates its name
+ *  2. be registered in SearchProviderFactory by its name
+ *  3. implement the interface methods, i.e., build the url of a result page,
+ *     and parse the links of questions out of it
+ */
+public interface SearchProvider {
+
+    /**
+     * getName gets the name of this provider, e.g., google
+     * @return name
+     */
+    String getName();
+
+    /**
+     * getPageSize gets the number of results on a result page of this
+     * provider when pageSize ones are asked for
+     * @param pageSize number of results asked for
+     * @return number of results on a result page
+     */
+    int getPageSize(int pageSize);
+
+    /**
+     * searchUrl returns the url of the result page which starts from the
+     * start-th result, like google.com/search?q=
+     * @param queries  the query, followed by its synonyms
+     * @param start    offset of the first result, a multiple of pageSize
+     * @param pageSize number of results on the page, see getPageSize
+     * @return search url
+     */
+    String searchUrl(String[] queries, int start, int pageSize);
+
+    /**
+     * parseResults parses the links of questions out of a result page,
+     * each link is like https://stackoverflow.com/questions/<id>/<title>
+     * @param doc   the result page
+     * @param links links of questions are added to it
+     * @return number of results on the page, whether questions or not, 0
+     *         if there are no more results
+     */
+    int parseResults(Document doc, List<String> links);
+}
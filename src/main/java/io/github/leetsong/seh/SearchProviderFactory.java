@@ -0,0 +1,38 @@
+package io.github.leetsong.seh;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+public class SearchProviderFactory {
+
+    // provider map
+    private static final
+    Map<String, Supplier<? extends SearchProvider>> mProviderMap = new HashMap<>();
+
+    static {
+        registerProvider(GoogleSearchProvider.PROVIDER_NAME, GoogleSearchProvider::new);
+        registerProvider(StackOverflowSearchProvider.PROVIDER_NAME, StackOverflowSearchProvider::new);
+        registerProvider(BingSearchProvider.PROVIDER_NAME, BingSearchProvider::new);
+    }
+
+    public static synchronized void
+    registerProvider(String name, Supplier<? extends SearchProvider> provider) {
+        mProviderMap.put(name, provider);
+    }
+
+    public static synchronized void
+    unregisterProvider(String name) {
+        mProviderMap.remove(name);
+    }
+
+    /**
+     * getProvider gets a provider by its name
+     * @param name name of the provider
+     * @return the provider, or null if no provider is of name
+     */
+    public static synchronized SearchProvider getProvider(String name) {
+        Supplier<? extends SearchProvider> provider = mProviderMap.get(name);
+        return provider == null ? null : provider.get();
+    }
+}
@@ -0,0 +1,167 @@
+package io.github.leetsong.seh;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ShardDispenser hands out pages of several shards, each of which is a
+ * creation date window of the query with its own PageDispenser. Pages of
+ * the earlier shards go first, so that shards are completed (and can be
+ * checkpointed) one after another, while the tail of a shard is overlapped
+ * by the head of the next ones. A query which is not sharded is a single
+ * shard without date bounds.
+ */
+public class ShardDispenser {
+
+    // how long acquire waits before looking for expired leases again
+    private static final long DEFAULT_POLL_INTERVAL_MS = 1_000;
+
+    public static class Shard {
+
+        // creation date window in seconds, both inclusive, null for unbounded
+        private final Long mFromDate;
+        private final Long mToDate;
+        private final PageDispenser mPageDispenser;
+
+        public Shard(Long fromDate, Long toDate, PageDispenser pageDispenser) {
+            this.mFromDate = fromDate;
+            this.mToDate = toDate;
+            this.mPageDispenser = pageDispenser;
+        }
+
+        public Long getFromDate() {
+            return mFromDate;
+        }
+
+        public Long getToDate() {
+            return mToDate;
+        }
+
+        public PageDispenser getPageDispenser() {
+            return mPageDispenser;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[%s, %s]",
+                    mFromDate == null ? "-" : mFromDate.toString(),
+                    mToDate == null ? "-" : mToDate.toString());
+        }
+    }
+
+    public static class PageTask {
+
+        private final int mShardIndex;
+        private final Shard mShard;
+        private final int mPage;
+
+        PageTask(int shardIndex, Shard shard, int page) {
+            this.mShardIndex = shardIndex;
+            this.mShard = shard;
+            this.mPage = page;
+        }
+
+        public int getShardIndex() {
+            return mShardIndex;
+        }
+
+        public Shard getShard() {
+            return mShard;
+        }
+
+        public int getPage() {
+            return mPage;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("shard %d %s, page %d", mShardIndex, mShard, mPage);
+        }
+    }
+
+    private final List<Shard> mShards;
+
+    public ShardDispenser(List<Shard> shards) {
+        this.mShards = Collections.unmodifiableList(new ArrayList<>(shards));
+    }
+
+    /**
+     * acquire leases a page of any shard to worker workerId, it blocks while
+     * no page can be handed out but some pages are still leased
+     * @param workerId the worker which leases the page
+     * @return the page task, or null if all shards are exhausted
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized PageTask acquire(int workerId) throws InterruptedException {
+        while (true) {
+            boolean pending = false;
+            for (int i = 0; i < mShards.size(); i ++) {
+                Shard shard = mShards.get(i);
+                int page = shard.getPageDispenser().tryAcquire(workerId);
+                if (page == PageDispenser.PAGE_PENDING) {
+                    pending = true;
+                } else if (page != PageDispenser.NO_PAGE) {
+                    return new PageTask(i, shard, page);
+                }
+            }
+
+            if (!pending) {
+                return null;
+            }
+
+            // wait until a lease is completed or released, or for expired leases
+            wait(DEFAULT_POLL_INTERVAL_MS);
+        }
+    }
+
+    /**
+     * complete marks the page of task as completed
+     * @param task    the completed task
+     * @param hasMore whether the response says there are more pages
+     * @return true if its items should be handled, see PageDispenser.complete
+     */
+    public synchronized boolean complete(PageTask task, boolean hasMore) {
+        try {
+            return task.getShard().getPageDispenser().complete(task.getPage(), hasMore);
+        } finally {
+            notifyAll();
+        }
+    }
+
+    /**
+     * release gives the page of task back, it will be handed to others
+     * @param task the task to be released
+     */
+    public synchronized void release(PageTask task) {
+        task.getShard().getPageDispenser().release(task.getPage());
+        notifyAll();
+    }
+
+    /**
+     * reopen gives the completed page of task back, it will be handed to
+     * others, see PageDispenser.reopen
+     * @param task the task to be reopened
+     */
+    public synchronized void reopen(PageTask task) {
+        task.getShard().getPageDispenser().reopen(task.getPage());
+        notifyAll();
+    }
+
+    /**
+     * isExhausted tells whether pages of all shards are dispensed and completed
+     * @return true if it is exhausted
+     */
+    public synchronized boolean isExhausted() {
+        for (Shard shard : mShards) {
+            if (!shard.getPageDispenser().isExhausted()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public List<Shard> getShards() {
+        return mShards;
+    }
+}
@@ -0,0 +1,316 @@
+package io.github.leetsong.seh;
+
+import io.github.leetsong.seh.data.stackexchange.CsvItemable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.github.leetsong.seh.data.stackexchange.CsvItem.CSV_ITEM_HEADER;
+
+/**
+ * SharedCsvAppender writes the same csv as CsvAppender, but all appenders
+ * of the same path, e.g., of all workers, write into one memory-mapped file,
+ * so that the fetch ends with a single output, and no combining. Each
+ * appender encodes its rows on its own, then
+ *  1. reserves the space of them by bumping the shared end atomically
+ *  2. copies them into the mapping, at the same time as the others
+ *  3. commits them, in the order of reservations, so that all bytes below
+ *     the committed offset are written
+ * The file is mapped in chunks of DEFAULT_CHUNK_SIZE, and grows by chunks
+ * (the only time appenders synchronize), and is trimmed to the committed
+ * offset once the last appender of it is closed. flush() forces the
+ * mapping to the disk, and reports the committed offset, which covers the
+ * rows of this appender, and those of the others committed before, so the
+ * file is truncated to the largest offset of its appenders on recovery. A
+ * file left untrimmed by a crash is trimmed of its zeros at the end once
+ * it is opened again. Since that offset may cover rows of pages other
+ * appenders have not journaled yet, which are fetched again, the file
+ * relies on dedup to skip them, and it is never compressed, see
+ * ApiFetcher.checkSharedOutput. A reservation which fails to be copied is
+ * committed all the same, so that the later ones are not blocked, which
+ * leaves a hole of zeros, so the file is broken then, and no appender of it
+ * reports an offset any more.
+ */
+public class SharedCsvAppender extends AbstractAppender<CsvItemable> {
+
+    private static Logger logger = LoggerFactory.getLogger(SharedCsvAppender.class);
+
+    // type of this appender
+    public static final String APPENDER_TYPE = "shared_csv";
+
+    // rows are written once this many bytes of them are encoded, or flushed
+    private static final int DEFAULT_WRITE_SIZE = 1 << 20;
+    private static final long DEFAULT_CHUNK_SIZE = 64L << 20;
+
+    // canonical path -> the file shared by appenders of it
+    private static final Map<String, SharedFile> sSharedFiles = new HashMap<>();
+
+    private final CsvEncoder mCsvEncoder;
+    private SharedFile mSharedFile;
+
+    public static SharedCsvAppender newInstance(String path) {
+        return new SharedCsvAppender(path);
+    }
+
+    @Override
+    public void append(List<CsvItemable> items) {
+        mCsvEncoder.encode(items);
+        if (mCsvEncoder.size() >= DEFAULT_WRITE_SIZE) {
+            write();
+        }
+    }
+
+    @Override
+    public void flush(OnFlushedListener l) {
+        long offset = -1;
+        if (write()) {
+            // -1 if the file is broken, by this appender or any other
+            offset = mSharedFile.force();
+        }
+        l.onFlushed(offset);
+    }
+
+    @Override
+    public void close() {
+        write();
+        if (mSharedFile != null) {
+            release(mSharedFile);
+            mSharedFile = null;
+        }
+    }
+
+    // writes the encoded rows, returns false if they cannot be written
+    private boolean write() {
+        if (mSharedFile == null || mSharedFile.isBroken()) {
+            mCsvEncoder.reset();
+            return false;
+        }
+        if (mCsvEncoder.size() == 0) {
+            return true;
+        }
+        try {
+            mSharedFile.write(mCsvEncoder.array(), mCsvEncoder.size());
+            return true;
+        } catch (IOException e) {
+            logger.error("Failed to write " + mPath);
+            e.printStackTrace();
+            return false;
+        } finally {
+            mCsvEncoder.reset();
+        }
+    }
+
+    /**
+     * SharedFile is the file shared by the appenders of the same path
+     */
+    private static class SharedFile {
+
+        private final String mPath;
+        private final RandomAccessFile mFile;
+        private final FileChannel mChannel;
+        // chunk i maps [i * DEFAULT_CHUNK_SIZE, (i + 1) * DEFAULT_CHUNK_SIZE), replaced as the file grows
+        private volatile MappedByteBuffer[] mChunks = new MappedByteBuffer[0];
+        private final AtomicLong mReserved;
+        private final AtomicLong mCommitted;
+        // bytes below it are forced, so that force only forces the chunks written since
+        private final AtomicLong mForced;
+        // set once a reservation fails to be copied, before it is committed
+        private volatile boolean mIsBroken = false;
+        // guarded by sSharedFiles
+        private int mNrRef = 0;
+
+        SharedFile(String path, byte[] header) throws IOException {
+            this.mPath = path;
+            this.mFile = new RandomAccessFile(path, "rw");
+            this.mChannel = mFile.getChannel();
+            long end = findEnd(mFile);
+            this.mReserved = new AtomicLong(end);
+            this.mCommitted = new AtomicLong(end);
+            this.mForced = new AtomicLong(end);
+            if (end == 0) {
+                // file is newly created, write the header
+                write(header, header.length);
+            }
+        }
+
+        long getCommitted() {
+            return mCommitted.get();
+        }
+
+        boolean isBroken() {
+            return mIsBroken;
+        }
+
+        /**
+         * force writes the chunks written since the last force to the disk,
+         * so that the offset journaled is durable
+         * @return the committed offset, all bytes below which are durable,
+         *         or -1 if the file is broken
+         */
+        long force() {
+            long committed = mCommitted.get();
+            // checked after reading committed, since it is set before a broken reservation is committed
+            if (mIsBroken) {
+                return -1;
+            }
+            long forced = mForced.get();
+            if (committed <= forced) {
+                return committed;
+            }
+            MappedByteBuffer[] chunks = mChunks;
+            int last = (int) Math.min(chunks.length - 1, (committed - 1) / DEFAULT_CHUNK_SIZE);
+            for (int i = (int) (forced / DEFAULT_CHUNK_SIZE); i <= last; i ++) {
+                // only dirty pages are written
+                chunks[i].force();
+            }
+            mForced.accumulateAndGet(committed, Math::max);
+            return committed;
+        }
+
+        void write(byte[] bytes, int length) throws IOException {
+            long start = mReserved.getAndAdd(length);
+            boolean written = false;
+            try {
+                MappedByteBuffer[] chunks = ensureMapped(start + length);
+                int off = 0;
+                long position = start;
+                while (off < length) {
+                    int chunk = (int) (position / DEFAULT_CHUNK_SIZE);
+                    int chunkPosition = (int) (position % DEFAULT_CHUNK_SIZE);
+                    int n = (int) Math.min(length - off, DEFAULT_CHUNK_SIZE - chunkPosition);
+                    // a view of its own, positions of the mapping are shared
+                    ByteBuffer view = chunks[chunk].duplicate();
+                    view.position(chunkPosition);
+                    view.put(bytes, off, n);
+                    off += n;
+                    position += n;
+                }
+                written = true;
+            } finally {
+                if (!written) {
+                    logger.error(String.format("Failed to write [%d, %d) of %s, it is broken",
+                            start, start + length, mPath));
+                    mIsBroken = true;
+                }
+                // committed even if failed, otherwise the later ones wait forever
+                commit(start, start + length);
+            }
+        }
+
+        private void commit(long start, long end) {
+            while (mCommitted.get() != start) {
+                // an earlier reservation is still being copied
+                Thread.yield();
+            }
+            mCommitted.set(end);
+        }
+
+        private MappedByteBuffer[] ensureMapped(long end) throws IOException {
+            MappedByteBuffer[] chunks = mChunks;
+            if (end <= chunks.length * DEFAULT_CHUNK_SIZE) {
+                return chunks;
+            }
+            synchronized (this) {
+                chunks = mChunks;
+                int nrChunk = (int) ((end + DEFAULT_CHUNK_SIZE - 1) / DEFAULT_CHUNK_SIZE);
+                if (nrChunk <= chunks.length) {
+                    return chunks;
+                }
+                MappedByteBuffer[] grown = Arrays.copyOf(chunks, nrChunk);
+                for (int i = chunks.length; i < nrChunk; i ++) {
+                    // extends the file as well
+                    grown[i] = mChannel.map(FileChannel.MapMode.READ_WRITE,
+                            i * DEFAULT_CHUNK_SIZE, DEFAULT_CHUNK_SIZE);
+                }
+                mChunks = grown;
+                return grown;
+            }
+        }
+
+        void close() {
+            long committed = mCommitted.get();
+            mChunks = new MappedByteBuffer[0];
+            try {
+                // trim the chunk grown but not written
+                mChannel.truncate(committed);
+            } catch (IOException e) {
+                logger.warn(String.format("Failed to trim %s to %d bytes, it is trimmed once opened again",
+                        mPath, committed));
+            }
+            try {
+                mFile.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        // the end of what is written, i.e., the zeros at the end are of a chunk not trimmed
+        private static long findEnd(RandomAccessFile file) throws IOException {
+            byte[] block = new byte[1 << 16];
+            long end = file.length();
+            while (end > 0) {
+                int n = (int) Math.min(block.length, end);
+                file.seek(end - n);
+                file.readFully(block, 0, n);
+                for (int i = n - 1; i >= 0; i --) {
+                    if (block[i] != 0) {
+                        return end - n + i + 1;
+                    }
+                }
+                end -= n;
+            }
+            return 0;
+        }
+    }
+
+    private static SharedFile acquire(String path, byte[] header) throws IOException {
+        String key = new File(path).getCanonicalPath();
+        synchronized (sSharedFiles) {
+            SharedFile sharedFile = sSharedFiles.get(key);
+            if (sharedFile == null) {
+                sharedFile = new SharedFile(path, header);
+                sSharedFiles.put(key, sharedFile);
+            }
+            sharedFile.mNrRef += 1;
+            return sharedFile;
+        }
+    }
+
+    private static void release(SharedFile sharedFile) {
+        synchronized (sSharedFiles) {
+            sharedFile.mNrRef -= 1;
+            if (sharedFile.mNrRef == 0) {
+                sSharedFiles.values().remove(sharedFile);
+                sharedFile.close();
+            }
+        }
+    }
+
+    private SharedCsvAppender(String path) {
+        super(path);
+        if (CompressedFiles.isCompressed(path)) {
+            logger.warn(String.format("%s is written as plain csv, not compressed", path));
+        }
+
+        // rows are quoted and escaped as CsvAppender does, see CsvEncoder
+        mCsvEncoder = new CsvEncoder(2 * DEFAULT_WRITE_SIZE, CsvEncoder.DATE_FORMAT_ISO);
+        try {
+            CsvEncoder headerEncoder = new CsvEncoder();
+            headerEncoder.encodeHeader(CSV_ITEM_HEADER);
+            mSharedFile = acquire(path, Arrays.copyOf(headerEncoder.array(), headerEncoder.size()));
+        } catch (IOException e) {
+            e.printStackTrace();
+            logger.error("File exists but is a directory, " +
+                    "or does not exist but cannot be created, " +
+                    "or cannot be opened for any other reasons");
+        }
+    }
+}
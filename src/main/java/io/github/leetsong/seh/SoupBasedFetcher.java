@@ -3,7 +3,8 @@ package io.github.leetsong.seh;
 public abstract class SoupBasedFetcher extends Fetcher {
 
     /**
-     * getSearchUrl returns the search url, like google.com/search?q=
+     * getSearchUrl returns the search url of the primary SearchProvider,
+     * like google.com/search?q=
      * @return search url
      */
     protected abstract String searchUrl();
@@ -1,5 +1,6 @@
 package io.github.leetsong.seh;
 
+import io.github.leetsong.seh.data.stackexchange.FilterItem;
 import io.github.leetsong.seh.data.stackexchange.ItemContainer;
 import io.github.leetsong.seh.data.stackexchange.SearchItem;
 import io.github.leetsong.seh.data.stackexchange.SynonymItem;
@@ -23,6 +24,9 @@ public interface StackExchangeService {
      *                   relevance -- matches the relevance tab on the site itself
      *                  }
      * @param order    the sort order, can be one of { desc, "asc}
+     * @param fromDate the earliest creation date (inclusive, in seconds), null for unbounded
+     * @param toDate   the latest creation date (inclusive, in seconds), null for unbounded
+     * @param filter   the filter id, null to use the default filter
      * @return
      */
     @GET("search")
@@ -32,7 +36,25 @@ public interface StackExchangeService {
             @Query("pagesize") int pageSize,
             @Query("tagged") String tagged,
             @Query("sort") String sort,
-            @Query("order") String order);
+            @Query("order") String order,
+            @Query("fromdate") Long fromDate,
+            @Query("todate") Long toDate,
+            @Query("filter") String filter);
+
+    /**
+     * questions gets the questions identified by ids
+     * @param ids      the question ids, at most 100, separated by ';'
+     * @param site     the site name, "stackoverflow"/...
+     * @param pageSize the size of per page, should be no less than the number of ids
+     * @param filter   the filter id, null to use the default filter
+     * @return
+     */
+    @GET("questions/{ids}")
+    Call<ItemContainer<SearchItem>> questions(
+            @Path("ids") String ids,
+            @Query("site") String site,
+            @Query("pagesize") int pageSize,
+            @Query("filter") String filter);
 
     /**
      * synonyms gets all the synonyms that point to the tags identified in {tags}
@@ -56,4 +78,20 @@ public interface StackExchangeService {
             @Query("pagesize") int pageSize,
             @Query("sort") String sort,
             @Query("order") String order);
+
+    /**
+     * createFilter creates a filter, which includes or excludes fields of
+     * the responses, filters are immutable and never expire
+     * @param include the fields to include, separated by ';'
+     * @param exclude the fields to exclude, separated by ';'
+     * @param base    the filter to start from, "default"/"withbody"/"none"/"total"
+     * @param unsafe  whether the fields are returned without html-escaping
+     * @return
+     */
+    @GET("filters/create")
+    Call<ItemContainer<FilterItem>> createFilter(
+            @Query("include") String include,
+            @Query("exclude") String exclude,
+            @Query("base") String base,
+            @Query("unsafe") boolean unsafe);
 }
@@ -1,36 +1,399 @@
 package io.github.leetsong.seh;
 
+import io.github.leetsong.seh.data.stackexchange.ItemContainer;
+import okhttp3.*;
+import org.jsoup.helper.HttpConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import retrofit2.Retrofit;
 import retrofit2.converter.gson.GsonConverterFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Proxy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 public class StackOverflowClient {
 
+    public static final String BASE_URL = "https://api.stackexchange.com/2.2/";
+    public static final String GOOGLE_HOST = "www.google.com";
+    public static final String STACKOVERFLOW_HOST = "stackoverflow.com";
+    public static final String BING_HOST = "www.bing.com";
+
+    // requests served by the cache only if they are fresh, others go to the network
+    private static final CacheControl ONLY_IF_CACHED = new CacheControl.Builder().onlyIfCached().build();
+
+    /**
+     * Settings configures the underlying OkHttpClient, it has to be set via
+     * configure() before the first getClient(), or the defaults are used
+     */
+    public static class Settings {
+        public int maxIdleConnections = 16;
+        public int keepAliveS = 300;
+        // the asynchronous mode keeps hundreds of requests in flight, OkHttp's
+        // default of 5 requests per host would serialize them
+        public int maxRequests = 256;
+        public int maxRequestsPerHost = 256;
+        public int connectTimeoutMs = 10_000;
+        public int readTimeoutMs = 30_000;
+        public int callTimeoutMs = 60_000;
+        public boolean http2 = true;
+        public int warmUpConnections = 4;
+        // the on-disk http cache shared by api and page fetches, disabled if empty
+        public String cacheDir = String.format("%s%s.sehcache", System.getProperty("user.home"), File.separator);
+        public long cacheMaxSizeMb = 512;
+        // only serve responses from the cache, requests not in it fail
+        public boolean cacheOffline = false;
+        // ttl in seconds of each endpoint, see HttpCachePolicy
+        public Map<String, Long> cacheTtlS = new HashMap<>();
+        {
+            cacheTtlS.put(HttpCachePolicy.ENDPOINT_SEARCH, 24 * 3600L);
+            cacheTtlS.put(HttpCachePolicy.ENDPOINT_QUESTIONS, 24 * 3600L);
+            cacheTtlS.put(HttpCachePolicy.ENDPOINT_SYNONYMS, 7 * 24 * 3600L);
+            cacheTtlS.put(HttpCachePolicy.ENDPOINT_GOOGLE, 24 * 3600L);
+            cacheTtlS.put(HttpCachePolicy.ENDPOINT_PAGE, 24 * 3600L);
+        }
+        // pacing of page requests per host from one IP, see HostScheduler
+        public Map<String, Integer> pageRequestsPerMinute = new HashMap<>();
+        {
+            pageRequestsPerMinute.put(GOOGLE_HOST, 30);
+            pageRequestsPerMinute.put(STACKOVERFLOW_HOST, 120);
+            pageRequestsPerMinute.put(BING_HOST, 30);
+        }
+        public int pageBurst = 4;
+        public long pageCoolDownS = 300;
+        public long pageMaxCoolDownS = 4 * 3600;
+        // the proxies requests are sent through, see ProxyPool, none if empty
+        public List<String> proxies = new ArrayList<>();
+        public String proxyStrategy = ProxyPool.STRATEGY_LEAST_LOADED;
+        // 0 for unlimited
+        public double proxyRequestsPerSecond = 0;
+        public int proxyMaxFailures = 3;
+        public long proxyEjectS = 30;
+    }
+
+    private static Logger logger = LoggerFactory.getLogger(StackOverflowClient.class);
+
     // a singleton
-    private static StackOverflowClient client;
+    private static volatile StackOverflowClient client;
+    private static Settings settings = new Settings();
+
+    // the underlying http client, shared by all services
+    private OkHttpClient httpClient;
+
+    // the proxies requests are sent through, null if they are sent directly
+    private ProxyPool proxyPool;
+
+    // creates the calls of all requests, either httpClient or proxyPool
+    private Call.Factory callFactory;
 
     // the retrofit client
     private Retrofit retrofit;
 
+    // number of IPs requests are sent from, i.e., of proxies, which scales
+    // the limits of the api shared by all of them, while each proxy is
+    // limited on its own as well, see ProxyPool
+    private int nrIp;
+
+    // the rate limiter shared by all users of this client, it paces the
+    // requests of all sites, and is the parent of the ones of each site
+    private QuotaRateLimiter rateLimiter;
+
+    // the rate limiters of each site, which track their quotas and backoffs
+    private Map<String, QuotaRateLimiter> siteRateLimiters = new ConcurrentHashMap<>();
+
+    // the filter ids shared by all users of this client
+    private FilterRegistry filterRegistry = new FilterRegistry(this);
+
+    // bytes received by all users of this client
+    private ByteCountingInterceptor byteCounter = new ByteCountingInterceptor();
+
+    // the on-disk http cache, null if disabled
+    private Cache cache;
+
+    // the scheduler of page requests sent directly, each proxy has its own
+    private HostScheduler hostScheduler;
+
     public static StackOverflowClient getClient() {
         if (client == null) {
-            client = new StackOverflowClient();
+            synchronized (StackOverflowClient.class) {
+                if (client == null) {
+                    client = new StackOverflowClient(settings);
+                }
+            }
         }
         return client;
     }
 
+    /**
+     * configure sets the settings of the client to be created
+     * @param s settings
+     */
+    public static synchronized void configure(Settings s) {
+        if (client != null) {
+            logger.warn("StackOverflowClient has been created, settings are ignored");
+        }
+        settings = s;
+    }
+
     public StackOverflowService getStackOverflowService() {
-        StackExchangeService seService = retrofit.create(StackExchangeService.class);
-        return new StackOverflowService(seService);
+        return getStackOverflowService(StackOverflowService.SITE);
+    }
+
+    public StackOverflowService getStackOverflowService(String site) {
+        return new StackOverflowService(getStackExchangeService(), site);
+    }
+
+    public StackExchangeService getStackExchangeService() {
+        return retrofit.create(StackExchangeService.class);
     }
 
-    private static Retrofit createClient() {
+    public QuotaRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * getRateLimiter gets the rate limiter of site, whose parent is the one
+     * shared by all sites
+     * @param site the site name
+     * @return the rate limiter
+     */
+    public QuotaRateLimiter getRateLimiter(String site) {
+        return siteRateLimiters.computeIfAbsent(site, k -> new QuotaRateLimiter(
+                QuotaRateLimiter.DEFAULT_MAX_REQUESTS_PER_SECOND * nrIp, rateLimiter));
+    }
+
+    public FilterRegistry getFilterRegistry() {
+        return filterRegistry;
+    }
+
+    /**
+     * getNrByteReceived gets the bytes of response bodies received so far,
+     * as they are on the wire
+     * @return number of bytes
+     */
+    public long getNrByteReceived() {
+        return byteCounter.getNrByte();
+    }
+
+    public long getNrByteReceived(String site) {
+        return byteCounter.getNrByte(site);
+    }
+
+    /**
+     * getPage gets a page which is not of the api, e.g., a result page of
+     * google, or a question page, through the cache of this client. Pages
+     * not in the cache are requested once the HostScheduler allows. The
+     * caller has to close the response
+     * @param url the url of the page
+     * @return the response
+     * @throws IOException if the page cannot be got, or a
+     *         HostScheduler.BlockedException if the host blocks us
+     */
+    public Response getPage(String url) throws IOException {
+        Request request = new Request.Builder()
+                .url(url)
+                .header("User-Agent", HttpConnection.DEFAULT_UA)
+                .build();
+        if (settings.cacheOffline) {
+            // served by the cache only, the host is never touched
+            return callFactory.newCall(request).execute();
+        }
+        if (cache != null) {
+            // a fresh page in the cache costs no request
+            Response cached = callFactory.newCall(request.newBuilder().cacheControl(ONLY_IF_CACHED).build()).execute();
+            if (cached.code() != 504) {
+                return cached;
+            }
+            cached.close();
+        }
+
+        String host = request.url().host();
+        if (proxyPool != null) {
+            // scheduled by the proxy it is sent through, a block pauses that proxy only
+            Response response = callFactory.newCall(request).execute();
+            if (HostScheduler.isBlocked(response)) {
+                response.close();
+                throw new HostScheduler.BlockedException(String.format("%s blocks %s with %d",
+                        host, url, response.code()));
+            }
+            return response;
+        }
+        try {
+            hostScheduler.acquire(host);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for " + host);
+        }
+
+        Response response;
+        try {
+            response = callFactory.newCall(request).execute();
+        } catch (IOException e) {
+            hostScheduler.onFailure(host);
+            throw e;
+        }
+        if (HostScheduler.isBlocked(response)) {
+            hostScheduler.onBlocked(host, HostScheduler.retryAfterOf(response));
+            response.close();
+            throw new HostScheduler.BlockedException(String.format("%s blocks %s with %d",
+                    host, url, response.code()));
+        }
+        hostScheduler.onSuccess(host);
+        return response;
+    }
+
+    /**
+     * onThrottled pauses the requests from the IP which is throttled, i.e.,
+     * through the proxy response is sent through, or all requests by
+     * rateLimiter if they are sent directly
+     * @param rateLimiter the rate limiter the request is paced by
+     * @param method      the api method which is throttled
+     * @param response    the response
+     * @param error       the error body, or null if it cannot be parsed
+     */
+    public void onThrottled(QuotaRateLimiter rateLimiter, String method,
+                            retrofit2.Response<?> response, ItemContainer<?> error) {
+        if (proxyPool == null || !proxyPool.onThrottled(method, response.raw(), error)) {
+            rateLimiter.onThrottled(method, error);
+        }
+    }
+
+    public HostScheduler getHostScheduler() {
+        return hostScheduler;
+    }
+
+    public ProxyPool getProxyPool() {
+        return proxyPool;
+    }
+
+    public boolean isCacheEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * warmUp opens settings.warmUpConnections connections (and does their
+     * TLS handshakes) to the api host concurrently, so that the first pages
+     * of a crawl do not pay for them. It costs no quota.
+     */
+    public void warmUp() {
+        int n = settings.warmUpConnections;
+        if (n <= 0 || settings.cacheOffline) {
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+        CountDownLatch latch = new CountDownLatch(n);
+        Request request = new Request.Builder()
+                .url(HttpUrl.get(BASE_URL).resolve("/"))
+                .head()
+                .build();
+        for (int i = 0; i < n; i ++) {
+            callFactory.newCall(request).enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    logger.warn("Failed to warm up a connection due to: " + e.getMessage());
+                    latch.countDown();
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    response.close();
+                    latch.countDown();
+                }
+            });
+        }
+
+        try {
+            latch.await(settings.callTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        logger.info(String.format("Warmed up %d connections in %s, %d idle in pool",
+                n, Utility.timeInterval(startTime, System.currentTimeMillis()),
+                httpClient.connectionPool().idleConnectionCount()));
+    }
+
+    private static Cache createCache(Settings s) {
+        if (s.cacheDir == null || s.cacheDir.isEmpty() || s.cacheMaxSizeMb <= 0) {
+            return null;
+        }
+        logger.info(String.format("Http cache is at %s, at most %d MB%s",
+                s.cacheDir, s.cacheMaxSizeMb, s.cacheOffline ? ", offline" : ""));
+        // evicts the least recently used responses once it is full
+        return new Cache(new File(s.cacheDir), s.cacheMaxSizeMb * 1024 * 1024);
+    }
+
+    private static OkHttpClient createHttpClient(Settings s, Interceptor byteCounter, Cache cache) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(s.maxRequests);
+        dispatcher.setMaxRequestsPerHost(s.maxRequestsPerHost);
+
+        // OkHttp negotiates gzip by itself as long as we do not set
+        // Accept-Encoding, and decodes it as a stream, which GsonConverter
+        // reads from directly
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(s.maxIdleConnections, s.keepAliveS, TimeUnit.SECONDS))
+                .protocols(s.http2 ?
+                        Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1) :
+                        Collections.singletonList(Protocol.HTTP_1_1))
+                .connectTimeout(s.connectTimeoutMs, TimeUnit.MILLISECONDS)
+                .readTimeout(s.readTimeoutMs, TimeUnit.MILLISECONDS)
+                .callTimeout(s.callTimeoutMs, TimeUnit.MILLISECONDS)
+                .retryOnConnectionFailure(true)
+                .addNetworkInterceptor(byteCounter);
+        if (cache != null) {
+            // bytes of responses served by the cache are not counted
+            HttpCachePolicy policy = new HttpCachePolicy(s.cacheTtlS, s.cacheOffline);
+            builder.cache(cache)
+                    .addInterceptor(policy.requestInterceptor())
+                    .addNetworkInterceptor(policy.responseInterceptor());
+        }
+        return builder.build();
+    }
+
+    private static ProxyPool createProxyPool(Settings s, OkHttpClient httpClient) {
+        if (s.proxies == null || s.proxies.isEmpty()) {
+            return null;
+        }
+        List<Proxy> proxies = new ArrayList<>();
+        for (String proxy : s.proxies) {
+            try {
+                proxies.add(ProxyPool.parse(proxy));
+            } catch (IllegalArgumentException e) {
+                logger.warn(e.getMessage() + ", ignored");
+            }
+        }
+        if (proxies.isEmpty()) {
+            return null;
+        }
+        return new ProxyPool(httpClient, proxies, s.proxyStrategy,
+                s.proxyRequestsPerSecond, s.proxyMaxFailures, s.proxyEjectS,
+                () -> new HostScheduler(s.pageRequestsPerMinute, s.pageBurst, s.pageCoolDownS, s.pageMaxCoolDownS));
+    }
+
+    private static Retrofit createClient(Call.Factory callFactory) {
         return new Retrofit.Builder()
-                .baseUrl("https://api.stackexchange.com/2.2/")
+                .baseUrl(BASE_URL)
+                .callFactory(callFactory)
                 .addConverterFactory(GsonConverterFactory.create())
                 .build();
     }
 
-    private StackOverflowClient() {
-        this.retrofit = createClient();
+    private StackOverflowClient(Settings s) {
+        this.cache = createCache(s);
+        this.httpClient = createHttpClient(s, byteCounter, cache);
+        this.proxyPool = createProxyPool(s, httpClient);
+        this.callFactory = proxyPool != null ? proxyPool : httpClient;
+        this.retrofit = createClient(callFactory);
+
+        this.nrIp = proxyPool != null ? proxyPool.size() : 1;
+        this.rateLimiter = new QuotaRateLimiter(QuotaRateLimiter.DEFAULT_MAX_REQUESTS_PER_SECOND * nrIp);
+        this.hostScheduler = new HostScheduler(
+                s.pageRequestsPerMinute, s.pageBurst, s.pageCoolDownS, s.pageMaxCoolDownS);
     }
 }
@@ -0,0 +1,53 @@
+package io.github.leetsong.seh;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+import java.util.List;
+
+/**
+ * StackOverflowSearchProvider searches stackoverflow.com by its own site
+ * search. The site search has no OR operator, so that only the query is
+ * searched, without its synonyms. Its results include answers, whose links
+ * are converted to the ones of their questions.
+ */
+public class StackOverflowSearchProvider extends AbstractSearchProvider {
+
+    public static final String PROVIDER_NAME = "stackoverflow";
+
+    // the site search returns at most 50 results per page
+    private static final int MAX_PAGE_SIZE = 50;
+
+    @Override
+    public String getName() {
+        return PROVIDER_NAME;
+    }
+
+    @Override
+    public int getPageSize(int pageSize) {
+        return Math.max(1, Math.min(MAX_PAGE_SIZE, pageSize));
+    }
+
+    @Override
+    public String searchUrl(String[] queries, int start, int pageSize) {
+        // pages of the site search start from 1
+        return String.format("https://%s/search?q=%s&page=%d&pagesize=%d&tab=relevance",
+                StackOverflowClient.STACKOVERFLOW_HOST, encode(queries[0]), start / pageSize + 1, pageSize);
+    }
+
+    @Override
+    public int parseResults(Document doc, List<String> links) {
+        // each result is wrapped in a .s-post-summary, or a .question-summary of older layouts
+        List<Element> summaryElements = doc.select(".s-post-summary, .question-summary");
+        for (Element summaryElement : summaryElements) {
+            Element linkElement = summaryElement.selectFirst("h3 a[href]");
+            if (linkElement != null) {
+                String link = toQuestionLink(linkElement.attr("href"));
+                if (link != null) {
+                    links.add(link);
+                }
+            }
+        }
+        return summaryElements.size();
+    }
+}
@@ -3,27 +3,123 @@ package io.github.leetsong.seh;
 import io.github.leetsong.seh.data.stackexchange.ItemContainer;
 import io.github.leetsong.seh.data.stackexchange.SearchItem;
 import io.github.leetsong.seh.data.stackexchange.SynonymItem;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import okhttp3.ResponseBody;
 import retrofit2.Call;
+import retrofit2.Response;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
 
 public class StackOverflowService {
 
     public static final String SITE = "stackoverflow";
     public static final int PAGESIZE = 30;
+    // the api rejects larger pages
+    public static final int MAX_PAGESIZE = 100;
+
+    // method names, used to track per-method backoff
+    public static final String METHOD_SEARCH = "search";
+    public static final String METHOD_QUESTIONS = "questions";
+    public static final String METHOD_SYNONYMS = "tags/synonyms";
+    public static final String METHOD_FILTERS_CREATE = "filters/create";
 
     // the raw StackExchangeService
     private StackExchangeService stackExchangeService;
 
+    // the site to query, e.g., "stackoverflow", "superuser"
+    private final String site;
+
+    // page size and filter id of search
+    private int pageSize = PAGESIZE;
+    private String filter = null;
+
     public StackOverflowService(StackExchangeService stackExchangeService) {
+        this(stackExchangeService, SITE);
+    }
+
+    public StackOverflowService(StackExchangeService stackExchangeService, String site) {
         this.stackExchangeService = stackExchangeService;
+        this.site = site;
     }
 
     public Call<ItemContainer<SearchItem>> search(int page, String... tags) {
+        return search(page, null, null, tags);
+    }
+
+    public Call<ItemContainer<SearchItem>> search(int page, Long fromDate, Long toDate, String... tags) {
+        String tagged = String.join(";", tags);
+        return stackExchangeService.search(site, page, pageSize, tagged, "votes", "desc",
+                fromDate, toDate, filter);
+    }
+
+    /**
+     * count counts the questions search would return, it costs one request
+     * @param countFilter the filter id which includes .total
+     * @param fromDate    the earliest creation date (inclusive, in seconds), null for unbounded
+     * @param toDate      the latest creation date (inclusive, in seconds), null for unbounded
+     * @param tags        the tags interested
+     * @return
+     */
+    public Call<ItemContainer<SearchItem>> count(String countFilter, Long fromDate, Long toDate, String... tags) {
         String tagged = String.join(";", tags);
-        return stackExchangeService.search(SITE, page, PAGESIZE, tagged, "votes", "desc");
+        return stackExchangeService.search(site, 1, 1, tagged, "votes", "desc",
+                fromDate, toDate, countFilter);
+    }
+
+    /**
+     * questions gets the questions of ids by one request, with the filter of search
+     * @param ids the question ids, at most MAX_PAGESIZE
+     * @return
+     */
+    public Call<ItemContainer<SearchItem>> questions(List<Long> ids) {
+        String idsAllInOne = ids.stream().map(String::valueOf).collect(Collectors.joining(";"));
+        return stackExchangeService.questions(idsAllInOne, site, MAX_PAGESIZE, filter);
     }
 
     public Call<ItemContainer<SynonymItem>> synonyms(int page, String... tags) {
         String tagsAllInOne = String.join(";", tags);
-        return stackExchangeService.synonyms(tagsAllInOne, SITE, page, PAGESIZE, "creation", "desc");
+        return stackExchangeService.synonyms(tagsAllInOne, site, page, PAGESIZE, "creation", "desc");
+    }
+
+    public String getSite() {
+        return site;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = Math.max(1, Math.min(MAX_PAGESIZE, pageSize));
+    }
+
+    public String getFilter() {
+        return filter;
+    }
+
+    public void setFilter(String filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * parseError parses the error body of an unsuccessful response
+     * @param response the unsuccessful response
+     * @return the error wrapper, or null if it cannot be parsed
+     */
+    public static ItemContainer<?> parseError(Response<?> response) {
+        ResponseBody errorBody = response.errorBody();
+        if (errorBody == null) {
+            return null;
+        }
+        try {
+            return new Gson().fromJson(errorBody.charStream(), ItemContainer.class);
+        } catch (JsonParseException e) {
+            return null;
+        } finally {
+            errorBody.close();
+        }
     }
 }
@@ -0,0 +1,73 @@
+package io.github.leetsong.seh;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * WorkerExecutors creates the executors which run the workers of fetchers,
+ * by the strategy configured by global.executor
+ *  1. fixed, a pool of nrWorker platform threads
+ *  2. work_stealing, a work-stealing pool of nrWorker threads
+ *  3. virtual, a virtual thread per task, so that thousands of blocking
+ *     requests in flight cost no more than their sockets. It needs JDK 21+,
+ *     and is looked up reflectively, so that the jar still runs on Java 8,
+ *     where it falls back to fixed
+ */
+public class WorkerExecutors {
+
+    private static Logger logger = LoggerFactory.getLogger(WorkerExecutors.class);
+
+    public static final String EXECUTOR_FIXED = "fixed";
+    public static final String EXECUTOR_WORK_STEALING = "work_stealing";
+    public static final String EXECUTOR_VIRTUAL = "virtual";
+
+    // Executors.newVirtualThreadPerTaskExecutor() of JDK 21+, null if unavailable
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findNewVirtualThreadPerTaskExecutor();
+
+    /**
+     * newExecutor creates an executor by strategy
+     * @param strategy one of EXECUTOR_FIXED, EXECUTOR_WORK_STEALING and EXECUTOR_VIRTUAL
+     * @param nrWorker number of threads, i.e., tasks run concurrently, of the pools;
+     *                 virtual threads run all tasks concurrently
+     * @return the executor
+     */
+    public static ExecutorService newExecutor(String strategy, int nrWorker) {
+        nrWorker = Math.max(1, nrWorker);
+        if (EXECUTOR_VIRTUAL.equals(strategy)) {
+            if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null) {
+                try {
+                    return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+                } catch (ReflectiveOperationException e) {
+                    logger.error("Failed to create a virtual thread executor due to:");
+                    e.printStackTrace();
+                }
+            }
+            logger.warn(String.format("Virtual threads are not supported by Java %s, %s is used",
+                    System.getProperty("java.version"), EXECUTOR_FIXED));
+            return Executors.newFixedThreadPool(nrWorker);
+        } else if (EXECUTOR_WORK_STEALING.equals(strategy)) {
+            return Executors.newWorkStealingPool(nrWorker);
+        } else {
+            if (!EXECUTOR_FIXED.equals(strategy)) {
+                logger.warn(String.format("Unknown executor %s, %s is used", strategy, EXECUTOR_FIXED));
+            }
+            return Executors.newFixedThreadPool(nrWorker);
+        }
+    }
+
+    public static boolean isVirtualThreadSupported() {
+        return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    private static Method findNewVirtualThreadPerTaskExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
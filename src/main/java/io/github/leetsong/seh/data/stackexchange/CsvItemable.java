@@ -1,6 +1,27 @@
 package io.github.leetsong.seh.data.stackexchange;
 
+import java.util.List;
+
 public interface CsvItemable extends AppendableItem {
 
+    long getQuestionId();
+
+    String getTitle();
+
+    List<String> getTags();
+
+    int getViewCount();
+
+    int getScore();
+
+    /**
+     * getCreationDateMs gets the creation date in epoch milliseconds, items
+     * of the api keep it in seconds, while the ones of pages in milliseconds
+     * @return the creation date
+     */
+    long getCreationDateMs();
+
+    String getLink();
+
     CsvItem toCsvItem();
 }
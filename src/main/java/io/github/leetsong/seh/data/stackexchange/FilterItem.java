@@ -0,0 +1,40 @@
+package io.github.leetsong.seh.data.stackexchange;
+
+import com.google.gson.annotations.SerializedName;
+
+import java.io.Serializable;
+import java.util.List;
+
+public class FilterItem implements Serializable {
+
+    @SerializedName("filter")
+    String filter;
+    @SerializedName("filter_type")
+    String filterType;
+    @SerializedName("included_fields")
+    List<String> includedFields;
+
+    public String getFilter() {
+        return filter;
+    }
+
+    public void setFilter(String filter) {
+        this.filter = filter;
+    }
+
+    public String getFilterType() {
+        return filterType;
+    }
+
+    public void setFilterType(String filterType) {
+        this.filterType = filterType;
+    }
+
+    public List<String> getIncludedFields() {
+        return includedFields;
+    }
+
+    public void setIncludedFields(List<String> includedFields) {
+        this.includedFields = includedFields;
+    }
+}
@@ -100,6 +100,11 @@ public class GooGItem implements CsvItemable {
         return creationDate;
     }
 
+    @Override
+    public long getCreationDateMs() {
+        return creationDate;
+    }
+
     public void setCreationDate(long creationDate) {
         this.creationDate = creationDate;
     }
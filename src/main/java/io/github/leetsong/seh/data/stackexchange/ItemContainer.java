@@ -15,6 +15,17 @@ public class ItemContainer<T> implements Serializable {
     int quotaMax;
     @SerializedName("quota_remaining")
     int quotaRemaining;
+    @SerializedName("backoff")
+    int backoff;
+    // null unless the filter includes .total
+    @SerializedName("total")
+    Integer total;
+    @SerializedName("error_id")
+    int errorId;
+    @SerializedName("error_name")
+    String errorName;
+    @SerializedName("error_message")
+    String errorMessage;
 
     public List<T> getItems() {
         return items;
@@ -47,4 +58,44 @@ public class ItemContainer<T> implements Serializable {
     public void setQuotaRemaining(int quotaRemaining) {
         this.quotaRemaining = quotaRemaining;
     }
+
+    public int getBackoff() {
+        return backoff;
+    }
+
+    public void setBackoff(int backoff) {
+        this.backoff = backoff;
+    }
+
+    public Integer getTotal() {
+        return total;
+    }
+
+    public void setTotal(Integer total) {
+        this.total = total;
+    }
+
+    public int getErrorId() {
+        return errorId;
+    }
+
+    public void setErrorId(int errorId) {
+        this.errorId = errorId;
+    }
+
+    public String getErrorName() {
+        return errorName;
+    }
+
+    public void setErrorName(String errorName) {
+        this.errorName = errorName;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public void setErrorMessage(String errorMessage) {
+        this.errorMessage = errorMessage;
+    }
 }
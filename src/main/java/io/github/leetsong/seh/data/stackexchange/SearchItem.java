@@ -153,6 +153,11 @@ public class SearchItem implements CsvItemable {
         return creationDate;
     }
 
+    @Override
+    public long getCreationDateMs() {
+        return creationDate * 1000;
+    }
+
     public void setCreationDate(long creationDate) {
         this.creationDate = creationDate;
     }
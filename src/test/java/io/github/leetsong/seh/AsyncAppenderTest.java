@@ -0,0 +1,57 @@
+package io.github.leetsong.seh;
+
+import io.github.leetsong.seh.data.stackexchange.CsvItemable;
+import io.github.leetsong.seh.data.stackexchange.GooGItem;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AsyncAppenderTest {
+
+    // fails to append the items of question 2
+    private static class FailingAppender implements Appender<CsvItemable> {
+
+        private long mSize = 0;
+
+        @Override
+        public void append(List<CsvItemable> items) {
+            if (items.get(0).getQuestionId() == 2) {
+                throw new IllegalStateException("disk is gone");
+            }
+            mSize += items.size();
+        }
+
+        @Override
+        public void flush(OnFlushedListener l) {
+            l.onFlushed(mSize);
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    private static List<CsvItemable> page(long questionId) {
+        return Collections.singletonList(new GooGItem.Builder().withQuestionId(questionId).build());
+    }
+
+    @Test
+    public void failsTheFlushAfterAFailedAppend() {
+        AsyncAppender<CsvItemable> appender = new AsyncAppender<>("failing", new FailingAppender(), 4);
+        List<Long> offsets = Collections.synchronizedList(new ArrayList<>());
+        for (long questionId = 1; questionId <= 3; questionId ++) {
+            appender.append(page(questionId));
+            appender.flush(offsets::add);
+        }
+        appender.close();
+
+        // only the page which failed to be appended is reported as failed
+        assertEquals(3, offsets.size());
+        assertEquals(Long.valueOf(1), offsets.get(0));
+        assertEquals(Long.valueOf(-1), offsets.get(1));
+        assertEquals(Long.valueOf(2), offsets.get(2));
+    }
+}
@@ -0,0 +1,64 @@
+package io.github.leetsong.seh;
+
+import io.github.leetsong.seh.data.stackexchange.CsvItemable;
+import io.github.leetsong.seh.data.stackexchange.GooGItem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * BenchmarkItems generates the items the *Benchmark mains append, encode
+ * and read back, so that all of them measure the same rows
+ */
+final class BenchmarkItems {
+
+    static final long FIRST_CREATION_DATE_MS = 1_400_000_000_000L;
+
+    private static final String[] TAG_POOL = { "android", "webview", "javascript", "ios", "java", "kotlin",
+            "performance", "android-webview", "wkwebview", "chromium", "html", "css" };
+
+    private BenchmarkItems() {}
+
+    /**
+     * generate generates nrItem items of increasing question ids and
+     * creation dates, from FIRST_CREATION_DATE_MS on
+     * @param nrItem number of items
+     * @return the items
+     */
+    static List<CsvItemable> generate(int nrItem) {
+        List<CsvItemable> items = new ArrayList<>(nrItem);
+        long questionId = 10_000_000L;
+        long creationDateMs = FIRST_CREATION_DATE_MS;
+        for (int i = 0; i < nrItem; i ++) {
+            questionId += 1 + i % 7;
+            creationDateMs += 60_000L * (1 + i % 13);
+            items.add(new GooGItem.Builder()
+                    .withQuestionId(questionId)
+                    // quoted, so that the rows are escaped
+                    .withTitle("How to load a local html file into a \"WebView\" with JavaScript enabled, case " + i % 977)
+                    .withTags(Arrays.asList(TAG_POOL[i % TAG_POOL.length], TAG_POOL[(i / 3) % TAG_POOL.length]))
+                    .withViewCount((i * 31) % 100_000)
+                    .withScore(i % 50 - 5)
+                    .withCreationDate(creationDateMs)
+                    .withLink(String.format("https://stackoverflow.com/questions/%d/how-to-load-a-local-html-file", questionId))
+                    .build());
+        }
+        return items;
+    }
+
+    /**
+     * appendAll appends items to appender page by page, and flushes after
+     * each page, as ApiFetcher does, and closes it
+     * @param appender appender
+     * @param items items
+     */
+    static void appendAll(Appender<CsvItemable> appender, List<CsvItemable> items) {
+        int pageSize = StackOverflowService.MAX_PAGESIZE;
+        for (int i = 0; i < items.size(); i += pageSize) {
+            appender.append(items.subList(i, Math.min(items.size(), i + pageSize)));
+            appender.flush(offset -> { });
+        }
+        appender.close();
+    }
+}
@@ -0,0 +1,63 @@
+package io.github.leetsong.seh;
+
+import io.github.leetsong.seh.data.stackexchange.CsvItem;
+import io.github.leetsong.seh.data.stackexchange.CsvItemable;
+import io.github.leetsong.seh.data.stackexchange.GooGItem;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ColumnarAppenderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<CsvItemable> page(int page, int pageSize) {
+        List<CsvItemable> items = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize; i ++) {
+            long questionId = 1_000L * page + i;
+            items.add(new GooGItem.Builder()
+                    .withQuestionId(questionId)
+                    .withTitle("How to write a segment " + questionId + "?")
+                    .withTags(Arrays.asList("java", "io"))
+                    .withViewCount(i)
+                    .withScore(i - 5)
+                    .withCreationDate(1_551_441_600_000L + i * 1_000L)
+                    .withLink(ColumnarAppender.QUESTION_LINK_PREFIX + questionId + "/how-to")
+                    .build());
+        }
+        return items;
+    }
+
+    @Test
+    public void writesTheFlushesOfASyncAsOneSegment() throws IOException {
+        File output = new File(folder.getRoot(), "output.sehc");
+        ColumnarAppender appender = ColumnarAppender.newInstance(output.getPath());
+        List<Long> offsets = new ArrayList<>();
+        for (int page = 1; page <= 5; page ++) {
+            appender.append(page(page, 100));
+            appender.flush(offsets::add);
+        }
+        assertTrue(offsets.isEmpty());
+
+        appender.sync();
+        assertEquals(5, offsets.size());
+        assertEquals(output.length(), (long) offsets.get(4));
+        appender.close();
+
+        List<CsvItem> items = new ArrayList<>();
+        try (ColumnarReader reader = new ColumnarReader(output.getPath())) {
+            assertEquals(500, reader.scan(items::add));
+            assertEquals(1, reader.getNrSegmentRead());
+        }
+        assertEquals(1_000L, items.get(0).getQuestionId());
+    }
+}
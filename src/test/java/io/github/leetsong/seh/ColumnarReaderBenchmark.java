@@ -0,0 +1,76 @@
+package io.github.leetsong.seh;
+
+import com.opencsv.CSVReader;
+import io.github.leetsong.seh.data.stackexchange.CsvItemable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * ColumnarReaderBenchmark compares ColumnarAppender with CsvAppender, by
+ * the size of their outputs, and the time to read them back
+ */
+public class ColumnarReaderBenchmark {
+
+    /**
+     * main runs the benchmark
+     * @param args [number of items]
+     */
+    public static void main(String[] args) throws IOException {
+        int nrItem = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        File csvFile = File.createTempFile("columnar_bench", ".csv");
+        File columnarFile = File.createTempFile("columnar_bench", ".col");
+        csvFile.deleteOnExit();
+        columnarFile.deleteOnExit();
+        csvFile.delete();
+        columnarFile.delete();
+
+        List<CsvItemable> items = BenchmarkItems.generate(nrItem);
+        BenchmarkItems.appendAll(CsvAppender.newInstance(csvFile.getPath()), items);
+        BenchmarkItems.appendAll(ColumnarAppender.newInstance(columnarFile.getPath()), items);
+        System.out.println(String.format("csv      %,14d bytes", csvFile.length()));
+        System.out.println(String.format("columnar %,14d bytes, %.1fx smaller",
+                columnarFile.length(), (double) csvFile.length() / columnarFile.length()));
+
+        long lastCreationDateMs = items.get(nrItem - 1).getCreationDateMs();
+        for (int round = 0; round < 3; round ++) {
+            long startTime = System.nanoTime();
+            long[] sum = new long[1];
+            try (CSVReader reader = new CSVReader(CompressedFiles.newReader(csvFile.getPath()))) {
+                reader.skip(1);
+                String[] record;
+                while ((record = reader.readNext()) != null) {
+                    sum[0] += Long.parseLong(record[0]) + Integer.parseInt(record[4]);
+                }
+            }
+            long csvNs = System.nanoTime() - startTime;
+
+            startTime = System.nanoTime();
+            try (ColumnarReader reader = new ColumnarReader(columnarFile.getPath())) {
+                reader.scan(item -> sum[0] -= item.getQuestionId() + item.getScore());
+            }
+            long columnarNs = System.nanoTime() - startTime;
+
+            // the last 1% of questions by creation date
+            long from = lastCreationDateMs - (lastCreationDateMs - BenchmarkItems.FIRST_CREATION_DATE_MS) / 100;
+            startTime = System.nanoTime();
+            long[] nrMatched = new long[1];
+            int nrSkipped;
+            try (ColumnarReader reader = new ColumnarReader(columnarFile.getPath())) {
+                reader.scan(stats -> stats.maxCreationDateMs >= from, item -> {
+                    if (item.getCreationDate() >= from) {
+                        nrMatched[0] += 1;
+                    }
+                });
+                nrSkipped = reader.getNrSegmentSkipped();
+            }
+            long filteredNs = System.nanoTime() - startTime;
+
+            System.out.println(String.format(
+                    "read csv %,6d ms, columnar %,6d ms (%.1fx), last 1%% by date %,4d ms (%d items, %d segments skipped)%s",
+                    csvNs / 1_000_000, columnarNs / 1_000_000, (double) csvNs / columnarNs,
+                    filteredNs / 1_000_000, nrMatched[0], nrSkipped, sum[0] == 0 ? "" : ", MISMATCH"));
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package io.github.leetsong.seh;
+
+import io.github.leetsong.seh.data.stackexchange.CsvItemable;
+import io.github.leetsong.seh.data.stackexchange.GooGItem;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CsvAppenderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<CsvItemable> page(long questionId) {
+        return Collections.singletonList(new GooGItem.Builder()
+                .withQuestionId(questionId)
+                .withTitle("How to sync a group of pages?")
+                .withTags(Collections.singletonList("java"))
+                .withCreationDate(1_551_441_600_000L)
+                .withLink("https://stackoverflow.com/questions/" + questionId)
+                .build());
+    }
+
+    @Test
+    public void syncsTheFlushesOfAGroupAtOnce() {
+        File output = new File(folder.getRoot(), "output.csv");
+        CsvAppender appender = CsvAppender.newInstance(output.getPath());
+        List<Long> offsets = new ArrayList<>();
+        appender.append(page(1));
+        appender.flush(offsets::add);
+        appender.append(page(2));
+        appender.flush(offsets::add);
+
+        // rows are neither written nor reported until the sync
+        assertTrue(offsets.isEmpty());
+        assertEquals(0, output.length());
+
+        appender.sync();
+        assertEquals(2, offsets.size());
+        assertEquals(output.length(), (long) offsets.get(0));
+        assertEquals(output.length(), (long) offsets.get(1));
+
+        // nothing is flushed since
+        appender.sync();
+        assertEquals(2, offsets.size());
+        appender.close();
+    }
+
+    @Test
+    public void syncsTheLastFlushesOnClose() {
+        File output = new File(folder.getRoot(), "output.csv");
+        CsvAppender appender = CsvAppender.newInstance(output.getPath());
+        List<Long> offsets = new ArrayList<>();
+        appender.append(page(1));
+        appender.flush(offsets::add);
+        appender.close();
+
+        assertEquals(Collections.singletonList(output.length()), offsets);
+    }
+}
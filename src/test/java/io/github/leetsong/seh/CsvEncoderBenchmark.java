@@ -0,0 +1,77 @@
+package io.github.leetsong.seh;
+
+import com.opencsv.CSVWriter;
+import io.github.leetsong.seh.data.stackexchange.CsvItemable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+/**
+ * CsvEncoderBenchmark benchmarks CsvEncoder against the CsvItem and
+ * CSVWriter path of CsvAppender, by rows per second, and bytes allocated
+ * per row
+ */
+public class CsvEncoderBenchmark {
+
+    // bytes encoded before they are written, half the default capacity of CsvEncoder
+    private static final int WRITE_SIZE = 1 << 19;
+
+    /**
+     * main runs the benchmark
+     * @param args [number of rows]
+     */
+    public static void main(String[] args) throws IOException {
+        int nrRow = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        List<CsvItemable> items = BenchmarkItems.generate(10_000);
+        File file = File.createTempFile("csv_encoder", ".csv");
+        file.deleteOnExit();
+
+        for (int round = 0; round < 3; round ++) {
+            benchmark("csvwriter", nrRow, items, file, false);
+            benchmark("encoder", nrRow, items, file, true);
+        }
+    }
+
+    private static void benchmark(String name, int nrRow, List<CsvItemable> items,
+                                  File file, boolean isEncoder) throws IOException {
+        long allocatedBefore = allocatedBytes();
+        long startTime = System.nanoTime();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            if (isEncoder) {
+                CsvEncoder encoder = new CsvEncoder();
+                for (int i = 0; i < nrRow; i ++) {
+                    encoder.encode(items.get(i % items.size()));
+                    if (encoder.size() >= WRITE_SIZE) {
+                        encoder.writeTo(out);
+                    }
+                }
+                encoder.writeTo(out);
+            } else {
+                CSVWriter writer = new CSVWriter(new OutputStreamWriter(out), ',', '"', '\\', "\n");
+                for (int i = 0; i < nrRow; i ++) {
+                    writer.writeNext(items.get(i % items.size()).toCsvItem().toStringArray());
+                }
+                writer.flush();
+            }
+        }
+        long elapsedNs = System.nanoTime() - startTime;
+        long allocated = allocatedBytes() - allocatedBefore;
+        System.out.println(String.format("%-9s %,12.0f rows/s, %,8.1f bytes allocated/row, %,d bytes written",
+                name, nrRow * 1e9 / elapsedNs, allocatedBefore < 0 ? -1.0 : (double) allocated / nrRow,
+                file.length()));
+    }
+
+    // bytes allocated by this thread, -1 if the jvm cannot tell
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,75 @@
+package io.github.leetsong.seh;
+
+import com.opencsv.CSVReader;
+import io.github.leetsong.seh.data.stackexchange.GooGItem;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class CsvEncoderTest {
+
+    private static String encode(CsvEncoder encoder) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.writeTo(out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String[] readBack(String csv) throws IOException {
+        try (CSVReader reader = new CSVReader(new InputStreamReader(
+                new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8))) {
+            return reader.readNext();
+        }
+    }
+
+    @Test
+    public void quotesEveryFieldAndEscapesQuotesAndBackslashes() throws IOException {
+        CsvEncoder encoder = new CsvEncoder();
+        encoder.encode(new GooGItem.Builder()
+                .withQuestionId(42)
+                .withTitle("Why does \"a\\b\", c fail?")
+                .withTags(Arrays.asList("java", "csv"))
+                .withViewCount(7)
+                .withScore(-3)
+                .withCreationDate(1_551_441_600_000L)
+                .withLink("https://stackoverflow.com/questions/42")
+                .build());
+        String csv = encode(encoder);
+
+        assertEquals("\"42\",\"Why does \\\"a\\\\b\\\", c fail?\",\"java;csv\",\"7\",\"-3\"," +
+                "\"2019-03-01T12:00:00Z\",\"https://stackoverflow.com/questions/42\"\n", csv);
+        assertArrayEquals(new String[]{ "42", "Why does \"a\\b\", c fail?", "java;csv", "7", "-3",
+                "2019-03-01T12:00:00Z", "https://stackoverflow.com/questions/42" }, readBack(csv));
+        assertEquals(0, encoder.size());
+    }
+
+    @Test
+    public void encodesUtf8AndLeavesNullFieldsEmpty() throws IOException {
+        CsvEncoder encoder = new CsvEncoder(64, CsvEncoder.DATE_FORMAT_EPOCH);
+        encoder.encode(new GooGItem.Builder()
+                .withQuestionId(1)
+                .withTitle("Ünïcödé 中文 😀")
+                .withTags(Collections.singletonList("android"))
+                .withCreationDate(1_000L)
+                .build());
+        String[] row = readBack(encode(encoder));
+
+        assertEquals("Ünïcödé 中文 😀", row[1]);
+        assertEquals("1", row[5]);
+        assertEquals("", row[6]);
+    }
+
+    @Test
+    public void quotesTheHeader() throws IOException {
+        CsvEncoder encoder = new CsvEncoder();
+        encoder.encodeHeader(new String[]{ "Id", "Title" });
+        assertEquals("\"Id\",\"Title\"\n", encode(encoder));
+    }
+}
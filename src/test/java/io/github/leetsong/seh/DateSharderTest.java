@@ -0,0 +1,78 @@
+package io.github.leetsong.seh;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class DateSharderTest {
+
+    private HttpServer mServer;
+    private ExecutorService mProbers;
+    // body of the responses of the stand-in api
+    private volatile String mBody;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", exchange -> {
+            byte[] body = mBody.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        mServer.start();
+        mProbers = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+        mProbers.shutdownNow();
+    }
+
+    private DateSharder newSharder(String countFilter) {
+        StackExchangeService api = new Retrofit.Builder()
+                .baseUrl(String.format("http://127.0.0.1:%d/", mServer.getAddress().getPort()))
+                .addConverterFactory(GsonConverterFactory.create())
+                .build()
+                .create(StackExchangeService.class);
+        return new DateSharder(new StackOverflowService(api), new QuotaRateLimiter(),
+                countFilter, new String[]{ "android" }, 100, mProbers);
+    }
+
+    @Test
+    public void keepsAWindowWhichFits() throws IOException, InterruptedException {
+        mBody = "{\"items\":[],\"has_more\":false,\"quota_max\":300,\"quota_remaining\":299,\"total\":42}";
+        List<DateSharder.Window> windows = newSharder("count").shard(0, 99);
+        assertEquals(1, windows.size());
+        assertEquals(42, windows.get(0).count);
+    }
+
+    @Test(expected = IOException.class)
+    public void failsWithoutACountFilter() throws IOException, InterruptedException {
+        mBody = "{\"items\":[],\"has_more\":false,\"quota_max\":300,\"quota_remaining\":299,\"total\":42}";
+        newSharder(null).shard(0, 99);
+    }
+
+    @Test(expected = IOException.class)
+    public void failsOnAResponseWithoutTotal() throws IOException, InterruptedException {
+        // e.g., the filter does not include .total
+        mBody = "{\"items\":[],\"has_more\":false,\"quota_max\":300,\"quota_remaining\":299}";
+        newSharder("count").shard(0, 99);
+    }
+}
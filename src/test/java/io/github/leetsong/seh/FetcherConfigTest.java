@@ -0,0 +1,116 @@
+package io.github.leetsong.seh;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+public class FetcherConfigTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // a configuration stored before the dispenser, worker i fetches pages i, i + 16, ...
+    private File storeLegacyConfig(int[] nextPages) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("global.nr_worker", "16");
+        for (int i = 1; i <= 16; i ++) {
+            properties.setProperty(String.format("api_fetcher.worker[%d].id", i), Integer.toString(i));
+            properties.setProperty(String.format("api_fetcher.worker[%d].appender.type", i), "csv");
+            properties.setProperty(String.format("api_fetcher.worker[%d].appender.path", i),
+                    String.format("apifetcher_worker[%d]_appender.csv", i));
+            properties.setProperty(String.format("api_fetcher.worker[%d].page", i), Integer.toString(nextPages[i - 1]));
+            properties.setProperty(String.format("api_fetcher.worker[%d].step", i), "16");
+        }
+        properties.setProperty("api_fetcher.result.nr_page", "40");
+        properties.setProperty("api_fetcher.result.nr_item", "4000");
+
+        File file = folder.newFile("fetcher_android.seh");
+        try (OutputStream out = new FileOutputStream(file)) {
+            properties.store(out, "StackExchange-Helper configurations");
+        }
+        return file;
+    }
+
+    @Test
+    public void migratesLegacyWorkerPagesIntoTheDispenser() throws IOException {
+        // workers 1 and 2 have fetched 3 pages, worker 3 has died at its
+        // second page, and the others have fetched 2 pages
+        int[] nextPages = new int[16];
+        for (int i = 1; i <= 16; i ++) {
+            nextPages[i - 1] = i + 2 * 16;
+        }
+        nextPages[0] = 1 + 3 * 16;
+        nextPages[1] = 2 + 3 * 16;
+        nextPages[2] = 3 + 16;
+        FetcherConfig config = new FetcherConfig(storeLegacyConfig(nextPages).getPath());
+        config.load();
+
+        assertEquals(19, config.getApiFetcherDispenserWatermark());
+        assertEquals(Arrays.asList(20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32, 33, 34),
+                config.getApiFetcherDispenserCompleted());
+        assertEquals(Integer.MAX_VALUE, config.getApiFetcherDispenserEndPage());
+        assertEquals(40, config.getApiFetcherResultNrPage());
+
+        // the dispenser resumes at the page of the dead worker, then the ones nobody has fetched
+        PageDispenser dispenser = new PageDispenser(config.getApiFetcherDispenserWatermark(),
+                config.getApiFetcherDispenserCompleted(), config.getApiFetcherDispenserEndPage());
+        assertEquals(19, dispenser.tryAcquire(1));
+        assertEquals(35, dispenser.tryAcquire(1));
+        assertEquals(36, dispenser.tryAcquire(1));
+    }
+
+    @Test
+    public void keepsTheOffsetsOfALegacyConfigUnknown() throws IOException {
+        int[] nextPages = new int[16];
+        for (int i = 1; i <= 16; i ++) {
+            nextPages[i - 1] = i + 16;
+        }
+        FetcherConfig config = new FetcherConfig(storeLegacyConfig(nextPages).getPath());
+        config.load();
+
+        assertEquals(17, config.getApiFetcherDispenserWatermark());
+        assertTrue(config.getApiFetcherDispenserCompleted().isEmpty());
+        assertEquals(-1, config.getApiFetcherWorkerAppenderOffset(1));
+    }
+
+    @Test
+    public void storesAndLoadsTheDispenser() throws IOException {
+        String path = new File(folder.getRoot(), "fetcher_java.seh").getPath();
+        FetcherConfig config = new FetcherConfig(path);
+        config.setApiFetcherDispenserWatermark(5);
+        config.setApiFetcherDispenserCompleted(Arrays.asList(7, 9));
+        config.setApiFetcherDispenserEndPage(12);
+        config.store();
+
+        FetcherConfig loaded = new FetcherConfig(path);
+        loaded.load();
+        assertEquals(5, loaded.getApiFetcherDispenserWatermark());
+        assertEquals(Arrays.asList(7, 9), loaded.getApiFetcherDispenserCompleted());
+        assertEquals(12, loaded.getApiFetcherDispenserEndPage());
+        // stored by a temporary file, which is moved to it
+        assertFalse(new File(path + ".tmp").exists());
+    }
+
+    @Test
+    public void replacesTheStoredConfig() throws IOException {
+        String path = new File(folder.getRoot(), "fetcher_java.seh").getPath();
+        FetcherConfig config = new FetcherConfig(path);
+        config.setApiFetcherResultNrPage(1);
+        config.store();
+        config.setApiFetcherResultNrPage(2);
+        config.store();
+
+        FetcherConfig loaded = new FetcherConfig(path);
+        loaded.load();
+        assertEquals(2, loaded.getApiFetcherResultNrPage());
+    }
+}
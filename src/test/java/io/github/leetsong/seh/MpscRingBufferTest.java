@@ -0,0 +1,94 @@
+package io.github.leetsong.seh;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MpscRingBufferTest {
+
+    @Test
+    public void roundsTheCapacityUpToAPowerOf2() {
+        assertEquals(8, new MpscRingBuffer<Integer>(5).capacity());
+        assertEquals(8, new MpscRingBuffer<Integer>(8).capacity());
+    }
+
+    @Test
+    public void offersUntilFullAndDrainsInOrder() {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(4);
+        for (int i = 0; i < 4; i ++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+        assertEquals(4, buffer.size());
+
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(3, buffer.drainTo(drained, 3));
+        // the freed slots are reused a lap later
+        assertTrue(buffer.offer(4));
+        assertEquals(2, buffer.drainTo(drained, 10));
+        assertEquals(0, buffer.size());
+        for (int i = 0; i < 5; i ++) {
+            assertEquals(Integer.valueOf(i), drained.get(i));
+        }
+    }
+
+    @Test
+    public void keepsTheOrderOfEachProducer() throws InterruptedException {
+        MpscRingBuffer<int[]> buffer = new MpscRingBuffer<>(64);
+        int nrProducer = 4;
+        int nrElement = 50_000;
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < nrProducer; p ++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = 0; i < nrElement; i ++) {
+                        buffer.put(new int[]{ producer, i });
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            thread.start();
+            producers.add(thread);
+        }
+
+        // the consumer sees elements of each producer in the order they are put
+        int[] next = new int[nrProducer];
+        List<int[]> drained = new ArrayList<>();
+        int nrConsumed = 0;
+        while (nrConsumed < nrProducer * nrElement) {
+            buffer.await(16, 10, TimeUnit.MILLISECONDS);
+            drained.clear();
+            nrConsumed += buffer.drainTo(drained, Integer.MAX_VALUE);
+            for (int[] e : drained) {
+                assertEquals(next[e[0]]++, e[1]);
+            }
+        }
+        for (Thread thread : producers) {
+            thread.join();
+        }
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void wakesUpTheConsumerOnceEnoughAreBuffered() throws InterruptedException {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(16);
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < 4; i ++) {
+                buffer.offer(i);
+            }
+        });
+
+        long startTime = System.nanoTime();
+        producer.start();
+        buffer.await(4, 10, TimeUnit.SECONDS);
+        producer.join();
+        assertTrue(System.nanoTime() - startTime < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(4, buffer.size());
+    }
+}
@@ -0,0 +1,88 @@
+package io.github.leetsong.seh;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class PageDispenserTest {
+
+    @Test
+    public void dispensesPagesInOrderAndStopsAtTheLastPage() throws InterruptedException {
+        PageDispenser dispenser = new PageDispenser(1, Collections.emptyList(), Integer.MAX_VALUE);
+        assertEquals(1, dispenser.acquire(1));
+        assertEquals(2, dispenser.acquire(2));
+        assertTrue(dispenser.complete(1, true));
+        assertTrue(dispenser.complete(2, false));
+
+        assertEquals(PageDispenser.NO_PAGE, dispenser.acquire(1));
+        assertTrue(dispenser.isExhausted());
+        assertEquals(3, dispenser.getWatermark());
+    }
+
+    @Test
+    public void restartsFromWatermarkAndCompletedPages() {
+        PageDispenser dispenser = new PageDispenser(3, Arrays.asList(1, 3, 4, 6), 8);
+        // 1 is below the watermark, and 3 and 4 advance it
+        assertEquals(5, dispenser.getWatermark());
+        assertEquals(Collections.singletonList(6), dispenser.getCompleted());
+        assertEquals(5, dispenser.tryAcquire(1));
+        assertEquals(7, dispenser.tryAcquire(1));
+        assertEquals(PageDispenser.PAGE_PENDING, dispenser.tryAcquire(1));
+    }
+
+    @Test
+    public void reclaimsReleasedPages() {
+        PageDispenser dispenser = new PageDispenser(1, Collections.emptyList(), 3);
+        assertEquals(1, dispenser.tryAcquire(1));
+        assertEquals(2, dispenser.tryAcquire(2));
+        assertEquals(PageDispenser.PAGE_PENDING, dispenser.tryAcquire(3));
+
+        // worker 1 dies, its page goes to worker 3
+        dispenser.release(1);
+        assertEquals(1, dispenser.tryAcquire(3));
+    }
+
+    @Test
+    public void reclaimsExpiredLeasesAndTheFirstCompletionWins() throws InterruptedException {
+        PageDispenser dispenser = new PageDispenser(1, Collections.emptyList(), 2, 50);
+        assertEquals(1, dispenser.tryAcquire(1));
+        assertEquals(PageDispenser.PAGE_PENDING, dispenser.tryAcquire(2));
+
+        // worker 1 is too slow, acquire waits for its lease to expire
+        assertEquals(1, dispenser.acquire(2));
+        assertTrue(dispenser.complete(1, true));
+        assertFalse(dispenser.complete(1, true));
+    }
+
+    @Test
+    public void reopensACompletedPageBelowTheWatermark() {
+        PageDispenser dispenser = new PageDispenser(1, Collections.emptyList(), 4);
+        for (int page = 1; page < 4; page ++) {
+            assertEquals(page, dispenser.tryAcquire(1));
+            assertTrue(dispenser.complete(page, true));
+        }
+        assertEquals(4, dispenser.getWatermark());
+
+        // the items of page 2 failed to be written
+        dispenser.reopen(2);
+        assertEquals(2, dispenser.getWatermark());
+        assertEquals(Collections.singletonList(3), dispenser.getCompleted());
+        assertFalse(dispenser.isCompleted(2));
+        assertTrue(dispenser.isCompleted(1));
+        assertEquals(2, dispenser.tryAcquire(2));
+        assertTrue(dispenser.complete(2, true));
+        assertEquals(4, dispenser.getWatermark());
+    }
+
+    @Test
+    public void extendsAnEstimatedEndPage() {
+        PageDispenser dispenser = new PageDispenser(1, Collections.emptyList(), 2);
+        assertEquals(1, dispenser.tryAcquire(1));
+        assertTrue(dispenser.complete(1, true));
+        assertEquals(3, dispenser.getEndPage());
+        assertEquals(2, dispenser.tryAcquire(1));
+    }
+}
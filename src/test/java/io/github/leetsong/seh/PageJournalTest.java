@@ -0,0 +1,119 @@
+package io.github.leetsong.seh;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PageJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaysRecordsWithoutThePartialOne() throws IOException {
+        File journal = folder.newFile("fetch.seh.journal");
+        try (FileOutputStream out = new FileOutputStream(journal)) {
+            out.write("0 1 1 100 1 2048\n0 2 2 30 0 4096\n0 3 1 1".getBytes(StandardCharsets.UTF_8));
+        }
+
+        List<PageJournal.Record> records = PageJournal.replay(journal.getPath());
+        assertEquals(2, records.size());
+        assertEquals(1, records.get(0).page);
+        assertEquals(2048, records.get(0).offset);
+        assertTrue(records.get(0).hasMore);
+        assertEquals(2, records.get(1).workerId);
+        assertEquals(30, records.get(1).nrItem);
+        assertFalse(records.get(1).hasMore);
+    }
+
+    @Test
+    public void replaysNothingWithoutAJournal() throws IOException {
+        assertTrue(PageJournal.replay(new File(folder.getRoot(), "none.journal").getPath()).isEmpty());
+    }
+
+    @Test
+    public void compactsRecordsOnClose() throws IOException {
+        String path = new File(folder.getRoot(), "fetch.seh.journal").getPath();
+        List<PageJournal.Record> compacted = new ArrayList<>();
+        PageJournal journal = new PageJournal(path, compacted::addAll);
+        journal.record(new PageJournal.Record(0, 1, 1, 100, true, 2048));
+        journal.record(new PageJournal.Record(0, 2, 2, 100, true, 4096));
+
+        // records are written before they are compacted
+        assertEquals(2, PageJournal.replay(path).size());
+        journal.close();
+        assertEquals(2, compacted.size());
+        assertTrue(PageJournal.replay(path).isEmpty());
+    }
+
+    @Test
+    public void keepsTheJournalIfTheSnapshotFails() throws IOException {
+        String path = new File(folder.getRoot(), "fetch.seh.journal").getPath();
+        PageJournal journal = new PageJournal(path, records -> {
+            throw new IOException("disk full");
+        });
+        journal.record(new PageJournal.Record(0, 1, 1, 100, true, 2048));
+        try {
+            journal.close();
+            fail("the failure of the snapshot is not reported");
+        } catch (IOException e) {
+            assertEquals(1, PageJournal.replay(path).size());
+        }
+    }
+
+    @Test
+    public void syncsTheRegisteredOutputsAndRecordsTheirFlushes() throws IOException, InterruptedException {
+        String path = new File(folder.getRoot(), "fetch.seh.journal").getPath();
+        PageJournal journal = new PageJournal(path, records -> { });
+        File output = new File(folder.getRoot(), "output.csv");
+        CsvAppender appender = CsvAppender.newInstance(output.getPath());
+        journal.register(appender);
+
+        CountDownLatch synced = new CountDownLatch(1);
+        appender.flush(offset -> {
+            journal.record(new PageJournal.Record(0, 1, 1, 0, true, offset));
+            synced.countDown();
+        });
+        assertTrue(synced.await(10, TimeUnit.SECONDS));
+        assertEquals(output.length(), PageJournal.replay(path).get(0).offset);
+
+        journal.unregister(appender);
+        appender.close();
+        journal.close();
+    }
+
+    @Test
+    public void truncatesOnlyALargerFile() throws IOException {
+        File output = folder.newFile("output.csv");
+        try (FileOutputStream out = new FileOutputStream(output)) {
+            out.write(new byte[100]);
+        }
+
+        PageJournal.truncate(output.getPath(), 200);
+        assertEquals(100, output.length());
+        PageJournal.truncate(output.getPath(), 60);
+        assertEquals(60, output.length());
+    }
+
+    @Test
+    public void keepsTheFileOfAnUnknownSize() throws IOException {
+        File output = folder.newFile("output.csv");
+        try (FileOutputStream out = new FileOutputStream(output)) {
+            out.write(new byte[100]);
+        }
+
+        PageJournal.truncate(output.getPath(), -1);
+        assertEquals(100, output.length());
+    }
+}
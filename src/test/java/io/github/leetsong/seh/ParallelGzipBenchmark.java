@@ -0,0 +1,51 @@
+package io.github.leetsong.seh;
+
+import io.github.leetsong.seh.data.stackexchange.CsvItemable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * ParallelGzipBenchmark compares CsvAppender writing plain and gzip files,
+ * i.e., through ParallelGzipOutputStream, by the size of their outputs,
+ * and the time to write and read them
+ */
+public class ParallelGzipBenchmark {
+
+    /**
+     * main runs the benchmark
+     * @param args [number of items]
+     */
+    public static void main(String[] args) throws IOException {
+        int nrItem = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        List<CsvItemable> items = BenchmarkItems.generate(nrItem);
+
+        for (int round = 0; round < 3; round ++) {
+            StringBuilder result = new StringBuilder();
+            for (String suffix : new String[] { ".csv", ".csv" + CompressedFiles.GZIP_SUFFIX }) {
+                File file = File.createTempFile("gzip_bench", suffix);
+                file.delete();
+                file.deleteOnExit();
+
+                long startTime = System.nanoTime();
+                BenchmarkItems.appendAll(CsvAppender.newInstance(file.getPath()), items);
+                long writeNs = System.nanoTime() - startTime;
+
+                startTime = System.nanoTime();
+                long nrLine = 0;
+                try (BufferedReader reader = new BufferedReader(CompressedFiles.newReader(file.getPath()))) {
+                    while (reader.readLine() != null) {
+                        nrLine += 1;
+                    }
+                }
+                long readNs = System.nanoTime() - startTime;
+                result.append(String.format("%s %,12d bytes, write %,5d ms, read %,5d ms (%d lines); ",
+                        suffix, file.length(), writeNs / 1_000_000, readNs / 1_000_000, nrLine));
+                file.delete();
+            }
+            System.out.println(result);
+        }
+    }
+}
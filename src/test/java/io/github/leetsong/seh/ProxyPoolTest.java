@@ -0,0 +1,119 @@
+package io.github.leetsong.seh;
+
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class ProxyPoolTest {
+
+    private static final String BLOCKED_HOST = StackOverflowClient.GOOGLE_HOST;
+    private static final String API_HOST = HttpUrl.get(StackOverflowClient.BASE_URL).host();
+    private static final int NR_REQUEST = 20;
+
+    // local stand-ins of proxies, of which the first is blocked by google,
+    // i.e., redirected to its /sorry/ page, and the second is throttled by the api
+    private final List<HttpServer> mStandIns = new ArrayList<>();
+    private ProxyPool mPool;
+
+    @Before
+    public void setUp() throws IOException {
+        List<Proxy> proxies = new ArrayList<>();
+        for (int i = 0; i < 3; i ++) {
+            int id = i;
+            HttpServer standIn = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            standIn.createContext("/", exchange -> {
+                // requests through a http proxy carry absolute urls
+                String host = exchange.getRequestURI().getHost();
+                String path = exchange.getRequestURI().getPath();
+                if (id == 0 && BLOCKED_HOST.equals(host) && !path.startsWith("/sorry/")) {
+                    exchange.getResponseHeaders().set("Location", String.format("http://%s/sorry/index", host));
+                    exchange.sendResponseHeaders(302, -1);
+                } else if (id == 1 && API_HOST.equals(host)) {
+                    exchange.sendResponseHeaders(429, -1);
+                } else {
+                    byte[] body = String.format("%s%s through %d", host, path, id).getBytes(StandardCharsets.UTF_8);
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                }
+                exchange.close();
+            });
+            standIn.start();
+            mStandIns.add(standIn);
+            proxies.add(new Proxy(Proxy.Type.HTTP, standIn.getAddress()));
+        }
+
+        mPool = new ProxyPool(new OkHttpClient(), proxies, ProxyPool.STRATEGY_ROUND_ROBIN, 0, 3, 30,
+                () -> new HostScheduler(Collections.singletonMap(BLOCKED_HOST, 6000), 4, 60, 3600));
+    }
+
+    @After
+    public void tearDown() {
+        mStandIns.forEach(standIn -> standIn.stop(0));
+    }
+
+    /**
+     * sendThrough sends NR_REQUEST requests to host, and checks that the
+     * proxy blocked or throttled by it serves none of the requests after,
+     * i.e., only the requests through it are paused, the others keep serving
+     * @return index of the proxy paused
+     */
+    private int sendThrough(String host) throws IOException {
+        // proxy -> requests through it, after the first one is blocked or throttled
+        Map<Integer, Integer> nrServed = new TreeMap<>();
+        ProxyPool.Member paused = null;
+        for (int i = 0; i < NR_REQUEST; i ++) {
+            Request request = new Request.Builder()
+                    .url(String.format("http://%s/search?q=webview&page=%d", host, i))
+                    .build();
+            try (Response response = mPool.newCall(request).execute()) {
+                ProxyPool.Member member = mPool.memberOf(response);
+                if (paused != null) {
+                    nrServed.merge(mPool.getMembers().indexOf(member), 1, Integer::sum);
+                }
+                if (HostScheduler.isBlocked(response)) {
+                    // blocked pages pause the proxy by themselves, throttles are told
+                    if (API_HOST.equals(host)) {
+                        mPool.onThrottled(request.url().encodedPath(), response, null);
+                    }
+                    paused = member;
+                }
+            }
+        }
+
+        assertNotNull(paused);
+        int pausedIndex = mPool.getMembers().indexOf(paused);
+        assertFalse(nrServed.toString(), nrServed.containsKey(pausedIndex));
+        assertTrue(nrServed.values().stream().mapToInt(Integer::intValue).sum() > 0);
+        return pausedIndex;
+    }
+
+    @Test
+    public void pausesOnlyTheProxyBlockedByAHost() throws IOException {
+        assertEquals(0, sendThrough(BLOCKED_HOST));
+    }
+
+    @Test
+    public void pausesOnlyTheProxyThrottledByTheApi() throws IOException {
+        assertEquals(1, sendThrough(API_HOST));
+    }
+}
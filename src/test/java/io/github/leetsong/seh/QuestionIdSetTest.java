@@ -0,0 +1,109 @@
+package io.github.leetsong.seh;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class QuestionIdSetTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void addsAndCountsDuplicates() {
+        QuestionIdSet set = new QuestionIdSet();
+        assertTrue(set.add(42));
+        assertFalse(set.add(42));
+        assertTrue(set.contains(42));
+        assertFalse(set.contains(43));
+        assertEquals(1, set.size());
+        assertEquals(1, set.getNrDuplicate());
+    }
+
+    @Test
+    public void neverRegardsIdsOutOfRangeAsDuplicates() {
+        QuestionIdSet set = new QuestionIdSet();
+        assertTrue(set.add(-1));
+        assertTrue(set.add(-1));
+        assertTrue(set.add(1L << 31));
+        assertTrue(set.add(1L << 31));
+        assertEquals(0, set.size());
+    }
+
+    @Test
+    public void exactlyOneConcurrentAddWins() throws InterruptedException {
+        QuestionIdSet set = new QuestionIdSet();
+        int nrThread = 8;
+        int nrId = 100_000;
+        AtomicInteger nrAdded = new AtomicInteger(0);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < nrThread; t ++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                // ids of the same words and chunks are raced on by all threads
+                for (int id = 0; id < nrId; id ++) {
+                    if (set.add(id)) {
+                        nrAdded.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(nrId, nrAdded.get());
+        assertEquals(nrId, set.size());
+        assertEquals((long) nrId * (nrThread - 1), set.getNrDuplicate());
+    }
+
+    @Test
+    public void savesAndLoads() throws IOException {
+        QuestionIdSet set = new QuestionIdSet();
+        set.add(1);
+        set.add(65_536);
+        set.add(54_321_987);
+        String path = new File(folder.getRoot(), "fetch.seh.ids").getPath();
+        set.save(path);
+
+        QuestionIdSet loaded = QuestionIdSet.load(path);
+        assertEquals(3, loaded.size());
+        assertTrue(loaded.contains(1));
+        assertTrue(loaded.contains(65_536));
+        assertTrue(loaded.contains(54_321_987));
+        assertFalse(loaded.contains(2));
+        assertFalse(new File(path + ".tmp").exists());
+    }
+
+    @Test
+    public void loadsAnEmptySetWithoutAFile() throws IOException {
+        assertEquals(0, QuestionIdSet.load(new File(folder.getRoot(), "none.ids").getPath()).size());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsAFileWhichIsNotASavedSet() throws IOException {
+        File file = folder.newFile("other.ids");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write("question_id\n".getBytes());
+        }
+        QuestionIdSet.load(file.getPath());
+    }
+}
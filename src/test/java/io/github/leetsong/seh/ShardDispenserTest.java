@@ -0,0 +1,57 @@
+package io.github.leetsong.seh;
+
+import io.github.leetsong.seh.ShardDispenser.PageTask;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class ShardDispenserTest {
+
+    private static ShardDispenser.Shard newShard(long fromDate, long toDate, int endPage, long leaseTimeoutMs) {
+        return new ShardDispenser.Shard(fromDate, toDate,
+                new PageDispenser(1, Collections.emptyList(), endPage, leaseTimeoutMs));
+    }
+
+    @Test
+    public void dispensesEarlierShardsFirst() throws InterruptedException {
+        ShardDispenser dispenser = new ShardDispenser(Arrays.asList(
+                newShard(0, 9, 2, 60_000), newShard(10, 19, 3, 60_000)));
+
+        PageTask task = dispenser.acquire(1);
+        assertEquals(0, task.getShardIndex());
+        assertEquals(1, task.getPage());
+        task = dispenser.acquire(1);
+        assertEquals(1, task.getShardIndex());
+        assertEquals(1, task.getPage());
+        assertEquals(Long.valueOf(10), task.getShard().getFromDate());
+    }
+
+    @Test
+    public void reclaimsTheReleasedPageOfAShard() throws InterruptedException {
+        ShardDispenser dispenser = new ShardDispenser(Collections.singletonList(newShard(0, 9, 2, 60_000)));
+        PageTask task = dispenser.acquire(1);
+        dispenser.release(task);
+
+        PageTask reclaimed = dispenser.acquire(2);
+        assertEquals(task.getPage(), reclaimed.getPage());
+        assertTrue(dispenser.complete(reclaimed, false));
+        assertNull(dispenser.acquire(1));
+        assertTrue(dispenser.isExhausted());
+    }
+
+    @Test
+    public void reclaimsAnExpiredLeaseWhileWaiting() throws InterruptedException {
+        ShardDispenser dispenser = new ShardDispenser(Collections.singletonList(newShard(0, 9, 2, 50)));
+        PageTask slow = dispenser.acquire(1);
+
+        // blocks until the lease of worker 1 expires
+        PageTask stolen = dispenser.acquire(2);
+        assertEquals(slow.getPage(), stolen.getPage());
+        assertTrue(dispenser.complete(stolen, false));
+        assertFalse(dispenser.complete(slow, false));
+        assertNull(dispenser.acquire(1));
+    }
+}
@@ -0,0 +1,63 @@
+package io.github.leetsong.seh;
+
+import io.github.leetsong.seh.data.stackexchange.CsvItemable;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * SharedCsvAppenderBenchmark compares workers appending to a CsvAppender
+ * each, with all of them appending to a SharedCsvAppender, by the
+ * throughput of writing
+ */
+public class SharedCsvAppenderBenchmark {
+
+    /**
+     * main runs the benchmark
+     * @param args [number of items per worker]
+     */
+    public static void main(String[] args) throws Exception {
+        int nrItem = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        List<CsvItemable> items = BenchmarkItems.generate(nrItem);
+
+        for (int round = 0; round < 2; round ++) {
+            for (int nrWorker : new int[] { 1, 2, 4, 8 }) {
+                StringBuilder result = new StringBuilder(String.format("%d workers: ", nrWorker));
+                for (String type : new String[] { CsvAppender.APPENDER_TYPE, SharedCsvAppender.APPENDER_TYPE }) {
+                    boolean isShared = type.equals(SharedCsvAppender.APPENDER_TYPE);
+                    File dir = Files.createTempDirectory("shared_bench").toFile();
+                    List<Appender<CsvItemable>> appenders = new ArrayList<>();
+                    for (int w = 0; w < nrWorker; w ++) {
+                        appenders.add(isShared
+                                ? SharedCsvAppender.newInstance(dir + "/all.csv")
+                                : CsvAppender.newInstance(dir + "/worker" + w + ".csv"));
+                    }
+
+                    List<Thread> workers = new ArrayList<>();
+                    long startTime = System.nanoTime();
+                    for (Appender<CsvItemable> appender : appenders) {
+                        workers.add(new Thread(() -> BenchmarkItems.appendAll(appender, items)));
+                    }
+                    workers.forEach(Thread::start);
+                    for (Thread worker : workers) {
+                        worker.join();
+                    }
+                    long ns = System.nanoTime() - startTime;
+
+                    long bytes = 0;
+                    for (File f : Objects.requireNonNull(dir.listFiles())) {
+                        bytes += f.length();
+                        f.delete();
+                    }
+                    dir.delete();
+                    result.append(String.format("%s %,6.0f MB/s (%,d bytes); ",
+                            type, bytes / (ns / 1e9) / (1 << 20), bytes));
+                }
+                System.out.println(result);
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package io.github.leetsong.seh;
+
+import com.opencsv.CSVReader;
+import io.github.leetsong.seh.data.stackexchange.CsvItemable;
+import io.github.leetsong.seh.data.stackexchange.GooGItem;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SharedCsvAppenderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<CsvItemable> page(long questionId) {
+        return Collections.singletonList(new GooGItem.Builder()
+                .withQuestionId(questionId)
+                .withTitle("How to share a file?")
+                .withTags(Collections.singletonList("java"))
+                .withCreationDate(1_551_441_600_000L)
+                .withLink("https://stackoverflow.com/questions/" + questionId)
+                .build());
+    }
+
+    @Test
+    public void appendersOfAPathWriteOneFile() throws IOException {
+        File output = new File(folder.getRoot(), "shared.csv");
+        SharedCsvAppender first = SharedCsvAppender.newInstance(output.getPath());
+        SharedCsvAppender second = SharedCsvAppender.newInstance(output.getPath());
+        List<Long> offsets = new ArrayList<>();
+
+        first.append(page(1));
+        first.flush(offsets::add);
+        second.append(page(2));
+        second.flush(offsets::add);
+        // nothing is written since the last force
+        first.flush(offsets::add);
+
+        assertEquals(3, offsets.size());
+        assertTrue(offsets.get(0) > 0);
+        assertTrue(offsets.get(1) > offsets.get(0));
+        assertEquals(offsets.get(1), offsets.get(2));
+
+        first.close();
+        second.close();
+        // trimmed to what is committed once the last appender is closed
+        assertEquals((long) offsets.get(2), output.length());
+        try (CSVReader reader = new CSVReader(new FileReader(output))) {
+            assertEquals(3, reader.readAll().size());
+        }
+    }
+}